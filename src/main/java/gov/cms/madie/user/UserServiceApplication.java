@@ -1,9 +1,11 @@
 package gov.cms.madie.user;
 
 import gov.cms.madie.user.services.LogInterceptor;
+import gov.cms.madie.user.services.UserSweepBatchRunner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -17,7 +19,12 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class UserServiceApplication {
 
   public static void main(String[] args) {
-    SpringApplication.run(UserServiceApplication.class, args);
+    ConfigurableApplicationContext context =
+        SpringApplication.run(UserServiceApplication.class, args);
+    // a batch run is over once its job is, exit with the job's outcome
+    if (context.getEnvironment().matchesProfiles(UserSweepBatchRunner.PROFILE)) {
+      System.exit(SpringApplication.exit(context));
+    }
   }
 
   @Bean
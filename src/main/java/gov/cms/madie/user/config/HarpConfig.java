@@ -1,9 +1,11 @@
 package gov.cms.madie.user.config;
 
+import gov.cms.madie.user.services.HarpDateTimeParser;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
@@ -12,6 +14,12 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Configuration
 @ConfigurationProperties(prefix = "harp")
 @Data
@@ -20,9 +28,11 @@ public class HarpConfig {
   private String baseUrl;
   private String programName;
   private String adoName;
+  private String timeZone;
   private Token token;
   private UserRoles userRoles;
   private UserFind userFind;
+  private Bulkhead bulkhead = new Bulkhead();
 
   @Builder
   @AllArgsConstructor
@@ -49,6 +59,25 @@ public class HarpConfig {
   @Data
   public static class UserFind {
     private String uri;
+
+    /** findUser attributes that select every user of the program when enumerating users. */
+    @Builder.Default private Map<String, List<String>> programAttributes = new HashMap<>();
+  }
+
+  /**
+   * Limits concurrent HARP calls from this instance. Slots are reserved for interactive logins and
+   * admin refreshes so the sweep cannot take all of them.
+   */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Bulkhead {
+    @Builder.Default private boolean enabled = false;
+    @Builder.Default private int maxConcurrentCalls = 10;
+    @Builder.Default private int reservedForInteractive = 2;
+    @Builder.Default private int reservedForAdmin = 1;
+    @Builder.Default private Duration maxWait = Duration.ofSeconds(30);
   }
 
   @Profile("!test")
@@ -58,4 +87,10 @@ public class HarpConfig {
     restTemplate.setUriTemplateHandler(new DefaultUriBuilderFactory(baseUrl));
     return restTemplate;
   }
+
+  @Bean
+  public HarpDateTimeParser harpDateTimeParser() {
+    return new HarpDateTimeParser(
+        StringUtils.isBlank(timeZone) ? ZoneId.systemDefault() : ZoneId.of(timeZone));
+  }
 }
@@ -2,22 +2,29 @@ package gov.cms.madie.user.config;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Collation;
-import com.mongodb.client.model.CollationStrength;
 import com.mongodb.client.model.IndexOptions;
+import gov.cms.madie.user.repositories.UserPatchRepositoryImpl;
+import gov.cms.madie.user.repositories.UserRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.bson.Document;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Collation;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
 @Configuration
 public class MongoIndexConfig {
 
   @Bean
   @Profile("!test")
-  public CommandLineRunner createIndexes(MongoTemplate mongoTemplate) {
+  public CommandLineRunner createIndexes(
+      MongoTemplate mongoTemplate, UserUpdateConfig userUpdateConfig) {
     return args -> {
       MongoDatabase db = mongoTemplate.getDb();
       MongoCollection<Document> collection = db.getCollection("madieUser");
@@ -27,12 +34,69 @@ public class MongoIndexConfig {
           new IndexOptions()
               .unique(true)
               .collation(
-                  Collation.builder()
-                      .locale("en")
-                      .collationStrength(CollationStrength.SECONDARY) // Case-insensitive
-                      .build());
+                  // Case-insensitive, shared with every harpId query so they can use this index
+                  Collation.parse(UserRepository.HARP_ID_COLLATION).toMongoCollation());
 
       collection.createIndex(indexKey, options);
+
+      // Plain collation so the user sweep's _id seek queries are covered by this index
+      collection.createIndex(
+          new Document("_id", 1).append("harpId", 1),
+          new IndexOptions().name(UserPatchRepositoryImpl.SWEEP_INDEX_NAME));
+
+      // Incremental sweep: active users by last login, dormant users by last refresh
+      collection.createIndex(new Document("lastLoginAt", 1).append("lastModifiedAt", 1));
+      collection.createIndex(new Document("lastModifiedAt", 1).append("lastLoginAt", 1));
+
+      // Lets replicas claim the next open work item of a sharded sweep without a scan
+      db.getCollection("sweepWorkItem")
+          .createIndex(new Document("runId", 1).append("status", 1).append("sequence", 1));
+
+      // Job history expires after the retention period; failures are paged per job
+      long retentionSeconds = userUpdateConfig.getHistoryRetention().toSeconds();
+      createOrUpdateTtlIndex(db, "userUpdateJob", "startedAt", retentionSeconds);
+      createOrUpdateTtlIndex(db, "userUpdateFailure", "failedAt", retentionSeconds);
+      db.getCollection("userUpdateFailure").createIndex(new Document("jobId", 1).append("_id", 1));
+
+      // Retry drain reads the pending users that are due, the longest waiting first
+      db.getCollection("userRefreshRetry")
+          .createIndex(new Document("status", 1).append("nextAttemptAt", 1));
     };
   }
+
+  /**
+   * Creates a TTL index on the field, or changes the expiry of the existing one with collMod. Index
+   * options cannot be changed by createIndex, which fails once the retention is changed.
+   */
+  private static void createOrUpdateTtlIndex(
+      MongoDatabase db, String collectionName, String field, long expireAfterSeconds) {
+    MongoCollection<Document> collection = db.getCollection(collectionName);
+    Document keyPattern = new Document(field, 1);
+    Document existing =
+        collection.listIndexes().into(new ArrayList<>()).stream()
+            .filter(index -> keyPattern.equals(index.get("key", Document.class)))
+            .findFirst()
+            .orElse(null);
+    if (existing == null) {
+      collection.createIndex(
+          keyPattern, new IndexOptions().expireAfter(expireAfterSeconds, TimeUnit.SECONDS));
+      return;
+    }
+    Number current = existing.get("expireAfterSeconds", Number.class);
+    if (current != null && current.longValue() == expireAfterSeconds) {
+      return;
+    }
+    log.info(
+        "Changing expiry of {}.{} index from {}s to {}s",
+        collectionName,
+        field,
+        current,
+        expireAfterSeconds);
+    db.runCommand(
+        new Document("collMod", collectionName)
+            .append(
+                "index",
+                new Document("keyPattern", keyPattern)
+                    .append("expireAfterSeconds", expireAfterSeconds)));
+  }
 }
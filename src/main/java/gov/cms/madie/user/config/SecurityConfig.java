@@ -1,7 +1,9 @@
 package gov.cms.madie.user.config;
 
+import gov.cms.madie.user.services.UserSweepBatchRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -10,6 +12,7 @@ import org.springframework.security.web.SecurityFilterChain;
 import static org.springframework.security.config.Customizer.withDefaults;
 
 @Configuration
+@Profile("!" + UserSweepBatchRunner.PROFILE)
 @EnableMethodSecurity
 public class SecurityConfig {
 
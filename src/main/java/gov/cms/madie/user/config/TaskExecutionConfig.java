@@ -0,0 +1,137 @@
+package gov.cms.madie.user.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Dedicated threads for the background jobs, so a sweep running for hours never delays the HARP
+ * token refresh. Spring Boot binds executor.active, executor.queued and executor.pool.size gauges
+ * for each of these beans, tagged with the bean name. The auto-configured applicationTaskExecutor
+ * is kept alongside them by spring.task.execution.mode=force.
+ */
+@Configuration
+public class TaskExecutionConfig {
+
+  public static final String USER_SWEEP_SCHEDULER = "userSweepScheduler";
+  public static final String TOKEN_REFRESH_SCHEDULER = "tokenRefreshScheduler";
+  public static final String USER_REFRESH_TRIGGER_EXECUTOR = "userRefreshTriggerExecutor";
+  public static final String USER_REFRESH_QUEUE_SCHEDULER = "userRefreshQueueScheduler";
+  public static final String LOGIN_EXECUTOR = "loginExecutor";
+  public static final String LOGIN_DETAILS_EXECUTOR = "loginDetailsExecutor";
+  public static final String USER_SWEEP_DETAILS_EXECUTOR = "userSweepDetailsExecutor";
+  public static final String USER_SWEEP_ROLES_EXECUTOR = "userSweepRolesExecutor";
+  public static final String USER_SWEEP_WRITER_EXECUTOR = "userSweepWriterExecutor";
+
+  /** Runs the scheduled user sweep and retry drain, one at a time. */
+  @Bean(USER_SWEEP_SCHEDULER)
+  public ThreadPoolTaskScheduler userSweepScheduler() {
+    return scheduler("user-sweep-");
+  }
+
+  /** Refreshes the HARP token on schedule, whatever else is running. */
+  @Bean(TOKEN_REFRESH_SCHEDULER)
+  public ThreadPoolTaskScheduler tokenRefreshScheduler() {
+    return scheduler("harp-token-refresh-");
+  }
+
+  /** Flushes the batches of the user refresh queue, one HARP batch at a time. */
+  @Bean(USER_REFRESH_QUEUE_SCHEDULER)
+  public ThreadPoolTaskScheduler userRefreshQueueScheduler() {
+    return scheduler("user-refresh-queue-");
+  }
+
+  /**
+   * Runs manually triggered user refreshes. With a single thread and no queue, a trigger while
+   * another one is running is rejected instead of starting a second concurrent job.
+   */
+  @Bean(USER_REFRESH_TRIGGER_EXECUTOR)
+  public ThreadPoolTaskExecutor userRefreshTriggerExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(1);
+    executor.setMaxPoolSize(1);
+    executor.setQueueCapacity(0);
+    executor.setThreadNamePrefix("user-refresh-trigger-");
+    return executor;
+  }
+
+  /**
+   * Runs the HARP work of logins, so the request thread is released while HARP answers. Logins
+   * beyond the pool and its queue are rejected rather than tying up more request threads.
+   */
+  @Bean(LOGIN_EXECUTOR)
+  public ThreadPoolTaskExecutor loginExecutor(
+      @Value("${user.login.executor.pool-size:20}") int poolSize,
+      @Value("${user.login.executor.queue-capacity:200}") int queueCapacity) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("login-");
+    return executor;
+  }
+
+  /**
+   * Fetches the HARP details of logins alongside their roles. Its tasks only call HARP, never wait
+   * on another task, and with no queue a details call beyond the pool is skipped rather than
+   * waiting behind other logins.
+   */
+  @Bean(LOGIN_DETAILS_EXECUTOR)
+  public ThreadPoolTaskExecutor loginDetailsExecutor(
+      @Value("${user.login.details-executor.pool-size:20}") int poolSize) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(0);
+    executor.setThreadNamePrefix("login-details-");
+    return executor;
+  }
+
+  /** Fetches the HARP details of the user sweep's batches. */
+  @Bean(USER_SWEEP_DETAILS_EXECUTOR)
+  public ThreadPoolTaskExecutor userSweepDetailsExecutor(UserUpdateConfig userUpdateConfig) {
+    UserUpdateConfig.Pipeline pipeline = userUpdateConfig.getPipeline();
+    return sweepStage("user-sweep-details-", pipeline.getDetailsConcurrency(), pipeline);
+  }
+
+  /** Fetches the HARP roles of the user sweep's batches. */
+  @Bean(USER_SWEEP_ROLES_EXECUTOR)
+  public ThreadPoolTaskExecutor userSweepRolesExecutor(UserUpdateConfig userUpdateConfig) {
+    UserUpdateConfig.Pipeline pipeline = userUpdateConfig.getPipeline();
+    return sweepStage("user-sweep-roles-", pipeline.getRolesConcurrency(), pipeline);
+  }
+
+  /** Bulk writes the changes of the user sweep's batches. */
+  @Bean(USER_SWEEP_WRITER_EXECUTOR)
+  public ThreadPoolTaskExecutor userSweepWriterExecutor(UserUpdateConfig userUpdateConfig) {
+    UserUpdateConfig.Pipeline pipeline = userUpdateConfig.getPipeline();
+    return sweepStage("user-sweep-writer-", pipeline.getWriterConcurrency(), pipeline);
+  }
+
+  /**
+   * A stage of the user sweep pipeline. A sweep has at most max-in-flight-batches batches queued,
+   * so the queue only fills up when sweeps overlap; the thread handing over a batch then runs the
+   * stage itself, which slows the sweep down instead of dropping the batch.
+   */
+  private ThreadPoolTaskExecutor sweepStage(
+      String threadNamePrefix, int concurrency, UserUpdateConfig.Pipeline pipeline) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(Math.max(1, concurrency));
+    executor.setMaxPoolSize(Math.max(1, concurrency));
+    executor.setQueueCapacity(Math.max(1, pipeline.getMaxInFlightBatches()));
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.setThreadNamePrefix(threadNamePrefix);
+    return executor;
+  }
+
+  private ThreadPoolTaskScheduler scheduler(String threadNamePrefix) {
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setPoolSize(1);
+    scheduler.setThreadNamePrefix(threadNamePrefix);
+    return scheduler;
+  }
+}
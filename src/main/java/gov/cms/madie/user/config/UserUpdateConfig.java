@@ -0,0 +1,171 @@
+package gov.cms.madie.user.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "user.update")
+@Data
+public class UserUpdateConfig {
+
+  private String cronExpression;
+  private int batchSize = 50;
+  private Duration resumeMaxAge = Duration.ofHours(12);
+  private Duration controlPollInterval = Duration.ofSeconds(5);
+  private int failureSampleSize = 100;
+  private Duration historyRetention = Duration.ofDays(90);
+  private Pipeline pipeline = new Pipeline();
+  private AdaptiveBatch adaptiveBatch = new AdaptiveBatch();
+  private Lease lease = new Lease();
+  private Sharding sharding = new Sharding();
+  private Incremental incremental = new Incremental();
+  private Retry retry = new Retry();
+  private Enumeration enumeration = new Enumeration();
+  private RefreshQueue refreshQueue = new RefreshQueue();
+  private Throttle throttle = new Throttle();
+  private Notifications notifications = new Notifications();
+
+  /** Concurrency of each stage of the user sweep, counted in batches. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Pipeline {
+    @Builder.Default private int maxInFlightBatches = 4;
+    @Builder.Default private int detailsConcurrency = 1;
+    @Builder.Default private int rolesConcurrency = 2;
+    @Builder.Default private int writerConcurrency = 1;
+  }
+
+  /**
+   * Adjusts the batch size to HARP: grows it while findUser calls are fast, shrinks it on errors
+   * and slow calls.
+   */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class AdaptiveBatch {
+    @Builder.Default private boolean enabled = false;
+    @Builder.Default private int minSize = 10;
+    @Builder.Default private int maxSize = 200;
+    @Builder.Default private int increaseStep = 10;
+    @Builder.Default private double decreaseFactor = 0.5;
+    @Builder.Default private Duration targetLatency = Duration.ofSeconds(5);
+  }
+
+  /** Cluster-wide lease that lets one instance at a time run the sweep. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Lease {
+    @Builder.Default private Duration ttl = Duration.ofMinutes(2);
+    @Builder.Default private Duration heartbeatInterval = Duration.ofSeconds(30);
+  }
+
+  /** Splitting of the sweep into work items shared by all replicas. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Sharding {
+    @Builder.Default private boolean enabled = false;
+    @Builder.Default private int itemSize = 1000;
+    @Builder.Default private Duration itemLeaseTtl = Duration.ofMinutes(5);
+    @Builder.Default private Duration planWait = Duration.ofMinutes(1);
+  }
+
+  /** Refreshing only stale users per run instead of sweeping every user. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Incremental {
+    @Builder.Default private boolean enabled = false;
+    @Builder.Default private int maxUsersPerRun = 5000;
+    @Builder.Default private Duration activeWithin = Duration.ofDays(30);
+    @Builder.Default private Duration activeStaleAfter = Duration.ofDays(1);
+    @Builder.Default private Duration dormantStaleAfter = Duration.ofDays(30);
+    @Builder.Default private Duration fullSweepInterval = Duration.ofDays(7);
+  }
+
+  /** Queue of users whose update failed, retried with exponential backoff between sweeps. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Retry {
+    @Builder.Default private boolean enabled = false;
+    private String cronExpression;
+    @Builder.Default private int batchSize = 20;
+    @Builder.Default private int maxUsersPerDrain = 500;
+    @Builder.Default private int maxAttempts = 5;
+    @Builder.Default private Duration initialBackoff = Duration.ofMinutes(15);
+    @Builder.Default private Duration maxBackoff = Duration.ofHours(12);
+  }
+
+  /** Pages through every user of the program in HARP, creating and refreshing them by page. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Enumeration {
+    @Builder.Default private boolean enabled = false;
+    private String cronExpression;
+    @Builder.Default private int pageSize = 500;
+
+    /**
+     * Absent users are not flagged when more than this share of the stored users would be, as that
+     * points at a misconfigured filter or a HARP fault rather than departed users.
+     */
+    @Builder.Default private double maxAbsentFraction = 0.1;
+  }
+
+  /**
+   * Coalesces refreshes of single users into HARP batches, flushed once batchSize users are queued
+   * or linger after the first one was queued.
+   */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class RefreshQueue {
+    @Builder.Default private int batchSize = 50;
+    @Builder.Default private Duration linger = Duration.ofMillis(500);
+  }
+
+  /**
+   * Slows the sweep down while the p99 latency of logins, HARP calls or Mongo commands nears its
+   * threshold, and holds it between batches while one is above, so the sweep only uses spare
+   * capacity.
+   */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Throttle {
+    @Builder.Default private boolean enabled = false;
+    @Builder.Default private Duration loginP99Threshold = Duration.ofSeconds(2);
+    @Builder.Default private Duration harpP99Threshold = Duration.ofSeconds(5);
+    @Builder.Default private Duration mongoP99Threshold = Duration.ofMillis(500);
+    @Builder.Default private double slowDownAt = 0.75;
+    @Builder.Default private Duration slowDownDelay = Duration.ofSeconds(2);
+    @Builder.Default private Duration checkInterval = Duration.ofSeconds(10);
+  }
+
+  /** Change notifications naming users to refresh through the refresh queue. */
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Notifications {
+    @Builder.Default private int maxHarpIds = 1000;
+  }
+}
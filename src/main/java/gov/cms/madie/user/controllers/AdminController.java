@@ -1,15 +1,36 @@
 package gov.cms.madie.user.controllers;
 
+import gov.cms.madie.user.dto.SweepJobProgressDto;
+import gov.cms.madie.user.dto.UserChangeNotificationDto;
+import gov.cms.madie.user.dto.UserChangeNotificationResultDto;
+import gov.cms.madie.user.models.SweepControl;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.models.UserUpdateFailure;
+import gov.cms.madie.user.models.UserUpdateJob;
+import gov.cms.madie.user.services.SweepJobControlService;
+import gov.cms.madie.user.services.SweepLeaseService;
 import gov.cms.madie.user.services.UpdateUserJobScheduler;
+import gov.cms.madie.user.services.UserChangeNotificationService;
+import gov.cms.madie.user.services.UserRefreshQueue;
+import gov.cms.madie.user.services.UserUpdateJobHistoryService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PagedModel;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.security.Principal;
@@ -21,7 +42,15 @@ import java.util.List;
 @RequiredArgsConstructor
 public class AdminController {
 
+  private static final int MAX_PAGE_SIZE = 500;
+  private static final String REFRESH_JOB_RUNNING = "User refresh job is already running";
+
   private final UpdateUserJobScheduler updateUserJobScheduler;
+  private final SweepJobControlService sweepJobControlService;
+  private final UserUpdateJobHistoryService userUpdateJobHistoryService;
+  private final SweepLeaseService sweepLeaseService;
+  private final UserRefreshQueue userRefreshQueue;
+  private final UserChangeNotificationService userChangeNotificationService;
 
   @PutMapping("/users/refresh")
   @PreAuthorize("#request.getHeader('api-key') == #apiKey")
@@ -32,9 +61,127 @@ public class AdminController {
       @RequestBody(required = false) List<String> harpIds) {
     log.info("User [{}] - Kicked off refresh job", principal.getName());
 
-    // Fire and forget - trigger job asynchronously
-    updateUserJobScheduler.triggerUpdateUsersJobManually(harpIds);
+    if (sweepLeaseService.isHeld()) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(REFRESH_JOB_RUNNING);
+    }
+    try {
+      // Fire and forget - trigger job asynchronously
+      updateUserJobScheduler.triggerUpdateUsersJobManually(harpIds);
+    } catch (TaskRejectedException e) {
+      log.info("User [{}] - Refresh job rejected, another one is running", principal.getName());
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(REFRESH_JOB_RUNNING);
+    }
 
     return ResponseEntity.accepted().body("User refresh job accepted");
   }
+
+  /** Refreshes one user with the next batch of the refresh queue rather than on its own. */
+  @PutMapping("/users/{harpId}/refresh")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<Object> refreshUser(
+      HttpServletRequest request,
+      @Value("${admin-api-key}") String apiKey,
+      Principal principal,
+      @PathVariable String harpId) {
+    log.info("User [{}] - Queued refresh of user [{}]", principal.getName(), harpId);
+    userRefreshQueue.enqueue(harpId);
+    return ResponseEntity.accepted().body("User refresh queued");
+  }
+
+  /**
+   * Accepts notice that users changed in HARP and queues their refresh. Users notified again while
+   * still queued are refreshed once, users not stored in MADiE are reported and skipped.
+   */
+  @PostMapping("/users/notifications")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<UserChangeNotificationResultDto> notifyUserChanges(
+      HttpServletRequest request,
+      @Value("${admin-api-key}") String apiKey,
+      Principal principal,
+      @RequestBody UserChangeNotificationDto notification) {
+    log.info("User [{}] - Received user change notification", principal.getName());
+    return ResponseEntity.accepted().body(userChangeNotificationService.accept(notification));
+  }
+
+  @GetMapping("/users/refresh/jobs")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<List<UserSweepRun>> getRefreshJobs(
+      HttpServletRequest request, @Value("${admin-api-key}") String apiKey) {
+    return ResponseEntity.ok(sweepJobControlService.listRuns());
+  }
+
+  @GetMapping("/users/refresh/history")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<PagedModel<UserUpdateJob>> getRefreshHistory(
+      HttpServletRequest request,
+      @Value("${admin-api-key}") String apiKey,
+      @RequestParam(defaultValue = "0") int page,
+      @RequestParam(defaultValue = "20") int size) {
+    return ResponseEntity.ok(
+        new PagedModel<>(
+            userUpdateJobHistoryService.listJobs(
+                pageRequest(page, size, Sort.by(Sort.Direction.DESC, "startedAt")))));
+  }
+
+  @GetMapping("/users/refresh/history/{jobId}/failures")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<PagedModel<UserUpdateFailure>> getRefreshFailures(
+      HttpServletRequest request,
+      @Value("${admin-api-key}") String apiKey,
+      @PathVariable String jobId,
+      @RequestParam(defaultValue = "0") int page,
+      @RequestParam(defaultValue = "100") int size) {
+    return ResponseEntity.ok(
+        new PagedModel<>(
+            userUpdateJobHistoryService.listFailures(
+                jobId, pageRequest(page, size, Sort.by("id")))));
+  }
+
+  /**
+   * Progress of the latest full or sharded sweep. Incremental, manual, retry and enumeration jobs
+   * are not covered, see /users/refresh/history for their counts.
+   */
+  @GetMapping("/users/refresh/jobs/current")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<SweepJobProgressDto> getRefreshJobProgress(
+      HttpServletRequest request, @Value("${admin-api-key}") String apiKey) {
+    return ResponseEntity.of(sweepJobControlService.currentProgress());
+  }
+
+  @PutMapping("/users/refresh/pause")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<SweepControl> pauseRefreshJob(
+      HttpServletRequest request, @Value("${admin-api-key}") String apiKey, Principal principal) {
+    return ResponseEntity.ok(sweepJobControlService.pause(principal.getName()));
+  }
+
+  @PutMapping("/users/refresh/resume")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<SweepControl> resumeRefreshJob(
+      HttpServletRequest request, @Value("${admin-api-key}") String apiKey, Principal principal) {
+    return ResponseEntity.ok(sweepJobControlService.resume(principal.getName()));
+  }
+
+  @PutMapping("/users/refresh/cancel")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<SweepControl> cancelRefreshJob(
+      HttpServletRequest request, @Value("${admin-api-key}") String apiKey, Principal principal) {
+    return ResponseEntity.ok(sweepJobControlService.cancel(principal.getName()));
+  }
+
+  /** Omitting usersPerSecond, or a value below 1, removes the limit. */
+  @PutMapping("/users/refresh/rate-limit")
+  @PreAuthorize("#request.getHeader('api-key') == #apiKey")
+  public ResponseEntity<SweepControl> rateLimitRefreshJob(
+      HttpServletRequest request,
+      @Value("${admin-api-key}") String apiKey,
+      Principal principal,
+      @RequestParam(required = false) Integer usersPerSecond) {
+    return ResponseEntity.ok(
+        sweepJobControlService.setRateLimit(usersPerSecond, principal.getName()));
+  }
+
+  private PageRequest pageRequest(int page, int size, Sort sort) {
+    return PageRequest.of(Math.max(0, page), Math.min(Math.max(1, size), MAX_PAGE_SIZE), sort);
+  }
 }
@@ -1,9 +1,12 @@
 package gov.cms.madie.user.controllers;
 
+import gov.cms.madie.user.exceptions.HarpBulkheadFullException;
 import gov.cms.madie.user.exceptions.InvalidHarpIdException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.web.error.ErrorAttributeOptions;
 import org.springframework.boot.web.servlet.error.ErrorAttributes;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -15,6 +18,7 @@ import java.util.Map;
 
 @RequiredArgsConstructor
 @ControllerAdvice
+@ConditionalOnWebApplication
 public class ErrorHandlingControllerAdvice {
 
   private final ErrorAttributes errorAttributes;
@@ -35,4 +39,19 @@ public class ErrorHandlingControllerAdvice {
   Map<String, Object> onInvalidKeyException(WebRequest request, InvalidHarpIdException ex) {
     return getErrorAttributes(request, HttpStatus.BAD_REQUEST);
   }
+
+  @ExceptionHandler(HarpBulkheadFullException.class)
+  @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+  @ResponseBody
+  Map<String, Object> onHarpBulkheadFullException(
+      WebRequest request, HarpBulkheadFullException ex) {
+    return getErrorAttributes(request, HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  @ExceptionHandler(TaskRejectedException.class)
+  @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+  @ResponseBody
+  Map<String, Object> onTaskRejectedException(WebRequest request, TaskRejectedException ex) {
+    return getErrorAttributes(request, HttpStatus.SERVICE_UNAVAILABLE);
+  }
 }
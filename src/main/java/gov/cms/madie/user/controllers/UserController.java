@@ -3,12 +3,15 @@ package gov.cms.madie.user.controllers;
 import gov.cms.madie.models.access.MadieUser;
 import gov.cms.madie.models.dto.DetailsRequestDto;
 import gov.cms.madie.models.dto.UserDetailsDto;
+import gov.cms.madie.user.config.TaskExecutionConfig;
 import gov.cms.madie.user.exceptions.InvalidHarpIdException;
 import gov.cms.madie.user.services.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.CollectionUtils;
@@ -17,6 +20,7 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.security.Principal;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -30,6 +34,9 @@ public class UserController {
 
   private final UserService userService;
 
+  @Qualifier(TaskExecutionConfig.LOGIN_EXECUTOR)
+  private final TaskExecutor loginExecutor;
+
   @GetMapping("/{harpId}")
   public ResponseEntity<MadieUser> getUser(@PathVariable String harpId, Principal principal) {
     log.info("User [{}] - Getting user with HARP ID: {}", principal.getName(), harpId);
@@ -37,8 +44,10 @@ public class UserController {
     return ResponseEntity.ok(user);
   }
 
+  /** Responds once HARP has answered, without holding the request thread while it waits. */
   @PutMapping("/{harpId}")
-  public ResponseEntity<MadieUser> updateUser(@PathVariable String harpId, Principal principal) {
+  public CompletableFuture<ResponseEntity<MadieUser>> updateUser(
+      @PathVariable String harpId, Principal principal) {
     log.info("User [{}] - Updating user with HARP ID: {}", principal.getName(), harpId);
     if (!principal.getName().equals(harpId) && StringUtils.isBlank(harpOverrideTestId)) {
       throw new ResponseStatusException(
@@ -47,10 +56,9 @@ public class UserController {
               "User [%s] attempted to update user [%s] - not allowed",
               principal.getName(), harpId));
     }
-    MadieUser user =
-        userService.refreshUserRolesAndLogin(
-            StringUtils.isBlank(harpOverrideTestId) ? harpId : harpOverrideTestId);
-    return ResponseEntity.ok(user);
+    String loginHarpId = StringUtils.isBlank(harpOverrideTestId) ? harpId : harpOverrideTestId;
+    return CompletableFuture.supplyAsync(
+        () -> ResponseEntity.ok(userService.refreshUserRolesAndLogin(loginHarpId)), loginExecutor);
   }
 
   @GetMapping("/activity")
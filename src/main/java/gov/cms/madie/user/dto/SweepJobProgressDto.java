@@ -0,0 +1,35 @@
+package gov.cms.madie.user.dto;
+
+import gov.cms.madie.user.models.UserSweepRun;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/** Live progress of the latest user sweep, as reported by its checkpoints. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SweepJobProgressDto {
+  private String runId;
+  private UserSweepRun.Status status;
+  private boolean paused;
+  private Integer maxUsersPerSecond;
+  private Instant startedAt;
+  private Instant lastCheckpointAt;
+  private long totalUsers;
+  private long processedCount;
+  private long updatedCount;
+  private long failedCount;
+
+  /** Users refreshed from HARP without any change to their stored data. */
+  private long unchangedCount;
+
+  private double usersPerSecond;
+
+  /** Null while paused, or until the rate is known. */
+  private Instant estimatedCompletionAt;
+}
@@ -0,0 +1,21 @@
+package gov.cms.madie.user.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Notice that the roles or details of some users changed in HARP. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserChangeNotificationDto {
+  @Builder.Default private List<String> harpIds = new ArrayList<>();
+
+  /** Where the change was made, for the logs only. */
+  private String source;
+}
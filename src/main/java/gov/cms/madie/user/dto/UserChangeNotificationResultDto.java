@@ -0,0 +1,19 @@
+package gov.cms.madie.user.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Users of a change notification queued for refresh, and those not stored in MADiE. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserChangeNotificationResultDto {
+  @Builder.Default private List<String> queuedHarpIds = new ArrayList<>();
+  @Builder.Default private List<String> unknownHarpIds = new ArrayList<>();
+}
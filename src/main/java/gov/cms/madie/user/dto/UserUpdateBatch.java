@@ -0,0 +1,28 @@
+package gov.cms.madie.user.dto;
+
+import gov.cms.madie.models.access.MadieUser;
+import lombok.Data;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A batch of users moving through the stages of a HARP update. */
+@Data
+public class UserUpdateBatch {
+  private final List<String> harpIds;
+
+  /** Id of the last user read for this batch, the sweep checkpoint once the batch finishes. */
+  private String lastId;
+
+  private final UserUpdatesJobResultDto result = new UserUpdatesJobResultDto();
+  private TokenResponse token;
+
+  /** How long the HARP findUser call took, unset if it was not made. */
+  private Duration detailsLatency;
+
+  private boolean detailsFailed;
+  private Map<String, UserDetail> detailsMap;
+  private Map<String, MadieUser> refreshedUsers = new LinkedHashMap<>();
+}
@@ -6,7 +6,10 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Data
 @Builder(toBuilder = true)
@@ -15,4 +18,21 @@ import java.util.List;
 public class UserUpdatesJobResultDto {
   List<String> updatedHarpIds = new ArrayList<>();
   List<String> failedHarpIds = new ArrayList<>();
+
+  /** Why each failed user could not be updated, keyed by HARP ID. */
+  @Builder.Default Map<String, String> failureReasons = new HashMap<>();
+
+  /** Users among the updated ones whose data did not change in HARP. */
+  long unchangedCount;
+
+  /**
+   * Marks users as failed.
+   *
+   * @param harpIds the HARP IDs of the users
+   * @param reason why they could not be updated
+   */
+  public void fail(Collection<String> harpIds, String reason) {
+    failedHarpIds.addAll(harpIds);
+    harpIds.forEach(harpId -> failureReasons.put(harpId, reason));
+  }
 }
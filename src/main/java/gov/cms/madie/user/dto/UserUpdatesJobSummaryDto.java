@@ -0,0 +1,27 @@
+package gov.cms.madie.user.dto;
+
+import gov.cms.madie.user.models.UserUpdateJob;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Outcome of a user update job, with counters and a bounded sample of the failed HARP IDs. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserUpdatesJobSummaryDto {
+  private String jobId;
+
+  /** Null when the job did not run, such as when another instance held the sweep lease. */
+  private UserUpdateJob.Status status;
+
+  private long updatedCount;
+  private long failedCount;
+  private long unchangedCount;
+  @Builder.Default private List<String> failedHarpIdsSample = new ArrayList<>();
+}
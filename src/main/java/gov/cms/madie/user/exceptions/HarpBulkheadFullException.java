@@ -0,0 +1,8 @@
+package gov.cms.madie.user.exceptions;
+
+public class HarpBulkheadFullException extends RuntimeException {
+
+  public HarpBulkheadFullException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,36 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Operator controls of the user sweep, read by whichever instance runs it before every batch. Kept
+ * in the database so a request handled by any replica reaches the running sweep.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("sweepControl")
+public class SweepControl {
+
+  @Id private String id;
+
+  /** A paused sweep waits before reading its next batch until resumed. */
+  private boolean paused;
+
+  /** Upper bound on users sent to HARP per second, null for no limit. */
+  private Integer maxUsersPerSecond;
+
+  /** Sweeps started before this time stop at their next batch. */
+  private Instant cancelRequestedAt;
+
+  private String updatedBy;
+  private Instant updatedAt;
+}
@@ -0,0 +1,32 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Cluster-wide lease allowing one instance at a time to run a job. The fencing token increases on
+ * every acquisition, so writes from an instance that lost the lease can be told apart.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("sweepLease")
+public class SweepLease {
+
+  @Id private String id;
+  private String holder;
+  private long fencingToken;
+  private Instant acquiredAt;
+  private Instant expiresAt;
+
+  /** Set once the holder finds out the lease was lost, e.g. a heartbeat was not accepted. */
+  @Transient private volatile boolean lost;
+}
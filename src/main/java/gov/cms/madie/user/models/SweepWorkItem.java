@@ -0,0 +1,50 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A range of users in a sharded sweep, claimed and processed by one instance at a time. The claim
+ * expires unless the owner checkpoints in time, after which any instance can reclaim the item.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("sweepWorkItem")
+public class SweepWorkItem {
+
+  public enum Status {
+    PENDING,
+    CLAIMED,
+    DONE
+  }
+
+  @Id private String id;
+  private String runId;
+  private int sequence;
+
+  /** Id after which the range starts, null for the first range. */
+  private String rangeStart;
+
+  /** Id of the last user in the range, null for the last range. */
+  private String rangeEnd;
+
+  private Status status;
+  private String owner;
+
+  /** Incremented on every claim, so a previous owner's writes are rejected. */
+  private long claimCount;
+
+  private Instant leaseExpiresAt;
+  private String lastProcessedId;
+  private long updatedCount;
+  private long failedCount;
+  private Instant completedAt;
+}
@@ -0,0 +1,36 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A user whose last update from HARP failed, queued to be retried with exponential backoff between
+ * sweeps. Removed as soon as the user is updated successfully.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("userRefreshRetry")
+public class UserRefreshRetry {
+
+  public enum Status {
+    PENDING,
+    /** Gave up after the maximum number of attempts; only a later successful update removes it. */
+    DEAD
+  }
+
+  @Id private String harpId;
+  private Status status;
+  private int attempts;
+  private String lastReason;
+  private Instant firstFailedAt;
+  private Instant lastFailedAt;
+  private Instant nextAttemptAt;
+}
@@ -0,0 +1,54 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/** Progress of a sweep over all users, checkpointed after every batch so the sweep can resume. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("userSweepRun")
+public class UserSweepRun {
+
+  public enum Status {
+    RUNNING,
+    COMPLETED,
+    ABANDONED
+  }
+
+  @Id private String id;
+  private Status status;
+  private Instant startedAt;
+  private Instant lastCheckpointAt;
+  private Instant completedAt;
+
+  /** Fencing token of the lease under which the run was last written. */
+  private long fencingToken;
+
+  /** Id of the last user of the last batch that finished, along with every batch before it. */
+  private String lastProcessedId;
+
+  /** Number of work items the run was split into when sharded, 0 otherwise. */
+  private int workItemCount;
+
+  /** Users in the collection when the run was started or resumed. */
+  private long totalUsers;
+
+  /** When this run was last started or resumed, the base of its rate. */
+  private Instant resumedAt;
+
+  /** Users processed before the run was last resumed. */
+  private long processedAtResume;
+
+  private long batchesCompleted;
+  private long updatedCount;
+  private long failedCount;
+  private long unchangedCount;
+}
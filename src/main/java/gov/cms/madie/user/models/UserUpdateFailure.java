@@ -0,0 +1,24 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/** A user that failed to update during a {@link UserUpdateJob}. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("userUpdateFailure")
+public class UserUpdateFailure {
+  @Id private String id;
+  private String jobId;
+  private String harpId;
+  private String reason;
+  private Instant failedAt;
+}
@@ -0,0 +1,53 @@
+package gov.cms.madie.user.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of one execution of the user update job on one instance. The HARP IDs that failed are
+ * stored separately as {@link UserUpdateFailure} documents; only a bounded sample is kept here.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document("userUpdateJob")
+public class UserUpdateJob {
+
+  public enum Type {
+    FULL,
+    SHARDED,
+    INCREMENTAL,
+    MANUAL,
+    /** Drain of the {@link UserRefreshRetry} queue. */
+    RETRY,
+    /** Paged read of every user of the program in HARP. */
+    ENUMERATION
+  }
+
+  public enum Status {
+    RUNNING,
+    COMPLETED,
+    /** Stopped before every user was processed, such as when cancelled or the lease was lost. */
+    STOPPED
+  }
+
+  @Id private String id;
+  private Type type;
+  private Status status;
+  private String instanceId;
+  private Instant startedAt;
+  private Instant finishedAt;
+  private long updatedCount;
+  private long failedCount;
+  private long unchangedCount;
+  @Builder.Default private List<String> failedHarpIdsSample = new ArrayList<>();
+}
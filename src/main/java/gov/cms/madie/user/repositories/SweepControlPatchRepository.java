@@ -0,0 +1,19 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepControl;
+
+import java.util.Map;
+
+public interface SweepControlPatchRepository {
+
+  /**
+   * Sets the given fields of a control in one atomic update, creating the control if missing, so
+   * concurrent changes of different fields do not overwrite each other.
+   *
+   * @param id id of the control
+   * @param fields the fields to set, a null value clears the field
+   * @param updatedBy the user making the change
+   * @return the control after the update
+   */
+  SweepControl setFields(String id, Map<String, Object> fields, String updatedBy);
+}
@@ -0,0 +1,31 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepControl;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class SweepControlPatchRepositoryImpl implements SweepControlPatchRepository {
+
+  private final MongoTemplate mongoTemplate;
+
+  @Override
+  public SweepControl setFields(String id, Map<String, Object> fields, String updatedBy) {
+    Update update = new Update().set("updatedBy", updatedBy).set("updatedAt", Instant.now());
+    fields.forEach(update::set);
+    return mongoTemplate.findAndModify(
+        Query.query(Criteria.where("id").is(id)),
+        update,
+        FindAndModifyOptions.options().upsert(true).returnNew(true),
+        SweepControl.class);
+  }
+}
@@ -0,0 +1,7 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepControl;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface SweepControlRepository
+    extends MongoRepository<SweepControl, String>, SweepControlPatchRepository {}
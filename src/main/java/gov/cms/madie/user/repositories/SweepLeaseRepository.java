@@ -0,0 +1,103 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepLease;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class SweepLeaseRepository {
+
+  private final MongoTemplate mongoTemplate;
+
+  /**
+   * Takes the lease if it does not exist or has expired, bumping its fencing token.
+   *
+   * @param name name of the lease
+   * @param holder id of the instance taking the lease
+   * @param ttl how long the lease is held without a heartbeat
+   * @return the acquired lease, or null if another instance holds it
+   */
+  public SweepLease tryAcquire(String name, String holder, Duration ttl) {
+    Instant now = Instant.now();
+    Query query = Query.query(Criteria.where("id").is(name).and("expiresAt").lte(now));
+    Update update =
+        new Update()
+            .set("holder", holder)
+            .set("acquiredAt", now)
+            .set("expiresAt", now.plus(ttl))
+            .inc("fencingToken", 1);
+    FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(true);
+    try {
+      return mongoTemplate.findAndModify(query, update, options, SweepLease.class);
+    } catch (DuplicateKeyException e) {
+      // the lease exists and has not expired, so the upsert tried to insert a second one
+      log.debug("Lease {} is held by another instance", name);
+      return null;
+    }
+  }
+
+  /**
+   * Checks whether any instance holds the lease.
+   *
+   * @param name name of the lease
+   * @return true if the lease exists and has not expired
+   */
+  public boolean isHeld(String name) {
+    return mongoTemplate.exists(
+        Query.query(Criteria.where("id").is(name).and("expiresAt").gt(Instant.now())),
+        SweepLease.class);
+  }
+
+  /**
+   * Extends the lease, as long as it is still held with the same fencing token.
+   *
+   * @param lease the held lease
+   * @param ttl how long the lease is held from now
+   * @return true if the lease was extended, false if it was lost
+   */
+  public boolean renew(SweepLease lease, Duration ttl) {
+    Instant expiresAt = Instant.now().plus(ttl);
+    boolean renewed =
+        mongoTemplate
+                .updateFirst(
+                    heldLeaseQuery(lease), Update.update("expiresAt", expiresAt), SweepLease.class)
+                .getMatchedCount()
+            > 0;
+    if (renewed) {
+      lease.setExpiresAt(expiresAt);
+    }
+    return renewed;
+  }
+
+  /**
+   * Expires the lease right away so another instance can take it.
+   *
+   * @param lease the held lease
+   */
+  public void release(SweepLease lease) {
+    mongoTemplate.updateFirst(
+        heldLeaseQuery(lease), Update.update("expiresAt", Instant.now()), SweepLease.class);
+  }
+
+  private Query heldLeaseQuery(SweepLease lease) {
+    return Query.query(
+        Criteria.where("id")
+            .is(lease.getId())
+            .and("holder")
+            .is(lease.getHolder())
+            .and("fencingToken")
+            .is(lease.getFencingToken()));
+  }
+}
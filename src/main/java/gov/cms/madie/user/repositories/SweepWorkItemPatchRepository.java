@@ -0,0 +1,52 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepWorkItem;
+
+import java.time.Duration;
+
+public interface SweepWorkItemPatchRepository {
+
+  /**
+   * Claims the first work item of the run that is pending or whose claim has expired.
+   *
+   * @param runId id of the sharded run
+   * @param owner id of the instance claiming the item
+   * @param ttl how long the claim holds without a checkpoint
+   * @return the claimed item, or null if no item is left to claim
+   */
+  SweepWorkItem claimNext(String runId, String owner, Duration ttl);
+
+  /**
+   * Records the progress of a claimed item and extends its claim.
+   *
+   * @param item the claimed item
+   * @param lastProcessedId id of the last user of the finished batch
+   * @param batchResult results of the finished batch
+   * @param ttl how long the claim holds from now
+   * @return false if the item was reclaimed by another instance
+   */
+  boolean checkpoint(
+      SweepWorkItem item,
+      String lastProcessedId,
+      UserUpdatesJobResultDto batchResult,
+      Duration ttl);
+
+  /**
+   * Extends the claim on an item while its owner is still working on it, such as during a long
+   * batch or while the sweep is paused.
+   *
+   * @param item the claimed item
+   * @param ttl how long the claim holds from now
+   * @return false if the item was reclaimed by another instance or is done
+   */
+  boolean renewClaim(SweepWorkItem item, Duration ttl);
+
+  /**
+   * Marks a claimed item as done.
+   *
+   * @param item the claimed item
+   * @return false if the item was reclaimed by another instance
+   */
+  boolean complete(SweepWorkItem item);
+}
@@ -0,0 +1,98 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepWorkItem;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@Repository
+@RequiredArgsConstructor
+public class SweepWorkItemPatchRepositoryImpl implements SweepWorkItemPatchRepository {
+
+  private final MongoTemplate mongoTemplate;
+
+  @Override
+  public SweepWorkItem claimNext(String runId, String owner, Duration ttl) {
+    Instant now = Instant.now();
+    Query query =
+        Query.query(
+                Criteria.where("runId")
+                    .is(runId)
+                    .orOperator(
+                        Criteria.where("status").is(SweepWorkItem.Status.PENDING),
+                        Criteria.where("status")
+                            .is(SweepWorkItem.Status.CLAIMED)
+                            .and("leaseExpiresAt")
+                            .lte(now)))
+            .with(Sort.by(Sort.Direction.ASC, "sequence"));
+    Update update =
+        new Update()
+            .set("status", SweepWorkItem.Status.CLAIMED)
+            .set("owner", owner)
+            .set("leaseExpiresAt", now.plus(ttl))
+            .inc("claimCount", 1);
+    return mongoTemplate.findAndModify(
+        query, update, FindAndModifyOptions.options().returnNew(true), SweepWorkItem.class);
+  }
+
+  @Override
+  public boolean checkpoint(
+      SweepWorkItem item,
+      String lastProcessedId,
+      UserUpdatesJobResultDto batchResult,
+      Duration ttl) {
+    Update update =
+        new Update()
+            .set("lastProcessedId", lastProcessedId)
+            .set("leaseExpiresAt", Instant.now().plus(ttl))
+            .inc("updatedCount", batchResult.getUpdatedHarpIds().size())
+            .inc("failedCount", batchResult.getFailedHarpIds().size());
+    return mongoTemplate
+            .updateFirst(claimedItemQuery(item), update, SweepWorkItem.class)
+            .getMatchedCount()
+        > 0;
+  }
+
+  @Override
+  public boolean renewClaim(SweepWorkItem item, Duration ttl) {
+    Update update = new Update().set("leaseExpiresAt", Instant.now().plus(ttl));
+    return mongoTemplate
+            .updateFirst(claimedItemQuery(item), update, SweepWorkItem.class)
+            .getMatchedCount()
+        > 0;
+  }
+
+  @Override
+  public boolean complete(SweepWorkItem item) {
+    Update update =
+        new Update()
+            .set("status", SweepWorkItem.Status.DONE)
+            .set("completedAt", Instant.now())
+            .unset("leaseExpiresAt");
+    return mongoTemplate
+            .updateFirst(claimedItemQuery(item), update, SweepWorkItem.class)
+            .getMatchedCount()
+        > 0;
+  }
+
+  private Query claimedItemQuery(SweepWorkItem item) {
+    return Query.query(
+        Criteria.where("id")
+            .is(item.getId())
+            .and("status")
+            .is(SweepWorkItem.Status.CLAIMED)
+            .and("owner")
+            .is(item.getOwner())
+            .and("claimCount")
+            .is(item.getClaimCount()));
+  }
+}
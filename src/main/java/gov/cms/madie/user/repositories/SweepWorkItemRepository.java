@@ -0,0 +1,18 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepWorkItem;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+
+public interface SweepWorkItemRepository
+    extends MongoRepository<SweepWorkItem, String>, SweepWorkItemPatchRepository {
+
+  long countByRunIdAndStatusNot(String runId, SweepWorkItem.Status status);
+
+  boolean existsByStatusAndLeaseExpiresAtAfter(SweepWorkItem.Status status, Instant now);
+
+  long deleteByRunId(String runId);
+
+  long deleteByRunIdNot(String runId);
+}
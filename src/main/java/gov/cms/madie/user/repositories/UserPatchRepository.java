@@ -2,12 +2,103 @@ package gov.cms.madie.user.repositories;
 
 import com.mongodb.client.result.UpdateResult;
 import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 public interface UserPatchRepository {
 
   MadieUser loginUser(MadieUser madieUser);
 
+  /**
+   * Sets lastLoginAt on an existing user without touching roles, provided HARP returned the user's
+   * roles since refreshedSince. Nothing is written otherwise, the login then refreshes the roles.
+   *
+   * @param harpId HARP ID of the user logging in
+   * @param refreshedSince earliest time the stored roles may have been returned by HARP
+   * @return the updated user, or null if no user with recent enough roles exists for the HARP ID
+   */
+  MadieUser recordLoginIfRolesRefreshedSince(String harpId, Instant refreshedSince);
+
   UpdateResult updateMadieUser(Map<String, Object> updates, String harpId);
+
+  /**
+   * Applies a batch of field updates with a single unordered bulk write.
+   *
+   * @param updatesByHarpId map of HARP ID to the fields to set for that user
+   * @return per HARP ID outcome of the bulk write
+   */
+  UserUpdatesJobResultDto bulkUpdateMadieUsers(Map<String, Map<String, Object>> updatesByHarpId);
+
+  /**
+   * Upserts a page of users returned by a HARP enumeration with a single unordered bulk write,
+   * marking each as seen and clearing any absent flag. Users that do not exist yet are created.
+   *
+   * @param fieldsByHarpId map of HARP ID to the HARP fields to set for that user
+   * @param seenAt start of the enumeration, stored as harpSeenAt and as createdAt on insert
+   * @return per HARP ID outcome of the bulk write
+   */
+  UserUpdatesJobResultDto bulkUpsertHarpUsers(
+      Map<String, Map<String, Object>> fieldsByHarpId, Instant seenAt);
+
+  /**
+   * Flags users that a complete HARP enumeration did not return. Users already flagged keep the
+   * time they were first found absent.
+   *
+   * @param seenBefore start of the enumeration; users created before it and seen by HARP before it,
+   *     or never, are flagged
+   * @return the number of users newly flagged
+   */
+  long flagUsersAbsentFromHarp(Instant seenBefore);
+
+  /**
+   * Counts the users {@link #flagUsersAbsentFromHarp} would newly flag.
+   *
+   * @param seenBefore start of the enumeration
+   * @return the number of unflagged users created before it and seen by HARP before it, or never
+   */
+  long countUsersAbsentFromHarp(Instant seenBefore);
+
+  /**
+   * Seek pagination over users in _id order, fetching only the id and harpId fields.
+   *
+   * @param lastId id of the last user of the previous page, or null for the first page
+   * @param upToId id of the last user to include, or null to read to the end of the collection
+   * @param limit maximum number of users to return
+   * @return the next page of users, empty once the range is exhausted
+   */
+  List<MadieUser> findHarpIdsAfter(String lastId, String upToId, int limit);
+
+  /**
+   * Finds the id of the user a given number of users past lastId, in _id order.
+   *
+   * @param lastId id to count from, or null to count from the start of the collection
+   * @param count number of users to count, including the one returned
+   * @return the id of that user, or null if fewer users follow lastId
+   */
+  String findSweepBoundaryAfter(String lastId, int count);
+
+  /**
+   * Finds users who logged in since loggedInSince and were last refreshed before modifiedBefore,
+   * least recently refreshed first, fetching only the id and harpId fields.
+   *
+   * @param modifiedBefore users refreshed at or after this time are skipped
+   * @param loggedInSince earliest last login of an active user
+   * @param limit maximum number of users to return
+   * @return the stale active users
+   */
+  List<MadieUser> findStaleActiveUsers(Instant modifiedBefore, Instant loggedInSince, int limit);
+
+  /**
+   * Finds users who have not logged in since loggedInSince and were last refreshed before
+   * modifiedBefore, least recently refreshed first, fetching only the id and harpId fields.
+   *
+   * @param modifiedBefore users refreshed at or after this time are skipped
+   * @param loggedInSince users who logged in at or after this time are skipped
+   * @param limit maximum number of users to return
+   * @return the stale dormant users
+   */
+  List<MadieUser> findStaleDormantUsers(Instant modifiedBefore, Instant loggedInSince, int limit);
 }
@@ -1,12 +1,20 @@
 package gov.cms.madie.user.repositories;
 
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.result.UpdateResult;
 import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.models.access.UserStatus;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Collation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -14,21 +22,42 @@ import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Repository
 @RequiredArgsConstructor
 public class UserPatchRepositoryImpl implements UserPatchRepository {
 
+  private static final Collation HARP_ID_COLLATION =
+      Collation.parse(UserRepository.HARP_ID_COLLATION);
+
+  /** Name of the { _id, harpId } index that covers the sweep's seek queries. */
+  public static final String SWEEP_INDEX_NAME = "sweep_id_harpId";
+
+  /** Set on every user returned by the last HARP enumeration that included them. */
+  public static final String HARP_SEEN_AT = "harpSeenAt";
+
+  /** Set on users a complete HARP enumeration did not return, cleared once HARP returns them. */
+  public static final String ABSENT_FROM_HARP_SINCE = "absentFromHarpSince";
+
+  /**
+   * Set whenever HARP returns a user's roles. Unlike lastModifiedAt it is not stamped by logins or
+   * enumerations, nor by refreshes whose roles call failed.
+   */
+  public static final String ROLES_REFRESHED_AT = "rolesRefreshedAt";
+
   private final MongoTemplate mongoTemplate;
 
   @Override
   public MadieUser loginUser(@NotNull MadieUser madieUser) {
     Objects.requireNonNull(madieUser.getHarpId());
 
-    Query query = new Query(Criteria.where("harpId").is(madieUser.getHarpId().toLowerCase()));
+    Query query = harpIdQuery(madieUser.getHarpId());
 
     Update update = new Update();
     Instant now = Instant.now();
@@ -40,6 +69,10 @@ public class UserPatchRepositoryImpl implements UserPatchRepository {
     // Set createdAt only on insert (first time creation)
     update.setOnInsert("createdAt", now);
 
+    // a login whose roles call failed is stored ERROR_SUSPENDED, its roles were not refreshed
+    if (madieUser.getStatus() != UserStatus.ERROR_SUSPENDED) {
+      update.set(ROLES_REFRESHED_AT, now);
+    }
     if (!CollectionUtils.isEmpty(madieUser.getRoles())) {
       update.set("roles", madieUser.getRoles());
     } else {
@@ -55,21 +88,219 @@ public class UserPatchRepositoryImpl implements UserPatchRepository {
     } else {
       update.unset("accessStartAt");
     }
+    // details are only known when fetched with the roles, stored ones are kept otherwise
+    setIfPresent(update, "email", madieUser.getEmail());
+    setIfPresent(update, "firstName", madieUser.getFirstName());
+    setIfPresent(update, "lastName", madieUser.getLastName());
+    setIfPresent(update, "displayName", madieUser.getDisplayName());
 
     FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(true);
     return mongoTemplate.findAndModify(query, update, options, MadieUser.class);
   }
 
+  @Override
+  public MadieUser recordLoginIfRolesRefreshedSince(
+      @NotNull String harpId, @NotNull Instant refreshedSince) {
+    Query query =
+        harpIdQuery(harpId).addCriteria(Criteria.where(ROLES_REFRESHED_AT).gte(refreshedSince));
+    Update update = new Update().set("lastLoginAt", Instant.now());
+    FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
+    return mongoTemplate.findAndModify(query, update, options, MadieUser.class);
+  }
+
   @Override
   public UpdateResult updateMadieUser(Map<String, Object> updates, String harpId) {
     if (CollectionUtils.isEmpty(updates)) {
       return UpdateResult.unacknowledged();
     }
 
-    Query query = Query.query(Criteria.where("harpId").is(harpId.toLowerCase()));
+    Query query = harpIdQuery(harpId);
     Update update = new Update();
     updates.forEach(update::set);
 
     return mongoTemplate.updateFirst(query, update, MadieUser.class);
   }
+
+  @Override
+  public UserUpdatesJobResultDto bulkUpdateMadieUsers(
+      Map<String, Map<String, Object>> updatesByHarpId) {
+    UserUpdatesJobResultDto result = new UserUpdatesJobResultDto();
+    if (CollectionUtils.isEmpty(updatesByHarpId)) {
+      return result;
+    }
+
+    BulkOperations bulkOps =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class);
+    List<String> queuedHarpIds = new ArrayList<>();
+    updatesByHarpId.forEach(
+        (harpId, updates) -> {
+          if (CollectionUtils.isEmpty(updates)) {
+            return;
+          }
+          Update update = new Update();
+          updates.forEach(update::set);
+          bulkOps.updateOne(harpIdQuery(harpId), update);
+          queuedHarpIds.add(harpId);
+        });
+    if (queuedHarpIds.isEmpty()) {
+      return result;
+    }
+
+    executeBulk(bulkOps, queuedHarpIds, result, "update");
+    return result;
+  }
+
+  @Override
+  public UserUpdatesJobResultDto bulkUpsertHarpUsers(
+      Map<String, Map<String, Object>> fieldsByHarpId, Instant seenAt) {
+    UserUpdatesJobResultDto result = new UserUpdatesJobResultDto();
+    if (CollectionUtils.isEmpty(fieldsByHarpId)) {
+      return result;
+    }
+
+    BulkOperations bulkOps =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class);
+    List<String> queuedHarpIds = new ArrayList<>();
+    fieldsByHarpId.forEach(
+        (harpId, fields) -> {
+          Update update = new Update();
+          if (fields != null) {
+            fields.forEach(update::set);
+          }
+          update.set(HARP_SEEN_AT, seenAt);
+          update.unset(ABSENT_FROM_HARP_SINCE);
+          update.setOnInsert("createdAt", seenAt);
+          bulkOps.upsert(harpIdQuery(harpId), update);
+          queuedHarpIds.add(harpId);
+        });
+
+    executeBulk(bulkOps, queuedHarpIds, result, "upsert");
+    return result;
+  }
+
+  @Override
+  public long flagUsersAbsentFromHarp(Instant seenBefore) {
+    Update update = new Update().set(ABSENT_FROM_HARP_SINCE, Instant.now());
+    return mongoTemplate
+        .updateMulti(absentFromHarpQuery(seenBefore), update, MadieUser.class)
+        .getModifiedCount();
+  }
+
+  @Override
+  public long countUsersAbsentFromHarp(Instant seenBefore) {
+    return mongoTemplate.count(absentFromHarpQuery(seenBefore), MadieUser.class);
+  }
+
+  // users created once the enumeration started, such as by a login after their page was read, were
+  // never up for enumeration; $not keeps users stored without createdAt
+  private Query absentFromHarpQuery(Instant seenBefore) {
+    return Query.query(Criteria.where(HARP_SEEN_AT).not().gte(seenBefore))
+        .addCriteria(Criteria.where("createdAt").not().gte(seenBefore))
+        .addCriteria(Criteria.where(ABSENT_FROM_HARP_SINCE).exists(false));
+  }
+
+  // bulk write errors are reported by operation index, so queuedHarpIds must be in queue order
+  private void executeBulk(
+      BulkOperations bulkOps,
+      List<String> queuedHarpIds,
+      UserUpdatesJobResultDto result,
+      String operation) {
+    try {
+      bulkOps.execute();
+      result.getUpdatedHarpIds().addAll(queuedHarpIds);
+    } catch (BulkOperationException ex) {
+      Map<Integer, BulkWriteError> errorsByIndex =
+          ex.getErrors().stream()
+              .collect(
+                  Collectors.toMap(
+                      BulkWriteError::getIndex, error -> error, (first, second) -> first));
+      for (int i = 0; i < queuedHarpIds.size(); i++) {
+        BulkWriteError error = errorsByIndex.get(i);
+        if (error != null) {
+          result.fail(List.of(queuedHarpIds.get(i)), "Saving user failed: " + error.getMessage());
+        } else {
+          result.getUpdatedHarpIds().add(queuedHarpIds.get(i));
+        }
+      }
+      log.error(
+          "Bulk {} failed for {} of {} users: {}",
+          operation,
+          errorsByIndex.size(),
+          queuedHarpIds.size(),
+          ex.getErrors());
+    }
+  }
+
+  @Override
+  public List<MadieUser> findHarpIdsAfter(String lastId, String upToId, int limit) {
+    Query query = sweepQuery(lastId, upToId).limit(limit);
+    query.fields().include("id", "harpId");
+    return mongoTemplate.find(query, MadieUser.class);
+  }
+
+  @Override
+  public String findSweepBoundaryAfter(String lastId, int count) {
+    Query query = sweepQuery(lastId, null).skip(count - 1L).limit(1);
+    query.fields().include("id");
+    MadieUser boundary = mongoTemplate.findOne(query, MadieUser.class);
+    return boundary == null ? null : boundary.getId();
+  }
+
+  @Override
+  public List<MadieUser> findStaleActiveUsers(
+      Instant modifiedBefore, Instant loggedInSince, int limit) {
+    return findStaleUsers(modifiedBefore, Criteria.where("lastLoginAt").gte(loggedInSince), limit);
+  }
+
+  @Override
+  public List<MadieUser> findStaleDormantUsers(
+      Instant modifiedBefore, Instant loggedInSince, int limit) {
+    // $not also matches users who never logged in
+    return findStaleUsers(
+        modifiedBefore, Criteria.where("lastLoginAt").not().gte(loggedInSince), limit);
+  }
+
+  // $not also matches users without lastModifiedAt, which have never been refreshed
+  private List<MadieUser> findStaleUsers(
+      Instant modifiedBefore, Criteria lastLoginCriteria, int limit) {
+    Query query =
+        Query.query(Criteria.where("lastModifiedAt").not().gte(modifiedBefore))
+            .addCriteria(lastLoginCriteria)
+            .with(Sort.by(Sort.Direction.ASC, "lastModifiedAt"))
+            .limit(limit);
+    query.fields().include("id", "harpId");
+    return mongoTemplate.find(query, MadieUser.class);
+  }
+
+  // answered from the sweep index alone, each page costs the same regardless of its position
+  private Query sweepQuery(String lastId, String upToId) {
+    Query query = new Query().with(Sort.by(Sort.Direction.ASC, "id"));
+    if (lastId != null || upToId != null) {
+      Criteria idRange = Criteria.where("id");
+      if (lastId != null) {
+        idRange.gt(toIdValue(lastId));
+      }
+      if (upToId != null) {
+        idRange.lte(toIdValue(upToId));
+      }
+      query.addCriteria(idRange);
+    }
+    return query.withHint(SWEEP_INDEX_NAME);
+  }
+
+  private void setIfPresent(Update update, String field, Object value) {
+    if (value != null) {
+      update.set(field, value);
+    }
+  }
+
+  private Object toIdValue(String id) {
+    return ObjectId.isValid(id) ? new ObjectId(id) : id;
+  }
+
+  // harpIds are stored lower-cased; the collation lets the query use the harpId index
+  private Query harpIdQuery(String harpId) {
+    return Query.query(Criteria.where("harpId").is(harpId.toLowerCase()))
+        .collation(HARP_ID_COLLATION);
+  }
 }
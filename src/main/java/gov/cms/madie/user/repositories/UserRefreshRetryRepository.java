@@ -0,0 +1,18 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.UserRefreshRetry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface UserRefreshRetryRepository extends MongoRepository<UserRefreshRetry, String> {
+
+  List<UserRefreshRetry> findByStatusAndNextAttemptAtLessThanEqual(
+      UserRefreshRetry.Status status, Instant now, Pageable pageable);
+
+  /** Removes the retries in a single delete, without loading them first. */
+  long deleteByHarpIdIn(Collection<String> harpIds);
+}
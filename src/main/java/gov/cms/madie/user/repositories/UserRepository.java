@@ -1,32 +1,42 @@
 package gov.cms.madie.user.repositories;
 
 import gov.cms.madie.models.access.MadieUser;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.annotation.Collation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends MongoRepository<MadieUser, String>, UserPatchRepository {
 
+  /**
+   * Collation of the case-insensitive unique harpId index. Every query filtering on harpId must use
+   * it, otherwise MongoDB cannot use the index and falls back to a collection scan.
+   */
+  String HARP_ID_COLLATION = "{ 'locale' : 'en', 'strength' : 2 }";
+
+  @Collation(HARP_ID_COLLATION)
   Optional<MadieUser> findByHarpId(String harpId);
 
   /**
-   * Count how many MadieUsers exist for the provided list of HARP IDs.
+   * Fetch only the harpId of the users that exist for the provided list of HARP IDs.
    *
    * @param harpIds list of HARP IDs to check
-   * @return count of existing users
+   * @return MadieUsers with only the harpId field populated
    */
-  @Query(value = "{ 'harpId': { $in: ?0 } }", count = true)
-  int countByHarpIdIn(java.util.List<String> harpIds);
+  @Query(
+      value = "{ 'harpId': { $in: ?0 } }",
+      fields = "{ 'harpId' : 1, '_id' : 0 }",
+      collation = HARP_ID_COLLATION)
+  List<MadieUser> findExistingHarpIds(List<String> harpIds);
 
   /**
-   * Fetch only harpId field using projection to reduce memory usage.
+   * Fetch the users for the provided list of HARP IDs.
    *
-   * @param pageable pagination parameters
-   * @return Page of MadieUser with only harpId field populated
+   * @param harpIds list of HARP IDs to fetch
+   * @return the MadieUsers that exist for the HARP IDs
    */
-  @Query(value = "{}", fields = "{ 'harpId' : 1 }")
-  Page<MadieUser> findAllHarpIds(Pageable pageable);
+  @Query(value = "{ 'harpId': { $in: ?0 } }", collation = HARP_ID_COLLATION)
+  List<MadieUser> findAllByHarpIdIn(List<String> harpIds);
 }
@@ -0,0 +1,32 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.UserSweepRun;
+
+public interface UserSweepRunPatchRepository {
+
+  /**
+   * Saves the progress of a run, unless a holder with a newer fencing token has taken it over.
+   *
+   * @param run the run with its progress and the fencing token of the current lease
+   * @return false if the write was fenced off by a newer token
+   */
+  boolean saveIfFencingTokenCurrent(UserSweepRun run);
+
+  /**
+   * Adds the results of a batch to a run that several instances work on at once, without
+   * overwriting the batches the others added.
+   *
+   * @param runId id of the run
+   * @param batchResult results of the finished batch
+   */
+  void incrementProgress(String runId, UserUpdatesJobResultDto batchResult);
+
+  /**
+   * Marks a running run as completed, leaving its counters as they are.
+   *
+   * @param runId id of the run
+   * @return false if the run was no longer running
+   */
+  boolean markCompleted(String runId);
+}
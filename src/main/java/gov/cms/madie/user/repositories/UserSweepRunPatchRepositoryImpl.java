@@ -0,0 +1,64 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.UserSweepRun;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+
+@Repository
+@RequiredArgsConstructor
+public class UserSweepRunPatchRepositoryImpl implements UserSweepRunPatchRepository {
+
+  private final MongoTemplate mongoTemplate;
+
+  @Override
+  public boolean saveIfFencingTokenCurrent(UserSweepRun run) {
+    Query query =
+        Query.query(
+            Criteria.where("id").is(run.getId()).and("fencingToken").lte(run.getFencingToken()));
+    Update update =
+        new Update()
+            .set("status", run.getStatus())
+            .set("fencingToken", run.getFencingToken())
+            .set("lastCheckpointAt", run.getLastCheckpointAt())
+            .set("completedAt", run.getCompletedAt())
+            .set("lastProcessedId", run.getLastProcessedId())
+            .set("workItemCount", run.getWorkItemCount())
+            .set("totalUsers", run.getTotalUsers())
+            .set("resumedAt", run.getResumedAt())
+            .set("processedAtResume", run.getProcessedAtResume())
+            .set("batchesCompleted", run.getBatchesCompleted())
+            .set("updatedCount", run.getUpdatedCount())
+            .set("failedCount", run.getFailedCount())
+            .set("unchangedCount", run.getUnchangedCount());
+    return mongoTemplate.updateFirst(query, update, UserSweepRun.class).getMatchedCount() > 0;
+  }
+
+  @Override
+  public void incrementProgress(String runId, UserUpdatesJobResultDto batchResult) {
+    Update update =
+        new Update()
+            .max("lastCheckpointAt", Instant.now())
+            .inc("batchesCompleted", 1)
+            .inc("updatedCount", batchResult.getUpdatedHarpIds().size())
+            .inc("failedCount", batchResult.getFailedHarpIds().size())
+            .inc("unchangedCount", batchResult.getUnchangedCount());
+    mongoTemplate.updateFirst(
+        Query.query(Criteria.where("id").is(runId)), update, UserSweepRun.class);
+  }
+
+  @Override
+  public boolean markCompleted(String runId) {
+    Query query =
+        Query.query(Criteria.where("id").is(runId).and("status").is(UserSweepRun.Status.RUNNING));
+    Update update =
+        new Update().set("status", UserSweepRun.Status.COMPLETED).set("completedAt", Instant.now());
+    return mongoTemplate.updateFirst(query, update, UserSweepRun.class).getMatchedCount() > 0;
+  }
+}
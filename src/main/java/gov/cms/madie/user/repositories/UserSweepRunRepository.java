@@ -0,0 +1,17 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.UserSweepRun;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface UserSweepRunRepository
+    extends MongoRepository<UserSweepRun, String>, UserSweepRunPatchRepository {
+
+  Optional<UserSweepRun> findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status status);
+
+  Optional<UserSweepRun> findFirstByOrderByStartedAtDesc();
+
+  List<UserSweepRun> findTop20ByOrderByStartedAtDesc();
+}
@@ -0,0 +1,11 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.UserUpdateFailure;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UserUpdateFailureRepository extends MongoRepository<UserUpdateFailure, String> {
+
+  Page<UserUpdateFailure> findByJobId(String jobId, Pageable pageable);
+}
@@ -0,0 +1,6 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.UserUpdateJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UserUpdateJobRepository extends MongoRepository<UserUpdateJob, String> {}
@@ -0,0 +1,82 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Picks the number of users per sweep batch, which is the number of users per HARP findUser call.
+ * The size grows additively while calls finish within the target latency and shrinks
+ * multiplicatively on a failed or slow call, staying within the configured bounds. The size learnt
+ * carries over from one sweep to the next and is published as the user.sweep.batch.size gauge.
+ */
+@Slf4j
+@Component
+public class AdaptiveBatchSizer {
+
+  private final UserUpdateConfig userUpdateConfig;
+
+  /** The size learnt so far, 0 until the first batch starts it at the configured batch size. */
+  private int batchSize;
+
+  public AdaptiveBatchSizer(UserUpdateConfig userUpdateConfig, MeterRegistry meterRegistry) {
+    this.userUpdateConfig = userUpdateConfig;
+    Gauge.builder("user.sweep.batch.size", this, AdaptiveBatchSizer::currentBatchSize)
+        .description("Users per batch of the user sweep")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @return the number of users to read for the next batch
+   */
+  public synchronized int currentBatchSize() {
+    UserUpdateConfig.AdaptiveBatch config = userUpdateConfig.getAdaptiveBatch();
+    if (!config.isEnabled()) {
+      return userUpdateConfig.getBatchSize();
+    }
+    return learntBatchSize(config);
+  }
+
+  /**
+   * Adjusts the batch size to the outcome of a findUser call.
+   *
+   * @param size number of users in the call
+   * @param latency how long the call took
+   * @param failed whether the call failed
+   */
+  public synchronized void record(int size, Duration latency, boolean failed) {
+    UserUpdateConfig.AdaptiveBatch config = userUpdateConfig.getAdaptiveBatch();
+    if (!config.isEnabled()) {
+      return;
+    }
+    int previous = learntBatchSize(config);
+    batchSize = previous;
+    if (failed || latency.compareTo(config.getTargetLatency()) > 0) {
+      batchSize = clamp((int) (previous * config.getDecreaseFactor()), config);
+    } else if (size >= previous) {
+      // only a full batch shows that HARP copes with the current size
+      batchSize = clamp(previous + config.getIncreaseStep(), config);
+    }
+    if (batchSize != previous) {
+      log.info(
+          "User sweep batch size {} -> {} after a {}findUser call of {} users in {} ms",
+          previous,
+          batchSize,
+          failed ? "failed " : "",
+          size,
+          latency.toMillis());
+    }
+  }
+
+  private int learntBatchSize(UserUpdateConfig.AdaptiveBatch config) {
+    return clamp(batchSize == 0 ? userUpdateConfig.getBatchSize() : batchSize, config);
+  }
+
+  private int clamp(int size, UserUpdateConfig.AdaptiveBatch config) {
+    return Math.max(config.getMinSize(), Math.min(config.getMaxSize(), size));
+  }
+}
@@ -0,0 +1,183 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.HarpConfig;
+import gov.cms.madie.user.exceptions.HarpBulkheadFullException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent HARP calls made by this instance and hands out the slots by
+ * priority. Admin calls cannot use the slots reserved for interactive calls, batch calls cannot use
+ * the slots reserved for either, and a call does not take a free slot while a call of a higher
+ * priority is waiting for one. A running sweep therefore gives way to logins instead of queueing
+ * them behind its own calls.
+ *
+ * <p>The priority of a call is the priority of the thread making it, {@link Priority#BATCH} unless
+ * the caller runs its work with {@link #withPriority(Priority, Supplier)}.
+ */
+@Slf4j
+@Component
+public class HarpBulkhead {
+
+  public enum Priority {
+    /** A user waiting on a login. */
+    INTERACTIVE,
+    /** Refreshes requested for specific users, by an admin or after a login. */
+    ADMIN,
+    /** Scheduled jobs going through all users. */
+    BATCH
+  }
+
+  private static final ThreadLocal<Priority> PRIORITY =
+      ThreadLocal.withInitial(() -> Priority.BATCH);
+
+  private final HarpConfig harpConfig;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition slotFreed = lock.newCondition();
+  private final int[] waiting = new int[Priority.values().length];
+  private int inFlight;
+
+  public HarpBulkhead(HarpConfig harpConfig, MeterRegistry meterRegistry) {
+    this.harpConfig = harpConfig;
+    Gauge.builder("harp.bulkhead.in.flight", this, HarpBulkhead::inFlight)
+        .description("HARP calls in progress")
+        .register(meterRegistry);
+    for (Priority priority : Priority.values()) {
+      Gauge.builder("harp.bulkhead.waiting", this, bulkhead -> bulkhead.waiting(priority))
+          .description("HARP calls waiting for a slot")
+          .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry);
+    }
+  }
+
+  /**
+   * Runs work whose HARP calls have the given priority.
+   *
+   * @param priority priority of the HARP calls made by the work on this thread
+   * @param work the work to run
+   * @return the result of the work
+   */
+  public static <T> T withPriority(Priority priority, Supplier<T> work) {
+    Priority previous = PRIORITY.get();
+    PRIORITY.set(priority);
+    try {
+      return work.get();
+    } finally {
+      PRIORITY.set(previous);
+    }
+  }
+
+  /**
+   * @return the priority of the HARP calls made on this thread, to hand on to work started from it
+   */
+  public static Priority currentPriority() {
+    return PRIORITY.get();
+  }
+
+  /**
+   * Makes a HARP call once a slot for the priority of the current thread is free.
+   *
+   * @param call the HARP call
+   * @return the result of the call
+   * @throws HarpBulkheadFullException if no slot was free within the configured maximum wait
+   */
+  public <T> T call(Supplier<T> call) {
+    HarpConfig.Bulkhead config = harpConfig.getBulkhead();
+    if (config == null || !config.isEnabled()) {
+      return call.get();
+    }
+    acquire(PRIORITY.get(), config);
+    try {
+      return call.get();
+    } finally {
+      release();
+    }
+  }
+
+  private void acquire(Priority priority, HarpConfig.Bulkhead config) {
+    long remainingNanos = config.getMaxWait().toNanos();
+    lock.lock();
+    try {
+      waiting[priority.ordinal()]++;
+      boolean acquired = false;
+      try {
+        while (!canAcquire(priority, config)) {
+          if (remainingNanos <= 0) {
+            log.warn(
+                "No HARP call slot free for a {} call within {}", priority, config.getMaxWait());
+            throw new HarpBulkheadFullException("Too many concurrent HARP calls, try again later");
+          }
+          remainingNanos = slotFreed.awaitNanos(remainingNanos);
+        }
+        inFlight++;
+        acquired = true;
+      } finally {
+        waiting[priority.ordinal()]--;
+        if (!acquired) {
+          // calls of lower priority may have been waiting on this one
+          slotFreed.signalAll();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HarpBulkheadFullException("Interrupted while waiting for a HARP call slot");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      slotFreed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean canAcquire(Priority priority, HarpConfig.Bulkhead config) {
+    for (int higher = 0; higher < priority.ordinal(); higher++) {
+      if (waiting[higher] > 0) {
+        return false;
+      }
+    }
+    return inFlight < limit(priority, config);
+  }
+
+  private int limit(Priority priority, HarpConfig.Bulkhead config) {
+    int limit = config.getMaxConcurrentCalls();
+    if (priority != Priority.INTERACTIVE) {
+      limit -= config.getReservedForInteractive();
+    }
+    if (priority == Priority.BATCH) {
+      limit -= config.getReservedForAdmin();
+    }
+    return Math.max(1, limit);
+  }
+
+  private int inFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int waiting(Priority priority) {
+    lock.lock();
+    try {
+      return waiting[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package gov.cms.madie.user.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parses the "yyyy-MM-dd HH:mm:ss" timestamps returned by HARP. Role start dates repeat heavily
+ * across users, so recently parsed values are memoised in a small bounded cache.
+ */
+@Slf4j
+public class HarpDateTimeParser {
+
+  private static final DateTimeFormatter HARP_TIMESTAMP_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+  private static final int MAX_CACHED_TIMESTAMPS = 1024;
+
+  private final ZoneId zoneId;
+  private final Cache<String, Instant> recentTimestamps =
+      Caffeine.newBuilder().maximumSize(MAX_CACHED_TIMESTAMPS).build();
+
+  public HarpDateTimeParser(ZoneId zoneId) {
+    this.zoneId = zoneId;
+  }
+
+  /**
+   * Converts a HARP timestamp to an Instant in the configured HARP time zone.
+   *
+   * @param timestamp HARP timestamp string
+   * @return the parsed Instant, or null if the timestamp is blank or invalid
+   */
+  public Instant parse(String timestamp) {
+    if (StringUtils.isBlank(timestamp)) {
+      return null;
+    }
+    return recentTimestamps.get(timestamp, this::parseTimestamp);
+  }
+
+  private Instant parseTimestamp(String timestamp) {
+    try {
+      return LocalDateTime.parse(timestamp, HARP_TIMESTAMP_FORMAT).atZone(zoneId).toInstant();
+    } catch (DateTimeParseException e) {
+      log.error("Error converting date string to Instant: {}", timestamp, e);
+      return null;
+    }
+  }
+}
@@ -4,13 +4,17 @@ import gov.cms.madie.user.config.HarpConfig;
 import gov.cms.madie.user.dto.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
@@ -19,6 +23,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
+import java.util.function.Function;
 
 @Slf4j
 @Service
@@ -28,6 +33,10 @@ public class HarpProxyService {
   private final HarpConfig harpConfig;
   private final RestTemplate harpRestTemplate;
   private final ObjectMapper objectMapper;
+  private final HarpBulkhead harpBulkhead;
+
+  // the token manager requests its tokens through this service
+  @Lazy private final TokenManager tokenManager;
 
   /**
    * Fetches an access token from the HARP API using clientId and secret from environment.
@@ -65,6 +74,10 @@ public class HarpProxyService {
    * @return UserDetailsResponse containing the user details for the provided HARP IDs.
    */
   public UserDetailsResponse fetchUserDetails(List<String> harpIds, String harpToken) {
+    return withTokenRenewal(harpToken, token -> findUsers(harpIds, token));
+  }
+
+  private UserDetailsResponse findUsers(List<String> harpIds, String harpToken) {
     String url = harpConfig.getBaseUrl() + harpConfig.getUserFind().getUri() + "/findUser";
     HttpHeaders headers = createApiHeaders(harpToken);
 
@@ -78,7 +91,39 @@ public class HarpProxyService {
             .build();
 
     HttpEntity<UserDetailsRequest> requestEntity = new HttpEntity<>(body, headers);
-    return harpRestTemplate.postForObject(url, requestEntity, UserDetailsResponse.class);
+    return harpBulkhead.call(
+        () -> harpRestTemplate.postForObject(url, requestEntity, UserDetailsResponse.class));
+  }
+
+  /**
+   * Fetches one page of the users of the program from the HARP API, selected by the configured
+   * program attributes rather than by HARP ID.
+   *
+   * @param offset number of users to skip.
+   * @param max maximum number of users to return.
+   * @param harpToken Access token to authenticate the request.
+   * @return UserDetailsResponse containing the page of users and the total user count.
+   */
+  public UserDetailsResponse fetchProgramUsers(int offset, int max, String harpToken) {
+    return withTokenRenewal(harpToken, token -> findProgramUsers(offset, max, token));
+  }
+
+  private UserDetailsResponse findProgramUsers(int offset, int max, String harpToken) {
+    String url = harpConfig.getBaseUrl() + harpConfig.getUserFind().getUri() + "/findUser";
+    HttpHeaders headers = createApiHeaders(harpToken);
+
+    UserDetailsRequest body =
+        UserDetailsRequest.builder()
+            .programName(harpConfig.getProgramName())
+            .attributes(harpConfig.getUserFind().getProgramAttributes())
+            .details("all")
+            .offset(offset)
+            .max(max)
+            .build();
+
+    HttpEntity<UserDetailsRequest> requestEntity = new HttpEntity<>(body, headers);
+    return harpBulkhead.call(
+        () -> harpRestTemplate.postForObject(url, requestEntity, UserDetailsResponse.class));
   }
 
   /**
@@ -89,6 +134,16 @@ public class HarpProxyService {
    * @return UserRolesResponse containing the user roles for the provided HARP ID.
    */
   public HarpResponseWrapper<UserRolesResponse> fetchUserRoles(String harpId, String harpToken) {
+    HarpResponseWrapper<UserRolesResponse> response = getUserRoles(harpId, harpToken);
+    if (response.getStatusCode() == null
+        || response.getStatusCode().value() != HttpStatus.UNAUTHORIZED.value()) {
+      return response;
+    }
+    String renewedToken = renewToken(harpToken);
+    return renewedToken == null ? response : getUserRoles(harpId, renewedToken);
+  }
+
+  private HarpResponseWrapper<UserRolesResponse> getUserRoles(String harpId, String harpToken) {
     String url = harpConfig.getBaseUrl() + harpConfig.getUserRoles().getUri() + "/getUserRoles";
     HttpHeaders headers = createApiHeaders(harpToken);
     HarpResponseWrapper.HarpResponseWrapperBuilder<UserRolesResponse> wrapperBuilder =
@@ -102,7 +157,8 @@ public class HarpProxyService {
     HttpEntity<UserRolesRequest> requestEntity = new HttpEntity<>(body, headers);
     try {
       ResponseEntity<UserRolesResponse> responseEntity =
-          harpRestTemplate.postForEntity(url, requestEntity, UserRolesResponse.class);
+          harpBulkhead.call(
+              () -> harpRestTemplate.postForEntity(url, requestEntity, UserRolesResponse.class));
       wrapperBuilder.response(responseEntity.getBody()).statusCode(responseEntity.getStatusCode());
     } catch (HttpStatusCodeException ex) {
       String responseBody = ex.getResponseBodyAsString();
@@ -120,6 +176,31 @@ public class HarpProxyService {
     return wrapperBuilder.build();
   }
 
+  /**
+   * Makes a HARP call and, if HARP rejects the token, replays it once with a renewed token so that
+   * a token expiring partway through a batch does not fail the rest of the batch.
+   */
+  private <T> T withTokenRenewal(String harpToken, Function<String, T> call) {
+    try {
+      return call.apply(harpToken);
+    } catch (HttpClientErrorException.Unauthorized ex) {
+      String renewedToken = renewToken(harpToken);
+      if (renewedToken == null) {
+        throw ex;
+      }
+      return call.apply(renewedToken);
+    }
+  }
+
+  private String renewToken(String rejectedToken) {
+    TokenResponse renewed = tokenManager.renewToken(rejectedToken);
+    if (renewed == null || StringUtils.isBlank(renewed.getAccessToken())) {
+      log.warn("HARP rejected the access token and it could not be renewed");
+      return null;
+    }
+    return renewed.getAccessToken();
+  }
+
   private HttpHeaders createApiHeaders(String harpToken) {
     HttpHeaders headers = new HttpHeaders();
     headers.set("Authorization", "Bearer " + harpToken);
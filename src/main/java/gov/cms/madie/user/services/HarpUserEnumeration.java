@@ -0,0 +1,134 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserDetail;
+import gov.cms.madie.user.dto.UserDetailsResponse;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.repositories.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Refreshes users by paging through every user of the program in HARP instead of looking users up
+ * by HARP ID. Each page is upserted in one bulk write, so users are created before their first
+ * login. Once every page has been read, stored users HARP did not return are flagged as absent,
+ * unless so many would be that HARP more likely returned too few users. Roles are not returned by
+ * findUser and are left to the sweep and to login.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class HarpUserEnumeration {
+
+  private final HarpProxyService harpProxyService;
+  private final TokenManager tokenManager;
+  private final UserRepository userRepository;
+  private final UserUpdateConfig userUpdateConfig;
+  private final SweepJobControlService sweepJobControlService;
+
+  /**
+   * Pages through the users of the program in HARP and upserts them.
+   *
+   * @param lease the held sweep lease, the enumeration stops once it is lost
+   * @param results receives the results of each page as it is saved
+   * @return true if every page was read and absent users were flagged
+   */
+  public boolean run(SweepLease lease, Consumer<UserUpdatesJobResultDto> results) {
+    int pageSize = userUpdateConfig.getEnumeration().getPageSize();
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(lease::isLost);
+    Instant startedAt = Instant.now();
+    int offset = 0;
+    long total = -1;
+    try {
+      while (total < 0 || offset < total) {
+        if (!gate.awaitTurn(pageSize)) {
+          log.info("HARP user enumeration stopped at offset {} of {}", offset, total);
+          return false;
+        }
+        UserDetailsResponse page =
+            harpProxyService.fetchProgramUsers(
+                offset, pageSize, tokenManager.getCurrentToken().getAccessToken());
+        List<UserDetail> users = page == null ? null : page.getUserdetails();
+        if (CollectionUtils.isEmpty(users)) {
+          // the end can only be told from totalcount or a short page, an empty one may be a fault
+          log.warn(
+              "HARP user enumeration got no users at offset {} of {}, not flagging absent users",
+              offset,
+              total);
+          return false;
+        }
+        results.accept(userRepository.bulkUpsertHarpUsers(toFields(users), startedAt));
+        offset += users.size();
+        total = NumberUtils.toLong(page.getTotalcount(), -1);
+        // without a usable totalcount, a short page is the last one
+        if (total < 0 && users.size() < pageSize) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("HARP user enumeration interrupted at offset {}", offset);
+      return false;
+    } catch (Exception e) {
+      // absent users can only be told apart once every page has been read
+      log.error("HARP user enumeration failed at offset {}, not flagging absent users", offset, e);
+      return false;
+    }
+
+    return flagAbsentUsers(startedAt, offset);
+  }
+
+  private boolean flagAbsentUsers(Instant startedAt, int enumerated) {
+    long absent = userRepository.countUsersAbsentFromHarp(startedAt);
+    long stored = userRepository.count();
+    double maxAbsentFraction = userUpdateConfig.getEnumeration().getMaxAbsentFraction();
+    if (absent > stored * maxAbsentFraction) {
+      log.error(
+          "HARP user enumeration read {} users but {} of {} stored users would be newly absent,"
+              + " above the {} limit; not flagging absent users",
+          enumerated,
+          absent,
+          stored,
+          maxAbsentFraction);
+      return false;
+    }
+    long flagged = userRepository.flagUsersAbsentFromHarp(startedAt);
+    log.info("HARP user enumeration read {} users, {} newly absent from HARP", enumerated, flagged);
+    return true;
+  }
+
+  private Map<String, Map<String, Object>> toFields(List<UserDetail> users) {
+    Map<String, Map<String, Object>> fieldsByHarpId = new LinkedHashMap<>();
+    for (UserDetail user : users) {
+      if (StringUtils.isBlank(user.getUsername())) {
+        continue;
+      }
+      Map<String, Object> fields = new HashMap<>();
+      putIfPresent(fields, "email", user.getEmail());
+      putIfPresent(fields, "firstName", user.getFirstname());
+      putIfPresent(fields, "lastName", user.getLastname());
+      putIfPresent(fields, "displayName", user.getDisplayname());
+      fieldsByHarpId.putIfAbsent(user.getUsername().toLowerCase(Locale.ROOT), fields);
+    }
+    return fieldsByHarpId;
+  }
+
+  private void putIfPresent(Map<String, Object> fields, String field, String value) {
+    if (value != null) {
+      fields.put(field, value);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.UserRepository;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Refreshes only the users whose data is stale instead of every user. Users who logged in recently
+ * are refreshed first and more often than dormant users, least recently refreshed first, up to a
+ * cap per run. A full sweep still runs periodically so no user is left unrefreshed for long.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IncrementalUserSweep {
+
+  private final UserRepository userRepository;
+  private final UserSweepRunRepository userSweepRunRepository;
+  private final UserSweepPipeline userSweepPipeline;
+  private final UserUpdateConfig userUpdateConfig;
+  private final SweepJobControlService sweepJobControlService;
+
+  /**
+   * A full sweep is due when one was interrupted, or the last one completed longer ago than the
+   * full sweep interval.
+   */
+  public boolean isFullSweepDue() {
+    Duration interval = userUpdateConfig.getIncremental().getFullSweepInterval();
+    if (interval == null || interval.isZero()) {
+      return false;
+    }
+    if (userSweepRunRepository
+        .findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING)
+        .isPresent()) {
+      return true;
+    }
+    Instant cutoff = Instant.now().minus(interval);
+    return userSweepRunRepository
+        .findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.COMPLETED)
+        .map(run -> run.getCompletedAt() == null || run.getCompletedAt().isBefore(cutoff))
+        .orElse(true);
+  }
+
+  /**
+   * Refreshes the stale users from HARP.
+   *
+   * @param lease the held sweep lease, the refresh stops once it is lost
+   * @param results receives the results of each batch as it finishes
+   * @return true if every selected user was processed
+   */
+  public boolean run(SweepLease lease, Consumer<UserUpdatesJobResultDto> results) {
+    UserUpdateConfig.Incremental config = userUpdateConfig.getIncremental();
+    Instant now = Instant.now();
+    Instant activeSince = now.minus(config.getActiveWithin());
+    int maxUsers = config.getMaxUsersPerRun();
+
+    List<MadieUser> users =
+        new ArrayList<>(
+            userRepository.findStaleActiveUsers(
+                now.minus(config.getActiveStaleAfter()), activeSince, maxUsers));
+    int activeCount = users.size();
+    if (users.size() < maxUsers) {
+      users.addAll(
+          userRepository.findStaleDormantUsers(
+              now.minus(config.getDormantStaleAfter()), activeSince, maxUsers - users.size()));
+    }
+    log.info(
+        "Incremental user sweep refreshing {} active and {} dormant users",
+        activeCount,
+        users.size() - activeCount);
+
+    return userSweepPipeline.refresh(users, sweepJobControlService.gate(lease::isLost), results);
+  }
+}
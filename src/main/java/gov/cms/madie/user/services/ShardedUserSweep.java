@@ -0,0 +1,221 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.SweepWorkItem;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.SweepWorkItemRepository;
+import gov.cms.madie.user.repositories.UserRepository;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Shares one user sweep between all replicas. The replica holding the sweep lease splits the users
+ * into ranges of ids stored as work items; every replica then claims items one at a time and sweeps
+ * them through the pipeline. The owner of an item renews its claim on a heartbeat while working on
+ * it; items whose owner stops are reclaimed once their claim expires. Every instance adds its
+ * batches to the run's counters, and the work items are deleted once the run completes.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ShardedUserSweep {
+
+  private static final Duration PLAN_POLL_INTERVAL = Duration.ofSeconds(2);
+
+  private final UserRepository userRepository;
+  private final UserSweepRunRepository userSweepRunRepository;
+  private final SweepWorkItemRepository sweepWorkItemRepository;
+  private final UserSweepRunService userSweepRunService;
+  private final SweepLeaseService sweepLeaseService;
+  private final UserSweepPipeline userSweepPipeline;
+  private final UserUpdateConfig userUpdateConfig;
+  private final SweepJobControlService sweepJobControlService;
+
+  /**
+   * Plans the sweep if no other replica is doing so, then works on it until no items are left.
+   *
+   * @param results receives the results of each batch processed by this instance
+   * @return false if nothing was planned or this instance stopped before it ran out of work items
+   */
+  public boolean run(Consumer<UserUpdatesJobResultDto> results) {
+    planIfLeader();
+    Optional<UserSweepRun> run = awaitPlannedRun();
+    if (run.isEmpty()) {
+      log.info("No planned user sweep to work on");
+      return false;
+    }
+    return work(run.get(), results);
+  }
+
+  private void planIfLeader() {
+    Optional<SweepLease> lease = sweepLeaseService.tryAcquire();
+    if (lease.isEmpty()) {
+      return;
+    }
+    try {
+      if (recentlyCompleted()) {
+        log.info("User sweep completed moments ago, not planning another one");
+        return;
+      }
+      UserSweepRun run = userSweepRunService.startOrResume(lease.get());
+      if (run.getWorkItemCount() == 0) {
+        plan(run);
+      }
+    } finally {
+      sweepLeaseService.release(lease.get());
+    }
+  }
+
+  // replicas triggered a little late must not start the next sweep right after one finished
+  private boolean recentlyCompleted() {
+    Instant cutoff = Instant.now().minus(userUpdateConfig.getSharding().getPlanWait());
+    return userSweepRunRepository
+        .findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.COMPLETED)
+        .map(run -> run.getCompletedAt() != null && run.getCompletedAt().isAfter(cutoff))
+        .orElse(false);
+  }
+
+  private void plan(UserSweepRun run) {
+    int itemSize = userUpdateConfig.getSharding().getItemSize();
+    List<SweepWorkItem> items = new ArrayList<>();
+    // a run started unsharded continues after its checkpoint
+    String rangeStart = run.getLastProcessedId();
+    String rangeEnd;
+    do {
+      rangeEnd = userRepository.findSweepBoundaryAfter(rangeStart, itemSize);
+      items.add(
+          SweepWorkItem.builder()
+              .runId(run.getId())
+              .sequence(items.size())
+              .rangeStart(rangeStart)
+              .rangeEnd(rangeEnd)
+              .status(SweepWorkItem.Status.PENDING)
+              .build());
+      rangeStart = rangeEnd;
+    } while (rangeEnd != null);
+
+    deleteWorkItems(
+        "left by earlier runs", () -> sweepWorkItemRepository.deleteByRunIdNot(run.getId()));
+    sweepWorkItemRepository.saveAll(items);
+    run.setTotalUsers(userRepository.count());
+    userSweepRunService.recordWorkItems(run, items.size());
+    log.info("Planned user sweep {} as {} work items", run.getId(), items.size());
+  }
+
+  private Optional<UserSweepRun> awaitPlannedRun() {
+    Instant deadline = Instant.now().plus(userUpdateConfig.getSharding().getPlanWait());
+    while (true) {
+      Optional<UserSweepRun> run =
+          userSweepRunRepository
+              .findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING)
+              .filter(candidate -> candidate.getWorkItemCount() > 0);
+      if (run.isPresent() || !Instant.now().isBefore(deadline)) {
+        return run;
+      }
+      try {
+        Thread.sleep(PLAN_POLL_INTERVAL.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return Optional.empty();
+      }
+    }
+  }
+
+  private boolean work(UserSweepRun run, Consumer<UserUpdatesJobResultDto> results) {
+    Duration ttl = userUpdateConfig.getSharding().getItemLeaseTtl();
+    // one flag per claim, so a late heartbeat of the previous item cannot stop the next one
+    AtomicReference<AtomicBoolean> claimLost = new AtomicReference<>(new AtomicBoolean());
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> claimLost.get().get());
+    boolean completed = true;
+    SweepWorkItem item;
+    while (!Thread.currentThread().isInterrupted()
+        && !gate.isCancelled()
+        && (item =
+                sweepWorkItemRepository.claimNext(
+                    run.getId(), sweepLeaseService.getInstanceId(), ttl))
+            != null) {
+      SweepWorkItem claimed = item;
+      AtomicBoolean lost = new AtomicBoolean();
+      claimLost.set(lost);
+      log.info("Claimed work item {} of user sweep {}", claimed.getSequence(), run.getId());
+      // renewed well within its ttl, so pauses, load holds and slow batches keep the claim
+      ScheduledFuture<?> heartbeat =
+          sweepLeaseService.scheduleHeartbeat(
+              () -> renewClaim(claimed, ttl, lost), ttl.dividedBy(3));
+      boolean finished;
+      try {
+        finished =
+            userSweepPipeline.sweep(
+                claimed.getLastProcessedId() != null
+                    ? claimed.getLastProcessedId()
+                    : claimed.getRangeStart(),
+                claimed.getRangeEnd(),
+                gate,
+                (lastProcessedId, batchResult) -> {
+                  if (!sweepWorkItemRepository.checkpoint(
+                      claimed, lastProcessedId, batchResult, ttl)) {
+                    return false;
+                  }
+                  userSweepRunService.recordShardProgress(run, batchResult);
+                  return true;
+                },
+                results);
+      } finally {
+        heartbeat.cancel(false);
+      }
+      if (!finished || !sweepWorkItemRepository.complete(claimed)) {
+        completed = false;
+        log.warn(
+            "Work item {} of user sweep {} was not finished by this instance",
+            claimed.getSequence(),
+            run.getId());
+      }
+    }
+
+    if (sweepWorkItemRepository.countByRunIdAndStatusNot(run.getId(), SweepWorkItem.Status.DONE)
+        == 0) {
+      userSweepRunService.completeSharded(run);
+      deleteWorkItems(
+          "of the completed run", () -> sweepWorkItemRepository.deleteByRunId(run.getId()));
+    }
+    return completed && !gate.isCancelled() && !Thread.currentThread().isInterrupted();
+  }
+
+  // runs on the heartbeat thread, a lost claim stops the sweep of the item at its next batch
+  private void renewClaim(SweepWorkItem item, Duration ttl, AtomicBoolean lost) {
+    try {
+      if (!sweepWorkItemRepository.renewClaim(item, ttl)) {
+        log.warn("Claim on work item {} was taken over by another instance", item.getSequence());
+        lost.set(true);
+      }
+    } catch (Exception e) {
+      // keep trying until the claim runs out, another instance can only take it after that
+      log.error("Unable to renew the claim on work item {}", item.getSequence(), e);
+    }
+  }
+
+  // leftover work items are only clutter, failing to delete them must not fail the sweep
+  private void deleteWorkItems(String which, LongSupplier delete) {
+    try {
+      long deleted = delete.getAsLong();
+      log.info("Deleted {} work items {}", deleted, which);
+    } catch (Exception e) {
+      log.error("Failed to delete work items {}", which, e);
+    }
+  }
+}
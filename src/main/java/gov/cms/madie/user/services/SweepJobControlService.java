@@ -0,0 +1,250 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.SweepJobProgressDto;
+import gov.cms.madie.user.models.SweepControl;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.SweepControlRepository;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Lets operators follow and steer the user sweep: list runs, report progress, and pause, resume,
+ * cancel or rate limit the running sweep. The controls are stored in the database and applied by
+ * the sweep's gate before every batch, on whichever instance runs it. The gate also slows the sweep
+ * down or holds it while the service is busy, see {@link SweepLoadMonitor}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SweepJobControlService {
+
+  static final String USER_SWEEP_CONTROL = "userSweep";
+
+  private final SweepControlRepository sweepControlRepository;
+  private final UserSweepRunRepository userSweepRunRepository;
+  private final UserUpdateConfig userUpdateConfig;
+  private final SweepLoadMonitor sweepLoadMonitor;
+
+  public List<UserSweepRun> listRuns() {
+    return userSweepRunRepository.findTop20ByOrderByStartedAtDesc();
+  }
+
+  /**
+   * Reports the progress of the latest full or sharded sweep run. Incremental, manual, retry and
+   * enumeration jobs keep no run and are not covered, their counts are in the job history.
+   *
+   * @return the progress, or empty if no full or sharded sweep has run yet
+   */
+  public Optional<SweepJobProgressDto> currentProgress() {
+    SweepControl control = getControl();
+    return userSweepRunRepository
+        .findFirstByOrderByStartedAtDesc()
+        .map(run -> toProgress(run, control));
+  }
+
+  public SweepControl getControl() {
+    return sweepControlRepository
+        .findById(USER_SWEEP_CONTROL)
+        .orElseGet(() -> SweepControl.builder().id(USER_SWEEP_CONTROL).build());
+  }
+
+  public SweepControl pause(String username) {
+    return updateControl(username, Map.of("paused", true));
+  }
+
+  public SweepControl resume(String username) {
+    return updateControl(username, Map.of("paused", false));
+  }
+
+  /** Stops every sweep running now at its next batch; sweeps started later are not affected. */
+  public SweepControl cancel(String username) {
+    return updateControl(username, Map.of("cancelRequestedAt", Instant.now(), "paused", false));
+  }
+
+  /**
+   * Limits the users sent to HARP per second.
+   *
+   * @param maxUsersPerSecond the new limit, null or less than 1 to remove it
+   */
+  public SweepControl setRateLimit(Integer maxUsersPerSecond, String username) {
+    Integer limit = maxUsersPerSecond == null || maxUsersPerSecond < 1 ? null : maxUsersPerSecond;
+    return updateControl(username, Collections.singletonMap("maxUsersPerSecond", limit));
+  }
+
+  /**
+   * Creates the gate a sweep starting now passes before each batch.
+   *
+   * @param stopRequested closes the gate once true, such as when the sweep lease is lost
+   * @return the gate
+   */
+  public Gate gate(BooleanSupplier stopRequested) {
+    return new Gate(Instant.now(), stopRequested);
+  }
+
+  // only the changed fields are set, so a pause and a rate limit sent together both apply
+  private SweepControl updateControl(String username, Map<String, Object> fields) {
+    SweepControl control = sweepControlRepository.setFields(USER_SWEEP_CONTROL, fields, username);
+    log.info(
+        "User [{}] - Set user sweep paused={}, maxUsersPerSecond={}, cancelRequestedAt={}",
+        username,
+        control.isPaused(),
+        control.getMaxUsersPerSecond(),
+        control.getCancelRequestedAt());
+    return control;
+  }
+
+  private SweepJobProgressDto toProgress(UserSweepRun run, SweepControl control) {
+    long processed = run.getUpdatedCount() + run.getFailedCount();
+    double usersPerSecond = 0;
+    if (run.getResumedAt() != null && run.getLastCheckpointAt() != null) {
+      long millis = Duration.between(run.getResumedAt(), run.getLastCheckpointAt()).toMillis();
+      if (millis > 0) {
+        usersPerSecond = (processed - run.getProcessedAtResume()) * 1000.0 / millis;
+      }
+    }
+    Instant estimatedCompletionAt = null;
+    if (run.getStatus() == UserSweepRun.Status.RUNNING
+        && !control.isPaused()
+        && usersPerSecond > 0
+        && run.getTotalUsers() > 0) {
+      long remaining = Math.max(0, run.getTotalUsers() - processed);
+      estimatedCompletionAt =
+          run.getLastCheckpointAt().plusMillis((long) (remaining * 1000 / usersPerSecond));
+    }
+    return SweepJobProgressDto.builder()
+        .runId(run.getId())
+        .status(run.getStatus())
+        .paused(control.isPaused())
+        .maxUsersPerSecond(control.getMaxUsersPerSecond())
+        .startedAt(run.getStartedAt())
+        .lastCheckpointAt(run.getLastCheckpointAt())
+        .totalUsers(run.getTotalUsers())
+        .processedCount(processed)
+        .updatedCount(run.getUpdatedCount())
+        .failedCount(run.getFailedCount())
+        .unchangedCount(run.getUnchangedCount())
+        .usersPerSecond(usersPerSecond)
+        .estimatedCompletionAt(estimatedCompletionAt)
+        .build();
+  }
+
+  /** Applies the operator controls to one sweep. Not thread safe, used by the sweep's reader. */
+  public class Gate implements UserSweepPipeline.SweepGate {
+    private final Instant startedAt;
+    private final BooleanSupplier stopRequested;
+    private long nextBatchAt = System.nanoTime();
+    private boolean cancelled;
+    private boolean heldForLoad;
+
+    private Gate(Instant startedAt, BooleanSupplier stopRequested) {
+      this.startedAt = startedAt;
+      this.stopRequested = stopRequested;
+    }
+
+    @Override
+    public boolean awaitTurn(int batchSize) throws InterruptedException {
+      boolean pauseLogged = false;
+      while (!stopRequested.getAsBoolean()) {
+        SweepControl control = readControl();
+        if (control.getCancelRequestedAt() != null
+            && control.getCancelRequestedAt().isAfter(startedAt)) {
+          log.warn("User sweep cancelled by {}", control.getUpdatedBy());
+          cancelled = true;
+          return false;
+        }
+        if (!control.isPaused()) {
+          if (holdForLoad()) {
+            continue;
+          }
+          pace(control.getMaxUsersPerSecond(), batchSize);
+          return true;
+        }
+        if (!pauseLogged) {
+          log.info("User sweep paused by {}", control.getUpdatedBy());
+          pauseLogged = true;
+        }
+        Thread.sleep(userUpdateConfig.getControlPollInterval().toMillis());
+      }
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Waits out the load on the service: holds the sweep for a check interval while overloaded, and
+     * once held until the load is back to normal, or slows it by a delay while the load is
+     * elevated.
+     *
+     * @return true if the sweep was held and the controls need reading again
+     */
+    private boolean holdForLoad() throws InterruptedException {
+      SweepLoadMonitor.Load load = readLoad();
+      UserUpdateConfig.Throttle throttle = userUpdateConfig.getThrottle();
+      if (load.level() == SweepLoadMonitor.Level.OVERLOADED
+          || (heldForLoad && load.level() != SweepLoadMonitor.Level.NORMAL)) {
+        if (!heldForLoad) {
+          log.warn("User sweep held while the service is busy: {}", load.signal());
+          heldForLoad = true;
+        }
+        Thread.sleep(throttle.getCheckInterval().toMillis());
+        return true;
+      }
+      if (heldForLoad) {
+        log.info("User sweep resumed, service load back to normal");
+        heldForLoad = false;
+      }
+      if (load.level() == SweepLoadMonitor.Level.ELEVATED) {
+        log.debug("User sweep slowed down while the service is busy: {}", load.signal());
+        Thread.sleep(throttle.getSlowDownDelay().toMillis());
+      }
+      return false;
+    }
+
+    // like the controls, unreadable metrics must not stop the sweep
+    private SweepLoadMonitor.Load readLoad() {
+      try {
+        return sweepLoadMonitor.currentLoad();
+      } catch (Exception e) {
+        log.warn("Failed to read service load, continuing", e);
+        return SweepLoadMonitor.Load.NORMAL;
+      }
+    }
+
+    // spaces batches so that on average no more than maxUsersPerSecond users are sent to HARP
+    private void pace(Integer maxUsersPerSecond, int batchSize) throws InterruptedException {
+      long wait = nextBatchAt - System.nanoTime();
+      if (maxUsersPerSecond != null && wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      nextBatchAt =
+          System.nanoTime()
+              + (maxUsersPerSecond == null
+                  ? 0
+                  : TimeUnit.SECONDS.toNanos(batchSize) / maxUsersPerSecond);
+    }
+
+    // an unreadable control must not stop the sweep, it keeps running as it was
+    private SweepControl readControl() {
+      try {
+        return getControl();
+      } catch (Exception e) {
+        log.warn("Failed to read user sweep control, continuing", e);
+        return SweepControl.builder().build();
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.SweepWorkItem;
+import gov.cms.madie.user.repositories.SweepLeaseRepository;
+import gov.cms.madie.user.repositories.SweepWorkItemRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the cluster-wide lease for the user sweep. A held lease is kept alive by a heartbeat until
+ * it is released; if a heartbeat is rejected the lease is flagged as lost. A sharded sweep holds
+ * the lease only while planning, its replicas then hold claims on work items instead; the lease is
+ * not handed out while any of those claims is live, so no other job runs alongside a sharded sweep.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SweepLeaseService {
+
+  public static final String USER_SWEEP_LEASE = "userSweep";
+
+  private final SweepLeaseRepository sweepLeaseRepository;
+  private final SweepWorkItemRepository sweepWorkItemRepository;
+  private final UserUpdateConfig userUpdateConfig;
+
+  @Getter
+  private final String instanceId =
+      System.getenv().getOrDefault("HOSTNAME", "instance") + "-" + UUID.randomUUID();
+
+  private final ScheduledExecutorService heartbeats = newHeartbeatExecutor();
+  private final Map<Long, ScheduledFuture<?>> heartbeatsByToken = new ConcurrentHashMap<>();
+
+  /**
+   * Takes the user sweep lease if no other instance holds it and no sharded sweep is being worked
+   * on.
+   *
+   * @return the held lease, or empty if another instance is running the sweep
+   */
+  public Optional<SweepLease> tryAcquire() {
+    UserUpdateConfig.Lease config = userUpdateConfig.getLease();
+    SweepLease lease;
+    try {
+      if (isShardedSweepActive()) {
+        log.debug("A sharded user sweep is being worked on, not acquiring the lease");
+        return Optional.empty();
+      }
+      lease = sweepLeaseRepository.tryAcquire(USER_SWEEP_LEASE, instanceId, config.getTtl());
+    } catch (Exception e) {
+      log.error("Unable to acquire the user sweep lease", e);
+      return Optional.empty();
+    }
+    if (lease == null) {
+      return Optional.empty();
+    }
+    log.info("Acquired user sweep lease with fencing token {}", lease.getFencingToken());
+    long interval = config.getHeartbeatInterval().toMillis();
+    heartbeatsByToken.put(
+        lease.getFencingToken(),
+        heartbeats.scheduleAtFixedRate(
+            () -> heartbeat(lease), interval, interval, TimeUnit.MILLISECONDS));
+    return Optional.of(lease);
+  }
+
+  /**
+   * Checks whether a sweep is running on any instance.
+   *
+   * @return true if an instance holds the lease or a work item of a sharded sweep, false if none
+   *     does or neither can be read
+   */
+  public boolean isHeld() {
+    try {
+      return sweepLeaseRepository.isHeld(USER_SWEEP_LEASE) || isShardedSweepActive();
+    } catch (Exception e) {
+      log.error("Unable to read the user sweep lease", e);
+      return false;
+    }
+  }
+
+  // a claim outlives its owner by at most the item ttl, so a stopped sharded sweep does not block
+  private boolean isShardedSweepActive() {
+    return sweepWorkItemRepository.existsByStatusAndLeaseExpiresAtAfter(
+        SweepWorkItem.Status.CLAIMED, Instant.now());
+  }
+
+  /**
+   * Stops the heartbeat and expires the lease so the next sweep can start anywhere.
+   *
+   * @param lease the held lease
+   */
+  public void release(SweepLease lease) {
+    ScheduledFuture<?> heartbeat = heartbeatsByToken.remove(lease.getFencingToken());
+    if (heartbeat != null) {
+      heartbeat.cancel(false);
+    }
+    if (lease.isLost()) {
+      return;
+    }
+    try {
+      sweepLeaseRepository.release(lease);
+    } catch (Exception e) {
+      // the lease still expires once its ttl runs out
+      log.error("Unable to release the user sweep lease", e);
+    }
+  }
+
+  /* package-private for testability */
+  void heartbeat(SweepLease lease) {
+    Duration ttl = userUpdateConfig.getLease().getTtl();
+    try {
+      if (!sweepLeaseRepository.renew(lease, ttl)) {
+        log.warn("User sweep lease with fencing token {} was taken over", lease.getFencingToken());
+        markLost(lease);
+      }
+    } catch (Exception e) {
+      // keep trying until the lease runs out, another instance can only take it after that
+      log.error("Unable to renew the user sweep lease", e);
+    }
+  }
+
+  /**
+   * Runs another heartbeat of the sweep, such as the renewal of a claimed work item, on the lease
+   * heartbeat thread.
+   *
+   * @param heartbeat the renewal to run, it must not throw
+   * @param interval time between renewals
+   * @return the scheduled heartbeat, to be cancelled by the caller once done
+   */
+  public ScheduledFuture<?> scheduleHeartbeat(Runnable heartbeat, Duration interval) {
+    return heartbeats.scheduleAtFixedRate(
+        heartbeat, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Flags the lease as lost, e.g. when a write was fenced off, so the holder stops its work.
+   *
+   * @param lease the lease that is no longer held
+   */
+  public void markLost(SweepLease lease) {
+    lease.setLost(true);
+    ScheduledFuture<?> heartbeat = heartbeatsByToken.remove(lease.getFencingToken());
+    if (heartbeat != null) {
+      heartbeat.cancel(false);
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    heartbeats.shutdownNow();
+  }
+
+  private static ScheduledExecutorService newHeartbeatExecutor() {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sweep-lease-");
+    threadFactory.setDaemon(true);
+    return Executors.newSingleThreadScheduledExecutor(threadFactory);
+  }
+}
@@ -0,0 +1,140 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.HarpConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.search.Search;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells the user sweep how busy the service is from the p99 latency of logins, HARP calls and Mongo
+ * commands over the last few minutes. The percentiles come from the http.server.requests,
+ * http.client.requests and mongodb.driver.commands timers, so they need publishing a 0.99
+ * percentile; a timer without one is read as idle. The highest latency relative to its threshold is
+ * published as the user.sweep.load gauge.
+ */
+@Slf4j
+@Component
+public class SweepLoadMonitor {
+
+  static final String LOGIN_URI = "/users/{harpId}";
+  private static final double P99 = 0.99;
+
+  public enum Level {
+    /** Every latency is below its slow down point. */
+    NORMAL,
+    /** A latency is past its slow down point but below its threshold. */
+    ELEVATED,
+    /** A latency is above its threshold. */
+    OVERLOADED
+  }
+
+  /**
+   * @param level how busy the service is
+   * @param signal the latency furthest along towards its threshold, such as "login p99 1200 ms"
+   */
+  public record Load(Level level, String signal) {
+    static final Load NORMAL = new Load(Level.NORMAL, "none");
+  }
+
+  private final UserUpdateConfig userUpdateConfig;
+  private final HarpConfig harpConfig;
+  private final MeterRegistry meterRegistry;
+
+  public SweepLoadMonitor(
+      UserUpdateConfig userUpdateConfig, HarpConfig harpConfig, MeterRegistry meterRegistry) {
+    this.userUpdateConfig = userUpdateConfig;
+    this.harpConfig = harpConfig;
+    this.meterRegistry = meterRegistry;
+    Gauge.builder("user.sweep.load", this, SweepLoadMonitor::highestRatio)
+        .description("Highest p99 latency watched by the user sweep relative to its threshold")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @return how busy the service is now, always {@link Level#NORMAL} when the throttle is disabled
+   */
+  public Load currentLoad() {
+    UserUpdateConfig.Throttle throttle = userUpdateConfig.getThrottle();
+    if (!throttle.isEnabled()) {
+      return Load.NORMAL;
+    }
+    Signal highest = highest(throttle);
+    if (highest.ratio() > 1) {
+      return new Load(Level.OVERLOADED, highest.describe());
+    }
+    if (highest.ratio() > throttle.getSlowDownAt()) {
+      return new Load(Level.ELEVATED, highest.describe());
+    }
+    return Load.NORMAL;
+  }
+
+  private double highestRatio() {
+    return highest(userUpdateConfig.getThrottle()).ratio();
+  }
+
+  private Signal highest(UserUpdateConfig.Throttle throttle) {
+    Signal highest =
+        signal(
+            "login",
+            meterRegistry.find("http.server.requests").tag("method", "PUT").tag("uri", LOGIN_URI),
+            throttle.getLoginP99Threshold());
+    Signal harp =
+        signal(
+            "HARP",
+            meterRegistry.find("http.client.requests").tag("client.name", harpHost()),
+            throttle.getHarpP99Threshold());
+    if (harp.ratio() > highest.ratio()) {
+      highest = harp;
+    }
+    Signal mongo =
+        signal(
+            "Mongo",
+            meterRegistry.find("mongodb.driver.commands"),
+            throttle.getMongoP99Threshold());
+    return mongo.ratio() > highest.ratio() ? mongo : highest;
+  }
+
+  // the p99 of the slowest timer found, one per status or command
+  private Signal signal(String name, Search search, Duration threshold) {
+    double p99Millis = 0;
+    for (Timer timer : search.timers()) {
+      for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+        if (percentile.percentile() == P99) {
+          p99Millis = Math.max(p99Millis, percentile.value(TimeUnit.MILLISECONDS));
+        }
+      }
+    }
+    double thresholdMillis = threshold.toMillis();
+    return new Signal(name, p99Millis, thresholdMillis > 0 ? p99Millis / thresholdMillis : 0);
+  }
+
+  private String harpHost() {
+    String baseUrl = harpConfig.getBaseUrl();
+    if (StringUtils.isBlank(baseUrl)) {
+      return "none";
+    }
+    try {
+      return Objects.toString(URI.create(baseUrl).getHost(), "none");
+    } catch (IllegalArgumentException e) {
+      log.warn("Cannot read the HARP host from base URL [{}]", baseUrl);
+      return "none";
+    }
+  }
+
+  private record Signal(String name, double p99Millis, double ratio) {
+    String describe() {
+      return String.format("%s p99 %.0f ms", name, p99Millis);
+    }
+  }
+}
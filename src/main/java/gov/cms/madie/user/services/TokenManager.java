@@ -1,10 +1,13 @@
 package gov.cms.madie.user.services;
 
+import gov.cms.madie.user.config.TaskExecutionConfig;
 import gov.cms.madie.user.dto.TokenResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.Objects;
+
 @Service
 @Slf4j
 public class TokenManager {
@@ -29,8 +32,31 @@ public class TokenManager {
     return currentToken;
   }
 
+  /**
+   * Replaces a token HARP rejected. Callers that were rejected with the same token while it was
+   * being renewed get the renewed token without another token request.
+   *
+   * @param rejectedAccessToken the access token HARP rejected
+   * @return the renewed token, or null if no token could be obtained
+   */
+  public synchronized TokenResponse renewToken(String rejectedAccessToken) {
+    if (currentToken != null
+        && !Objects.equals(currentToken.getAccessToken(), rejectedAccessToken)
+        && !currentToken.isExpired()) {
+      return currentToken;
+    }
+    log.info("HARP rejected the current token, renewing it");
+    try {
+      currentToken = harpProxyService.getToken();
+    } catch (Exception e) {
+      log.error("Unable to renew HARP token due to error", e);
+      currentToken = null;
+    }
+    return currentToken;
+  }
+
   /** This method will be called every 20 minutes to refresh the HARP token. */
-  @Scheduled(cron = "0 0,20,40 * * * *")
+  @Scheduled(cron = "0 0,20,40 * * * *", scheduler = TaskExecutionConfig.TOKEN_REFRESH_SCHEDULER)
   public synchronized void forceRefreshToken() {
     try {
       currentToken = harpProxyService.getToken();
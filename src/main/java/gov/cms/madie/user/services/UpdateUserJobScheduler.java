@@ -1,112 +1,245 @@
 package gov.cms.madie.user.services;
 
-import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.TaskExecutionConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
 import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
-import gov.cms.madie.user.repositories.UserRepository;
-import io.micrometer.common.util.StringUtils;
+import gov.cms.madie.user.dto.UserUpdatesJobSummaryDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserUpdateJob;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class UpdateUserJobScheduler {
 
-  private final UserRepository userRepository;
   private final UserService userService;
+  private final UserSweepPipeline userSweepPipeline;
+  private final SweepLeaseService sweepLeaseService;
+  private final ShardedUserSweep shardedUserSweep;
+  private final IncrementalUserSweep incrementalUserSweep;
+  private final UserUpdateConfig userUpdateConfig;
+  private final UserUpdateJobHistoryService userUpdateJobHistoryService;
+  private final UserRefreshRetryService userRefreshRetryService;
+  private final HarpUserEnumeration harpUserEnumeration;
 
   /** Scheduled job that updates all user data from HARP. */
-  @Scheduled(cron = "${user.update.cron-expression}")
-  public UserUpdatesJobResultDto triggerUpdateUsersJob() {
+  @Scheduled(
+      cron = "${user.update.cron-expression}",
+      scheduler = TaskExecutionConfig.USER_SWEEP_SCHEDULER)
+  public UserUpdatesJobSummaryDto triggerUpdateUsersJob() {
     log.info("Starting user update job from HARP at {}", Instant.now());
-
-    int pageSize = 50;
-    int pageNumber = 0;
-    Page<MadieUser> userPage;
-    UserUpdatesJobResultDto updateJobResultsDto = new UserUpdatesJobResultDto();
-    do {
-      // Fetch users with pagination and projection (only harpId field)
-      Pageable pageable = PageRequest.of(pageNumber, pageSize);
-      userPage = userRepository.findAllHarpIds(pageable);
-
-      if (userPage.isEmpty()) {
-        log.info("No users found on page {}", pageNumber);
-        break;
-      }
-
-      log.info(
-          "Processing page {} of {}: {} users",
-          pageNumber + 1,
-          userPage.getTotalPages(),
-          userPage.getNumberOfElements());
-
-      // Extract HARP IDs from current page
-      List<String> harpIds =
-          userPage.getContent().stream()
-              .map(MadieUser::getHarpId)
-              .filter(StringUtils::isNotBlank)
-              .collect(Collectors.toList());
-
-      UserUpdatesJobResultDto resultsDto = userService.updateUsersFromHarp(harpIds);
-      // collect results
-      if (!CollectionUtils.isEmpty(resultsDto.getFailedHarpIds())) {
-        updateJobResultsDto.getFailedHarpIds().addAll(resultsDto.getFailedHarpIds());
-      }
-      if (!CollectionUtils.isEmpty(resultsDto.getUpdatedHarpIds())) {
-        updateJobResultsDto.getUpdatedHarpIds().addAll(resultsDto.getUpdatedHarpIds());
+    if (userUpdateConfig.getSharding().isEnabled()) {
+      UserUpdateJobHistoryService.JobRecorder recorder =
+          userUpdateJobHistoryService.start(UserUpdateJob.Type.SHARDED);
+      return runJob(recorder, () -> shardedUserSweep.run(withRetries(recorder)));
+    }
+    Optional<SweepLease> lease = sweepLeaseService.tryAcquire();
+    if (lease.isEmpty()) {
+      log.info("User update job is already running on another instance, skipping");
+      return new UserUpdatesJobSummaryDto();
+    }
+    try {
+      if (userUpdateConfig.getIncremental().isEnabled() && !incrementalUserSweep.isFullSweepDue()) {
+        UserUpdateJobHistoryService.JobRecorder recorder =
+            userUpdateJobHistoryService.start(UserUpdateJob.Type.INCREMENTAL);
+        return runJob(recorder, () -> incrementalUserSweep.run(lease.get(), withRetries(recorder)));
       }
-      // Update page number
-      pageNumber++;
-    } while (userPage.hasNext());
-
-    logJobResults(updateJobResultsDto);
-    return updateJobResultsDto;
+      UserUpdateJobHistoryService.JobRecorder recorder =
+          userUpdateJobHistoryService.start(UserUpdateJob.Type.FULL);
+      return runJob(recorder, () -> userSweepPipeline.run(lease.get(), withRetries(recorder)));
+    } finally {
+      sweepLeaseService.release(lease.get());
+    }
   }
 
-  /** update job manual trigger */
-  @Async
+  /**
+   * update job manual trigger. Throws a TaskRejectedException instead of starting while another
+   * manual trigger is still running on this instance.
+   */
+  @Async(TaskExecutionConfig.USER_REFRESH_TRIGGER_EXECUTOR)
   public void triggerUpdateUsersJobManually(List<String> harpIds) {
     log.info("Manual user update job triggered at {}", Instant.now());
     // if no harpIds provided, update all users
     if (CollectionUtils.isEmpty(harpIds)) {
       triggerUpdateUsersJob();
     } else {
-      UserUpdatesJobResultDto resultsDto;
-      if (userService.areHarpIdsValid(harpIds)) {
-        resultsDto = userService.updateUsersFromHarp(harpIds);
-      } else {
-        log.warn("Invalid HARP IDs provided for manual user update: {}", harpIds);
-        resultsDto =
-            UserUpdatesJobResultDto.builder()
-                .failedHarpIds(harpIds)
-                .updatedHarpIds(List.of())
-                .build();
+      Optional<SweepLease> lease = sweepLeaseService.tryAcquire();
+      if (lease.isEmpty()) {
+        log.warn("User update job is already running on another instance, skipping manual update");
+        return;
+      }
+      try {
+        UserUpdateJobHistoryService.JobRecorder recorder =
+            userUpdateJobHistoryService.start(UserUpdateJob.Type.MANUAL);
+        runJob(
+            recorder,
+            () ->
+                HarpBulkhead.withPriority(
+                    HarpBulkhead.Priority.ADMIN, () -> updateUsers(harpIds, recorder)));
+      } finally {
+        sweepLeaseService.release(lease.get());
       }
-      logJobResults(resultsDto);
     }
     log.info("Manual user update completed");
   }
 
-  private void logJobResults(UserUpdatesJobResultDto resultsDto) {
+  /** Retries users whose last update failed, a few at a time, between sweeps. */
+  @Scheduled(
+      cron = "${user.update.retry.cron-expression}",
+      scheduler = TaskExecutionConfig.USER_SWEEP_SCHEDULER)
+  public UserUpdatesJobSummaryDto drainRetryQueue() {
+    if (!userUpdateConfig.getRetry().isEnabled()) {
+      return new UserUpdatesJobSummaryDto();
+    }
+    // the sweep lease keeps a drain from running alongside any sweep, sharded ones included
+    Optional<SweepLease> lease = sweepLeaseService.tryAcquire();
+    if (lease.isEmpty()) {
+      log.debug("User update job is running, skipping retry drain");
+      return new UserUpdatesJobSummaryDto();
+    }
+    try {
+      UserUpdateJobHistoryService.JobRecorder recorder =
+          userUpdateJobHistoryService.start(UserUpdateJob.Type.RETRY);
+      return runJob(recorder, () -> retryDueUsers(withRetries(recorder)));
+    } finally {
+      sweepLeaseService.release(lease.get());
+    }
+  }
+
+  /**
+   * Pages through every user of the program in HARP, creating users not yet stored and flagging
+   * stored users HARP no longer returns.
+   */
+  @Scheduled(
+      cron = "${user.update.enumeration.cron-expression}",
+      scheduler = TaskExecutionConfig.USER_SWEEP_SCHEDULER)
+  public UserUpdatesJobSummaryDto enumerateHarpUsers() {
+    if (!userUpdateConfig.getEnumeration().isEnabled()) {
+      return new UserUpdatesJobSummaryDto();
+    }
+    Optional<SweepLease> lease = sweepLeaseService.tryAcquire();
+    if (lease.isEmpty()) {
+      log.info("User update job is running, skipping HARP user enumeration");
+      return new UserUpdatesJobSummaryDto();
+    }
+    try {
+      UserUpdateJobHistoryService.JobRecorder recorder =
+          userUpdateJobHistoryService.start(UserUpdateJob.Type.ENUMERATION);
+      // failed upserts are not queued for retry, the retry queue refreshes stored users only
+      return runJob(recorder, () -> harpUserEnumeration.run(lease.get(), recorder));
+    } finally {
+      sweepLeaseService.release(lease.get());
+    }
+  }
+
+  // failed users are pushed back by their backoff, so each pass reads users not yet retried
+  private boolean retryDueUsers(Consumer<UserUpdatesJobResultDto> results) {
+    UserUpdateConfig.Retry retry = userUpdateConfig.getRetry();
+    int remaining = retry.getMaxUsersPerDrain();
+    while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+      List<String> harpIds =
+          userRefreshRetryService.findDueHarpIds(Math.min(retry.getBatchSize(), remaining));
+      if (harpIds.isEmpty()) {
+        return true;
+      }
+      UserUpdatesJobResultDto result = userService.updateUsersFromHarp(harpIds);
+      failUnresolved(harpIds, result);
+      results.accept(result);
+      remaining -= harpIds.size();
+    }
+    return !Thread.currentThread().isInterrupted();
+  }
+
+  // a batch aborted before HARP answered, e.g. without a token, neither updates nor fails its
+  // users; failing them advances their backoff, otherwise the next pass reads the same users again
+  private void failUnresolved(List<String> harpIds, UserUpdatesJobResultDto result) {
+    Set<String> resolved = new HashSet<>();
+    result.getUpdatedHarpIds().forEach(harpId -> resolved.add(harpId.toLowerCase(Locale.ROOT)));
+    result.getFailedHarpIds().forEach(harpId -> resolved.add(harpId.toLowerCase(Locale.ROOT)));
+    List<String> unresolved =
+        harpIds.stream()
+            .filter(harpId -> !resolved.contains(harpId.toLowerCase(Locale.ROOT)))
+            .toList();
+    if (!unresolved.isEmpty()) {
+      log.warn("Retry batch returned no result for {} users", unresolved.size());
+      result.fail(unresolved, "No result from HARP");
+    }
+  }
+
+  private Consumer<UserUpdatesJobResultDto> withRetries(
+      UserUpdateJobHistoryService.JobRecorder recorder) {
+    return batchResult -> {
+      recorder.accept(batchResult);
+      userRefreshRetryService.record(batchResult);
+    };
+  }
+
+  private boolean updateUsers(
+      List<String> harpIds, UserUpdateJobHistoryService.JobRecorder recorder) {
+    List<String> missingHarpIds = userService.findMissingHarpIds(harpIds);
+    Set<String> missingHarpIdSet = new HashSet<>(missingHarpIds);
+    List<String> validHarpIds =
+        harpIds.stream().filter(harpId -> !missingHarpIdSet.contains(harpId)).toList();
+    if (!missingHarpIds.isEmpty()) {
+      log.warn(
+          "Skipping {} unknown HARP IDs for manual user update: {}",
+          missingHarpIds.size(),
+          missingHarpIds);
+      recorder.accept(
+          UserUpdatesJobResultDto.builder()
+              .updatedHarpIds(new ArrayList<>())
+              .failedHarpIds(new ArrayList<>(missingHarpIds))
+              .build());
+    }
+
+    if (!validHarpIds.isEmpty()) {
+      withRetries(recorder).accept(userService.updateUsersFromHarp(validHarpIds));
+    }
+    return true;
+  }
+
+  private UserUpdatesJobSummaryDto runJob(
+      UserUpdateJobHistoryService.JobRecorder recorder, BooleanSupplier job) {
+    boolean completed;
+    try {
+      completed = job.getAsBoolean();
+    } catch (RuntimeException e) {
+      recorder.finish(false);
+      throw e;
+    }
+    UserUpdatesJobSummaryDto summary = recorder.finish(completed);
+    logJobResults(summary);
+    return summary;
+  }
+
+  private void logJobResults(UserUpdatesJobSummaryDto summary) {
     log.info(
         """
-      User update job results:
-      Total users updated successfully: {}
+      User update job {} results:
+      Total users updated successfully: {} ({} unchanged)
       Total users failed to update: {}
-      Failed HARP IDs: {}""",
-        resultsDto.getUpdatedHarpIds().size(),
-        resultsDto.getFailedHarpIds().size(),
-        resultsDto.getFailedHarpIds());
+      Failed HARP IDs (first {}): {}""",
+        summary.getJobId(),
+        summary.getUpdatedCount(),
+        summary.getUnchangedCount(),
+        summary.getFailedCount(),
+        summary.getFailedHarpIdsSample().size(),
+        summary.getFailedHarpIdsSample());
   }
 }
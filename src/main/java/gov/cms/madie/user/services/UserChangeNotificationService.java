@@ -0,0 +1,92 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserChangeNotificationDto;
+import gov.cms.madie.user.dto.UserChangeNotificationResultDto;
+import gov.cms.madie.user.exceptions.InvalidHarpIdException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Refreshes the users named in change notifications sent when their roles or details change in
+ * HARP, so the change is picked up without waiting for the sweep or their next login. The users are
+ * first written to the retry queue as due now, so an accepted notification is not lost when this
+ * instance restarts or its refresh fails, then sent through the {@link UserRefreshQueue}, which
+ * batches them and refreshes a user notified again while still queued only once. A successful
+ * refresh removes them from the retry queue.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserChangeNotificationService {
+
+  private final UserService userService;
+  private final UserRefreshQueue userRefreshQueue;
+  private final UserRefreshRetryService userRefreshRetryService;
+  private final UserUpdateConfig userUpdateConfig;
+
+  /**
+   * Queues the refresh of the stored users named in a notification.
+   *
+   * @param notification the users that changed
+   * @return the users queued and those not stored in MADiE, which are skipped
+   * @throws InvalidHarpIdException if the notification names no users or more than allowed
+   */
+  public UserChangeNotificationResultDto accept(UserChangeNotificationDto notification) {
+    List<String> harpIds = distinctHarpIds(notification);
+    if (harpIds.isEmpty()) {
+      throw new InvalidHarpIdException("Change notification has no HARP IDs");
+    }
+    int maxHarpIds = userUpdateConfig.getNotifications().getMaxHarpIds();
+    if (harpIds.size() > maxHarpIds) {
+      throw new InvalidHarpIdException(
+          String.format(
+              "Change notification has %d HARP IDs, at most %d are accepted",
+              harpIds.size(), maxHarpIds));
+    }
+
+    List<String> unknownHarpIds = userService.findMissingHarpIds(harpIds);
+    Set<String> unknown = new HashSet<>(unknownHarpIds);
+    List<String> queuedHarpIds =
+        harpIds.stream().filter(harpId -> !unknown.contains(harpId)).toList();
+    // written before the refresh is queued, so a refresh finishing first still removes them
+    if (!queuedHarpIds.isEmpty()
+        && !userRefreshRetryService.queueNow(
+            queuedHarpIds, "Change notification from " + notification.getSource())) {
+      log.warn("Retry queue disabled, change notification is lost if this instance restarts");
+    }
+    queuedHarpIds.forEach(userRefreshQueue::enqueue);
+    log.info(
+        "Change notification from [{}] queued {} users, skipped {} unknown: {}",
+        notification.getSource(),
+        queuedHarpIds.size(),
+        unknownHarpIds.size(),
+        unknownHarpIds);
+    return UserChangeNotificationResultDto.builder()
+        .queuedHarpIds(new ArrayList<>(queuedHarpIds))
+        .unknownHarpIds(new ArrayList<>(unknownHarpIds))
+        .build();
+  }
+
+  private List<String> distinctHarpIds(UserChangeNotificationDto notification) {
+    if (notification == null || notification.getHarpIds() == null) {
+      return List.of();
+    }
+    Set<String> harpIds = new LinkedHashSet<>();
+    notification.getHarpIds().stream()
+        .filter(StringUtils::isNotBlank)
+        .map(harpId -> StringUtils.toRootLowerCase(harpId.trim()))
+        .filter(Objects::nonNull)
+        .forEach(harpIds::add);
+    return new ArrayList<>(harpIds);
+  }
+}
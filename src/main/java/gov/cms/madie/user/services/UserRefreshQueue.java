@@ -0,0 +1,111 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.TaskExecutionConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Coalesces refreshes of single users into batches. Users queued while a batch is open join it, a
+ * user already queued is not added twice, and the batch is refreshed with one findUser call once it
+ * is full or its linger time has passed. Users that fail are queued for retry like the sweep.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserRefreshQueue {
+
+  private final UserService userService;
+  private final UserRefreshRetryService userRefreshRetryService;
+  private final UserUpdateConfig userUpdateConfig;
+
+  @Qualifier(TaskExecutionConfig.USER_REFRESH_QUEUE_SCHEDULER)
+  private final TaskScheduler taskScheduler;
+
+  private final Object lock = new Object();
+  private Map<String, CompletableFuture<Boolean>> pending = new LinkedHashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+
+  /**
+   * Queues a user to be refreshed from HARP with the next batch.
+   *
+   * @param harpId HARP ID of the user to refresh
+   * @return completes with true once the user was refreshed, or false if the refresh failed
+   */
+  public CompletableFuture<Boolean> enqueue(String harpId) {
+    String key = StringUtils.toRootLowerCase(harpId);
+    synchronized (lock) {
+      CompletableFuture<Boolean> queued = pending.get(key);
+      if (queued != null) {
+        return queued;
+      }
+      CompletableFuture<Boolean> refreshed = new CompletableFuture<>();
+      pending.put(key, refreshed);
+      if (pending.size() >= userUpdateConfig.getRefreshQueue().getBatchSize()) {
+        Map<String, CompletableFuture<Boolean>> batch = takePending();
+        taskScheduler.schedule(() -> refresh(batch), Instant.now());
+      } else if (scheduledFlush == null) {
+        scheduledFlush =
+            taskScheduler.schedule(
+                this::flush, Instant.now().plus(userUpdateConfig.getRefreshQueue().getLinger()));
+      }
+      return refreshed;
+    }
+  }
+
+  /** Refreshes the users queued so far without waiting for the batch to fill. */
+  public void flush() {
+    Map<String, CompletableFuture<Boolean>> batch;
+    synchronized (lock) {
+      batch = takePending();
+    }
+    if (!batch.isEmpty()) {
+      refresh(batch);
+    }
+  }
+
+  // called holding the lock; a flush still scheduled for the taken batch would find it empty
+  private Map<String, CompletableFuture<Boolean>> takePending() {
+    Map<String, CompletableFuture<Boolean>> batch = pending;
+    pending = new LinkedHashMap<>();
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return batch;
+  }
+
+  private void refresh(Map<String, CompletableFuture<Boolean>> batch) {
+    List<String> harpIds = new ArrayList<>(batch.keySet());
+    UserUpdatesJobResultDto result;
+    try {
+      result =
+          HarpBulkhead.withPriority(
+              HarpBulkhead.Priority.ADMIN, () -> userService.updateUsersFromHarp(harpIds));
+    } catch (Exception e) {
+      log.error("Failed to refresh queued batch of {} users", harpIds.size(), e);
+      result = new UserUpdatesJobResultDto();
+      result.fail(harpIds, UserService.failureReason("Queued refresh", e));
+    }
+    log.debug(
+        "Refreshed queued batch of {} users, {} failed",
+        harpIds.size(),
+        result.getFailedHarpIds().size());
+    userRefreshRetryService.record(result);
+    List<String> updatedHarpIds = result.getUpdatedHarpIds();
+    batch.forEach((harpId, refreshed) -> refreshed.complete(updatedHarpIds.contains(harpId)));
+  }
+}
@@ -0,0 +1,168 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.UserRefreshRetry;
+import gov.cms.madie.user.repositories.UserRefreshRetryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Queue of users whose update from HARP failed. Failures are retried in small batches with
+ * exponential backoff between sweeps, so a handful of transient failures does not need another full
+ * sweep. Users still failing after the maximum number of attempts are dead-lettered.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserRefreshRetryService {
+
+  private final UserRefreshRetryRepository userRefreshRetryRepository;
+  private final UserUpdateConfig userUpdateConfig;
+
+  /**
+   * Queues the users a batch failed to update and removes the ones it updated. Best effort, it
+   * never fails the batch that produced the result.
+   *
+   * @param batchResult the result of one batch
+   */
+  public void record(UserUpdatesJobResultDto batchResult) {
+    if (!userUpdateConfig.getRetry().isEnabled()) {
+      return;
+    }
+    try {
+      if (!batchResult.getUpdatedHarpIds().isEmpty()) {
+        userRefreshRetryRepository.deleteByHarpIdIn(
+            batchResult.getUpdatedHarpIds().stream().map(StringUtils::toRootLowerCase).toList());
+      }
+      if (!batchResult.getFailedHarpIds().isEmpty()) {
+        queueFailures(batchResult);
+      }
+    } catch (Exception e) {
+      log.error(
+          "Failed to update the retry queue for {} failed users",
+          batchResult.getFailedHarpIds().size(),
+          e);
+    }
+  }
+
+  /**
+   * Queues users to be refreshed by the next retry drain, so a requested refresh survives a restart
+   * of the instance that accepted it. Queued users become due now and dead-lettered ones pending
+   * again; their attempts so far are kept.
+   *
+   * @param harpIds the lower case HARP IDs of the users
+   * @param reason why the users are queued, kept as the reason of newly queued users
+   * @return false if the retry queue is disabled and nothing was queued
+   */
+  public boolean queueNow(Collection<String> harpIds, String reason) {
+    if (!userUpdateConfig.getRetry().isEnabled()) {
+      return false;
+    }
+    Map<String, UserRefreshRetry> queued =
+        userRefreshRetryRepository.findAllById(harpIds).stream()
+            .collect(Collectors.toMap(UserRefreshRetry::getHarpId, Function.identity()));
+    Instant now = Instant.now();
+    List<UserRefreshRetry> retries =
+        harpIds.stream()
+            .map(
+                harpId -> {
+                  UserRefreshRetry retry =
+                      queued.getOrDefault(
+                          harpId,
+                          UserRefreshRetry.builder().harpId(harpId).lastReason(reason).build());
+                  retry.setStatus(UserRefreshRetry.Status.PENDING);
+                  retry.setNextAttemptAt(now);
+                  return retry;
+                })
+            .toList();
+    userRefreshRetryRepository.saveAll(retries);
+    return true;
+  }
+
+  /**
+   * Finds users whose next attempt is due, the longest waiting first.
+   *
+   * @param limit the maximum number of users to return
+   * @return the HARP IDs of the users to retry
+   */
+  public List<String> findDueHarpIds(int limit) {
+    return userRefreshRetryRepository
+        .findByStatusAndNextAttemptAtLessThanEqual(
+            UserRefreshRetry.Status.PENDING,
+            Instant.now(),
+            PageRequest.of(0, limit, Sort.by("nextAttemptAt")))
+        .stream()
+        .map(UserRefreshRetry::getHarpId)
+        .toList();
+  }
+
+  // read and rewritten, not updated in place: batches failing the same user at the same time, such
+  // as the sweep and the refresh queue, may count as one attempt, delaying its dead-lettering
+  private void queueFailures(UserUpdatesJobResultDto batchResult) {
+    Map<String, String> reasons = new HashMap<>();
+    batchResult
+        .getFailedHarpIds()
+        .forEach(
+            harpId ->
+                reasons.put(
+                    StringUtils.toRootLowerCase(harpId),
+                    batchResult.getFailureReasons() == null
+                        ? null
+                        : batchResult.getFailureReasons().get(harpId)));
+    Map<String, UserRefreshRetry> queued =
+        userRefreshRetryRepository.findAllById(reasons.keySet()).stream()
+            .collect(Collectors.toMap(UserRefreshRetry::getHarpId, Function.identity()));
+    Instant now = Instant.now();
+    List<UserRefreshRetry> retries =
+        reasons.entrySet().stream()
+            .map(
+                failure -> {
+                  UserRefreshRetry retry =
+                      queued.getOrDefault(
+                          failure.getKey(),
+                          UserRefreshRetry.builder()
+                              .harpId(failure.getKey())
+                              .firstFailedAt(now)
+                              .build());
+                  retry.setAttempts(retry.getAttempts() + 1);
+                  retry.setLastReason(failure.getValue());
+                  retry.setLastFailedAt(now);
+                  if (retry.getAttempts() >= userUpdateConfig.getRetry().getMaxAttempts()) {
+                    log.warn(
+                        "Giving up on updating HARP ID {} after {} attempts: {}",
+                        retry.getHarpId(),
+                        retry.getAttempts(),
+                        retry.getLastReason());
+                    retry.setStatus(UserRefreshRetry.Status.DEAD);
+                    retry.setNextAttemptAt(null);
+                  } else {
+                    retry.setStatus(UserRefreshRetry.Status.PENDING);
+                    retry.setNextAttemptAt(now.plus(backoff(retry.getAttempts())));
+                  }
+                  return retry;
+                })
+            .toList();
+    userRefreshRetryRepository.saveAll(retries);
+  }
+
+  /* package-private for testability */
+  Duration backoff(int attempts) {
+    UserUpdateConfig.Retry config = userUpdateConfig.getRetry();
+    Duration backoff = config.getInitialBackoff().multipliedBy(1L << Math.min(attempts - 1, 20));
+    return backoff.compareTo(config.getMaxBackoff()) > 0 ? config.getMaxBackoff() : backoff;
+  }
+}
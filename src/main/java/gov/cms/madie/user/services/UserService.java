@@ -5,22 +5,31 @@ import gov.cms.madie.models.access.MadieUser;
 import gov.cms.madie.models.access.UserStatus;
 import gov.cms.madie.models.dto.UserDetailsDto;
 import gov.cms.madie.user.config.HarpConfig;
+import gov.cms.madie.user.config.TaskExecutionConfig;
 import gov.cms.madie.user.dto.TokenResponse;
 import gov.cms.madie.user.dto.UserRolesResponse;
+import gov.cms.madie.user.repositories.UserPatchRepositoryImpl;
 import gov.cms.madie.user.repositories.UserRepository;
 import gov.cms.madie.user.dto.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -28,19 +37,59 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class UserService {
 
+  private static final int MAX_FAILURE_REASON_LENGTH = 500;
+
   private final TokenManager tokenManager;
   private final UserRepository userRepository;
   private final HarpProxyService harpProxyService;
   private final HarpConfig harpConfig;
+  private final HarpDateTimeParser harpDateTimeParser;
+
+  @Qualifier("applicationTaskExecutor")
+  private final TaskExecutor taskExecutor;
+
+  @Qualifier(TaskExecutionConfig.LOGIN_DETAILS_EXECUTOR)
+  private final TaskExecutor loginDetailsExecutor;
+
+  // the queue refreshes users through this service
+  @Lazy private final UserRefreshQueue userRefreshQueue;
+
+  /** Logins serve the stored user if its roles were refreshed within this window (0 disables). */
+  @Value("${user.login.roles-max-age:0s}")
+  private Duration rolesMaxAge;
+
+  /** Background login refreshes go through the refresh queue instead of one HARP call each. */
+  @Value("${user.login.batch-background-refresh:false}")
+  private boolean batchBackgroundRefresh;
+
+  /** Logins also refresh the user's details, fetched from HARP alongside the roles. */
+  @Value("${user.login.fetch-details:true}")
+  private boolean fetchDetailsOnLogin;
 
-  public boolean areHarpIdsValid(List<String> harpIds) {
+  /** Logins stop waiting for the details after this long and go ahead with the roles alone. */
+  @Value("${user.login.details-timeout:5s}")
+  private Duration detailsTimeout;
+
+  /**
+   * Finds which of the provided HARP IDs do not belong to any user, using a single query.
+   *
+   * @param harpIds list of HARP IDs to check
+   * @return the provided HARP IDs that have no matching user
+   */
+  public List<String> findMissingHarpIds(List<String> harpIds) {
     if (CollectionUtils.isEmpty(harpIds)) {
-      return false;
+      return List.of();
     }
 
-    return userRepository.countByHarpIdIn(
-            harpIds.stream().map(StringUtils::toRootLowerCase).toList())
-        == harpIds.size();
+    Set<String> existingHarpIds =
+        userRepository
+            .findExistingHarpIds(harpIds.stream().map(StringUtils::toRootLowerCase).toList())
+            .stream()
+            .map(user -> StringUtils.toRootLowerCase(user.getHarpId()))
+            .collect(Collectors.toSet());
+    return harpIds.stream()
+        .filter(harpId -> !existingHarpIds.contains(StringUtils.toRootLowerCase(harpId)))
+        .toList();
   }
 
   public MadieUser getUserByHarpId(String harpId) {
@@ -53,19 +102,118 @@ public class UserService {
             });
   }
 
+  /**
+   * Logs the user in with fresh roles, and details unless disabled, from HARP. If the stored roles
+   * are recent enough, the stored user is returned right away and the HARP refresh runs in the
+   * background.
+   *
+   * @param harpId HARP ID of the user logging in
+   * @return the logged in user
+   */
   public MadieUser refreshUserRolesAndLogin(String harpId) {
+    if (rolesMaxAge != null && !rolesMaxAge.isZero() && !rolesMaxAge.isNegative()) {
+      MadieUser storedUser =
+          userRepository.recordLoginIfRolesRefreshedSince(harpId, Instant.now().minus(rolesMaxAge));
+      if (storedUser != null) {
+        refreshUserRolesLater(harpId);
+        return storedUser;
+      }
+    }
+    return HarpBulkhead.withPriority(
+        HarpBulkhead.Priority.INTERACTIVE, () -> fetchRolesAndLogin(harpId));
+  }
+
+  // the login is already recorded, a busy executor only skips this refresh
+  private void refreshUserRolesLater(String harpId) {
+    if (batchBackgroundRefresh) {
+      userRefreshQueue.enqueue(harpId);
+      return;
+    }
+    try {
+      taskExecutor.execute(() -> refreshUserRolesInBackground(harpId));
+    } catch (RejectedExecutionException e) {
+      log.warn("Skipped background role refresh for HARP ID: {}, executor busy", harpId);
+    }
+  }
+
+  private void refreshUserRolesInBackground(String harpId) {
+    try {
+      HarpBulkhead.withPriority(HarpBulkhead.Priority.ADMIN, () -> fetchRolesAndLogin(harpId));
+    } catch (Exception e) {
+      log.error("Background role refresh failed for HARP ID: {}", harpId, e);
+    }
+  }
+
+  private MadieUser fetchRolesAndLogin(String harpId) {
     TokenResponse token = tokenManager.getCurrentToken();
     MadieUser.MadieUserBuilder madieUserBuilder = MadieUser.builder().harpId(harpId);
     if (token == null || StringUtils.isBlank(token.getAccessToken())) {
       log.info("Unable to refresh user roles for HARP ID: {} - no token received", harpId);
     } else {
+      CompletableFuture<UserDetail> detail = fetchLoginDetail(harpId, token.getAccessToken());
       HarpResponseWrapper<UserRolesResponse> responseWrapper =
           harpProxyService.fetchUserRoles(harpId, token.getAccessToken());
-      return userRepository.loginUser(buildMadieUser(harpId, null, responseWrapper));
+      return userRepository.loginUser(
+          buildMadieUser(harpId, awaitLoginDetail(harpId, detail), responseWrapper));
     }
     return madieUserBuilder.build();
   }
 
+  /**
+   * Starts fetching the details of a user logging in, to run alongside the roles call with the same
+   * bulkhead priority. Runs on its own executor, never the one running the login, so a login cannot
+   * end up waiting on a task queued behind itself. The login goes ahead without details if they
+   * cannot be fetched.
+   *
+   * @return completes with the user's details, or null if not fetched
+   */
+  private CompletableFuture<UserDetail> fetchLoginDetail(String harpId, String accessToken) {
+    if (!fetchDetailsOnLogin) {
+      return CompletableFuture.completedFuture(null);
+    }
+    HarpBulkhead.Priority priority = HarpBulkhead.currentPriority();
+    try {
+      return CompletableFuture.supplyAsync(
+              () -> HarpBulkhead.withPriority(priority, () -> findLoginDetail(harpId, accessToken)),
+              loginDetailsExecutor)
+          .exceptionally(
+              e -> {
+                log.warn("Unable to fetch HARP details on login for HARP ID: {}", harpId, e);
+                return null;
+              });
+    } catch (RejectedExecutionException e) {
+      log.warn("Skipped fetching HARP details on login for HARP ID: {}, executor busy", harpId);
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  private UserDetail awaitLoginDetail(String harpId, CompletableFuture<UserDetail> detail) {
+    try {
+      return detail.get(detailsTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      log.warn(
+          "Logging in without HARP details for HARP ID: {}, not fetched within {}",
+          harpId,
+          detailsTimeout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.warn("Unable to fetch HARP details on login for HARP ID: {}", harpId, e);
+    }
+    return null;
+  }
+
+  private UserDetail findLoginDetail(String harpId, String accessToken) {
+    UserDetailsResponse response = harpProxyService.fetchUserDetails(List.of(harpId), accessToken);
+    if (response == null || response.getUserdetails() == null) {
+      return null;
+    }
+    return response.getUserdetails().stream()
+        .filter(detail -> harpId.equalsIgnoreCase(detail.getUsername()))
+        .findFirst()
+        .orElse(null);
+  }
+
   private List<HarpRole> harpRolesToMadieRoleList(UserRolesResponse userRolesResponse) {
     String programName = harpConfig.getProgramName();
     if (userRolesResponse == null || userRolesResponse.getUserRoles() == null) {
@@ -105,36 +253,124 @@ public class UserService {
    * @return UserUpdatesJobResultDto containing the results of the update operation
    */
   public UserUpdatesJobResultDto updateUsersFromHarp(List<String> harpIds) {
-    UserUpdatesJobResultDto result = new UserUpdatesJobResultDto();
+    UserUpdateBatch batch = new UserUpdateBatch(harpIds);
+    fetchUserDetails(batch);
+    fetchRefreshedUsers(batch);
+    saveRefreshedUsers(batch);
+    return batch.getResult();
+  }
 
-    if (CollectionUtils.isEmpty(harpIds)) {
+  /**
+   * First update stage: fetches a token and the HARP user details for the batch. Leaves the details
+   * unset if the batch cannot be updated.
+   *
+   * @param batch the batch to fetch details for
+   */
+  public void fetchUserDetails(UserUpdateBatch batch) {
+    if (CollectionUtils.isEmpty(batch.getHarpIds())) {
       log.warn("No valid HARP IDs provided. Aborting user update job.");
-      return result;
+      return;
     }
 
     TokenResponse token = fetchTokenOrFail();
     if (token == null) {
       log.info("Unable to fetch the token. Aborting user update job.");
-      return result;
+      return;
     }
 
-    UserDetailsResponse detailsResponse = fetchUserDetailsOrFail(harpIds, token, result);
+    UserDetailsResponse detailsResponse = fetchUserDetailsOrFail(batch, token);
     if (detailsResponse == null || CollectionUtils.isEmpty(detailsResponse.getUserdetails())) {
       log.warn("No user details returned from HARP for batch");
-      return result;
+      return;
     }
 
-    Map<String, UserDetail> detailsMap =
+    batch.setToken(token);
+    batch.setDetailsMap(
         detailsResponse.getUserdetails().stream()
             .collect(
                 Collectors.toMap(
                     detail -> detail.getUsername().toLowerCase(Locale.ROOT),
                     detail -> detail,
-                    (existing, replacement) -> existing));
-    for (String harpId : harpIds) {
-      updateSingleUser(harpId, token, detailsMap, result);
+                    (existing, replacement) -> existing)));
+  }
+
+  /**
+   * Second update stage: fetches the roles of every user in the batch and builds the refreshed
+   * users.
+   *
+   * @param batch the batch, with its details fetched
+   */
+  public void fetchRefreshedUsers(UserUpdateBatch batch) {
+    if (batch.getDetailsMap() == null) {
+      return;
+    }
+    for (String harpId : batch.getHarpIds()) {
+      fetchRefreshedUser(harpId, batch);
     }
-    return result;
+  }
+
+  /**
+   * Last update stage: diffs the refreshed users against the stored ones, read with a single query,
+   * and writes all changes in one bulk operation.
+   *
+   * @param batch the batch, with its refreshed users built
+   */
+  public void saveRefreshedUsers(UserUpdateBatch batch) {
+    Map<String, MadieUser> refreshedUsers = batch.getRefreshedUsers();
+    if (refreshedUsers.isEmpty()) {
+      return;
+    }
+    Map<String, Map<String, Object>> pendingUpdates = new LinkedHashMap<>();
+    Set<String> unchangedHarpIds = new HashSet<>();
+    try {
+      Map<String, MadieUser> existingUsers =
+          userRepository
+              .findAllByHarpIdIn(
+                  refreshedUsers.keySet().stream().map(StringUtils::toRootLowerCase).toList())
+              .stream()
+              .collect(
+                  Collectors.toMap(
+                      user -> StringUtils.toRootLowerCase(user.getHarpId()),
+                      user -> user,
+                      (existing, replacement) -> existing));
+      refreshedUsers.forEach(
+          (harpId, updatedUser) -> {
+            MadieUser existingUser = existingUsers.get(StringUtils.toRootLowerCase(harpId));
+            if (existingUser == null) {
+              log.warn("User not found in database for HARP ID: {}", harpId);
+              existingUser = MadieUser.builder().harpId(harpId).build();
+            }
+            Map<String, Object> updates = prepareUpdate(existingUser, updatedUser);
+            if (!CollectionUtils.isEmpty(updates)) {
+              pendingUpdates.put(harpId, updates);
+              if (isUnchanged(existingUser, updatedUser, updates)) {
+                unchangedHarpIds.add(harpId);
+              }
+            }
+          });
+    } catch (Exception e) {
+      log.error("Failed to read stored users for {} HARP IDs", refreshedUsers.size(), e);
+      batch.getResult().fail(refreshedUsers.keySet(), failureReason("Reading stored user", e));
+      return;
+    }
+    saveUserUpdates(pendingUpdates, batch.getResult());
+    UserUpdatesJobResultDto result = batch.getResult();
+    result.setUnchangedCount(
+        result.getUnchangedCount()
+            + result.getUpdatedHarpIds().stream().filter(unchangedHarpIds::contains).count());
+  }
+
+  // every refresh stamps lastModifiedAt and rolesRefreshedAt and rewrites the roles, none of which
+  // counts as a change itself
+  private boolean isUnchanged(
+      MadieUser existingUser, MadieUser updatedUser, Map<String, Object> updates) {
+    return updates.keySet().stream()
+            .allMatch(
+                field ->
+                    "lastModifiedAt".equals(field)
+                        || UserPatchRepositoryImpl.ROLES_REFRESHED_AT.equals(field)
+                        || "roles".equals(field))
+        && Objects.equals(existingUser.getRoles(), updatedUser.getRoles());
   }
 
   /**
@@ -152,63 +388,89 @@ public class UserService {
   }
 
   /**
-   * Fetches user details from HARP, handling errors gracefully.
+   * Fetches user details from HARP, handling errors gracefully. Records how long the call took and
+   * whether it failed on the batch.
    *
-   * @param harpIds list of HARP IDs to fetch
+   * @param batch the batch to fetch details for, populated on failure
    * @param token authentication token
-   * @param result the result object to populate on failure
    * @return UserDetailsResponse if successful, null otherwise
    */
-  private UserDetailsResponse fetchUserDetailsOrFail(
-      List<String> harpIds, TokenResponse token, UserUpdatesJobResultDto result) {
+  private UserDetailsResponse fetchUserDetailsOrFail(UserUpdateBatch batch, TokenResponse token) {
+    long started = System.nanoTime();
     try {
-      return harpProxyService.fetchUserDetails(harpIds, token.getAccessToken());
+      return harpProxyService.fetchUserDetails(batch.getHarpIds(), token.getAccessToken());
     } catch (Exception e) {
       log.error("Error fetching HARP user details. Aborting user update job.", e);
-      result.getFailedHarpIds().addAll(harpIds);
+      batch.setDetailsFailed(true);
+      batch.getResult().fail(batch.getHarpIds(), failureReason("Fetching HARP user details", e));
       return null;
+    } finally {
+      batch.setDetailsLatency(Duration.ofNanos(System.nanoTime() - started));
     }
   }
 
+  // a token renewed partway through the batch replaces the one the batch started with
+  private String currentAccessToken(UserUpdateBatch batch) {
+    TokenResponse current = tokenManager.getCurrentToken();
+    return current != null && StringUtils.isNotBlank(current.getAccessToken())
+        ? current.getAccessToken()
+        : batch.getToken().getAccessToken();
+  }
+
   /**
-   * Updates a single user with fresh data from HARP.
+   * Fetches the roles of a single user and adds the refreshed user to the batch.
    *
    * @param harpId the HARP ID of the user to update
-   * @param token authentication token
-   * @param detailsMap map of user details
-   * @param result the result object to populate
+   * @param batch the batch the user belongs to
    */
-  private void updateSingleUser(
-      String harpId,
-      TokenResponse token,
-      Map<String, UserDetail> detailsMap,
-      UserUpdatesJobResultDto result) {
+  private void fetchRefreshedUser(String harpId, UserUpdateBatch batch) {
     try {
       HarpResponseWrapper<UserRolesResponse> responseWrapper =
-          harpProxyService.fetchUserRoles(harpId, token.getAccessToken());
+          harpProxyService.fetchUserRoles(harpId, currentAccessToken(batch));
       MadieUser updatedUser =
-          buildMadieUser(harpId, detailsMap.get(harpId.toLowerCase(Locale.ROOT)), responseWrapper);
+          buildMadieUser(
+              harpId, batch.getDetailsMap().get(harpId.toLowerCase(Locale.ROOT)), responseWrapper);
 
       if (updatedUser == null) {
         log.warn("No user data returned from HARP for HARP ID: {}", harpId);
-        result.getFailedHarpIds().add(harpId);
+        batch.getResult().fail(List.of(harpId), "No user data returned from HARP");
         return;
       }
-
-      MadieUser existingUser = getUserByHarpId(harpId);
-      Map<String, Object> updates = prepareUpdate(existingUser, updatedUser);
-
-      if (!CollectionUtils.isEmpty(updates)) {
-        userRepository.updateMadieUser(updates, harpId);
-        result.getUpdatedHarpIds().add(harpId);
-      }
+      batch.getRefreshedUsers().put(harpId, updatedUser);
 
     } catch (Exception e) {
       log.error("Failed to update user with HARP ID: {}", harpId, e);
-      result.getFailedHarpIds().add(harpId);
+      batch.getResult().fail(List.of(harpId), failureReason("Fetching HARP user roles", e));
+    }
+  }
+
+  /**
+   * Writes all queued user updates for a batch in one bulk operation.
+   *
+   * @param pendingUpdates queued updates, keyed by HARP ID
+   * @param result the result object to populate
+   */
+  private void saveUserUpdates(
+      Map<String, Map<String, Object>> pendingUpdates, UserUpdatesJobResultDto result) {
+    if (pendingUpdates.isEmpty()) {
+      return;
+    }
+    try {
+      UserUpdatesJobResultDto writeResult = userRepository.bulkUpdateMadieUsers(pendingUpdates);
+      result.getUpdatedHarpIds().addAll(writeResult.getUpdatedHarpIds());
+      result.getFailedHarpIds().addAll(writeResult.getFailedHarpIds());
+      result.getFailureReasons().putAll(writeResult.getFailureReasons());
+    } catch (Exception e) {
+      log.error("Failed to save updates for {} users", pendingUpdates.size(), e);
+      result.fail(pendingUpdates.keySet(), failureReason("Saving user", e));
     }
   }
 
+  /* package-private for reuse by the sweep */
+  static String failureReason(String step, Throwable e) {
+    return StringUtils.abbreviate(step + " failed: " + e, MAX_FAILURE_REASON_LENGTH);
+  }
+
   /* package-private for testability */
   MadieUser buildMadieUser(
       String harpId, UserDetail detail, HarpResponseWrapper<UserRolesResponse> responseWrapper) {
@@ -220,8 +482,8 @@ public class UserService {
           .firstName(detail.getFirstname())
           .lastName(detail.getLastname())
           .displayName(detail.getDisplayname())
-          .createdAt(convertoInstant(detail.getCreatedate()))
-          .lastModifiedAt(convertoInstant(detail.getUpdatedate()));
+          .createdAt(harpDateTimeParser.parse(detail.getCreatedate()))
+          .lastModifiedAt(harpDateTimeParser.parse(detail.getUpdatedate()));
     }
     if (responseWrapper == null || !responseWrapper.isSuccess()) {
       if (responseWrapper != null
@@ -273,26 +535,14 @@ public class UserService {
       updates.put("createdAt", Instant.now());
     }
     updates.put("lastModifiedAt", Instant.now());
+    if (updatedUser.getStatus() != UserStatus.ERROR_SUSPENDED) {
+      updates.put(UserPatchRepositoryImpl.ROLES_REFRESHED_AT, Instant.now());
+    }
     updates.put("roles", updatedUser.getRoles());
 
     return updates;
   }
 
-  private Instant convertoInstant(String dateTimeStr) {
-    if (StringUtils.isBlank(dateTimeStr)) {
-      return null;
-    }
-    try {
-      return Instant.from(
-          LocalDateTime.parse(dateTimeStr, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
-              .atZone(ZoneId.systemDefault())
-              .toInstant());
-    } catch (Exception e) {
-      log.error("Error converting date string to Instant: {}", dateTimeStr, e);
-      return null;
-    }
-  }
-
   /**
    * Utility method to get the most recent startDate from a UserRolesResponse.
    *
@@ -308,7 +558,7 @@ public class UserService {
     return userRolesResponse.getUserRoles().stream()
         .map(UserRole::getStartDate)
         .filter(java.util.Objects::nonNull)
-        .map(this::convertoInstant)
+        .map(harpDateTimeParser::parse)
         .filter(Objects::nonNull)
         .max(Comparator.naturalOrder())
         .orElse(null);
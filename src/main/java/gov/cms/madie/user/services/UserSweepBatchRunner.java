@@ -0,0 +1,97 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.dto.UserUpdatesJobSummaryDto;
+import gov.cms.madie.user.models.UserUpdateJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs one user update job and ends the application with its outcome, for runs as a scheduled
+ * container instead of inside the web service. Started with the batch profile, which starts neither
+ * the web server nor its security; the job history is recorded as for scheduled runs.
+ *
+ * <p>Exit codes: 0 when the job completed with every user updated or did not need to run, 1 when it
+ * failed, 2 when it stopped before processing every user, 3 when it completed but some users failed
+ * to update.
+ */
+@Slf4j
+@Component
+@Profile(UserSweepBatchRunner.PROFILE)
+@RequiredArgsConstructor
+public class UserSweepBatchRunner implements ApplicationRunner, ExitCodeGenerator {
+
+  public static final String PROFILE = "batch";
+
+  static final int EXIT_FAILED = 1;
+  static final int EXIT_STOPPED = 2;
+  static final int EXIT_USERS_FAILED = 3;
+
+  public enum Job {
+    /** The scheduled sweep: full, incremental or sharded as configured. */
+    SWEEP,
+    /** A drain of the retry queue. */
+    RETRY,
+    /** The HARP user enumeration. */
+    ENUMERATION
+  }
+
+  private final UpdateUserJobScheduler updateUserJobScheduler;
+
+  @Value("${user.batch.job:SWEEP}")
+  private Job job;
+
+  private int exitCode = EXIT_FAILED;
+
+  @Override
+  public void run(ApplicationArguments args) {
+    log.info("Running {} user update job as a batch", job);
+    try {
+      UserUpdatesJobSummaryDto summary = runJob();
+      exitCode = exitCode(summary);
+      log.info(
+          "Batch {} user update job {} finished with status {}: {} updated, {} unchanged, {} failed,"
+              + " exit code {}",
+          job,
+          summary.getJobId(),
+          summary.getStatus(),
+          summary.getUpdatedCount(),
+          summary.getUnchangedCount(),
+          summary.getFailedCount(),
+          exitCode);
+    } catch (Exception e) {
+      log.error("Batch {} user update job failed", job, e);
+      exitCode = EXIT_FAILED;
+    }
+  }
+
+  @Override
+  public int getExitCode() {
+    return exitCode;
+  }
+
+  private UserUpdatesJobSummaryDto runJob() {
+    return switch (job) {
+      case SWEEP -> updateUserJobScheduler.triggerUpdateUsersJob();
+      case RETRY -> updateUserJobScheduler.drainRetryQueue();
+      case ENUMERATION -> updateUserJobScheduler.enumerateHarpUsers();
+    };
+  }
+
+  private int exitCode(UserUpdatesJobSummaryDto summary) {
+    if (summary.getStatus() == null) {
+      // disabled, or another instance holds the sweep lease
+      log.info("Batch {} user update job did not run", job);
+      return 0;
+    }
+    if (summary.getStatus() != UserUpdateJob.Status.COMPLETED) {
+      return EXIT_STOPPED;
+    }
+    return summary.getFailedCount() > 0 ? EXIT_USERS_FAILED : 0;
+  }
+}
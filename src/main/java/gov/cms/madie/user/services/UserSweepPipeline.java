@@ -0,0 +1,322 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.TaskExecutionConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdateBatch;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.BiFunction;
+
+/**
+ * Runs the user sweep as a pipeline of stages: reading HARP IDs from the database, fetching HARP
+ * details, fetching HARP roles and bulk writing the changes. Each stage runs on its own executor
+ * from {@link TaskExecutionConfig}, so the database and HARP work on different batches at the same
+ * time. The number of batches in flight is bounded, which makes the reader wait when the HARP
+ * stages fall behind.
+ *
+ * <p>Progress is checkpointed once a batch and all batches before it have finished, so an
+ * interrupted sweep resumes after the last checkpoint. Checkpoints are fenced by the sweep lease;
+ * once the lease is lost no further batches are read. Before each batch is read the sweep passes a
+ * gate, which applies the operator's pause, rate limit and cancel controls. The size of each batch
+ * is picked by the {@link AdaptiveBatchSizer} from how HARP handled the batches before it.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserSweepPipeline {
+
+  private final UserRepository userRepository;
+  private final UserService userService;
+  private final UserUpdateConfig userUpdateConfig;
+  private final UserSweepRunService userSweepRunService;
+  private final SweepLeaseService sweepLeaseService;
+  private final SweepJobControlService sweepJobControlService;
+  private final AdaptiveBatchSizer adaptiveBatchSizer;
+
+  @Qualifier(TaskExecutionConfig.USER_SWEEP_DETAILS_EXECUTOR)
+  private final TaskExecutor detailsStage;
+
+  @Qualifier(TaskExecutionConfig.USER_SWEEP_ROLES_EXECUTOR)
+  private final TaskExecutor rolesStage;
+
+  @Qualifier(TaskExecutionConfig.USER_SWEEP_WRITER_EXECUTOR)
+  private final TaskExecutor writerStage;
+
+  /**
+   * Updates every user from HARP.
+   *
+   * @param lease the held sweep lease
+   * @param results receives the results of each batch as it finishes
+   * @return true if every user was swept, false if the sweep stopped early
+   */
+  public boolean run(SweepLease lease, Consumer<UserUpdatesJobResultDto> results) {
+    UserSweepRun run = userSweepRunService.startOrResume(lease);
+    run.setTotalUsers(userRepository.count());
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(lease::isLost);
+    boolean finished =
+        sweep(
+            run.getLastProcessedId(),
+            null,
+            gate,
+            (lastProcessedId, batchResult) -> {
+              if (userSweepRunService.checkpoint(run, lastProcessedId, batchResult)) {
+                return true;
+              }
+              sweepLeaseService.markLost(lease);
+              return false;
+            },
+            results);
+    if (finished && !userSweepRunService.complete(run)) {
+      sweepLeaseService.markLost(lease);
+      return false;
+    } else if (gate.isCancelled()) {
+      userSweepRunService.abandon(run);
+    }
+    return finished;
+  }
+
+  /**
+   * Updates the users in a range of ids from HARP.
+   *
+   * @param afterId id after which the range starts, or null to start at the first user
+   * @param upToId id of the last user in the range, or null to run to the last user
+   * @param gate passed before each batch is read, may wait and stops the sweep once closed
+   * @param checkpoint called for each batch once it and all batches before it have finished
+   * @param results receives the results of each batch as it finishes
+   * @return true if the whole range was swept, false if the sweep stopped early
+   */
+  public boolean sweep(
+      String afterId,
+      String upToId,
+      SweepGate gate,
+      SweepCheckpoint checkpoint,
+      Consumer<UserUpdatesJobResultDto> results) {
+    return process(
+        afterId,
+        (lastId, batchSize) -> userRepository.findHarpIdsAfter(lastId, upToId, batchSize),
+        gate,
+        checkpoint,
+        results);
+  }
+
+  /**
+   * Updates the given users from HARP in batches, without checkpoints. Used by the incremental
+   * sweep, whose selection already skips users refreshed since it started.
+   *
+   * @param users users to update, with at least their id and harpId
+   * @param gate passed before each batch is queued, may wait and stops once closed
+   * @param results receives the results of each batch as it finishes
+   * @return true if every user was processed, false if stopped early
+   */
+  public boolean refresh(
+      List<MadieUser> users, SweepGate gate, Consumer<UserUpdatesJobResultDto> results) {
+    AtomicInteger offset = new AtomicInteger();
+    return process(
+        null,
+        (lastId, batchSize) -> {
+          int from = offset.getAndAdd(batchSize);
+          return from < users.size()
+              ? users.subList(from, Math.min(from + batchSize, users.size()))
+              : List.of();
+        },
+        gate,
+        (lastProcessedId, batchResult) -> true,
+        results);
+  }
+
+  private boolean process(
+      String afterId,
+      BiFunction<String, Integer, List<MadieUser>> nextPage,
+      SweepGate gate,
+      SweepCheckpoint checkpoint,
+      Consumer<UserUpdatesJobResultDto> results) {
+    UserUpdateConfig.Pipeline config = userUpdateConfig.getPipeline();
+    int maxInFlightBatches = Math.max(1, config.getMaxInFlightBatches());
+    Semaphore inFlightBatches = new Semaphore(maxInFlightBatches);
+
+    Checkpointer checkpointer = new Checkpointer(checkpoint);
+    // the stages are shared, batches still queued when the sweep is interrupted are skipped
+    AtomicBoolean abandoned = new AtomicBoolean();
+    boolean stopped = false;
+    int batchSize;
+    // finished batches are handed off and dropped, memory is bounded by the batches in flight
+    int batchCount = 0;
+    boolean finished = false;
+    try {
+      String lastId = afterId;
+      List<MadieUser> users;
+      do {
+        inFlightBatches.acquire();
+        batchSize = adaptiveBatchSizer.currentBatchSize();
+        if (checkpointer.isRejected() || !gate.awaitTurn(batchSize)) {
+          stopped = true;
+          log.warn("User sweep stopped after {} batches", batchCount);
+          inFlightBatches.release();
+          break;
+        }
+        users = nextPage.apply(lastId, batchSize);
+        if (users.isEmpty()) {
+          inFlightBatches.release();
+          break;
+        }
+        lastId = users.get(users.size() - 1).getId();
+        log.info("Queueing batch {}: {} users", batchCount + 1, users.size());
+
+        UserUpdateBatch batch =
+            new UserUpdateBatch(
+                users.stream().map(MadieUser::getHarpId).filter(StringUtils::isNotBlank).toList());
+        batch.setLastId(lastId);
+        int sequence = batchCount++;
+        CompletableFuture.runAsync(
+                unlessAbandoned(abandoned, () -> fetchUserDetails(batch)), detailsStage)
+            .thenRunAsync(
+                unlessAbandoned(abandoned, () -> userService.fetchRefreshedUsers(batch)),
+                rolesStage)
+            .thenRunAsync(
+                unlessAbandoned(abandoned, () -> userService.saveRefreshedUsers(batch)),
+                writerStage)
+            .whenComplete(
+                (ignored, ex) -> {
+                  try {
+                    if (abandoned.get()) {
+                      return;
+                    }
+                    if (ex != null) {
+                      failUnfinishedUsers(batch, ex);
+                    }
+                    reportResult(results, batch);
+                    checkpointer.batchFinished(sequence, batch);
+                  } finally {
+                    inFlightBatches.release();
+                  }
+                });
+      } while (users.size() == batchSize);
+
+      // every permit is back once the last batch in flight has finished
+      inFlightBatches.acquire(maxInFlightBatches);
+      finished = !stopped && !checkpointer.isRejected();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abandoned.set(true);
+      log.warn("User sweep interrupted after queueing {} batches", batchCount);
+    }
+    return finished;
+  }
+
+  private static Runnable unlessAbandoned(AtomicBoolean abandoned, Runnable stage) {
+    return () -> {
+      if (!abandoned.get()) {
+        stage.run();
+      }
+    };
+  }
+
+  private void fetchUserDetails(UserUpdateBatch batch) {
+    userService.fetchUserDetails(batch);
+    if (batch.getDetailsLatency() != null) {
+      adaptiveBatchSizer.record(
+          batch.getHarpIds().size(), batch.getDetailsLatency(), batch.isDetailsFailed());
+    }
+  }
+
+  // nothing reads the future of a finished batch, a failure here would otherwise go unseen
+  private void reportResult(Consumer<UserUpdatesJobResultDto> results, UserUpdateBatch batch) {
+    try {
+      results.accept(batch.getResult());
+    } catch (RuntimeException e) {
+      log.error(
+          "Failed to report the result of a user sweep batch of {} users",
+          batch.getHarpIds().size(),
+          e);
+    }
+  }
+
+  private void failUnfinishedUsers(UserUpdateBatch batch, Throwable ex) {
+    log.error("User sweep batch failed unexpectedly", ex);
+    UserUpdatesJobResultDto result = batch.getResult();
+    Set<String> finished = new HashSet<>(result.getUpdatedHarpIds());
+    finished.addAll(result.getFailedHarpIds());
+    result.fail(
+        batch.getHarpIds().stream().filter(harpId -> !finished.contains(harpId)).toList(),
+        UserService.failureReason("Sweep batch", ex));
+  }
+
+  /** Decides whether a sweep may read its next batch. */
+  @FunctionalInterface
+  public interface SweepGate {
+
+    /**
+     * Waits until the next batch may be read.
+     *
+     * @param batchSize number of users in the next batch
+     * @return false if the sweep must stop instead
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTurn(int batchSize) throws InterruptedException;
+  }
+
+  /** Saves the progress of a sweep. */
+  @FunctionalInterface
+  public interface SweepCheckpoint {
+
+    /**
+     * Records that the sweep finished every user up to and including lastProcessedId.
+     *
+     * @param lastProcessedId id of the last user of the finished batch
+     * @param batchResult results of the finished batch
+     * @return false if the checkpoint was rejected because the work was taken over
+     */
+    boolean save(String lastProcessedId, UserUpdatesJobResultDto batchResult);
+  }
+
+  /**
+   * Checkpoints finished batches in read order, holding back those that finish early. A checkpoint
+   * that is rejected or fails stops the sweep, later batches would only checkpoint past a gap.
+   */
+  @RequiredArgsConstructor
+  private static class Checkpointer {
+    private final SweepCheckpoint checkpoint;
+    private final Map<Integer, UserUpdateBatch> finishedEarly = new HashMap<>();
+    private int nextSequence = 0;
+    private volatile boolean rejected;
+
+    synchronized void batchFinished(int sequence, UserUpdateBatch batch) {
+      finishedEarly.put(sequence, batch);
+      UserUpdateBatch next;
+      while (!rejected && (next = finishedEarly.remove(nextSequence)) != null) {
+        try {
+          rejected = !checkpoint.save(next.getLastId(), next.getResult());
+        } catch (RuntimeException e) {
+          log.error(
+              "Failed to checkpoint user sweep batch {}, stopping the sweep", nextSequence, e);
+          rejected = true;
+        }
+        nextSequence++;
+      }
+    }
+
+    boolean isRejected() {
+      return rejected;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserSweepRunService {
+
+  private final UserSweepRunRepository userSweepRunRepository;
+  private final UserUpdateConfig userUpdateConfig;
+
+  /**
+   * Resumes the latest unfinished sweep if it started within the configured max age, otherwise
+   * starts a new one.
+   *
+   * @param lease the held sweep lease, whose fencing token guards every write of the run
+   * @return the run to continue from its last checkpoint
+   */
+  public UserSweepRun startOrResume(SweepLease lease) {
+    Optional<UserSweepRun> unfinished =
+        userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING);
+    if (unfinished.isPresent()) {
+      UserSweepRun run = unfinished.get();
+      Duration maxAge = userUpdateConfig.getResumeMaxAge();
+      if (maxAge != null
+          && run.getStartedAt() != null
+          && run.getStartedAt().isAfter(Instant.now().minus(maxAge))) {
+        log.info(
+            "Resuming user sweep {} after {} batches ({} updated, {} failed)",
+            run.getId(),
+            run.getBatchesCompleted(),
+            run.getUpdatedCount(),
+            run.getFailedCount());
+        run.setFencingToken(lease.getFencingToken());
+        run.setResumedAt(Instant.now());
+        run.setProcessedAtResume(run.getUpdatedCount() + run.getFailedCount());
+        save(run);
+        return run;
+      }
+      log.info("Abandoning user sweep {} started at {}", run.getId(), run.getStartedAt());
+      run.setStatus(UserSweepRun.Status.ABANDONED);
+      run.setFencingToken(lease.getFencingToken());
+      save(run);
+    }
+    return userSweepRunRepository.save(
+        UserSweepRun.builder()
+            .status(UserSweepRun.Status.RUNNING)
+            .startedAt(Instant.now())
+            .resumedAt(Instant.now())
+            .fencingToken(lease.getFencingToken())
+            .build());
+  }
+
+  /**
+   * Records that every batch up to and including the one ending at lastProcessedId has finished.
+   *
+   * @param run the run in progress
+   * @param lastProcessedId id of the last user of the finished batch
+   * @param batchResult results of the finished batch
+   * @return false if the checkpoint was rejected because another instance took over the run
+   */
+  public boolean checkpoint(
+      UserSweepRun run, String lastProcessedId, UserUpdatesJobResultDto batchResult) {
+    run.setLastProcessedId(lastProcessedId);
+    run.setLastCheckpointAt(Instant.now());
+    run.setBatchesCompleted(run.getBatchesCompleted() + 1);
+    run.setUpdatedCount(run.getUpdatedCount() + batchResult.getUpdatedHarpIds().size());
+    run.setFailedCount(run.getFailedCount() + batchResult.getFailedHarpIds().size());
+    run.setUnchangedCount(run.getUnchangedCount() + batchResult.getUnchangedCount());
+    return save(run);
+  }
+
+  /**
+   * Records how many work items a sharded run was split into.
+   *
+   * @param run the run being planned
+   * @param workItemCount number of work items created for the run
+   * @return false if the run was rejected because another instance took it over
+   */
+  public boolean recordWorkItems(UserSweepRun run, int workItemCount) {
+    run.setWorkItemCount(workItemCount);
+    return save(run);
+  }
+
+  /**
+   * Marks the run as abandoned after it was cancelled, so the next sweep starts from the beginning.
+   *
+   * @param run the cancelled run
+   * @return false if the run was rejected because another instance took it over
+   */
+  public boolean abandon(UserSweepRun run) {
+    run.setStatus(UserSweepRun.Status.ABANDONED);
+    return save(run);
+  }
+
+  /**
+   * Marks the run as completed, so the next sweep starts from the beginning.
+   *
+   * @param run the finished run
+   * @return false if the run was rejected because another instance took it over
+   */
+  public boolean complete(UserSweepRun run) {
+    run.setStatus(UserSweepRun.Status.COMPLETED);
+    run.setCompletedAt(Instant.now());
+    return save(run);
+  }
+
+  /**
+   * Adds the results of a batch of a sharded run, which every instance working on it reports to.
+   * Best effort, a lost update only leaves the run's progress short.
+   *
+   * @param run the sharded run
+   * @param batchResult results of the finished batch
+   */
+  public void recordShardProgress(UserSweepRun run, UserUpdatesJobResultDto batchResult) {
+    try {
+      userSweepRunRepository.incrementProgress(run.getId(), batchResult);
+    } catch (Exception e) {
+      log.error("Failed to record progress of user sweep {}", run.getId(), e);
+    }
+  }
+
+  /**
+   * Marks a sharded run as completed without writing the counters held by this instance, which miss
+   * the batches of the other instances.
+   *
+   * @param run the finished sharded run
+   * @return false if the run was already completed, e.g. by another instance
+   */
+  public boolean completeSharded(UserSweepRun run) {
+    run.setStatus(UserSweepRun.Status.COMPLETED);
+    return userSweepRunRepository.markCompleted(run.getId());
+  }
+
+  // a lost checkpoint only means redoing some batches on resume, so it must not stop the sweep
+  private boolean save(UserSweepRun run) {
+    try {
+      if (!userSweepRunRepository.saveIfFencingTokenCurrent(run)) {
+        log.warn(
+            "User sweep {} was taken over, write with fencing token {} rejected",
+            run.getId(),
+            run.getFencingToken());
+        return false;
+      }
+    } catch (Exception e) {
+      log.error("Failed to save checkpoint of user sweep {}", run.getId(), e);
+    }
+    return true;
+  }
+}
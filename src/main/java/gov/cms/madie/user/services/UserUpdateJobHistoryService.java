@@ -0,0 +1,137 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.dto.UserUpdatesJobSummaryDto;
+import gov.cms.madie.user.models.UserUpdateFailure;
+import gov.cms.madie.user.models.UserUpdateJob;
+import gov.cms.madie.user.repositories.UserUpdateFailureRepository;
+import gov.cms.madie.user.repositories.UserUpdateJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Records the history of the user update job. Batch results are folded into counters as they arrive
+ * and their failures are written straight to the database, so a job holds no more than a bounded
+ * sample of failed HARP IDs in memory however many users it processes.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserUpdateJobHistoryService {
+
+  private final UserUpdateJobRepository userUpdateJobRepository;
+  private final UserUpdateFailureRepository userUpdateFailureRepository;
+  private final SweepLeaseService sweepLeaseService;
+  private final UserUpdateConfig userUpdateConfig;
+
+  /**
+   * Records the start of a job.
+   *
+   * @param type the kind of job
+   * @return the recorder to pass each batch result to
+   */
+  public JobRecorder start(UserUpdateJob.Type type) {
+    UserUpdateJob job =
+        UserUpdateJob.builder()
+            .type(type)
+            .status(UserUpdateJob.Status.RUNNING)
+            .instanceId(sweepLeaseService.getInstanceId())
+            .startedAt(Instant.now())
+            .build();
+    try {
+      job = userUpdateJobRepository.save(job);
+    } catch (Exception e) {
+      log.error("Failed to record start of {} user update job", type, e);
+    }
+    return new JobRecorder(job);
+  }
+
+  public Page<UserUpdateJob> listJobs(Pageable pageable) {
+    return userUpdateJobRepository.findAll(pageable);
+  }
+
+  public Page<UserUpdateFailure> listFailures(String jobId, Pageable pageable) {
+    return userUpdateFailureRepository.findByJobId(jobId, pageable);
+  }
+
+  /** Collects the results of one job. Thread safe, batches finish on the pipeline's stages. */
+  public class JobRecorder implements Consumer<UserUpdatesJobResultDto> {
+    private final UserUpdateJob job;
+
+    private JobRecorder(UserUpdateJob job) {
+      this.job = job;
+    }
+
+    @Override
+    public void accept(UserUpdatesJobResultDto batchResult) {
+      List<String> failedHarpIds = batchResult.getFailedHarpIds();
+      synchronized (this) {
+        job.setUpdatedCount(job.getUpdatedCount() + batchResult.getUpdatedHarpIds().size());
+        job.setFailedCount(job.getFailedCount() + failedHarpIds.size());
+        job.setUnchangedCount(job.getUnchangedCount() + batchResult.getUnchangedCount());
+        List<String> sample = job.getFailedHarpIdsSample();
+        int room = Math.max(0, userUpdateConfig.getFailureSampleSize() - sample.size());
+        sample.addAll(failedHarpIds.subList(0, Math.min(room, failedHarpIds.size())));
+      }
+      saveFailures(failedHarpIds, batchResult.getFailureReasons());
+    }
+
+    /**
+     * Records the end of the job.
+     *
+     * @param completed whether every user the job set out to update was processed
+     * @return the summary of the job
+     */
+    public synchronized UserUpdatesJobSummaryDto finish(boolean completed) {
+      job.setStatus(completed ? UserUpdateJob.Status.COMPLETED : UserUpdateJob.Status.STOPPED);
+      job.setFinishedAt(Instant.now());
+      try {
+        userUpdateJobRepository.save(job);
+      } catch (Exception e) {
+        log.error("Failed to record end of user update job {}", job.getId(), e);
+      }
+      return UserUpdatesJobSummaryDto.builder()
+          .jobId(job.getId())
+          .status(job.getStatus())
+          .updatedCount(job.getUpdatedCount())
+          .failedCount(job.getFailedCount())
+          .unchangedCount(job.getUnchangedCount())
+          .failedHarpIdsSample(new ArrayList<>(job.getFailedHarpIdsSample()))
+          .build();
+    }
+
+    // the history is best effort, it must never fail the batch that produced it
+    private void saveFailures(List<String> failedHarpIds, Map<String, String> failureReasons) {
+      if (failedHarpIds.isEmpty() || job.getId() == null) {
+        return;
+      }
+      Instant now = Instant.now();
+      try {
+        userUpdateFailureRepository.saveAll(
+            failedHarpIds.stream()
+                .map(
+                    harpId ->
+                        UserUpdateFailure.builder()
+                            .jobId(job.getId())
+                            .harpId(harpId)
+                            .reason(failureReasons == null ? null : failureReasons.get(harpId))
+                            .failedAt(now)
+                            .build())
+                .toList());
+      } catch (Exception e) {
+        log.error(
+            "Failed to record {} failed users of job {}", failedHarpIds.size(), job.getId(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package gov.cms.madie.user;
+
+import gov.cms.madie.user.services.UpdateUserJobScheduler;
+import gov.cms.madie.user.services.UserSweepBatchRunner;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.context.WebApplicationContext;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.verify;
+
+@ActiveProfiles({"test", "batch"})
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class UserServiceBatchApplicationTests {
+
+  @MockitoBean private UpdateUserJobScheduler updateUserJobScheduler;
+
+  @Autowired private ApplicationContext applicationContext;
+
+  @Test
+  void batchProfileRunsSweepOnceWithoutWebStack() {
+    // the runner ran the job while the context started
+    verify(updateUserJobScheduler).triggerUpdateUsersJob();
+    assertThat(applicationContext, is(not(instanceOf(WebApplicationContext.class))));
+    assertThat(applicationContext.getBeanNamesForType(UserSweepBatchRunner.class).length, is(1));
+  }
+}
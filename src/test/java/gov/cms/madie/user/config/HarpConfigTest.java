@@ -7,6 +7,10 @@ import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
@@ -155,4 +159,31 @@ class HarpConfigTest {
         uriBuilderFactory.expand("/another/path").toString(),
         is("https://api.example.com/another/path"));
   }
+
+  @Test
+  void harpDateTimeParserUsesConfiguredTimeZone() {
+    // given
+    HarpConfig config = new HarpConfig();
+    config.setTimeZone("America/New_York");
+
+    // when
+    Instant parsed = config.harpDateTimeParser().parse("2025-01-15 08:00:00");
+
+    // then
+    assertThat(parsed, is(Instant.parse("2025-01-15T13:00:00Z")));
+  }
+
+  @Test
+  void harpDateTimeParserFallsBackToSystemTimeZone() {
+    // given
+    HarpConfig config = new HarpConfig();
+
+    // when
+    Instant parsed = config.harpDateTimeParser().parse("2025-01-15 08:00:00");
+
+    // then
+    assertThat(
+        parsed,
+        is(LocalDateTime.parse("2025-01-15T08:00:00").atZone(ZoneId.systemDefault()).toInstant()));
+  }
 }
@@ -1,19 +1,27 @@
 package gov.cms.madie.user.config;
 
+import com.mongodb.client.ListIndexesIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.CollationStrength;
 import com.mongodb.client.model.IndexOptions;
+import gov.cms.madie.user.repositories.UserPatchRepositoryImpl;
 import org.bson.Document;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Mockito.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 
 class MongoIndexConfigTest {
   @Test
@@ -23,21 +31,104 @@ class MongoIndexConfigTest {
     MongoDatabase mongoDatabase = mock(MongoDatabase.class);
     MongoCollection<Document> mongoCollection = mock(MongoCollection.class);
     when(mongoTemplate.getDb()).thenReturn(mongoDatabase);
+    MongoCollection<Document> workItemCollection = mock(MongoCollection.class);
     when(mongoDatabase.getCollection("madieUser")).thenReturn(mongoCollection);
+    when(mongoDatabase.getCollection("sweepWorkItem")).thenReturn(workItemCollection);
+    MongoCollection<Document> jobCollection = mock(MongoCollection.class);
+    MongoCollection<Document> failureCollection = mock(MongoCollection.class);
+    when(mongoDatabase.getCollection("userUpdateJob")).thenReturn(jobCollection);
+    when(mongoDatabase.getCollection("userUpdateFailure")).thenReturn(failureCollection);
+    stubIndexes(jobCollection);
+    stubIndexes(failureCollection);
+    MongoCollection<Document> retryCollection = mock(MongoCollection.class);
+    when(mongoDatabase.getCollection("userRefreshRetry")).thenReturn(retryCollection);
+    UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.setHistoryRetention(Duration.ofDays(30));
     MongoIndexConfig config = new MongoIndexConfig();
 
     // when
-    config.createIndexes(mongoTemplate).run((String) null);
+    config.createIndexes(mongoTemplate, userUpdateConfig).run((String) null);
 
     // then
     ArgumentCaptor<Document> keyCaptor = ArgumentCaptor.forClass(Document.class);
     ArgumentCaptor<IndexOptions> optionsCaptor = ArgumentCaptor.forClass(IndexOptions.class);
-    verify(mongoCollection, times(1)).createIndex(keyCaptor.capture(), optionsCaptor.capture());
-    assertThat(keyCaptor.getValue().get("harpId"), is(1));
-    assertThat(optionsCaptor.getValue().isUnique(), is(true));
+    verify(mongoCollection, times(2)).createIndex(keyCaptor.capture(), optionsCaptor.capture());
+    assertThat(keyCaptor.getAllValues().get(0), is(new Document("harpId", 1)));
+    IndexOptions harpIdOptions = optionsCaptor.getAllValues().get(0);
+    assertThat(harpIdOptions.isUnique(), is(true));
+    assertThat(Objects.requireNonNull(harpIdOptions.getCollation()).getLocale(), is("en"));
+    assertThat(harpIdOptions.getCollation().getStrength(), is(CollationStrength.SECONDARY));
+
+    assertThat(keyCaptor.getAllValues().get(1), is(new Document("_id", 1).append("harpId", 1)));
+    IndexOptions sweepOptions = optionsCaptor.getAllValues().get(1);
+    assertThat(sweepOptions.getName(), is(UserPatchRepositoryImpl.SWEEP_INDEX_NAME));
+    assertThat(sweepOptions.getCollation(), is(nullValue()));
+
+    // Document equality ignores key order, which matters for compound indexes
+    ArgumentCaptor<Document> refreshKeyCaptor = ArgumentCaptor.forClass(Document.class);
+    verify(mongoCollection, times(2)).createIndex(refreshKeyCaptor.capture());
     assertThat(
-        Objects.requireNonNull(optionsCaptor.getValue().getCollation()).getLocale(), is("en"));
+        refreshKeyCaptor.getAllValues().get(0).keySet(), contains("lastLoginAt", "lastModifiedAt"));
     assertThat(
-        optionsCaptor.getValue().getCollation().getStrength(), is(CollationStrength.SECONDARY));
+        refreshKeyCaptor.getAllValues().get(1).keySet(), contains("lastModifiedAt", "lastLoginAt"));
+
+    verify(workItemCollection)
+        .createIndex(new Document("runId", 1).append("status", 1).append("sequence", 1));
+
+    ArgumentCaptor<IndexOptions> ttlCaptor = ArgumentCaptor.forClass(IndexOptions.class);
+    verify(jobCollection).createIndex(eq(new Document("startedAt", 1)), ttlCaptor.capture());
+    assertThat(ttlCaptor.getValue().getExpireAfter(TimeUnit.DAYS), is(30L));
+    verify(failureCollection).createIndex(eq(new Document("failedAt", 1)), isA(IndexOptions.class));
+    verify(failureCollection).createIndex(new Document("jobId", 1).append("_id", 1));
+    ArgumentCaptor<Document> retryKeyCaptor = ArgumentCaptor.forClass(Document.class);
+    verify(retryCollection).createIndex(retryKeyCaptor.capture());
+    assertThat(retryKeyCaptor.getValue().keySet(), contains("status", "nextAttemptAt"));
+    verify(mongoDatabase, never()).runCommand(any(Document.class));
+  }
+
+  @Test
+  void createIndexesChangesExpiryOfExistingTtlIndexesWhenRetentionChanged() throws Exception {
+    // given
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    MongoDatabase mongoDatabase = mock(MongoDatabase.class, RETURNS_DEEP_STUBS);
+    when(mongoTemplate.getDb()).thenReturn(mongoDatabase);
+    MongoCollection<Document> jobCollection = mock(MongoCollection.class);
+    MongoCollection<Document> failureCollection = mock(MongoCollection.class);
+    when(mongoDatabase.getCollection("userUpdateJob")).thenReturn(jobCollection);
+    when(mongoDatabase.getCollection("userUpdateFailure")).thenReturn(failureCollection);
+    stubIndexes(
+        jobCollection,
+        new Document("name", "startedAt_1")
+            .append("key", new Document("startedAt", 1))
+            .append("expireAfterSeconds", Duration.ofDays(90).toSeconds()));
+    // already at the new retention
+    stubIndexes(
+        failureCollection,
+        new Document("name", "failedAt_1")
+            .append("key", new Document("failedAt", 1))
+            .append("expireAfterSeconds", (int) Duration.ofDays(30).toSeconds()));
+    UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.setHistoryRetention(Duration.ofDays(30));
+
+    // when
+    new MongoIndexConfig().createIndexes(mongoTemplate, userUpdateConfig).run((String) null);
+
+    // then
+    verify(jobCollection, never()).createIndex(any(Document.class), any(IndexOptions.class));
+    verify(failureCollection, never()).createIndex(any(Document.class), any(IndexOptions.class));
+    ArgumentCaptor<Document> commandCaptor = ArgumentCaptor.forClass(Document.class);
+    verify(mongoDatabase).runCommand(commandCaptor.capture());
+    Document command = commandCaptor.getValue();
+    assertThat(command.get("collMod"), is("userUpdateJob"));
+    Document index = command.get("index", Document.class);
+    assertThat(index.get("keyPattern"), is(new Document("startedAt", 1)));
+    assertThat(index.get("expireAfterSeconds"), is(Duration.ofDays(30).toSeconds()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void stubIndexes(MongoCollection<Document> collection, Document... indexes) {
+    ListIndexesIterable<Document> listIndexes = mock(ListIndexesIterable.class);
+    when(collection.listIndexes()).thenReturn(listIndexes);
+    when(listIndexes.into(any())).thenReturn(new ArrayList<>(List.of(indexes)));
   }
 }
@@ -0,0 +1,142 @@
+package gov.cms.madie.user.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TaskExecutionConfigTest {
+
+  private final TaskExecutionConfig config = new TaskExecutionConfig();
+  private ThreadPoolTaskExecutor executor;
+
+  @AfterEach
+  void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void executorRejectsSecondTriggerWhileOneIsRunning() throws InterruptedException {
+    executor = config.userRefreshTriggerExecutor();
+    executor.initialize();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    assertThrows(TaskRejectedException.class, () -> executor.execute(() -> {}));
+    release.countDown();
+  }
+
+  @Test
+  void schedulersUseOwnNamedThreads() {
+    ThreadPoolTaskScheduler sweepScheduler = config.userSweepScheduler();
+    ThreadPoolTaskScheduler tokenScheduler = config.tokenRefreshScheduler();
+    ThreadPoolTaskScheduler queueScheduler = config.userRefreshQueueScheduler();
+
+    assertThat(sweepScheduler.getThreadNamePrefix(), is("user-sweep-"));
+    assertThat(tokenScheduler.getThreadNamePrefix(), is("harp-token-refresh-"));
+    assertThat(queueScheduler.getThreadNamePrefix(), is("user-refresh-queue-"));
+    assertThat(sweepScheduler.getPoolSize(), is(1));
+  }
+
+  @Test
+  void loginExecutorIsBoundedByPoolAndQueue() {
+    ThreadPoolTaskExecutor loginExecutor = config.loginExecutor(4, 10);
+
+    assertThat(loginExecutor.getThreadNamePrefix(), is("login-"));
+    assertThat(loginExecutor.getCorePoolSize(), is(4));
+    assertThat(loginExecutor.getMaxPoolSize(), is(4));
+    assertThat(loginExecutor.getQueueCapacity(), is(10));
+  }
+
+  @Test
+  void loginDetailsExecutorRejectsRatherThanQueues() throws InterruptedException {
+    executor = config.loginDetailsExecutor(1);
+    executor.initialize();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    assertThat(executor.getThreadNamePrefix(), is("login-details-"));
+    assertThrows(TaskRejectedException.class, () -> executor.execute(() -> {}));
+    release.countDown();
+  }
+
+  @Test
+  void userSweepStagesAreSizedFromPipelineConfig() {
+    UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getPipeline().setDetailsConcurrency(1);
+    userUpdateConfig.getPipeline().setRolesConcurrency(3);
+    userUpdateConfig.getPipeline().setWriterConcurrency(2);
+    userUpdateConfig.getPipeline().setMaxInFlightBatches(5);
+
+    ThreadPoolTaskExecutor details = config.userSweepDetailsExecutor(userUpdateConfig);
+    ThreadPoolTaskExecutor roles = config.userSweepRolesExecutor(userUpdateConfig);
+    ThreadPoolTaskExecutor writer = config.userSweepWriterExecutor(userUpdateConfig);
+
+    assertThat(details.getThreadNamePrefix(), is("user-sweep-details-"));
+    assertThat(details.getMaxPoolSize(), is(1));
+    assertThat(roles.getThreadNamePrefix(), is("user-sweep-roles-"));
+    assertThat(roles.getMaxPoolSize(), is(3));
+    assertThat(writer.getThreadNamePrefix(), is("user-sweep-writer-"));
+    assertThat(writer.getMaxPoolSize(), is(2));
+    assertThat(writer.getQueueCapacity(), is(5));
+  }
+
+  @Test
+  void userSweepStageRunsOnCallerOnceQueueIsFull() throws InterruptedException {
+    UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getPipeline().setMaxInFlightBatches(1);
+    executor = config.userSweepWriterExecutor(userUpdateConfig);
+    executor.initialize();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+    executor.execute(() -> {});
+
+    Thread caller = Thread.currentThread();
+    AtomicReference<Thread> ranOn = new AtomicReference<>();
+    executor.execute(() -> ranOn.set(Thread.currentThread()));
+
+    assertThat(ranOn.get(), is(caller));
+    release.countDown();
+  }
+}
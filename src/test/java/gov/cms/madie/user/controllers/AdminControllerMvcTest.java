@@ -1,13 +1,27 @@
 package gov.cms.madie.user.controllers;
 
 import gov.cms.madie.user.config.SecurityConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
 import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepControl;
+import gov.cms.madie.user.models.UserUpdateJob;
+import gov.cms.madie.user.services.SweepJobControlService;
+import gov.cms.madie.user.services.SweepLeaseService;
+import gov.cms.madie.user.services.UserUpdateJobHistoryService;
+import gov.cms.madie.user.services.UserRefreshQueue;
+import gov.cms.madie.user.services.UserRefreshRetryService;
 import gov.cms.madie.user.services.UserService;
 import gov.cms.madie.user.services.UpdateUserJobScheduler;
+import gov.cms.madie.user.services.UserChangeNotificationService;
+import gov.cms.madie.user.test.utils.UserChangeNotifier;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
@@ -16,21 +30,28 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest({AdminController.class})
 @ActiveProfiles("test")
-@Import(SecurityConfig.class)
+@Import({SecurityConfig.class, UserChangeNotificationService.class, UserUpdateConfig.class})
 public class AdminControllerMvcTest {
 
   @Autowired private MockMvc mockMvc;
 
   @MockitoBean private UserService userService;
   @MockitoBean private UpdateUserJobScheduler updateUserJobScheduler;
+  @MockitoBean private SweepJobControlService sweepJobControlService;
+  @MockitoBean private UserUpdateJobHistoryService userUpdateJobHistoryService;
+  @MockitoBean private SweepLeaseService sweepLeaseService;
+  @MockitoBean private UserRefreshQueue userRefreshQueue;
+  @MockitoBean private UserRefreshRetryService userRefreshRetryService;
   private static final String ADMIN_TEST_API_KEY = "0a51991c";
 
   @Test
@@ -80,4 +101,110 @@ public class AdminControllerMvcTest {
 
     verify(updateUserJobScheduler, never()).triggerUpdateUsersJobManually(null);
   }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void pauseRefreshJobPausesWithApiKey() throws Exception {
+    when(sweepJobControlService.pause("admin"))
+        .thenReturn(SweepControl.builder().paused(true).updatedBy("admin").build());
+
+    mockMvc
+        .perform(
+            put("/admin/users/refresh/pause").with(csrf()).header("api-key", ADMIN_TEST_API_KEY))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.paused").value(true));
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void pauseRefreshJobRejectsWrongApiKey() throws Exception {
+    mockMvc
+        .perform(put("/admin/users/refresh/pause").with(csrf()).header("api-key", "wrong"))
+        .andExpect(status().isForbidden());
+
+    verify(sweepJobControlService, never()).pause(anyString());
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void getRefreshJobProgressReturnsNotFoundWithoutRuns() throws Exception {
+    when(sweepJobControlService.currentProgress()).thenReturn(Optional.empty());
+
+    mockMvc
+        .perform(get("/admin/users/refresh/jobs/current").header("api-key", ADMIN_TEST_API_KEY))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void getRefreshHistoryReturnsPageOfJobs() throws Exception {
+    when(userUpdateJobHistoryService.listJobs(any(Pageable.class)))
+        .thenReturn(
+            new PageImpl<>(
+                List.of(UserUpdateJob.builder().id("job1").updatedCount(5).build()),
+                PageRequest.of(0, 20),
+                1));
+
+    mockMvc
+        .perform(get("/admin/users/refresh/history").header("api-key", ADMIN_TEST_API_KEY))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.content[0].id").value("job1"))
+        .andExpect(jsonPath("$.content[0].updatedCount").value(5))
+        .andExpect(jsonPath("$.page.totalElements").value(1));
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void refreshAllUsersReturnsConflictWhileAnotherTriggerRuns() throws Exception {
+    doThrow(new TaskRejectedException("busy"))
+        .when(updateUserJobScheduler)
+        .triggerUpdateUsersJobManually(null);
+
+    mockMvc
+        .perform(
+            put("/admin/users/refresh")
+                .with(csrf())
+                .header("api-key", ADMIN_TEST_API_KEY)
+                .contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isConflict());
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void notifyUserChangesQueuesKnownUsersOnce() throws Exception {
+    when(userService.findMissingHarpIds(List.of("user1", "user2", "ghost")))
+        .thenReturn(List.of("ghost"));
+
+    new UserChangeNotifier(mockMvc, ADMIN_TEST_API_KEY)
+        .notifyChanged("User1", "user2", "user1", "ghost")
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.queuedHarpIds[0]").value("user1"))
+        .andExpect(jsonPath("$.queuedHarpIds[1]").value("user2"))
+        .andExpect(jsonPath("$.unknownHarpIds[0]").value("ghost"));
+
+    verify(userRefreshRetryService).queueNow(eq(List.of("user1", "user2")), anyString());
+    verify(userRefreshQueue, times(1)).enqueue("user1");
+    verify(userRefreshQueue, times(1)).enqueue("user2");
+    verify(userRefreshQueue, never()).enqueue("ghost");
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void notifyUserChangesRejectsEmptyNotification() throws Exception {
+    new UserChangeNotifier(mockMvc, ADMIN_TEST_API_KEY)
+        .notifyChanged()
+        .andExpect(status().isBadRequest());
+
+    verifyNoInteractions(userRefreshQueue);
+  }
+
+  @Test
+  @WithMockUser(username = "admin")
+  void notifyUserChangesRejectsWrongApiKey() throws Exception {
+    new UserChangeNotifier(mockMvc, "wrong")
+        .notifyChanged("user1")
+        .andExpect(status().isForbidden());
+
+    verifyNoInteractions(userRefreshQueue);
+  }
 }
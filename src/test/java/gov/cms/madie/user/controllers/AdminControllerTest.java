@@ -1,28 +1,57 @@
 package gov.cms.madie.user.controllers;
 
+import gov.cms.madie.user.dto.SweepJobProgressDto;
+import gov.cms.madie.user.dto.UserChangeNotificationDto;
+import gov.cms.madie.user.dto.UserChangeNotificationResultDto;
+import gov.cms.madie.user.models.SweepControl;
+import gov.cms.madie.user.models.UserUpdateFailure;
+import gov.cms.madie.user.models.UserUpdateJob;
+import gov.cms.madie.user.services.SweepJobControlService;
+import gov.cms.madie.user.services.SweepLeaseService;
 import gov.cms.madie.user.services.UpdateUserJobScheduler;
+import gov.cms.madie.user.services.UserChangeNotificationService;
+import gov.cms.madie.user.services.UserRefreshQueue;
+import gov.cms.madie.user.services.UserUpdateJobHistoryService;
 import jakarta.servlet.http.HttpServletRequest;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PagedModel;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
 
 import java.security.Principal;
+import java.util.List;
+import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 public class AdminControllerTest {
 
   @Mock private UpdateUserJobScheduler updateUserJobScheduler;
+  @Mock private SweepJobControlService sweepJobControlService;
+  @Mock private UserUpdateJobHistoryService userUpdateJobHistoryService;
+  @Mock private SweepLeaseService sweepLeaseService;
+  @Mock private UserRefreshQueue userRefreshQueue;
+  @Mock private UserChangeNotificationService userChangeNotificationService;
   @Mock private Principal principal;
 
   @InjectMocks private AdminController adminController;
@@ -39,7 +68,32 @@ public class AdminControllerTest {
     mockRequest.addHeader("api-key", apiKey);
     request = mockRequest;
 
-    when(principal.getName()).thenReturn("testUser");
+    lenient().when(principal.getName()).thenReturn("testUser");
+  }
+
+  @Test
+  void refreshUserQueuesTheUser() {
+    ResponseEntity<Object> response =
+        adminController.refreshUser(request, apiKey, principal, "User1");
+
+    assertThat(response.getStatusCode(), is(HttpStatus.ACCEPTED));
+    assertThat(response.getBody(), is("User refresh queued"));
+    verify(userRefreshQueue).enqueue("User1");
+  }
+
+  @Test
+  void notifyUserChangesAcceptsNotification() {
+    UserChangeNotificationDto notification =
+        UserChangeNotificationDto.builder().harpIds(List.of("user1")).build();
+    UserChangeNotificationResultDto result =
+        UserChangeNotificationResultDto.builder().queuedHarpIds(List.of("user1")).build();
+    when(userChangeNotificationService.accept(notification)).thenReturn(result);
+
+    ResponseEntity<UserChangeNotificationResultDto> response =
+        adminController.notifyUserChanges(request, apiKey, principal, notification);
+
+    assertThat(response.getStatusCode(), is(HttpStatus.ACCEPTED));
+    assertThat(response.getBody(), is(result));
   }
 
   @Test
@@ -53,4 +107,92 @@ public class AdminControllerTest {
     Assertions.assertNotNull(response.getBody());
     assertThat(response.getBody(), is("User refresh job accepted"));
   }
+
+  @Test
+  void refreshAllUsersReturnsConflictWhileSweepIsRunning() {
+    when(sweepLeaseService.isHeld()).thenReturn(true);
+
+    ResponseEntity<Object> response =
+        adminController.refreshAllUsers(request, apiKey, principal, null);
+
+    assertThat(response.getStatusCode(), is(HttpStatus.CONFLICT));
+    verify(updateUserJobScheduler, never()).triggerUpdateUsersJobManually(any());
+  }
+
+  @Test
+  void getRefreshJobProgressReturnsNotFoundWithoutRuns() {
+    when(sweepJobControlService.currentProgress()).thenReturn(Optional.empty());
+
+    ResponseEntity<SweepJobProgressDto> response =
+        adminController.getRefreshJobProgress(request, apiKey);
+
+    assertThat(response.getStatusCode(), is(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  void getRefreshJobProgressReturnsLatestRun() {
+    SweepJobProgressDto progress = SweepJobProgressDto.builder().runId("run1").build();
+    when(sweepJobControlService.currentProgress()).thenReturn(Optional.of(progress));
+
+    ResponseEntity<SweepJobProgressDto> response =
+        adminController.getRefreshJobProgress(request, apiKey);
+
+    assertThat(response.getStatusCode(), is(HttpStatus.OK));
+    assertThat(response.getBody(), is(progress));
+  }
+
+  @Test
+  void pauseRefreshJobPausesAsCurrentUser() {
+    SweepControl paused = SweepControl.builder().paused(true).updatedBy("testUser").build();
+    when(sweepJobControlService.pause("testUser")).thenReturn(paused);
+
+    ResponseEntity<SweepControl> response =
+        adminController.pauseRefreshJob(request, apiKey, principal);
+
+    assertThat(response.getBody(), is(paused));
+  }
+
+  @Test
+  void rateLimitRefreshJobPassesLimit() {
+    SweepControl limited = SweepControl.builder().maxUsersPerSecond(20).build();
+    when(sweepJobControlService.setRateLimit(20, "testUser")).thenReturn(limited);
+
+    ResponseEntity<SweepControl> response =
+        adminController.rateLimitRefreshJob(request, apiKey, principal, 20);
+
+    assertThat(response.getBody(), is(limited));
+  }
+
+  @Test
+  void getRefreshHistoryReturnsNewestJobsFirst() {
+    UserUpdateJob job = UserUpdateJob.builder().id("job1").build();
+    when(userUpdateJobHistoryService.listJobs(any(Pageable.class)))
+        .thenReturn(new PageImpl<>(List.of(job)));
+
+    ResponseEntity<PagedModel<UserUpdateJob>> response =
+        adminController.getRefreshHistory(request, apiKey, 1, 10);
+
+    assertThat(response.getBody().getContent(), contains(job));
+    ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
+    verify(userUpdateJobHistoryService).listJobs(pageableCaptor.capture());
+    assertThat(pageableCaptor.getValue().getPageNumber(), is(1));
+    assertThat(pageableCaptor.getValue().getPageSize(), is(10));
+    assertThat(pageableCaptor.getValue().getSort(), is(Sort.by(Sort.Direction.DESC, "startedAt")));
+  }
+
+  @Test
+  void getRefreshFailuresCapsThePageSize() {
+    UserUpdateFailure failure = UserUpdateFailure.builder().jobId("job1").harpId("H1").build();
+    when(userUpdateJobHistoryService.listFailures(eq("job1"), any(Pageable.class)))
+        .thenReturn(new PageImpl<>(List.of(failure)));
+
+    ResponseEntity<PagedModel<UserUpdateFailure>> response =
+        adminController.getRefreshFailures(request, apiKey, "job1", -1, 100000);
+
+    assertThat(response.getBody().getContent(), contains(failure));
+    ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
+    verify(userUpdateJobHistoryService).listFailures(eq("job1"), pageableCaptor.capture());
+    assertThat(pageableCaptor.getValue().getPageNumber(), is(0));
+    assertThat(pageableCaptor.getValue().getPageSize(), is(500));
+  }
 }
@@ -3,34 +3,85 @@ package gov.cms.madie.user.controllers;
 import gov.cms.madie.models.access.HarpRole;
 import gov.cms.madie.models.access.MadieUser;
 import gov.cms.madie.user.config.SecurityConfig;
+import gov.cms.madie.user.config.TaskExecutionConfig;
 import gov.cms.madie.user.services.UserService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.util.List;
 
 import static org.hamcrest.Matchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest({UserController.class})
 @ActiveProfiles("test")
-@Import(SecurityConfig.class)
+@Import({SecurityConfig.class, UserControllerMvcTest.LoginExecutorConfig.class})
 public class UserControllerMvcTest {
 
   @Autowired private MockMvc mockMvc;
 
   @MockitoBean private UserService userService;
 
+  @TestConfiguration
+  static class LoginExecutorConfig {
+    @Bean(TaskExecutionConfig.LOGIN_EXECUTOR)
+    TaskExecutor loginExecutor() {
+      return new SyncTaskExecutor();
+    }
+  }
+
+  @Test
+  @WithMockUser(username = "harper")
+  void updateUserRespondsAsynchronouslyWithLoggedInUser() throws Exception {
+    when(userService.refreshUserRolesAndLogin("harper"))
+        .thenReturn(MadieUser.builder().harpId("harper").firstName("John").build());
+
+    MvcResult result =
+        mockMvc
+            .perform(put("/users/harper").with(csrf()))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.harpId", is("harper")))
+        .andExpect(jsonPath("$.firstName", is("John")));
+  }
+
+  @Test
+  @WithMockUser(username = "harper")
+  void updateUserReturnsServiceUnavailableWhenLoginsAreRejected() throws Exception {
+    when(userService.refreshUserRolesAndLogin("harper"))
+        .thenThrow(new TaskRejectedException("login executor full"));
+
+    MvcResult result =
+        mockMvc
+            .perform(put("/users/harper").with(csrf()))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc.perform(asyncDispatch(result)).andExpect(status().isServiceUnavailable());
+  }
+
   @Test
   @WithMockUser(username = "testuser")
   void getUserByHarpIdSuccessfully() throws Exception {
@@ -10,7 +10,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -29,6 +32,7 @@ import static org.mockito.Mockito.*;
 class UserControllerTest {
   @Mock private UserService userService;
   @Mock private Principal principal;
+  @Spy private TaskExecutor loginExecutor = new SyncTaskExecutor();
   @InjectMocks private UserController userController;
 
   @BeforeEach
@@ -56,7 +60,7 @@ class UserControllerTest {
     when(principal.getName()).thenReturn("123"); // principal matches harpId
     when(userService.refreshUserRolesAndLogin("123")).thenReturn(user);
     // when
-    ResponseEntity<MadieUser> response = userController.updateUser("123", principal);
+    ResponseEntity<MadieUser> response = userController.updateUser("123", principal).join();
     // then
     assertThat(response.getStatusCode().value(), is(200));
     assertThat(response.getBody(), is(user));
@@ -70,7 +74,7 @@ class UserControllerTest {
     ReflectionTestUtils.setField(userController, "harpOverrideTestId", "overrideId");
     when(userService.refreshUserRolesAndLogin("overrideId")).thenReturn(user);
     // when
-    ResponseEntity<MadieUser> response = userController.updateUser("anyId", principal);
+    ResponseEntity<MadieUser> response = userController.updateUser("anyId", principal).join();
     // then
     assertThat(response.getStatusCode().value(), is(200));
     assertThat(response.getBody(), is(user));
@@ -84,13 +88,25 @@ class UserControllerTest {
     when(principal.getName()).thenReturn("123");
     when(userService.refreshUserRolesAndLogin("123")).thenReturn(user);
     // when
-    ResponseEntity<MadieUser> response = userController.updateUser("123", principal);
+    ResponseEntity<MadieUser> response = userController.updateUser("123", principal).join();
     // then
     assertThat(response.getStatusCode().value(), is(200));
     assertThat(response.getBody(), is(user));
     verify(userService, times(1)).refreshUserRolesAndLogin("123");
   }
 
+  @Test
+  void updateUserRefreshesOnLoginExecutor() {
+    // given
+    when(principal.getName()).thenReturn("123");
+    when(userService.refreshUserRolesAndLogin("123"))
+        .thenReturn(MadieUser.builder().harpId("123").build());
+    // when
+    userController.updateUser("123", principal).join();
+    // then
+    verify(loginExecutor).execute(notNull());
+  }
+
   @Test
   void updateUserThrowsForbiddenWhenPrincipalDoesNotMatchAndOverrideTestIdIsBlank() {
     // given
@@ -115,7 +131,7 @@ class UserControllerTest {
     when(principal.getName()).thenReturn("overrideId");
     when(userService.refreshUserRolesAndLogin("overrideId")).thenReturn(user);
     // when
-    ResponseEntity<MadieUser> response = userController.updateUser("overrideId", principal);
+    ResponseEntity<MadieUser> response = userController.updateUser("overrideId", principal).join();
     // then
     assertThat(response.getStatusCode().value(), is(200));
     assertThat(response.getBody(), is(user));
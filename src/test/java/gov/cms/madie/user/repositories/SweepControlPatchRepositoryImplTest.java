@@ -0,0 +1,64 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepControl;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SweepControlPatchRepositoryImplTest {
+
+  @Mock MongoTemplate mongoTemplate;
+
+  @InjectMocks SweepControlPatchRepositoryImpl repository;
+
+  @Test
+  void setFieldsUpsertsOnlyTheGivenFields() {
+    SweepControl paused = SweepControl.builder().id("userSweep").paused(true).build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(SweepControl.class)))
+        .thenReturn(paused);
+
+    assertThat(repository.setFields("userSweep", Map.of("paused", true), "admin"), is(paused));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    ArgumentCaptor<FindAndModifyOptions> optionsCaptor =
+        ArgumentCaptor.forClass(FindAndModifyOptions.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            queryCaptor.capture(),
+            updateCaptor.capture(),
+            optionsCaptor.capture(),
+            eq(SweepControl.class));
+    assertThat(queryCaptor.getValue().getQueryObject().get("id"), is("userSweep"));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.size(), is(3));
+    assertThat(setFields.get("paused"), is(true));
+    assertThat(setFields.get("updatedBy"), is("admin"));
+    assertThat(setFields.get("updatedAt"), is(notNullValue()));
+    assertThat(optionsCaptor.getValue().isUpsert(), is(true));
+    assertThat(optionsCaptor.getValue().isReturnNew(), is(true));
+  }
+}
@@ -0,0 +1,79 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/** Verifies the sweep lease and run fencing against a real MongoDB. */
+@DataMongoTest
+@ActiveProfiles("test")
+@Import(SweepLeaseRepository.class)
+@Testcontainers(disabledWithoutDocker = true)
+class SweepLeaseRepositoryIT {
+
+  @Container @ServiceConnection static MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private SweepLeaseRepository sweepLeaseRepository;
+  @Autowired private UserSweepRunRepository userSweepRunRepository;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate.dropCollection(SweepLease.class);
+  }
+
+  @Test
+  void onlyOneInstanceHoldsTheLease() {
+    SweepLease first = sweepLeaseRepository.tryAcquire("userSweep", "a", Duration.ofMinutes(1));
+    SweepLease second = sweepLeaseRepository.tryAcquire("userSweep", "b", Duration.ofMinutes(1));
+
+    assertThat(first.getHolder(), is("a"));
+    assertThat(first.getFencingToken(), is(1L));
+    assertThat(second, is(nullValue()));
+    assertThat(sweepLeaseRepository.renew(first, Duration.ofMinutes(1)), is(true));
+  }
+
+  @Test
+  void releasedLeaseIsTakenWithHigherFencingToken() {
+    SweepLease first = sweepLeaseRepository.tryAcquire("userSweep", "a", Duration.ofMinutes(1));
+    sweepLeaseRepository.release(first);
+
+    SweepLease second = sweepLeaseRepository.tryAcquire("userSweep", "b", Duration.ofMinutes(1));
+
+    assertThat(second.getHolder(), is("b"));
+    assertThat(second.getFencingToken(), is(2L));
+    assertThat(sweepLeaseRepository.renew(first, Duration.ofMinutes(1)), is(false));
+  }
+
+  @Test
+  void runWritesWithOlderFencingTokenAreRejected() {
+    userSweepRunRepository.deleteAll();
+    UserSweepRun run = userSweepRunRepository.save(UserSweepRun.builder().fencingToken(2).build());
+
+    run.setFencingToken(1);
+    run.setLastProcessedId("stale");
+    assertThat(userSweepRunRepository.saveIfFencingTokenCurrent(run), is(false));
+
+    run.setFencingToken(3);
+    run.setLastProcessedId("current");
+    assertThat(userSweepRunRepository.saveIfFencingTokenCurrent(run), is(true));
+    assertThat(
+        userSweepRunRepository.findById(run.getId()).orElseThrow().getLastProcessedId(),
+        is("current"));
+  }
+}
@@ -0,0 +1,137 @@
+package gov.cms.madie.user.repositories;
+
+import com.mongodb.client.result.UpdateResult;
+import gov.cms.madie.user.models.SweepLease;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SweepLeaseRepositoryTest {
+
+  @Mock MongoTemplate mongoTemplate;
+
+  @InjectMocks SweepLeaseRepository repository;
+
+  @Test
+  void tryAcquireUpsertsExpiredLeaseAndBumpsFencingToken() {
+    SweepLease acquired = SweepLease.builder().id("userSweep").fencingToken(2).build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(SweepLease.class)))
+        .thenReturn(acquired);
+
+    SweepLease result = repository.tryAcquire("userSweep", "me", Duration.ofMinutes(2));
+
+    assertThat(result, is(acquired));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    ArgumentCaptor<FindAndModifyOptions> optionsCaptor =
+        ArgumentCaptor.forClass(FindAndModifyOptions.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            queryCaptor.capture(),
+            updateCaptor.capture(),
+            optionsCaptor.capture(),
+            eq(SweepLease.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    assertThat(query.get("id"), is("userSweep"));
+    assertThat(((Document) query.get("expiresAt")).containsKey("$lte"), is(true));
+    Document update = updateCaptor.getValue().getUpdateObject();
+    assertThat(((Document) update.get("$inc")).get("fencingToken"), is(1));
+    Document setFields = (Document) update.get("$set");
+    assertThat(setFields.get("holder"), is("me"));
+    assertThat(
+        (Instant) setFields.get("expiresAt"),
+        is(greaterThan((Instant) setFields.get("acquiredAt"))));
+    assertThat(optionsCaptor.getValue().isUpsert(), is(true));
+    assertThat(optionsCaptor.getValue().isReturnNew(), is(true));
+  }
+
+  @Test
+  void tryAcquireReturnsNullWhenLeaseIsHeld() {
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(SweepLease.class)))
+        .thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+
+    assertThat(repository.tryAcquire("userSweep", "me", Duration.ofMinutes(2)), is(nullValue()));
+  }
+
+  @Test
+  void renewExtendsLeaseHeldWithSameToken() {
+    SweepLease lease = SweepLease.builder().id("userSweep").holder("me").fencingToken(4).build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepLease.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    assertThat(repository.renew(lease, Duration.ofMinutes(2)), is(true));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate)
+        .updateFirst(queryCaptor.capture(), any(Update.class), eq(SweepLease.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    assertThat(query.get("holder"), is("me"));
+    assertThat(query.get("fencingToken"), is(4L));
+    assertThat(lease.getExpiresAt(), is(notNullValue()));
+  }
+
+  @Test
+  void renewReportsLeaseTakenOver() {
+    SweepLease lease = SweepLease.builder().id("userSweep").holder("me").fencingToken(4).build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepLease.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertThat(repository.renew(lease, Duration.ofMinutes(2)), is(false));
+    assertThat(lease.getExpiresAt(), is(nullValue()));
+  }
+
+  @Test
+  void releaseExpiresHeldLease() {
+    SweepLease lease = SweepLease.builder().id("userSweep").holder("me").fencingToken(4).build();
+
+    repository.release(lease);
+
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(any(Query.class), updateCaptor.capture(), eq(SweepLease.class));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.keySet(), contains("expiresAt"));
+  }
+
+  @Test
+  void isHeldLooksForUnexpiredLease() {
+    when(mongoTemplate.exists(any(Query.class), eq(SweepLease.class))).thenReturn(true);
+
+    boolean held = repository.isHeld("userSweep");
+
+    assertThat(held, is(true));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).exists(queryCaptor.capture(), eq(SweepLease.class));
+    Document queryObject = queryCaptor.getValue().getQueryObject();
+    assertThat(queryObject.get("id"), is("userSweep"));
+    assertThat(((Document) queryObject.get("expiresAt")).keySet(), contains("$gt"));
+  }
+}
@@ -0,0 +1,124 @@
+package gov.cms.madie.user.repositories;
+
+import com.mongodb.client.result.UpdateResult;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepWorkItem;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SweepWorkItemPatchRepositoryImplTest {
+
+  @Mock MongoTemplate mongoTemplate;
+
+  @InjectMocks SweepWorkItemPatchRepositoryImpl repository;
+
+  @Test
+  void claimNextTakesLowestOpenOrExpiredItem() {
+    SweepWorkItem claimed = SweepWorkItem.builder().id("item1").claimCount(1).build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(SweepWorkItem.class)))
+        .thenReturn(claimed);
+
+    assertThat(repository.claimNext("run1", "pod-a", Duration.ofMinutes(5)), is(claimed));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            queryCaptor.capture(),
+            updateCaptor.capture(),
+            any(FindAndModifyOptions.class),
+            eq(SweepWorkItem.class));
+    Query query = queryCaptor.getValue();
+    assertThat(query.getQueryObject().get("runId"), is("run1"));
+    assertThat(((List<?>) query.getQueryObject().get("$or")).size(), is(2));
+    assertThat(query.getSortObject(), is(new Document("sequence", 1)));
+    Document update = updateCaptor.getValue().getUpdateObject();
+    Document setFields = (Document) update.get("$set");
+    assertThat(setFields.get("status"), is(SweepWorkItem.Status.CLAIMED));
+    assertThat(setFields.get("owner"), is("pod-a"));
+    assertThat(setFields, hasKey("leaseExpiresAt"));
+    assertThat(((Document) update.get("$inc")).get("claimCount"), is(1));
+  }
+
+  @Test
+  void checkpointIsConditionalOnTheCurrentClaim() {
+    SweepWorkItem item = SweepWorkItem.builder().id("item1").owner("pod-a").claimCount(2).build();
+    UserUpdatesJobResultDto batchResult =
+        UserUpdatesJobResultDto.builder()
+            .updatedHarpIds(new ArrayList<>(List.of("H1", "H2")))
+            .failedHarpIds(new ArrayList<>(List.of("H3")))
+            .build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepWorkItem.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    assertThat(repository.checkpoint(item, "id99", batchResult, Duration.ofMinutes(5)), is(true));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(queryCaptor.capture(), updateCaptor.capture(), eq(SweepWorkItem.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    assertThat(query.get("id"), is("item1"));
+    assertThat(query.get("owner"), is("pod-a"));
+    assertThat(query.get("claimCount"), is(2L));
+    Document update = updateCaptor.getValue().getUpdateObject();
+    assertThat(((Document) update.get("$set")).get("lastProcessedId"), is("id99"));
+    assertThat(((Document) update.get("$inc")).get("updatedCount"), is(2));
+    assertThat(((Document) update.get("$inc")).get("failedCount"), is(1));
+  }
+
+  @Test
+  void renewClaimExtendsOnlyTheCurrentClaim() {
+    SweepWorkItem item = SweepWorkItem.builder().id("item1").owner("pod-a").claimCount(3).build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepWorkItem.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertThat(repository.renewClaim(item, Duration.ofMinutes(5)), is(false));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(queryCaptor.capture(), updateCaptor.capture(), eq(SweepWorkItem.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    assertThat(query.get("status"), is(SweepWorkItem.Status.CLAIMED));
+    assertThat(query.get("claimCount"), is(3L));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.keySet(), contains("leaseExpiresAt"));
+  }
+
+  @Test
+  void completeFailsWhenItemWasReclaimed() {
+    SweepWorkItem item = SweepWorkItem.builder().id("item1").owner("pod-a").claimCount(1).build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SweepWorkItem.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertThat(repository.complete(item), is(false));
+  }
+}
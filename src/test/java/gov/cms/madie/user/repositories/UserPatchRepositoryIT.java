@@ -0,0 +1,68 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.models.access.MadieUser;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Verifies against a real MongoDB which users a HARP enumeration flags as absent. */
+@DataMongoTest
+@ActiveProfiles("test")
+@Import(UserPatchRepositoryImpl.class)
+@Testcontainers(disabledWithoutDocker = true)
+class UserPatchRepositoryIT {
+
+  @Container @ServiceConnection static MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private UserRepository userRepository;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate.dropCollection(MadieUser.class);
+  }
+
+  @Test
+  void flagUsersAbsentFromHarpSkipsUsersCreatedDuringTheEnumeration() {
+    Instant startedAt = Instant.now();
+    userRepository.save(
+        MadieUser.builder().harpId("gone").createdAt(startedAt.minusSeconds(3600)).build());
+    userRepository.save(MadieUser.builder().harpId("legacy").build());
+    userRepository.bulkUpsertHarpUsers(Map.of("seen", Map.of()), startedAt);
+    // logs in for the first time after their page of the enumeration was read
+    userRepository.loginUser(MadieUser.builder().harpId("joined").build());
+
+    assertThat(userRepository.countUsersAbsentFromHarp(startedAt), is(2L));
+    assertThat(userRepository.flagUsersAbsentFromHarp(startedAt), is(2L));
+
+    assertThat(absentFromHarpSince("gone"), is(notNullValue()));
+    assertThat(absentFromHarpSince("legacy"), is(notNullValue()));
+    assertThat(absentFromHarpSince("seen"), is(nullValue()));
+    assertThat(absentFromHarpSince("joined"), is(nullValue()));
+  }
+
+  private Object absentFromHarpSince(String harpId) {
+    return mongoTemplate
+        .getCollection(mongoTemplate.getCollectionName(MadieUser.class))
+        .find(new Document("harpId", harpId))
+        .first()
+        .get(UserPatchRepositoryImpl.ABSENT_FROM_HARP_SINCE);
+  }
+}
@@ -1,14 +1,21 @@
 package gov.cms.madie.user.repositories;
 
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.result.UpdateResult;
 import gov.cms.madie.models.access.HarpRole;
 import gov.cms.madie.models.access.MadieUser;
 import gov.cms.madie.models.access.UserStatus;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
@@ -17,11 +24,13 @@ import org.springframework.data.mongodb.core.query.Update;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -74,6 +83,65 @@ class UserPatchRepositoryImplTest {
     assertThat("Update should set status", updateStr, containsString("status"));
   }
 
+  @Test
+  void loginUserSetsDetailsOnlyWhenPresent() {
+    // given
+    MadieUser user =
+        MadieUser.builder().harpId("harp789").email("user@email.com").firstName("First").build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class)))
+        .thenReturn(user);
+    // when
+    repository.loginUser(user);
+    // then
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            any(Query.class),
+            updateCaptor.capture(),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class));
+    Document set = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(set.get("email"), is("user@email.com"));
+    assertThat(set.get("firstName"), is("First"));
+    // details not fetched are left as stored
+    assertThat(set.containsKey("lastName"), is(false));
+    Document unset = (Document) updateCaptor.getValue().getUpdateObject().get("$unset");
+    assertThat(unset.containsKey("lastName"), is(false));
+  }
+
+  @Test
+  void loginUserStampsRolesRefreshedAtOnlyWhenHarpReturnedRoles() {
+    // given
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class)))
+        .thenReturn(MadieUser.builder().harpId("harp1").build());
+    // when
+    repository.loginUser(MadieUser.builder().harpId("harp1").status(UserStatus.ACTIVE).build());
+    repository.loginUser(
+        MadieUser.builder().harpId("harp1").status(UserStatus.ERROR_SUSPENDED).build());
+    // then
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate, times(2))
+        .findAndModify(
+            any(Query.class),
+            updateCaptor.capture(),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class));
+    Document refreshed =
+        (Document) updateCaptor.getAllValues().get(0).getUpdateObject().get("$set");
+    Document failed = (Document) updateCaptor.getAllValues().get(1).getUpdateObject().get("$set");
+    assertThat(refreshed.get("rolesRefreshedAt"), is(notNullValue()));
+    assertThat(failed.containsKey("rolesRefreshedAt"), is(false));
+    assertThat(failed.get("lastLoginAt"), is(notNullValue()));
+  }
+
   @Test
   void unsetsRolesIfNull() {
     // given
@@ -268,6 +336,35 @@ class UserPatchRepositoryImplTest {
         "harpId in query should be lowercase", harpIdValue, is(mixedCaseHarpId.toLowerCase()));
   }
 
+  @Test
+  void harpIdQueriesUseIndexCollation() {
+    // given
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class)))
+        .thenReturn(MadieUser.builder().harpId("collated").build());
+    // when
+    repository.loginUser(MadieUser.builder().harpId("Collated").build());
+    repository.updateMadieUser(Map.of("email", "fake@email.com"), "Collated");
+    // then
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            queryCaptor.capture(),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class));
+    verify(mongoTemplate)
+        .updateFirst(queryCaptor.capture(), any(Update.class), eq(MadieUser.class));
+    for (Query query : queryCaptor.getAllValues()) {
+      Document collation = query.getCollation().orElseThrow().toDocument();
+      assertThat(collation.get("locale"), is("en"));
+      assertThat(collation.get("strength"), is(2));
+    }
+  }
+
   @Test
   void loginUserWithAllFieldsNullExceptHarpIdUnsetsAllOptionalFields() {
     // given
@@ -433,6 +530,124 @@ class UserPatchRepositoryImplTest {
     assertThat("Update should contain $unset", updateStr, containsString("$unset"));
   }
 
+  @Test
+  void recordLoginOnlySetsLastLoginAtOnUserWithRecentRoles() {
+    // given
+    MadieUser expected = MadieUser.builder().harpId("login123").build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MadieUser.class)))
+        .thenReturn(expected);
+    // when
+    Instant refreshedSince = Instant.parse("2026-01-01T00:00:00Z");
+    MadieUser result = repository.recordLoginIfRolesRefreshedSince("Login123", refreshedSince);
+    // then
+    assertThat(result, is(expected));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    ArgumentCaptor<FindAndModifyOptions> optionsCaptor =
+        ArgumentCaptor.forClass(FindAndModifyOptions.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            queryCaptor.capture(),
+            updateCaptor.capture(),
+            optionsCaptor.capture(),
+            eq(MadieUser.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    assertThat(query.get("harpId"), is("login123"));
+    assertThat(((Document) query.get("rolesRefreshedAt")).get("$gte"), is(refreshedSince));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.keySet(), contains("lastLoginAt"));
+    assertThat(optionsCaptor.getValue().isUpsert(), is(false));
+    assertThat(optionsCaptor.getValue().isReturnNew(), is(true));
+  }
+
+  @Test
+  void findHarpIdsAfterFirstPageHasNoIdCriteria() {
+    List<MadieUser> page = List.of(MadieUser.builder().harpId("h1").build());
+    when(mongoTemplate.find(any(Query.class), eq(MadieUser.class))).thenReturn(page);
+
+    List<MadieUser> result = repository.findHarpIdsAfter(null, null, 50);
+
+    assertThat(result, is(page));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(queryCaptor.capture(), eq(MadieUser.class));
+    Query query = queryCaptor.getValue();
+    assertThat(query.getQueryObject().isEmpty(), is(true));
+    assertThat(query.getSortObject(), is(new Document("id", 1)));
+    assertThat(query.getLimit(), is(50));
+    assertThat(query.getFieldsObject(), is(new Document("id", 1).append("harpId", 1)));
+    assertThat(query.getHint(), is(UserPatchRepositoryImpl.SWEEP_INDEX_NAME));
+    assertThat(query.getSkip(), is(0L));
+  }
+
+  @Test
+  void findHarpIdsAfterSeeksPastLastObjectId() {
+    String lastId = new ObjectId().toHexString();
+    when(mongoTemplate.find(any(Query.class), eq(MadieUser.class))).thenReturn(List.of());
+
+    repository.findHarpIdsAfter(lastId, null, 25);
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(queryCaptor.capture(), eq(MadieUser.class));
+    Document idCriteria = (Document) queryCaptor.getValue().getQueryObject().get("id");
+    assertThat(idCriteria.get("$gt"), is(new ObjectId(lastId)));
+    assertThat(queryCaptor.getValue().getLimit(), is(25));
+  }
+
+  @Test
+  void findHarpIdsAfterKeepsNonObjectIdAsString() {
+    when(mongoTemplate.find(any(Query.class), eq(MadieUser.class))).thenReturn(List.of());
+
+    repository.findHarpIdsAfter("custom-id", null, 25);
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(queryCaptor.capture(), eq(MadieUser.class));
+    Document idCriteria = (Document) queryCaptor.getValue().getQueryObject().get("id");
+    assertThat(idCriteria.get("$gt"), is("custom-id"));
+  }
+
+  @Test
+  void findHarpIdsAfterStopsAtUpperBoundOfRange() {
+    String lastId = new ObjectId().toHexString();
+    String upToId = new ObjectId().toHexString();
+    when(mongoTemplate.find(any(Query.class), eq(MadieUser.class))).thenReturn(List.of());
+
+    repository.findHarpIdsAfter(lastId, upToId, 25);
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(queryCaptor.capture(), eq(MadieUser.class));
+    Document idCriteria = (Document) queryCaptor.getValue().getQueryObject().get("id");
+    assertThat(idCriteria.get("$gt"), is(new ObjectId(lastId)));
+    assertThat(idCriteria.get("$lte"), is(new ObjectId(upToId)));
+  }
+
+  @Test
+  void findSweepBoundaryAfterSkipsToLastUserOfRange() {
+    when(mongoTemplate.findOne(any(Query.class), eq(MadieUser.class)))
+        .thenReturn(MadieUser.builder().id("boundary").build());
+
+    String boundary = repository.findSweepBoundaryAfter("custom-id", 1000);
+
+    assertThat(boundary, is("boundary"));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).findOne(queryCaptor.capture(), eq(MadieUser.class));
+    Query query = queryCaptor.getValue();
+    assertThat(query.getSkip(), is(999L));
+    assertThat(query.getLimit(), is(1));
+    assertThat(query.getFieldsObject(), is(new Document("id", 1)));
+    assertThat(query.getHint(), is(UserPatchRepositoryImpl.SWEEP_INDEX_NAME));
+  }
+
+  @Test
+  void findSweepBoundaryAfterReturnsNullWhenTooFewUsersFollow() {
+    when(mongoTemplate.findOne(any(Query.class), eq(MadieUser.class))).thenReturn(null);
+
+    assertThat(repository.findSweepBoundaryAfter(null, 1000), is(nullValue()));
+  }
+
   @Test
   void updateMadieUserSuccessfullyUpdatesWithValidData() {
     String harpId = "user123";
@@ -501,4 +716,206 @@ class UserPatchRepositoryImplTest {
     assertTrue(result.wasAcknowledged());
     verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(MadieUser.class));
   }
+
+  @Test
+  void bulkUpdateMadieUsersQueuesOneUnorderedUpdatePerUser() {
+    BulkOperations bulkOps = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class))
+        .thenReturn(bulkOps);
+    Map<String, Map<String, Object>> updatesByHarpId = new LinkedHashMap<>();
+    updatesByHarpId.put("User1", Map.of("email", "one@email.com"));
+    updatesByHarpId.put("user2", Map.of("email", "two@email.com"));
+
+    UserUpdatesJobResultDto result = repository.bulkUpdateMadieUsers(updatesByHarpId);
+
+    assertThat(result.getUpdatedHarpIds(), contains("User1", "user2"));
+    assertThat(result.getFailedHarpIds(), is(empty()));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(bulkOps, times(2)).updateOne(queryCaptor.capture(), any(Update.class));
+    assertThat(queryCaptor.getAllValues().get(0).getQueryObject().get("harpId"), is("user1"));
+    verify(bulkOps).execute();
+    verify(mongoTemplate, never())
+        .updateFirst(any(Query.class), any(Update.class), eq(MadieUser.class));
+  }
+
+  @Test
+  void bulkUpdateMadieUsersReportsFailedUsersByOperationIndex() {
+    BulkOperations bulkOps = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class))
+        .thenReturn(bulkOps);
+    BulkWriteError writeError = new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1);
+    BulkOperationException bulkException = mock(BulkOperationException.class);
+    when(bulkException.getErrors()).thenReturn(List.of(writeError));
+    when(bulkOps.execute()).thenThrow(bulkException);
+    Map<String, Map<String, Object>> updatesByHarpId = new LinkedHashMap<>();
+    updatesByHarpId.put("user1", Map.of("email", "one@email.com"));
+    updatesByHarpId.put("user2", Map.of("email", "two@email.com"));
+    updatesByHarpId.put("user3", Map.of("email", "three@email.com"));
+
+    UserUpdatesJobResultDto result = repository.bulkUpdateMadieUsers(updatesByHarpId);
+
+    assertThat(result.getUpdatedHarpIds(), contains("user1", "user3"));
+    assertThat(result.getFailedHarpIds(), contains("user2"));
+    assertThat(result.getFailureReasons().get("user2"), is("Saving user failed: duplicate key"));
+  }
+
+  @Test
+  void bulkUpdateMadieUsersSkipsUsersWithoutUpdates() {
+    Map<String, Map<String, Object>> updatesByHarpId = new LinkedHashMap<>();
+    updatesByHarpId.put("user1", Collections.emptyMap());
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class))
+        .thenReturn(mock(BulkOperations.class));
+
+    UserUpdatesJobResultDto result = repository.bulkUpdateMadieUsers(updatesByHarpId);
+
+    assertThat(result.getUpdatedHarpIds(), is(empty()));
+    assertThat(result.getFailedHarpIds(), is(empty()));
+  }
+
+  @Test
+  void bulkUpdateMadieUsersDoesNothingForEmptyBatch() {
+    UserUpdatesJobResultDto result = repository.bulkUpdateMadieUsers(Collections.emptyMap());
+
+    assertThat(result.getUpdatedHarpIds(), is(empty()));
+    verifyNoInteractions(mongoTemplate);
+  }
+
+  @Test
+  void bulkUpsertHarpUsersMarksEveryUserSeenAndCreatesMissingUsers() {
+    BulkOperations bulkOps = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class))
+        .thenReturn(bulkOps);
+    Instant seenAt = Instant.parse("2026-01-10T00:00:00Z");
+    Map<String, Map<String, Object>> fieldsByHarpId = new LinkedHashMap<>();
+    fieldsByHarpId.put("User1", Map.of("email", "one@email.com"));
+    fieldsByHarpId.put("user2", Map.of());
+
+    UserUpdatesJobResultDto result = repository.bulkUpsertHarpUsers(fieldsByHarpId, seenAt);
+
+    assertThat(result.getUpdatedHarpIds(), contains("User1", "user2"));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOps, times(2)).upsert(queryCaptor.capture(), updateCaptor.capture());
+    assertThat(queryCaptor.getAllValues().get(0).getQueryObject().get("harpId"), is("user1"));
+    Document update = updateCaptor.getAllValues().get(0).getUpdateObject();
+    Document setFields = (Document) update.get("$set");
+    assertThat(setFields.get("email"), is("one@email.com"));
+    assertThat(setFields.get(UserPatchRepositoryImpl.HARP_SEEN_AT), is(seenAt));
+    assertThat(setFields.containsKey("lastModifiedAt"), is(false));
+    assertThat(
+        ((Document) update.get("$unset")).keySet(),
+        contains(UserPatchRepositoryImpl.ABSENT_FROM_HARP_SINCE));
+    assertThat(((Document) update.get("$setOnInsert")).get("createdAt"), is(seenAt));
+    verify(bulkOps).execute();
+  }
+
+  @Test
+  void bulkUpsertHarpUsersReportsFailedUsersByOperationIndex() {
+    BulkOperations bulkOps = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MadieUser.class))
+        .thenReturn(bulkOps);
+    BulkWriteError writeError = new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0);
+    BulkOperationException bulkException = mock(BulkOperationException.class);
+    when(bulkException.getErrors()).thenReturn(List.of(writeError));
+    when(bulkOps.execute()).thenThrow(bulkException);
+    Map<String, Map<String, Object>> fieldsByHarpId = new LinkedHashMap<>();
+    fieldsByHarpId.put("user1", Map.of("email", "one@email.com"));
+    fieldsByHarpId.put("user2", Map.of("email", "two@email.com"));
+
+    UserUpdatesJobResultDto result = repository.bulkUpsertHarpUsers(fieldsByHarpId, Instant.now());
+
+    assertThat(result.getUpdatedHarpIds(), contains("user2"));
+    assertThat(result.getFailedHarpIds(), contains("user1"));
+    assertThat(result.getFailureReasons().get("user1"), is("Saving user failed: duplicate key"));
+  }
+
+  @Test
+  void bulkUpsertHarpUsersDoesNothingForEmptyPage() {
+    UserUpdatesJobResultDto result =
+        repository.bulkUpsertHarpUsers(Collections.emptyMap(), Instant.now());
+
+    assertThat(result.getUpdatedHarpIds(), is(empty()));
+    verifyNoInteractions(mongoTemplate);
+  }
+
+  @Test
+  void flagUsersAbsentFromHarpFlagsUnseenUsersNotAlreadyFlagged() {
+    Instant seenBefore = Instant.parse("2026-01-10T00:00:00Z");
+    when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(MadieUser.class)))
+        .thenReturn(UpdateResult.acknowledged(3, 2L, null));
+
+    long flagged = repository.flagUsersAbsentFromHarp(seenBefore);
+
+    assertThat(flagged, is(2L));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateMulti(queryCaptor.capture(), updateCaptor.capture(), eq(MadieUser.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    Document seenAt = (Document) query.get(UserPatchRepositoryImpl.HARP_SEEN_AT);
+    assertThat(((Document) seenAt.get("$not")).get("$gte"), is(seenBefore));
+    assertThat(
+        query.get(UserPatchRepositoryImpl.ABSENT_FROM_HARP_SINCE),
+        is(new Document("$exists", false)));
+    // a user created by a login mid-run was never up for enumeration
+    Document createdAt = (Document) query.get("createdAt");
+    assertThat(((Document) createdAt.get("$not")).get("$gte"), is(seenBefore));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.keySet(), contains(UserPatchRepositoryImpl.ABSENT_FROM_HARP_SINCE));
+  }
+
+  @Test
+  void countUsersAbsentFromHarpCountsWhatFlaggingWouldFlag() {
+    Instant seenBefore = Instant.parse("2026-01-10T00:00:00Z");
+    when(mongoTemplate.count(any(Query.class), eq(MadieUser.class))).thenReturn(4L);
+
+    long absent = repository.countUsersAbsentFromHarp(seenBefore);
+
+    assertThat(absent, is(4L));
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).count(queryCaptor.capture(), eq(MadieUser.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    Document seenAt = (Document) query.get(UserPatchRepositoryImpl.HARP_SEEN_AT);
+    assertThat(((Document) seenAt.get("$not")).get("$gte"), is(seenBefore));
+    Document createdAt = (Document) query.get("createdAt");
+    assertThat(((Document) createdAt.get("$not")).get("$gte"), is(seenBefore));
+    assertThat(
+        query.get(UserPatchRepositoryImpl.ABSENT_FROM_HARP_SINCE),
+        is(new Document("$exists", false)));
+  }
+
+  @Test
+  void findStaleActiveUsersSelectsRecentLoginsLeastRecentlyRefreshedFirst() {
+    Instant modifiedBefore = Instant.parse("2026-01-10T00:00:00Z");
+    Instant loggedInSince = Instant.parse("2025-12-11T00:00:00Z");
+    when(mongoTemplate.find(any(Query.class), eq(MadieUser.class))).thenReturn(List.of());
+
+    repository.findStaleActiveUsers(modifiedBefore, loggedInSince, 100);
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(queryCaptor.capture(), eq(MadieUser.class));
+    Query query = queryCaptor.getValue();
+    Document lastModified = (Document) query.getQueryObject().get("lastModifiedAt");
+    assertThat(((Document) lastModified.get("$not")).get("$gte"), is(modifiedBefore));
+    Document lastLogin = (Document) query.getQueryObject().get("lastLoginAt");
+    assertThat(lastLogin.get("$gte"), is(loggedInSince));
+    assertThat(query.getSortObject(), is(new Document("lastModifiedAt", 1)));
+    assertThat(query.getLimit(), is(100));
+    assertThat(query.getFieldsObject(), is(new Document("id", 1).append("harpId", 1)));
+  }
+
+  @Test
+  void findStaleDormantUsersIncludesUsersWhoNeverLoggedIn() {
+    Instant modifiedBefore = Instant.parse("2025-12-11T00:00:00Z");
+    Instant loggedInSince = Instant.parse("2025-12-11T00:00:00Z");
+    when(mongoTemplate.find(any(Query.class), eq(MadieUser.class))).thenReturn(List.of());
+
+    repository.findStaleDormantUsers(modifiedBefore, loggedInSince, 10);
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(queryCaptor.capture(), eq(MadieUser.class));
+    Document lastLogin = (Document) queryCaptor.getValue().getQueryObject().get("lastLoginAt");
+    assertThat(((Document) lastLogin.get("$not")).get("$gte"), is(loggedInSince));
+    assertThat(queryCaptor.getValue().getLimit(), is(10));
+  }
 }
@@ -0,0 +1,134 @@
+package gov.cms.madie.user.repositories;
+
+import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.MongoIndexConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/** Verifies against a real MongoDB that harpId queries are planned as index scans. */
+@DataMongoTest
+@ActiveProfiles("test")
+@Import(UserPatchRepositoryImpl.class)
+@Testcontainers(disabledWithoutDocker = true)
+class UserRepositoryIT {
+
+  @Container @ServiceConnection static MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private UserRepository userRepository;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    mongoTemplate.dropCollection(MadieUser.class);
+    new MongoIndexConfig().createIndexes(mongoTemplate, new UserUpdateConfig()).run();
+    for (int i = 0; i < 50; i++) {
+      mongoTemplate.insert(MadieUser.builder().harpId("user" + i).build());
+    }
+    mongoTemplate.getDb().getCollection("system.profile").drop();
+    mongoTemplate.getDb().runCommand(new Document("profile", 2));
+  }
+
+  @AfterEach
+  void tearDown() {
+    mongoTemplate.getDb().runCommand(new Document("profile", 0));
+  }
+
+  @Test
+  void findByHarpIdUsesHarpIdIndex() {
+    assertThat(userRepository.findByHarpId("USER7").isPresent(), is(true));
+
+    assertThat(lastPlanSummary(), startsWith("IXSCAN { harpId: 1 }"));
+  }
+
+  @Test
+  void findExistingHarpIdsUsesHarpIdIndex() {
+    List<MadieUser> existing =
+        userRepository.findExistingHarpIds(List.of("user1", "USER2", "missing"));
+
+    assertThat(existing.stream().map(MadieUser::getHarpId).toList(), contains("user1", "user2"));
+    assertThat(lastPlanSummary(), startsWith("IXSCAN { harpId: 1 }"));
+  }
+
+  @Test
+  void loginUserUsesHarpIdIndex() {
+    userRepository.loginUser(MadieUser.builder().harpId("User3").build());
+
+    assertThat(lastPlanSummary(), startsWith("IXSCAN { harpId: 1 }"));
+  }
+
+  @Test
+  void updateMadieUserUsesHarpIdIndex() {
+    userRepository.updateMadieUser(Map.of("email", "user4@example.com"), "user4");
+
+    assertThat(lastPlanSummary(), startsWith("IXSCAN { harpId: 1 }"));
+  }
+
+  @Test
+  void bulkUpdateMadieUsersUsesHarpIdIndex() {
+    userRepository.bulkUpdateMadieUsers(Map.of("user5", Map.of("email", "user5@example.com")));
+
+    assertThat(lastPlanSummary(), startsWith("IXSCAN { harpId: 1 }"));
+  }
+
+  @Test
+  void findHarpIdsAfterWalksAllUsersWithCoveredIndexScans() {
+    List<String> harpIds = new ArrayList<>();
+    String lastId = null;
+    List<MadieUser> page;
+    do {
+      page = userRepository.findHarpIdsAfter(lastId, null, 20);
+      page.forEach(user -> harpIds.add(user.getHarpId()));
+      if (!page.isEmpty()) {
+        lastId = page.get(page.size() - 1).getId();
+        // covered: the plan reads the index only, no FETCH stage
+        assertThat(lastPlanSummary(), is("IXSCAN { _id: 1, harpId: 1 }"));
+      }
+    } while (page.size() == 20);
+
+    assertThat(harpIds, hasSize(50));
+    assertThat(new HashSet<>(harpIds), hasSize(50));
+  }
+
+  @Test
+  void sweepBoundariesSplitUsersIntoRanges() {
+    String firstBoundary = userRepository.findSweepBoundaryAfter(null, 20);
+    String secondBoundary = userRepository.findSweepBoundaryAfter(firstBoundary, 20);
+
+    assertThat(userRepository.findSweepBoundaryAfter(secondBoundary, 20), is(nullValue()));
+    assertThat(userRepository.findHarpIdsAfter(null, firstBoundary, 50), hasSize(20));
+    assertThat(userRepository.findHarpIdsAfter(firstBoundary, secondBoundary, 50), hasSize(20));
+    assertThat(userRepository.findHarpIdsAfter(secondBoundary, null, 50), hasSize(10));
+  }
+
+  private String lastPlanSummary() {
+    Document entry =
+        mongoTemplate
+            .getDb()
+            .getCollection("system.profile")
+            .find(new Document("ns", mongoTemplate.getDb().getName() + ".madieUser"))
+            .sort(new Document("ts", -1))
+            .first();
+    assertThat("operation should have been profiled", entry, is(notNullValue()));
+    return entry.getString("planSummary");
+  }
+}
@@ -0,0 +1,112 @@
+package gov.cms.madie.user.repositories;
+
+import com.mongodb.client.result.UpdateResult;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.UserSweepRun;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserSweepRunPatchRepositoryImplTest {
+
+  @Mock MongoTemplate mongoTemplate;
+
+  @InjectMocks UserSweepRunPatchRepositoryImpl repository;
+
+  @Test
+  void saveIfFencingTokenCurrentOnlyMatchesOlderOrSameToken() {
+    UserSweepRun run =
+        UserSweepRun.builder()
+            .id("run1")
+            .status(UserSweepRun.Status.RUNNING)
+            .fencingToken(6)
+            .lastProcessedId("id49")
+            .batchesCompleted(1)
+            .build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UserSweepRun.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    assertThat(repository.saveIfFencingTokenCurrent(run), is(true));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(queryCaptor.capture(), updateCaptor.capture(), eq(UserSweepRun.class));
+    Document query = queryCaptor.getValue().getQueryObject();
+    assertThat(query.get("id"), is("run1"));
+    assertThat(((Document) query.get("fencingToken")).get("$lte"), is(6L));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.get("fencingToken"), is(6L));
+    assertThat(setFields.get("lastProcessedId"), is("id49"));
+    assertThat(setFields.get("batchesCompleted"), is(1L));
+  }
+
+  @Test
+  void saveIfFencingTokenCurrentRejectsWriteFencedOffByNewerToken() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").fencingToken(2).build();
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UserSweepRun.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertThat(repository.saveIfFencingTokenCurrent(run), is(false));
+  }
+
+  @Test
+  void incrementProgressAddsBatchWithoutOverwritingOtherInstances() {
+    UserUpdatesJobResultDto batchResult =
+        UserUpdatesJobResultDto.builder()
+            .updatedHarpIds(new ArrayList<>(List.of("H1", "H2")))
+            .failedHarpIds(new ArrayList<>(List.of("H3")))
+            .unchangedCount(1)
+            .build();
+
+    repository.incrementProgress("run1", batchResult);
+
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(any(Query.class), updateCaptor.capture(), eq(UserSweepRun.class));
+    Document update = updateCaptor.getValue().getUpdateObject();
+    Document increments = (Document) update.get("$inc");
+    assertThat(increments.get("batchesCompleted"), is(1));
+    assertThat(increments.get("updatedCount"), is(2));
+    assertThat(increments.get("failedCount"), is(1));
+    assertThat(increments.get("unchangedCount"), is(1L));
+    assertThat(((Document) update.get("$max")).containsKey("lastCheckpointAt"), is(true));
+    assertThat(update.containsKey("$set"), is(false));
+  }
+
+  @Test
+  void markCompletedOnlyCompletesRunningRun() {
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(UserSweepRun.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertThat(repository.markCompleted("run1"), is(false));
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(queryCaptor.capture(), updateCaptor.capture(), eq(UserSweepRun.class));
+    assertThat(
+        queryCaptor.getValue().getQueryObject().get("status"), is(UserSweepRun.Status.RUNNING));
+    Document setFields = (Document) updateCaptor.getValue().getUpdateObject().get("$set");
+    assertThat(setFields.get("status"), is(UserSweepRun.Status.COMPLETED));
+    assertThat(setFields.containsKey("updatedCount"), is(false));
+  }
+}
@@ -0,0 +1,91 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class AdaptiveBatchSizerTest {
+
+  private UserUpdateConfig userUpdateConfig;
+  private SimpleMeterRegistry meterRegistry;
+  private AdaptiveBatchSizer adaptiveBatchSizer;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.setBatchSize(50);
+    userUpdateConfig.getAdaptiveBatch().setEnabled(true);
+    userUpdateConfig.getAdaptiveBatch().setMinSize(10);
+    userUpdateConfig.getAdaptiveBatch().setMaxSize(70);
+    userUpdateConfig.getAdaptiveBatch().setIncreaseStep(10);
+    userUpdateConfig.getAdaptiveBatch().setTargetLatency(Duration.ofSeconds(2));
+    meterRegistry = new SimpleMeterRegistry();
+    adaptiveBatchSizer = new AdaptiveBatchSizer(userUpdateConfig, meterRegistry);
+  }
+
+  @Test
+  void keepsConfiguredBatchSizeWhenDisabled() {
+    userUpdateConfig.getAdaptiveBatch().setEnabled(false);
+
+    adaptiveBatchSizer.record(50, Duration.ofMillis(100), false);
+
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(50));
+  }
+
+  @Test
+  void growsAfterFastFullBatchesUpToTheMaximum() {
+    adaptiveBatchSizer.record(50, Duration.ofMillis(100), false);
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(60));
+
+    adaptiveBatchSizer.record(60, Duration.ofMillis(100), false);
+    adaptiveBatchSizer.record(70, Duration.ofMillis(100), false);
+
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(70));
+  }
+
+  @Test
+  void doesNotGrowAfterShortBatch() {
+    adaptiveBatchSizer.record(12, Duration.ofMillis(100), false);
+
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(50));
+  }
+
+  @Test
+  void shortFirstBatchStartsFromTheConfiguredBatchSize() {
+    adaptiveBatchSizer.record(12, Duration.ofMillis(100), false);
+    userUpdateConfig.setBatchSize(30);
+
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(50));
+  }
+
+  @Test
+  void halvesOnFailureDownToTheMinimum() {
+    adaptiveBatchSizer.record(50, Duration.ofMillis(100), true);
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(25));
+
+    adaptiveBatchSizer.record(25, Duration.ofMillis(100), true);
+    adaptiveBatchSizer.record(12, Duration.ofMillis(100), true);
+
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(10));
+  }
+
+  @Test
+  void shrinksOnSlowCall() {
+    adaptiveBatchSizer.record(50, Duration.ofSeconds(3), false);
+
+    assertThat(adaptiveBatchSizer.currentBatchSize(), is(25));
+  }
+
+  @Test
+  void publishesBatchSizeGauge() {
+    adaptiveBatchSizer.record(50, Duration.ofMillis(100), false);
+
+    assertThat(meterRegistry.get("user.sweep.batch.size").gauge().value(), is(60.0));
+  }
+}
@@ -0,0 +1,151 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.HarpConfig;
+import gov.cms.madie.user.exceptions.HarpBulkheadFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HarpBulkheadTest {
+
+  private HarpConfig harpConfig;
+  private SimpleMeterRegistry meterRegistry;
+  private HarpBulkhead harpBulkhead;
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    harpConfig = new HarpConfig();
+    harpConfig.getBulkhead().setEnabled(true);
+    harpConfig.getBulkhead().setMaxConcurrentCalls(2);
+    harpConfig.getBulkhead().setReservedForInteractive(1);
+    harpConfig.getBulkhead().setReservedForAdmin(0);
+    harpConfig.getBulkhead().setMaxWait(Duration.ofSeconds(5));
+    meterRegistry = new SimpleMeterRegistry();
+    harpBulkhead = new HarpBulkhead(harpConfig, meterRegistry);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void callRunsStraightThroughWhenDisabled() {
+    harpConfig.getBulkhead().setEnabled(false);
+
+    assertThat(harpBulkhead.call(() -> "result"), is("result"));
+  }
+
+  @Test
+  void callsDefaultToBatchPriority() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> batchCall = executor.submit(() -> holdSlot(HarpBulkhead.Priority.BATCH, release));
+    awaitInFlight(1);
+    harpConfig.getBulkhead().setMaxWait(Duration.ofMillis(50));
+
+    // the only slot left is reserved for interactive calls
+    assertThrows(HarpBulkheadFullException.class, () -> harpBulkhead.call(() -> "batch"));
+
+    assertThat(
+        HarpBulkhead.withPriority(
+            HarpBulkhead.Priority.INTERACTIVE, () -> harpBulkhead.call(() -> "login")),
+        is("login"));
+    release.countDown();
+    batchCall.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void waitingInteractiveCallGetsNextFreeSlotBeforeWaitingBatchCall() throws Exception {
+    harpConfig.getBulkhead().setMaxConcurrentCalls(1);
+    harpConfig.getBulkhead().setReservedForInteractive(0);
+    List<String> order = new CopyOnWriteArrayList<>();
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> holder = executor.submit(() -> holdSlot(HarpBulkhead.Priority.BATCH, release));
+    awaitInFlight(1);
+
+    Future<?> batchCall =
+        executor.submit(
+            () ->
+                HarpBulkhead.withPriority(
+                    HarpBulkhead.Priority.BATCH,
+                    () -> harpBulkhead.call(() -> order.add("batch"))));
+    awaitWaiting("batch", 1);
+    Future<?> loginCall =
+        executor.submit(
+            () ->
+                HarpBulkhead.withPriority(
+                    HarpBulkhead.Priority.INTERACTIVE,
+                    () -> harpBulkhead.call(() -> order.add("login"))));
+    awaitWaiting("interactive", 1);
+    release.countDown();
+
+    holder.get(5, TimeUnit.SECONDS);
+    loginCall.get(5, TimeUnit.SECONDS);
+    batchCall.get(5, TimeUnit.SECONDS);
+    assertThat(order, contains("login", "batch"));
+  }
+
+  @Test
+  void withPriorityRestoresPreviousPriority() throws Exception {
+    HarpBulkhead.withPriority(HarpBulkhead.Priority.INTERACTIVE, () -> "login");
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> batchCall = executor.submit(() -> holdSlot(HarpBulkhead.Priority.BATCH, release));
+    awaitInFlight(1);
+    harpConfig.getBulkhead().setMaxWait(Duration.ofMillis(50));
+
+    assertThrows(HarpBulkheadFullException.class, () -> harpBulkhead.call(() -> "batch"));
+    release.countDown();
+    batchCall.get(5, TimeUnit.SECONDS);
+  }
+
+  private Object holdSlot(HarpBulkhead.Priority priority, CountDownLatch release) {
+    return HarpBulkhead.withPriority(
+        priority,
+        () ->
+            harpBulkhead.call(
+                () -> {
+                  try {
+                    return release.await(5, TimeUnit.SECONDS);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                  }
+                }));
+  }
+
+  private void awaitInFlight(int expected) throws InterruptedException {
+    awaitGauge(meterRegistry.get("harp.bulkhead.in.flight").gauge()::value, expected);
+  }
+
+  private void awaitWaiting(String priority, int expected) throws InterruptedException {
+    awaitGauge(
+        meterRegistry.get("harp.bulkhead.waiting").tag("priority", priority).gauge()::value,
+        expected);
+  }
+
+  private void awaitGauge(DoubleSupplier gauge, int expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (gauge.getAsDouble() != expected && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(gauge.getAsDouble(), is((double) expected));
+  }
+}
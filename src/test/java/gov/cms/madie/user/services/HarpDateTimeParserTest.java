@@ -0,0 +1,41 @@
+package gov.cms.madie.user.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class HarpDateTimeParserTest {
+
+  private final HarpDateTimeParser parser = new HarpDateTimeParser(ZoneId.of("UTC"));
+
+  @Test
+  void parseConvertsTimestampInConfiguredZone() {
+    Instant parsed = parser.parse("2024-05-10 15:30:00");
+
+    assertThat(parsed, is(Instant.parse("2024-05-10T15:30:00Z")));
+  }
+
+  @Test
+  void parseReturnsSameInstanceForRepeatedTimestamp() {
+    Instant first = parser.parse("2024-05-10 15:30:00");
+    Instant second = parser.parse("2024-05-10 15:30:00");
+
+    assertThat(second, is(sameInstance(first)));
+  }
+
+  @Test
+  void parseReturnsNullForBlankTimestamp() {
+    assertThat(parser.parse(null), is(nullValue()));
+    assertThat(parser.parse("  "), is(nullValue()));
+  }
+
+  @Test
+  void parseReturnsNullForInvalidTimestamp() {
+    assertThat(parser.parse("not-a-date"), is(nullValue()));
+    assertThat(parser.parse("2024-05-10T15:30:00"), is(nullValue()));
+  }
+}
@@ -3,26 +3,36 @@ package gov.cms.madie.user.services;
 import gov.cms.madie.user.config.HarpConfig;
 import gov.cms.madie.user.dto.HarpResponseWrapper;
 import gov.cms.madie.user.dto.TokenResponse;
+import gov.cms.madie.user.dto.UserDetailsRequest;
 import gov.cms.madie.user.dto.UserDetailsResponse;
 import gov.cms.madie.user.dto.UserRolesResponse;
 import gov.cms.madie.user.dto.HarpErrorResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -30,6 +40,11 @@ class HarpProxyServiceTest {
 
   @Mock private HarpConfig harpConfig;
   @Mock private RestTemplate harpRestTemplate;
+  @Mock private TokenManager tokenManager;
+
+  @Spy
+  private HarpBulkhead harpBulkhead = new HarpBulkhead(new HarpConfig(), new SimpleMeterRegistry());
+
   @InjectMocks private HarpProxyService harpProxyService;
 
   @BeforeEach
@@ -78,6 +93,111 @@ class HarpProxyServiceTest {
     assertThat(actual, is(expected));
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  void fetchProgramUsersRequestsPageByProgramAttributes() {
+    // given
+    Map<String, List<String>> programAttributes = Map.of("status", List.of("Active"));
+    when(harpConfig.getBaseUrl()).thenReturn("http://harp");
+    when(harpConfig.getProgramName()).thenReturn("MADiE");
+    when(harpConfig.getUserFind())
+        .thenReturn(
+            HarpConfig.UserFind.builder()
+                .uri("/userFindApi")
+                .programAttributes(programAttributes)
+                .build());
+    UserDetailsResponse expected = new UserDetailsResponse();
+    when(harpRestTemplate.postForObject(anyString(), any(), eq(UserDetailsResponse.class)))
+        .thenReturn(expected);
+    // when
+    UserDetailsResponse actual = harpProxyService.fetchProgramUsers(500, 250, "accessToken");
+    // then
+    assertThat(actual, is(expected));
+    ArgumentCaptor<HttpEntity<UserDetailsRequest>> requestCaptor =
+        ArgumentCaptor.forClass(HttpEntity.class);
+    verify(harpRestTemplate)
+        .postForObject(
+            eq("http://harp/userFindApi/findUser"),
+            requestCaptor.capture(),
+            eq(UserDetailsResponse.class));
+    UserDetailsRequest body = requestCaptor.getValue().getBody();
+    assertThat(body.getProgramName(), is("MADiE"));
+    assertThat(body.getAttributes(), is(programAttributes));
+    assertThat(body.getOffset(), is(500));
+    assertThat(body.getMax(), is(250));
+  }
+
+  @Test
+  void fetchUserDetailsRenewsRejectedTokenAndReplaysRequest() {
+    // given
+    when(harpConfig.getUserFind())
+        .thenReturn(HarpConfig.UserFind.builder().uri("/userFindApi").build());
+    UserDetailsResponse expected = new UserDetailsResponse();
+    when(harpRestTemplate.postForObject(anyString(), any(), eq(UserDetailsResponse.class)))
+        .thenThrow(unauthorized())
+        .thenReturn(expected);
+    when(tokenManager.renewToken("expired"))
+        .thenReturn(TokenResponse.builder().accessToken("renewed").build());
+    // when
+    UserDetailsResponse actual = harpProxyService.fetchUserDetails(List.of("id1"), "expired");
+    // then
+    assertThat(actual, is(expected));
+    ArgumentCaptor<HttpEntity<?>> requestCaptor = ArgumentCaptor.forClass(HttpEntity.class);
+    verify(harpRestTemplate, times(2))
+        .postForObject(anyString(), requestCaptor.capture(), eq(UserDetailsResponse.class));
+    assertThat(
+        requestCaptor.getAllValues().get(1).getHeaders().getFirst("Authorization"),
+        is("Bearer renewed"));
+  }
+
+  @Test
+  void fetchUserDetailsRethrowsUnauthorizedWhenTokenCannotBeRenewed() {
+    // given
+    when(harpConfig.getUserFind())
+        .thenReturn(HarpConfig.UserFind.builder().uri("/userFindApi").build());
+    when(harpRestTemplate.postForObject(anyString(), any(), eq(UserDetailsResponse.class)))
+        .thenThrow(unauthorized());
+    when(tokenManager.renewToken("expired")).thenReturn(null);
+    // when & then
+    assertThrows(
+        HttpClientErrorException.Unauthorized.class,
+        () -> harpProxyService.fetchUserDetails(List.of("id1"), "expired"));
+    verify(harpRestTemplate, times(1))
+        .postForObject(anyString(), any(), eq(UserDetailsResponse.class));
+  }
+
+  @Test
+  void fetchUserRolesRenewsRejectedTokenAndReplaysRequest() {
+    // given
+    when(harpConfig.getUserRoles())
+        .thenReturn(HarpConfig.UserRoles.builder().uri("/userRoleCreationApi").build());
+    UserRolesResponse userRolesResponse = UserRolesResponse.builder().success(true).build();
+    when(harpRestTemplate.postForEntity(anyString(), any(), eq(UserRolesResponse.class)))
+        .thenThrow(unauthorized())
+        .thenReturn(ResponseEntity.ok(userRolesResponse));
+    when(tokenManager.renewToken("expired"))
+        .thenReturn(TokenResponse.builder().accessToken("renewed").build());
+    // when
+    HarpResponseWrapper<UserRolesResponse> actual =
+        harpProxyService.fetchUserRoles("id1", "expired");
+    // then
+    assertThat(actual.isSuccess(), is(true));
+    assertThat(actual.getResponse(), is(userRolesResponse));
+  }
+
+  @Test
+  void fetchUserDetailsGoesThroughBulkhead() {
+    // given
+    when(harpConfig.getUserFind())
+        .thenReturn(HarpConfig.UserFind.builder().uri("/userFindApi").build());
+    when(harpRestTemplate.postForObject(anyString(), any(), eq(UserDetailsResponse.class)))
+        .thenReturn(new UserDetailsResponse());
+    // when
+    harpProxyService.fetchUserDetails(List.of("id1"), "accessToken");
+    // then
+    verify(harpBulkhead).call(any());
+  }
+
   @Test
   void fetchUserRolesReturnsUserRolesResponse() {
     // given
@@ -124,7 +244,11 @@ class HarpProxyServiceTest {
         .thenThrow(ex);
     HarpProxyService service =
         new HarpProxyService(
-            harpConfig, harpRestTemplate, new com.fasterxml.jackson.databind.ObjectMapper());
+            harpConfig,
+            harpRestTemplate,
+            new com.fasterxml.jackson.databind.ObjectMapper(),
+            harpBulkhead,
+            tokenManager);
     HarpResponseWrapper<UserRolesResponse> result = service.fetchUserRoles(harpId, token);
     assertThat(result.getError().getErrorCode(), is("ERR-ROLECREATION-027"));
     assertThat(result.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
@@ -156,7 +280,11 @@ class HarpProxyServiceTest {
         .thenThrow(ex);
     HarpProxyService service =
         new HarpProxyService(
-            harpConfig, harpRestTemplate, new com.fasterxml.jackson.databind.ObjectMapper());
+            harpConfig,
+            harpRestTemplate,
+            new com.fasterxml.jackson.databind.ObjectMapper(),
+            harpBulkhead,
+            tokenManager);
     HarpResponseWrapper<UserRolesResponse> result = service.fetchUserRoles(harpId, token);
     assertThat(result.getError().getErrorCode(), is("ERR-OTHER"));
     assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -181,11 +309,20 @@ class HarpProxyServiceTest {
         .thenThrow(ex);
     HarpProxyService service =
         new HarpProxyService(
-            harpConfig, harpRestTemplate, new com.fasterxml.jackson.databind.ObjectMapper());
+            harpConfig,
+            harpRestTemplate,
+            new com.fasterxml.jackson.databind.ObjectMapper(),
+            harpBulkhead,
+            tokenManager);
     HarpResponseWrapper<UserRolesResponse> result = service.fetchUserRoles(harpId, token);
     assertThat(result.getError(), is(nullValue()));
     assertThat(result.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     assertThat(result.getException(), is(ex));
     assertThat(result.getResponse(), is(nullValue()));
   }
+
+  private HttpClientErrorException unauthorized() {
+    return HttpClientErrorException.create(
+        HttpStatus.UNAUTHORIZED, "Unauthorized", new HttpHeaders(), new byte[0], null);
+  }
 }
@@ -0,0 +1,199 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.TokenResponse;
+import gov.cms.madie.user.dto.UserDetail;
+import gov.cms.madie.user.dto.UserDetailsResponse;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.repositories.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HarpUserEnumerationTest {
+
+  @Mock private HarpProxyService harpProxyService;
+  @Mock private TokenManager tokenManager;
+  @Mock private UserRepository userRepository;
+  @Mock private SweepJobControlService sweepJobControlService;
+  @Mock private SweepJobControlService.Gate gate;
+
+  private UserUpdateConfig userUpdateConfig;
+  private HarpUserEnumeration harpUserEnumeration;
+  private SweepLease lease;
+  private List<UserUpdatesJobResultDto> results;
+
+  @BeforeEach
+  void setUp() throws InterruptedException {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getEnumeration().setPageSize(2);
+    harpUserEnumeration =
+        new HarpUserEnumeration(
+            harpProxyService,
+            tokenManager,
+            userRepository,
+            userUpdateConfig,
+            sweepJobControlService);
+    lease = SweepLease.builder().id("userSweep").fencingToken(1).build();
+    results = new ArrayList<>();
+    lenient().when(sweepJobControlService.gate(any())).thenReturn(gate);
+    lenient().when(gate.awaitTurn(anyInt())).thenReturn(true);
+    lenient()
+        .when(tokenManager.getCurrentToken())
+        .thenReturn(TokenResponse.builder().accessToken("token").build());
+    lenient()
+        .when(userRepository.bulkUpsertHarpUsers(anyMap(), any(Instant.class)))
+        .thenAnswer(invocation -> new UserUpdatesJobResultDto());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void runUpsertsEveryPageUntilTotalCountThenFlagsAbsentUsers() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token"))
+        .thenReturn(page("3", detail("User1", "one@email.com"), detail("user2", null)));
+    when(harpProxyService.fetchProgramUsers(2, 2, "token"))
+        .thenReturn(page("3", detail("user3", "three@email.com")));
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(true));
+    assertThat(results.size(), is(2));
+    ArgumentCaptor<Map<String, Map<String, Object>>> pageCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    ArgumentCaptor<Instant> seenAtCaptor = ArgumentCaptor.forClass(Instant.class);
+    verify(userRepository, times(2))
+        .bulkUpsertHarpUsers(pageCaptor.capture(), seenAtCaptor.capture());
+    Map<String, Map<String, Object>> firstPage = pageCaptor.getAllValues().get(0);
+    assertThat(firstPage.keySet(), contains("user1", "user2"));
+    assertThat(firstPage.get("user1").get("email"), is("one@email.com"));
+    assertThat(firstPage.get("user2").containsKey("email"), is(false));
+    // every page is stamped with the start of the enumeration, which is the absent cutoff
+    assertThat(seenAtCaptor.getAllValues().get(1), is(seenAtCaptor.getAllValues().get(0)));
+    verify(userRepository).flagUsersAbsentFromHarp(seenAtCaptor.getValue());
+    verify(harpProxyService, never()).fetchProgramUsers(eq(3), anyInt(), anyString());
+  }
+
+  @Test
+  void runStopsAtShortPageWithoutTotalCount() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token"))
+        .thenReturn(page(null, detail("user1", "one@email.com")));
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(true));
+    verify(harpProxyService, never()).fetchProgramUsers(eq(1), anyInt(), anyString());
+    verify(userRepository).flagUsersAbsentFromHarp(any(Instant.class));
+  }
+
+  @Test
+  void runDoesNotFlagAbsentUsersWhenFirstPageIsEmpty() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token")).thenReturn(page("0"));
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(false));
+    assertThat(results.isEmpty(), is(true));
+    verify(userRepository, never()).flagUsersAbsentFromHarp(any());
+  }
+
+  @Test
+  void runDoesNotFlagAbsentUsersWhenPageIsEmptyBeforeTotalCount() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token"))
+        .thenReturn(page("5", detail("user1", null), detail("user2", null)));
+    when(harpProxyService.fetchProgramUsers(2, 2, "token")).thenReturn(null);
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(false));
+    assertThat(results.size(), is(1));
+    verify(userRepository, never()).flagUsersAbsentFromHarp(any());
+  }
+
+  @Test
+  void runDoesNotFlagAbsentUsersWhenTooManyStoredUsersWouldBe() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token"))
+        .thenReturn(page(null, detail("user1", "one@email.com")));
+    when(userRepository.countUsersAbsentFromHarp(any(Instant.class))).thenReturn(11L);
+    when(userRepository.count()).thenReturn(100L);
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(false));
+    assertThat(results.size(), is(1));
+    verify(userRepository, never()).flagUsersAbsentFromHarp(any());
+  }
+
+  @Test
+  void runFlagsAbsentUsersWithinLimit() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token"))
+        .thenReturn(page(null, detail("user1", "one@email.com")));
+    when(userRepository.countUsersAbsentFromHarp(any(Instant.class))).thenReturn(10L);
+    when(userRepository.count()).thenReturn(100L);
+    when(userRepository.flagUsersAbsentFromHarp(any(Instant.class))).thenReturn(10L);
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(true));
+    verify(userRepository).flagUsersAbsentFromHarp(any(Instant.class));
+  }
+
+  @Test
+  void runDoesNotFlagAbsentUsersWhenPageFails() {
+    when(harpProxyService.fetchProgramUsers(0, 2, "token"))
+        .thenReturn(page("4", detail("user1", null), detail("user2", null)));
+    when(harpProxyService.fetchProgramUsers(2, 2, "token"))
+        .thenThrow(new RuntimeException("HARP unavailable"));
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(false));
+    assertThat(results.size(), is(1));
+    verify(userRepository, never()).flagUsersAbsentFromHarp(any());
+  }
+
+  @Test
+  void runStopsWhenGateCloses() throws InterruptedException {
+    when(gate.awaitTurn(anyInt())).thenReturn(false);
+
+    boolean completed = harpUserEnumeration.run(lease, results::add);
+
+    assertThat(completed, is(false));
+    verify(harpProxyService, never()).fetchProgramUsers(anyInt(), anyInt(), anyString());
+    verify(userRepository, never()).flagUsersAbsentFromHarp(any());
+  }
+
+  private UserDetailsResponse page(String totalCount, UserDetail... users) {
+    UserDetailsResponse response = new UserDetailsResponse();
+    response.setTotalcount(totalCount);
+    response.setUserdetails(List.of(users));
+    return response;
+  }
+
+  private UserDetail detail(String username, String email) {
+    return UserDetail.builder().username(username).email(email).firstname("First").build();
+  }
+}
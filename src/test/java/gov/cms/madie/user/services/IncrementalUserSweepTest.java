@@ -0,0 +1,141 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.UserRepository;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IncrementalUserSweepTest {
+
+  @Mock private UserRepository userRepository;
+  @Mock private UserSweepRunRepository userSweepRunRepository;
+  @Mock private UserSweepPipeline userSweepPipeline;
+  @Mock private SweepJobControlService sweepJobControlService;
+
+  private UserUpdateConfig userUpdateConfig;
+  private IncrementalUserSweep incrementalUserSweep;
+  private SweepLease lease;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getIncremental().setEnabled(true);
+    incrementalUserSweep =
+        new IncrementalUserSweep(
+            userRepository,
+            userSweepRunRepository,
+            userSweepPipeline,
+            userUpdateConfig,
+            sweepJobControlService);
+    lease = SweepLease.builder().id("userSweep").fencingToken(1).build();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void runRefreshesActiveUsersBeforeDormantUsersUpToTheCap() {
+    userUpdateConfig.getIncremental().setMaxUsersPerRun(3);
+    MadieUser active1 = MadieUser.builder().id("id1").harpId("a1").build();
+    MadieUser active2 = MadieUser.builder().id("id2").harpId("a2").build();
+    MadieUser dormant = MadieUser.builder().id("id3").harpId("d1").build();
+    when(userRepository.findStaleActiveUsers(any(Instant.class), any(Instant.class), eq(3)))
+        .thenReturn(List.of(active1, active2));
+    when(userRepository.findStaleDormantUsers(any(Instant.class), any(Instant.class), eq(1)))
+        .thenReturn(List.of(dormant));
+
+    incrementalUserSweep.run(lease, batchResult -> {});
+
+    ArgumentCaptor<List<MadieUser>> usersCaptor = ArgumentCaptor.forClass(List.class);
+    verify(userSweepPipeline).refresh(usersCaptor.capture(), any(), any());
+    assertThat(usersCaptor.getValue(), contains(active1, active2, dormant));
+
+    ArgumentCaptor<Instant> activeStaleCaptor = ArgumentCaptor.forClass(Instant.class);
+    ArgumentCaptor<Instant> dormantStaleCaptor = ArgumentCaptor.forClass(Instant.class);
+    verify(userRepository).findStaleActiveUsers(activeStaleCaptor.capture(), any(), anyInt());
+    verify(userRepository).findStaleDormantUsers(dormantStaleCaptor.capture(), any(), anyInt());
+    // dormant users are refreshed far less often than active ones
+    assertThat(
+        Duration.between(dormantStaleCaptor.getValue(), activeStaleCaptor.getValue()).toDays(),
+        is(29L));
+  }
+
+  @Test
+  void runSkipsDormantUsersWhenActiveUsersFillTheCap() {
+    userUpdateConfig.getIncremental().setMaxUsersPerRun(1);
+    when(userRepository.findStaleActiveUsers(any(Instant.class), any(Instant.class), eq(1)))
+        .thenReturn(List.of(MadieUser.builder().id("id1").harpId("a1").build()));
+
+    incrementalUserSweep.run(lease, batchResult -> {});
+
+    verify(userRepository, never()).findStaleDormantUsers(any(), any(), anyInt());
+  }
+
+  @Test
+  void fullSweepIsDueWhenLastOneCompletedBeforeTheInterval() {
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(
+            UserSweepRun.Status.COMPLETED))
+        .thenReturn(
+            Optional.of(
+                UserSweepRun.builder()
+                    .completedAt(Instant.now().minus(8, ChronoUnit.DAYS))
+                    .build()));
+
+    assertThat(incrementalUserSweep.isFullSweepDue(), is(true));
+  }
+
+  @Test
+  void fullSweepIsNotDueWhenOneCompletedRecently() {
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(
+            UserSweepRun.Status.COMPLETED))
+        .thenReturn(
+            Optional.of(
+                UserSweepRun.builder()
+                    .completedAt(Instant.now().minus(1, ChronoUnit.DAYS))
+                    .build()));
+
+    assertThat(incrementalUserSweep.isFullSweepDue(), is(false));
+  }
+
+  @Test
+  void fullSweepIsDueToFinishAnInterruptedOne() {
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(UserSweepRun.builder().id("run1").build()));
+
+    assertThat(incrementalUserSweep.isFullSweepDue(), is(true));
+  }
+
+  @Test
+  void fullSweepIsNeverDueWhenIntervalIsZero() {
+    userUpdateConfig.getIncremental().setFullSweepInterval(Duration.ZERO);
+
+    assertThat(incrementalUserSweep.isFullSweepDue(), is(false));
+  }
+}
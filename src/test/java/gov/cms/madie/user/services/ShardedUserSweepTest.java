@@ -0,0 +1,295 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.SweepWorkItem;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.SweepWorkItemRepository;
+import gov.cms.madie.user.repositories.UserRepository;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ShardedUserSweepTest {
+
+  @Mock private UserRepository userRepository;
+  @Mock private UserSweepRunRepository userSweepRunRepository;
+  @Mock private SweepWorkItemRepository sweepWorkItemRepository;
+  @Mock private UserSweepRunService userSweepRunService;
+  @Mock private SweepLeaseService sweepLeaseService;
+  @Mock private UserSweepPipeline userSweepPipeline;
+  @Mock private SweepJobControlService sweepJobControlService;
+  @Mock private SweepJobControlService.Gate gate;
+  @Mock private ScheduledFuture<Object> heartbeat;
+
+  private UserUpdateConfig userUpdateConfig;
+  private ShardedUserSweep shardedUserSweep;
+  private SweepLease lease;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getSharding().setItemSize(100);
+    userUpdateConfig.getSharding().setPlanWait(Duration.ZERO);
+    shardedUserSweep =
+        new ShardedUserSweep(
+            userRepository,
+            userSweepRunRepository,
+            sweepWorkItemRepository,
+            userSweepRunService,
+            sweepLeaseService,
+            userSweepPipeline,
+            userUpdateConfig,
+            sweepJobControlService);
+    lenient().when(sweepJobControlService.gate(any())).thenReturn(gate);
+    lenient()
+        .doReturn(heartbeat)
+        .when(sweepLeaseService)
+        .scheduleHeartbeat(any(Runnable.class), any(Duration.class));
+    lease = SweepLease.builder().id("userSweep").fencingToken(3).build();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void runPlansRangesWhenHoldingLeaseThenWorksThem() {
+    UserSweepRun run =
+        UserSweepRun.builder().id("run1").status(UserSweepRun.Status.RUNNING).build();
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(
+            UserSweepRun.Status.COMPLETED))
+        .thenReturn(Optional.empty());
+    when(userSweepRunService.startOrResume(lease)).thenReturn(run);
+    when(userRepository.findSweepBoundaryAfter(null, 100)).thenReturn("id99");
+    when(userRepository.findSweepBoundaryAfter("id99", 100)).thenReturn(null);
+    when(userRepository.count()).thenReturn(150L);
+    doAnswer(
+            invocation -> {
+              run.setWorkItemCount(invocation.getArgument(1));
+              return true;
+            })
+        .when(userSweepRunService)
+        .recordWorkItems(run, 2);
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(run));
+    when(sweepLeaseService.getInstanceId()).thenReturn("pod-a");
+    SweepWorkItem first = SweepWorkItem.builder().id("item0").sequence(0).rangeEnd("id99").build();
+    SweepWorkItem second =
+        SweepWorkItem.builder().id("item1").sequence(1).rangeStart("id99").build();
+    when(sweepWorkItemRepository.claimNext(eq("run1"), eq("pod-a"), any(Duration.class)))
+        .thenReturn(first, second, null);
+    when(userSweepPipeline.sweep(any(), any(), any(), any(), any())).thenReturn(true);
+    when(sweepWorkItemRepository.complete(any(SweepWorkItem.class))).thenReturn(true);
+    when(sweepWorkItemRepository.countByRunIdAndStatusNot("run1", SweepWorkItem.Status.DONE))
+        .thenReturn(0L);
+
+    boolean completed = shardedUserSweep.run(batchResult -> {});
+
+    assertThat(completed, is(true));
+    ArgumentCaptor<List<SweepWorkItem>> itemsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(sweepWorkItemRepository).saveAll(itemsCaptor.capture());
+    List<SweepWorkItem> items = itemsCaptor.getValue();
+    assertThat(items.get(0).getRangeStart(), is(nullValue()));
+    assertThat(items.get(0).getRangeEnd(), is("id99"));
+    assertThat(items.get(1).getRangeStart(), is("id99"));
+    assertThat(items.get(1).getRangeEnd(), is(nullValue()));
+    verify(sweepLeaseService).release(lease);
+    verify(userSweepPipeline).sweep(eq(null), eq("id99"), any(), any(), any());
+    verify(userSweepPipeline).sweep(eq("id99"), eq(null), any(), any(), any());
+    assertThat(run.getTotalUsers(), is(150L));
+    verify(sweepWorkItemRepository).deleteByRunIdNot("run1");
+    verify(userSweepRunService).completeSharded(run);
+    verify(sweepWorkItemRepository).deleteByRunId("run1");
+    verify(heartbeat, times(2)).cancel(false);
+  }
+
+  @Test
+  void runResumesReclaimedItemAfterItsCheckpoint() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").workItemCount(3).build();
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(run));
+    when(sweepLeaseService.getInstanceId()).thenReturn("pod-b");
+    SweepWorkItem reclaimed =
+        SweepWorkItem.builder()
+            .id("item1")
+            .rangeStart("id99")
+            .rangeEnd("id199")
+            .lastProcessedId("id149")
+            .build();
+    when(sweepWorkItemRepository.claimNext(eq("run1"), eq("pod-b"), any(Duration.class)))
+        .thenReturn(reclaimed, (SweepWorkItem) null);
+    when(userSweepPipeline.sweep(any(), any(), any(), any(), any())).thenReturn(true);
+    when(sweepWorkItemRepository.complete(reclaimed)).thenReturn(true);
+    when(sweepWorkItemRepository.countByRunIdAndStatusNot("run1", SweepWorkItem.Status.DONE))
+        .thenReturn(1L);
+
+    shardedUserSweep.run(batchResult -> {});
+
+    verify(userSweepPipeline).sweep(eq("id149"), eq("id199"), any(), any(), any());
+    verify(userSweepRunService, never()).startOrResume(any());
+    // another replica still holds an item, it completes the run
+    verify(userSweepRunService, never()).completeSharded(any());
+    verify(sweepWorkItemRepository, never()).deleteByRunId(any());
+  }
+
+  @Test
+  void runDoesNotPlanRightAfterASweepCompleted() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    userUpdateConfig.getSharding().setPlanWait(Duration.ofMinutes(1));
+    UserSweepRun completed =
+        UserSweepRun.builder()
+            .id("run0")
+            .status(UserSweepRun.Status.COMPLETED)
+            .completedAt(Instant.now().minusSeconds(5))
+            .build();
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(
+            UserSweepRun.Status.COMPLETED))
+        .thenReturn(Optional.of(completed));
+    UserSweepRun unfinished = UserSweepRun.builder().id("run1").workItemCount(1).build();
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(unfinished));
+    when(sweepLeaseService.getInstanceId()).thenReturn("pod-a");
+    when(sweepWorkItemRepository.claimNext(anyString(), anyString(), any(Duration.class)))
+        .thenReturn(null);
+    when(sweepWorkItemRepository.countByRunIdAndStatusNot("run1", SweepWorkItem.Status.DONE))
+        .thenReturn(0L);
+
+    shardedUserSweep.run(batchResult -> {});
+
+    verify(userSweepRunService, never()).startOrResume(any());
+    verify(sweepWorkItemRepository, never()).saveAll(anyList());
+    verify(sweepLeaseService).release(lease);
+  }
+
+  @Test
+  void runReturnsFalseWhenNothingWasPlanned() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.empty());
+
+    boolean completed = shardedUserSweep.run(batchResult -> {});
+
+    assertThat(completed, is(false));
+    verify(sweepWorkItemRepository, never()).claimNext(any(), any(), any());
+  }
+
+  @Test
+  void workLeavesItemForOthersWhenClaimWasLost() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").workItemCount(1).build();
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(run));
+    when(sweepLeaseService.getInstanceId()).thenReturn("pod-a");
+    SweepWorkItem item = SweepWorkItem.builder().id("item0").build();
+    when(sweepWorkItemRepository.claimNext(eq("run1"), eq("pod-a"), any(Duration.class)))
+        .thenReturn(item, (SweepWorkItem) null);
+    when(userSweepPipeline.sweep(any(), any(), any(), any(), any())).thenReturn(false);
+    when(sweepWorkItemRepository.countByRunIdAndStatusNot("run1", SweepWorkItem.Status.DONE))
+        .thenReturn(1L);
+
+    boolean completed = shardedUserSweep.run(batchResult -> {});
+
+    assertThat(completed, is(false));
+    verify(sweepWorkItemRepository, never()).complete(any());
+    verify(userSweepRunService, never()).completeSharded(any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void workAddsCheckpointedBatchesToTheRun() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").workItemCount(1).build();
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(run));
+    when(sweepLeaseService.getInstanceId()).thenReturn("pod-a");
+    SweepWorkItem item = SweepWorkItem.builder().id("item0").build();
+    when(sweepWorkItemRepository.claimNext(eq("run1"), eq("pod-a"), any(Duration.class)))
+        .thenReturn(item, (SweepWorkItem) null);
+    UserUpdatesJobResultDto checkpointed =
+        UserUpdatesJobResultDto.builder().updatedHarpIds(new ArrayList<>(List.of("H1"))).build();
+    UserUpdatesJobResultDto rejected =
+        UserUpdatesJobResultDto.builder().updatedHarpIds(new ArrayList<>(List.of("H2"))).build();
+    when(sweepWorkItemRepository.checkpoint(eq(item), eq("id49"), eq(checkpointed), any()))
+        .thenReturn(true);
+    when(sweepWorkItemRepository.checkpoint(eq(item), eq("id99"), eq(rejected), any()))
+        .thenReturn(false);
+    when(userSweepPipeline.sweep(any(), any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              UserSweepPipeline.SweepCheckpoint checkpoint = invocation.getArgument(3);
+              assertThat(checkpoint.save("id49", checkpointed), is(true));
+              assertThat(checkpoint.save("id99", rejected), is(false));
+              return false;
+            });
+    when(sweepWorkItemRepository.countByRunIdAndStatusNot("run1", SweepWorkItem.Status.DONE))
+        .thenReturn(1L);
+
+    shardedUserSweep.run(batchResult -> {});
+
+    verify(userSweepRunService).recordShardProgress(run, checkpointed);
+    verify(userSweepRunService, never()).recordShardProgress(run, rejected);
+  }
+
+  @Test
+  void heartbeatRenewsClaimAndStopsTheItemOnceTakenOver() {
+    userUpdateConfig.getSharding().setItemLeaseTtl(Duration.ofMinutes(3));
+    UserSweepRun run = UserSweepRun.builder().id("run1").workItemCount(1).build();
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(run));
+    when(sweepLeaseService.getInstanceId()).thenReturn("pod-a");
+    SweepWorkItem item = SweepWorkItem.builder().id("item0").build();
+    when(sweepWorkItemRepository.claimNext(eq("run1"), eq("pod-a"), any(Duration.class)))
+        .thenReturn(item, (SweepWorkItem) null);
+    when(sweepWorkItemRepository.renewClaim(item, Duration.ofMinutes(3))).thenReturn(true, false);
+    ArgumentCaptor<BooleanSupplier> stopCaptor = ArgumentCaptor.forClass(BooleanSupplier.class);
+    when(userSweepPipeline.sweep(any(), any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              ArgumentCaptor<Runnable> renewal = ArgumentCaptor.forClass(Runnable.class);
+              verify(sweepLeaseService)
+                  .scheduleHeartbeat(renewal.capture(), eq(Duration.ofMinutes(1)));
+              verify(sweepJobControlService).gate(stopCaptor.capture());
+              renewal.getValue().run();
+              assertThat(stopCaptor.getValue().getAsBoolean(), is(false));
+              renewal.getValue().run();
+              assertThat(stopCaptor.getValue().getAsBoolean(), is(true));
+              return false;
+            });
+    when(sweepWorkItemRepository.countByRunIdAndStatusNot("run1", SweepWorkItem.Status.DONE))
+        .thenReturn(1L);
+
+    boolean completed = shardedUserSweep.run(batchResult -> {});
+
+    assertThat(completed, is(false));
+    verify(heartbeat).cancel(false);
+  }
+}
@@ -0,0 +1,265 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.SweepJobProgressDto;
+import gov.cms.madie.user.models.SweepControl;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.SweepControlRepository;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SweepJobControlServiceTest {
+
+  @Mock private SweepControlRepository sweepControlRepository;
+  @Mock private UserSweepRunRepository userSweepRunRepository;
+  @Mock private SweepLoadMonitor sweepLoadMonitor;
+  @Captor private ArgumentCaptor<Map<String, Object>> fields;
+
+  private SweepJobControlService sweepJobControlService;
+
+  @BeforeEach
+  void setUp() {
+    UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.setControlPollInterval(Duration.ofMillis(1));
+    userUpdateConfig.getThrottle().setCheckInterval(Duration.ofMillis(1));
+    userUpdateConfig.getThrottle().setSlowDownDelay(Duration.ofMillis(100));
+    sweepJobControlService =
+        new SweepJobControlService(
+            sweepControlRepository, userSweepRunRepository, userUpdateConfig, sweepLoadMonitor);
+    lenient().when(sweepLoadMonitor.currentLoad()).thenReturn(load(SweepLoadMonitor.Level.NORMAL));
+  }
+
+  @Test
+  void pauseOnlySetsPausedWithUser() {
+    SweepControl paused = SweepControl.builder().id("userSweep").paused(true).build();
+    when(sweepControlRepository.setFields("userSweep", Map.of("paused", true), "admin"))
+        .thenReturn(paused);
+
+    assertThat(sweepJobControlService.pause("admin"), is(paused));
+    verify(sweepControlRepository, never()).save(any(SweepControl.class));
+  }
+
+  @Test
+  void cancelSetsCancelRequestedAtAndUnpauses() {
+    when(sweepControlRepository.setFields(eq("userSweep"), anyMap(), eq("admin")))
+        .thenReturn(SweepControl.builder().id("userSweep").build());
+
+    sweepJobControlService.cancel("admin");
+
+    verify(sweepControlRepository).setFields(eq("userSweep"), fields.capture(), eq("admin"));
+    assertThat(fields.getValue().get("paused"), is(false));
+    assertThat(fields.getValue().get("cancelRequestedAt"), is(notNullValue()));
+    assertThat(fields.getValue().size(), is(2));
+  }
+
+  @Test
+  void setRateLimitBelowOneRemovesLimit() {
+    Map<String, Object> noLimit = new HashMap<>();
+    noLimit.put("maxUsersPerSecond", null);
+    when(sweepControlRepository.setFields("userSweep", noLimit, "admin"))
+        .thenReturn(SweepControl.builder().id("userSweep").build());
+
+    assertThat(
+        sweepJobControlService.setRateLimit(0, "admin").getMaxUsersPerSecond(), is(nullValue()));
+  }
+
+  @Test
+  void gateWaitsWhilePausedUntilResumed() throws InterruptedException {
+    SweepControl paused = SweepControl.builder().paused(true).build();
+    SweepControl resumed = SweepControl.builder().paused(false).build();
+    when(sweepControlRepository.findById("userSweep"))
+        .thenReturn(Optional.of(paused), Optional.of(paused), Optional.of(resumed));
+
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> false);
+
+    assertThat(gate.awaitTurn(50), is(true));
+    verify(sweepControlRepository, times(3)).findById("userSweep");
+  }
+
+  @Test
+  void gateClosesForSweepStartedBeforeCancel() throws InterruptedException {
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> false);
+    when(sweepControlRepository.findById("userSweep"))
+        .thenReturn(
+            Optional.of(
+                SweepControl.builder().cancelRequestedAt(Instant.now().plusSeconds(1)).build()));
+
+    assertThat(gate.awaitTurn(50), is(false));
+    assertThat(gate.isCancelled(), is(true));
+  }
+
+  @Test
+  void gateIgnoresCancelOfEarlierSweep() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep"))
+        .thenReturn(
+            Optional.of(
+                SweepControl.builder().cancelRequestedAt(Instant.now().minusSeconds(60)).build()));
+
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> false);
+
+    assertThat(gate.awaitTurn(50), is(true));
+    assertThat(gate.isCancelled(), is(false));
+  }
+
+  @Test
+  void gateClosesWhenStopRequested() throws InterruptedException {
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> true);
+
+    assertThat(gate.awaitTurn(50), is(false));
+    assertThat(gate.isCancelled(), is(false));
+  }
+
+  @Test
+  void gateSpacesBatchesToRateLimit() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep"))
+        .thenReturn(Optional.of(SweepControl.builder().maxUsersPerSecond(100).build()));
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> false);
+
+    long start = System.nanoTime();
+    gate.awaitTurn(10);
+    gate.awaitTurn(10);
+    gate.awaitTurn(10);
+
+    // 10 users at 100 per second is one batch every 100ms
+    assertThat(
+        Duration.ofNanos(System.nanoTime() - start).toMillis(), is(greaterThanOrEqualTo(190L)));
+  }
+
+  @Test
+  void gateKeepsRunningWhenControlCannotBeRead() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep"))
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    assertThat(sweepJobControlService.gate(() -> false).awaitTurn(50), is(true));
+  }
+
+  @Test
+  void gateHoldsWhileOverloadedUntilLoadIsBackToNormal() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep")).thenReturn(Optional.empty());
+    when(sweepLoadMonitor.currentLoad())
+        .thenReturn(
+            load(SweepLoadMonitor.Level.OVERLOADED),
+            load(SweepLoadMonitor.Level.ELEVATED),
+            load(SweepLoadMonitor.Level.NORMAL));
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> false);
+
+    assertThat(gate.awaitTurn(50), is(true));
+    // once held, an elevated load keeps the sweep held
+    verify(sweepLoadMonitor, times(3)).currentLoad();
+    verify(sweepControlRepository, times(3)).findById("userSweep");
+  }
+
+  @Test
+  void gateSlowsDownWhileLoadIsElevated() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep")).thenReturn(Optional.empty());
+    when(sweepLoadMonitor.currentLoad()).thenReturn(load(SweepLoadMonitor.Level.ELEVATED));
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> false);
+
+    long start = System.nanoTime();
+    assertThat(gate.awaitTurn(50), is(true));
+
+    assertThat(
+        Duration.ofNanos(System.nanoTime() - start).toMillis(), is(greaterThanOrEqualTo(100L)));
+    verify(sweepLoadMonitor, times(1)).currentLoad();
+  }
+
+  @Test
+  void gateClosesWhenStopRequestedWhileHeldForLoad() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep")).thenReturn(Optional.empty());
+    when(sweepLoadMonitor.currentLoad()).thenReturn(load(SweepLoadMonitor.Level.OVERLOADED));
+    int[] checks = {0};
+    SweepJobControlService.Gate gate = sweepJobControlService.gate(() -> ++checks[0] > 3);
+
+    assertThat(gate.awaitTurn(50), is(false));
+    assertThat(gate.isCancelled(), is(false));
+  }
+
+  @Test
+  void gateKeepsRunningWhenLoadCannotBeRead() throws InterruptedException {
+    when(sweepControlRepository.findById("userSweep")).thenReturn(Optional.empty());
+    when(sweepLoadMonitor.currentLoad()).thenThrow(new RuntimeException("no metrics"));
+
+    assertThat(sweepJobControlService.gate(() -> false).awaitTurn(50), is(true));
+  }
+
+  @Test
+  void currentProgressReportsRateAndEstimatedCompletion() {
+    Instant resumedAt = Instant.parse("2026-01-01T00:00:00Z");
+    Instant lastCheckpointAt = resumedAt.plusSeconds(100);
+    UserSweepRun run =
+        UserSweepRun.builder()
+            .id("run1")
+            .status(UserSweepRun.Status.RUNNING)
+            .totalUsers(1500)
+            .resumedAt(resumedAt)
+            .processedAtResume(200)
+            .lastCheckpointAt(lastCheckpointAt)
+            .updatedCount(1100)
+            .failedCount(100)
+            .unchangedCount(900)
+            .build();
+    when(sweepControlRepository.findById("userSweep")).thenReturn(Optional.empty());
+    when(userSweepRunRepository.findFirstByOrderByStartedAtDesc()).thenReturn(Optional.of(run));
+
+    SweepJobProgressDto progress = sweepJobControlService.currentProgress().orElseThrow();
+
+    assertThat(progress.getProcessedCount(), is(1200L));
+    assertThat(progress.getUnchangedCount(), is(900L));
+    // 1000 users in 100 seconds since resuming, 300 left
+    assertThat(progress.getUsersPerSecond(), is(closeTo(10.0, 0.001)));
+    assertThat(progress.getEstimatedCompletionAt(), is(lastCheckpointAt.plusSeconds(30)));
+  }
+
+  @Test
+  void currentProgressHasNoEstimateWhilePaused() {
+    UserSweepRun run =
+        UserSweepRun.builder()
+            .id("run1")
+            .status(UserSweepRun.Status.RUNNING)
+            .totalUsers(1500)
+            .resumedAt(Instant.now().minusSeconds(100))
+            .lastCheckpointAt(Instant.now())
+            .updatedCount(100)
+            .build();
+    when(sweepControlRepository.findById("userSweep"))
+        .thenReturn(Optional.of(SweepControl.builder().paused(true).build()));
+    when(userSweepRunRepository.findFirstByOrderByStartedAtDesc()).thenReturn(Optional.of(run));
+
+    SweepJobProgressDto progress = sweepJobControlService.currentProgress().orElseThrow();
+
+    assertThat(progress.isPaused(), is(true));
+    assertThat(progress.getEstimatedCompletionAt(), is(nullValue()));
+  }
+
+  private SweepLoadMonitor.Load load(SweepLoadMonitor.Level level) {
+    return new SweepLoadMonitor.Load(level, "login p99 1500 ms");
+  }
+}
@@ -0,0 +1,155 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.SweepWorkItem;
+import gov.cms.madie.user.repositories.SweepLeaseRepository;
+import gov.cms.madie.user.repositories.SweepWorkItemRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SweepLeaseServiceTest {
+
+  @Mock private SweepLeaseRepository sweepLeaseRepository;
+  @Mock private SweepWorkItemRepository sweepWorkItemRepository;
+
+  private UserUpdateConfig userUpdateConfig;
+  private SweepLeaseService sweepLeaseService;
+  private SweepLease lease;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getLease().setTtl(Duration.ofMinutes(1));
+    userUpdateConfig.getLease().setHeartbeatInterval(Duration.ofMillis(20));
+    sweepLeaseService =
+        new SweepLeaseService(sweepLeaseRepository, sweepWorkItemRepository, userUpdateConfig);
+    lease = SweepLease.builder().id("userSweep").holder("me").fencingToken(3).build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    sweepLeaseService.shutdown();
+  }
+
+  @Test
+  void tryAcquireReturnsLeaseAndStartsHeartbeat() {
+    when(sweepLeaseRepository.tryAcquire(
+            eq(SweepLeaseService.USER_SWEEP_LEASE), anyString(), eq(Duration.ofMinutes(1))))
+        .thenReturn(lease);
+    when(sweepLeaseRepository.renew(lease, Duration.ofMinutes(1))).thenReturn(true);
+
+    Optional<SweepLease> acquired = sweepLeaseService.tryAcquire();
+
+    assertThat(acquired.isPresent(), is(true));
+    verify(sweepLeaseRepository, timeout(1000).atLeastOnce()).renew(lease, Duration.ofMinutes(1));
+    sweepLeaseService.release(lease);
+    verify(sweepLeaseRepository).release(lease);
+  }
+
+  @Test
+  void tryAcquireUsesStableInstanceIdAsHolder() {
+    when(sweepLeaseRepository.tryAcquire(anyString(), anyString(), any(Duration.class)))
+        .thenReturn(null);
+
+    assertThat(sweepLeaseService.tryAcquire().isPresent(), is(false));
+    sweepLeaseService.tryAcquire();
+
+    ArgumentCaptor<String> holderCaptor = ArgumentCaptor.forClass(String.class);
+    verify(sweepLeaseRepository, atLeastOnce())
+        .tryAcquire(anyString(), holderCaptor.capture(), any(Duration.class));
+    assertThat(holderCaptor.getAllValues().get(0), is(holderCaptor.getAllValues().get(1)));
+    assertThat(holderCaptor.getValue(), not(startsWith("-")));
+  }
+
+  @Test
+  void tryAcquireReturnsEmptyWhenMongoFails() {
+    when(sweepLeaseRepository.tryAcquire(anyString(), anyString(), any(Duration.class)))
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    assertThat(sweepLeaseService.tryAcquire().isPresent(), is(false));
+  }
+
+  @Test
+  void heartbeatMarksLeaseLostWhenRenewalIsRejected() {
+    when(sweepLeaseRepository.renew(lease, Duration.ofMinutes(1))).thenReturn(false);
+
+    sweepLeaseService.heartbeat(lease);
+
+    assertThat(lease.isLost(), is(true));
+  }
+
+  @Test
+  void heartbeatKeepsLeaseWhenRenewalFails() {
+    when(sweepLeaseRepository.renew(lease, Duration.ofMinutes(1)))
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    sweepLeaseService.heartbeat(lease);
+
+    assertThat(lease.isLost(), is(false));
+  }
+
+  @Test
+  void releaseOfLostLeaseStopsHeartbeatWithoutWriting() {
+    when(sweepLeaseRepository.tryAcquire(anyString(), anyString(), any(Duration.class)))
+        .thenReturn(lease);
+
+    sweepLeaseService.tryAcquire();
+    sweepLeaseService.markLost(lease);
+    sweepLeaseService.release(lease);
+
+    verify(sweepLeaseRepository, after(100).never()).renew(any(SweepLease.class), any());
+    verify(sweepLeaseRepository, never()).release(any(SweepLease.class));
+  }
+
+  @Test
+  void tryAcquireReturnsEmptyWhileShardedSweepIsWorkedOn() {
+    when(sweepWorkItemRepository.existsByStatusAndLeaseExpiresAtAfter(
+            eq(SweepWorkItem.Status.CLAIMED), any(Instant.class)))
+        .thenReturn(true);
+
+    assertThat(sweepLeaseService.tryAcquire().isPresent(), is(false));
+    verify(sweepLeaseRepository, never()).tryAcquire(anyString(), anyString(), any());
+  }
+
+  @Test
+  void isHeldWhileShardedSweepIsWorkedOn() {
+    when(sweepWorkItemRepository.existsByStatusAndLeaseExpiresAtAfter(
+            eq(SweepWorkItem.Status.CLAIMED), any(Instant.class)))
+        .thenReturn(true);
+
+    assertThat(sweepLeaseService.isHeld(), is(true));
+  }
+
+  @Test
+  void isHeldIsFalseWhenLeaseCannotBeRead() {
+    when(sweepLeaseRepository.isHeld(SweepLeaseService.USER_SWEEP_LEASE))
+        .thenThrow(new IllegalStateException("down"));
+
+    assertThat(sweepLeaseService.isHeld(), is(false));
+  }
+}
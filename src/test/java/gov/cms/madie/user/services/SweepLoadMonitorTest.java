@@ -0,0 +1,112 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.HarpConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+class SweepLoadMonitorTest {
+
+  private UserUpdateConfig userUpdateConfig;
+  private SimpleMeterRegistry meterRegistry;
+  private SweepLoadMonitor sweepLoadMonitor;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getThrottle().setEnabled(true);
+    userUpdateConfig.getThrottle().setLoginP99Threshold(Duration.ofSeconds(1));
+    userUpdateConfig.getThrottle().setHarpP99Threshold(Duration.ofSeconds(4));
+    userUpdateConfig.getThrottle().setMongoP99Threshold(Duration.ofMillis(100));
+    userUpdateConfig.getThrottle().setSlowDownAt(0.5);
+    HarpConfig harpConfig = new HarpConfig();
+    harpConfig.setBaseUrl("https://harp.example.com");
+    meterRegistry = new SimpleMeterRegistry();
+    sweepLoadMonitor = new SweepLoadMonitor(userUpdateConfig, harpConfig, meterRegistry);
+  }
+
+  @Test
+  void loadIsNormalWhenDisabled() {
+    userUpdateConfig.getThrottle().setEnabled(false);
+    record(timer("http.server.requests", "uri", SweepLoadMonitor.LOGIN_URI), 5000);
+
+    assertThat(sweepLoadMonitor.currentLoad().level(), is(SweepLoadMonitor.Level.NORMAL));
+  }
+
+  @Test
+  void loadIsNormalWithoutTimers() {
+    assertThat(sweepLoadMonitor.currentLoad().level(), is(SweepLoadMonitor.Level.NORMAL));
+  }
+
+  @Test
+  void slowLoginsOverloadTheService() {
+    record(timer("http.server.requests", "uri", SweepLoadMonitor.LOGIN_URI), 1500);
+    // other endpoints are not watched
+    record(timer("http.server.requests", "uri", "/users/{harpId}/details"), 9000);
+
+    SweepLoadMonitor.Load load = sweepLoadMonitor.currentLoad();
+
+    assertThat(load.level(), is(SweepLoadMonitor.Level.OVERLOADED));
+    assertThat(load.signal().startsWith("login p99"), is(true));
+  }
+
+  @Test
+  void harpCallsPastSlowDownPointElevateTheLoad() {
+    Timer harp =
+        Timer.builder("http.client.requests")
+            .tag("client.name", "harp.example.com")
+            .publishPercentiles(0.99)
+            .register(meterRegistry);
+    record(harp, 3000);
+    // calls to other hosts are not watched
+    record(timer("http.client.requests", "client.name", "okta.example.com"), 9000);
+
+    SweepLoadMonitor.Load load = sweepLoadMonitor.currentLoad();
+
+    assertThat(load.level(), is(SweepLoadMonitor.Level.ELEVATED));
+    assertThat(load.signal().startsWith("HARP p99"), is(true));
+  }
+
+  @Test
+  void reportsLatencyFurthestAlongTowardsItsThreshold() {
+    record(timer("http.server.requests", "uri", SweepLoadMonitor.LOGIN_URI), 600);
+    record(timer("mongodb.driver.commands", "command", "find"), 90);
+
+    assertThat(sweepLoadMonitor.currentLoad().signal().startsWith("Mongo p99"), is(true));
+    assertThat(meterRegistry.get("user.sweep.load").gauge().value(), is(closeTo(0.9, 0.1)));
+  }
+
+  @Test
+  void timersWithoutPercentilesAreIgnored() {
+    Timer login =
+        Timer.builder("http.server.requests")
+            .tag("method", "PUT")
+            .tag("uri", SweepLoadMonitor.LOGIN_URI)
+            .register(meterRegistry);
+    record(login, 5000);
+
+    assertThat(sweepLoadMonitor.currentLoad().level(), is(SweepLoadMonitor.Level.NORMAL));
+  }
+
+  private Timer timer(String name, String tag, String value) {
+    return Timer.builder(name)
+        .tag("method", "PUT")
+        .tag(tag, value)
+        .publishPercentiles(0.99)
+        .register(meterRegistry);
+  }
+
+  private void record(Timer timer, long millis) {
+    for (int i = 0; i < 10; i++) {
+      timer.record(Duration.ofMillis(millis));
+    }
+  }
+}
@@ -96,6 +96,42 @@ class TokenManagerTest {
     verify(harpProxyService, atLeast(2)).getToken(); // constructor + forceRefresh
   }
 
+  @Test
+  void renewTokenRequestsNewTokenWhenCurrentTokenWasRejected() {
+    // given
+    TokenResponse renewed = mock(TokenResponse.class);
+    when(tokenResponse.getAccessToken()).thenReturn("rejected");
+    when(harpProxyService.getToken()).thenReturn(renewed);
+    // when
+    TokenResponse result = tokenManager.renewToken("rejected");
+    // then
+    assertThat(result, is(renewed));
+    verify(harpProxyService, times(2)).getToken(); // constructor + renewal
+  }
+
+  @Test
+  void renewTokenReusesTokenAlreadyRenewedByAnotherCaller() {
+    // given
+    when(tokenResponse.getAccessToken()).thenReturn("renewed");
+    when(tokenResponse.isExpired()).thenReturn(false);
+    // when
+    TokenResponse result = tokenManager.renewToken("rejected");
+    // then
+    assertThat(result, is(tokenResponse));
+    verify(harpProxyService, times(1)).getToken(); // constructor only
+  }
+
+  @Test
+  void renewTokenGracefullyHandlesHarpError() {
+    // given
+    when(tokenResponse.getAccessToken()).thenReturn("rejected");
+    doThrow(new TestRuntimeException("HARP service error")).when(harpProxyService).getToken();
+    // when
+    TokenResponse result = tokenManager.renewToken("rejected");
+    // then
+    assertThat(result, is(nullValue()));
+  }
+
   @Test
   void constructorCallsForceRefreshToken() {
     // given/when
@@ -1,72 +1,98 @@
 package gov.cms.madie.user.services;
 
-import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.UserUpdateConfig;
 import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
-import gov.cms.madie.user.repositories.UserRepository;
+import gov.cms.madie.user.dto.UserUpdatesJobSummaryDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserUpdateJob;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class UpdateUserJobSchedulerTest {
 
-  @Mock private UserRepository userRepository;
   @Mock private UserService userService;
+  @Mock private UserSweepPipeline userSweepPipeline;
+  @Mock private SweepLeaseService sweepLeaseService;
+  @Mock private ShardedUserSweep shardedUserSweep;
+  @Mock private IncrementalUserSweep incrementalUserSweep;
+  @Spy private UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+  @Mock private UserUpdateJobHistoryService userUpdateJobHistoryService;
+  @Mock private UserUpdateJobHistoryService.JobRecorder recorder;
+  @Mock private UserRefreshRetryService userRefreshRetryService;
+  @Mock private HarpUserEnumeration harpUserEnumeration;
 
   @InjectMocks private UpdateUserJobScheduler updateUserJobScheduler;
 
+  private SweepLease lease;
+  private UserUpdatesJobSummaryDto summary;
+
+  @BeforeEach
+  void setUp() {
+    lease = SweepLease.builder().id("userSweep").fencingToken(1).build();
+    summary =
+        UserUpdatesJobSummaryDto.builder()
+            .jobId("job1")
+            .updatedCount(1)
+            .failedCount(1)
+            .failedHarpIdsSample(new ArrayList<>(List.of("H2")))
+            .build();
+    lenient().when(userUpdateJobHistoryService.start(any())).thenReturn(recorder);
+    lenient().when(recorder.finish(anyBoolean())).thenReturn(summary);
+  }
+
   @Test
   void triggerUpdateUsersJobManuallyWithNullHarpIdsDelegatesToScheduledJob() {
-    UpdateUserJobScheduler schedulerSpy =
-        spy(new UpdateUserJobScheduler(userRepository, userService));
-    UserUpdatesJobResultDto expectedResult =
-        UserUpdatesJobResultDto.builder()
-            .updatedHarpIds(new ArrayList<>(List.of("H1", "H2")))
-            .failedHarpIds(new ArrayList<>())
-            .build();
-    doReturn(expectedResult).when(schedulerSpy).triggerUpdateUsersJob();
+    UpdateUserJobScheduler schedulerSpy = schedulerSpy();
+    doReturn(summary).when(schedulerSpy).triggerUpdateUsersJob();
 
     schedulerSpy.triggerUpdateUsersJobManually(null);
 
     verify(schedulerSpy).triggerUpdateUsersJob();
-    verify(userService, never()).areHarpIdsValid(anyList());
+    verify(userService, never()).findMissingHarpIds(anyList());
     verify(userService, never()).updateUsersFromHarp(anyList());
   }
 
   @Test
   void triggerUpdateUsersJobManuallyWithEmptyHarpIdsDelegatesToScheduledJob() {
-    UpdateUserJobScheduler schedulerSpy =
-        spy(new UpdateUserJobScheduler(userRepository, userService));
-    UserUpdatesJobResultDto expectedResult = UserUpdatesJobResultDto.builder().build();
-    doReturn(expectedResult).when(schedulerSpy).triggerUpdateUsersJob();
+    UpdateUserJobScheduler schedulerSpy = schedulerSpy();
+    doReturn(new UserUpdatesJobSummaryDto()).when(schedulerSpy).triggerUpdateUsersJob();
 
     schedulerSpy.triggerUpdateUsersJobManually(Collections.emptyList());
 
     verify(schedulerSpy).triggerUpdateUsersJob();
-    verify(userService, never()).areHarpIdsValid(anyList());
+    verify(userService, never()).findMissingHarpIds(anyList());
     verify(userService, never()).updateUsersFromHarp(anyList());
   }
 
@@ -79,131 +105,327 @@ class UpdateUserJobSchedulerTest {
             .failedHarpIds(new ArrayList<>(List.of("H2")))
             .build();
 
-    when(userService.areHarpIdsValid(harpIds)).thenReturn(true);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userService.findMissingHarpIds(harpIds)).thenReturn(List.of());
     when(userService.updateUsersFromHarp(harpIds)).thenReturn(resultDto);
 
     updateUserJobScheduler.triggerUpdateUsersJobManually(harpIds);
 
-    verify(userService).areHarpIdsValid(harpIds);
-    verify(userService).updateUsersFromHarp(harpIds);
-    verify(userRepository, never()).findAllHarpIds(any(Pageable.class));
+    verify(sweepLeaseService).release(lease);
+    verify(userUpdateJobHistoryService).start(UserUpdateJob.Type.MANUAL);
+    verify(recorder).accept(resultDto);
+    verify(userRefreshRetryService).record(resultDto);
+    verify(recorder).finish(true);
+    verify(userSweepPipeline, never()).run(any(SweepLease.class), any());
   }
 
   @Test
   void triggerUpdateUsersJobManuallyWithInvalidHarpIds() {
     List<String> harpIds = List.of("invalid1", "invalid2");
 
-    when(userService.areHarpIdsValid(harpIds)).thenReturn(false);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userService.findMissingHarpIds(harpIds)).thenReturn(harpIds);
 
     updateUserJobScheduler.triggerUpdateUsersJobManually(harpIds);
 
-    verify(userService).areHarpIdsValid(harpIds);
+    ArgumentCaptor<UserUpdatesJobResultDto> resultCaptor =
+        ArgumentCaptor.forClass(UserUpdatesJobResultDto.class);
+    verify(recorder).accept(resultCaptor.capture());
+    assertThat(resultCaptor.getValue().getFailedHarpIds(), contains("invalid1", "invalid2"));
     verify(userService, never()).updateUsersFromHarp(anyList());
-    verify(userRepository, never()).findAllHarpIds(any(Pageable.class));
+    verify(userSweepPipeline, never()).run(any(SweepLease.class), any());
   }
 
   @Test
-  void triggerUpdateUsersJobManuallyWithMixedValidInvalidHarpIds() {
+  void triggerUpdateUsersJobManuallyWithMixedValidInvalidHarpIdsUpdatesValidSubset() {
     List<String> harpIds = List.of("valid1", "invalid1", "valid2");
+    UserUpdatesJobResultDto resultDto =
+        UserUpdatesJobResultDto.builder()
+            .updatedHarpIds(new ArrayList<>(List.of("valid1", "valid2")))
+            .failedHarpIds(new ArrayList<>())
+            .build();
 
-    when(userService.areHarpIdsValid(harpIds)).thenReturn(false);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userService.findMissingHarpIds(harpIds)).thenReturn(List.of("invalid1"));
+    when(userService.updateUsersFromHarp(List.of("valid1", "valid2"))).thenReturn(resultDto);
 
     updateUserJobScheduler.triggerUpdateUsersJobManually(harpIds);
 
-    verify(userService).areHarpIdsValid(harpIds);
+    verify(userService).updateUsersFromHarp(List.of("valid1", "valid2"));
     verify(userService, never()).updateUsersFromHarp(harpIds);
+    ArgumentCaptor<UserUpdatesJobResultDto> resultCaptor =
+        ArgumentCaptor.forClass(UserUpdatesJobResultDto.class);
+    verify(recorder, times(2)).accept(resultCaptor.capture());
+    assertThat(resultCaptor.getAllValues().get(0).getFailedHarpIds(), contains("invalid1"));
+    assertThat(resultCaptor.getAllValues().get(1), is(resultDto));
+    // unknown HARP IDs are not worth retrying
+    verify(userRefreshRetryService).record(resultDto);
+    verify(userRefreshRetryService, times(1)).record(any());
   }
 
   @Test
-  void triggerUpdateUsersJobProcessesMultiplePages() {
-    Page<MadieUser> firstPage =
-        new PageImpl<>(List.of(madieUser("H1"), madieUser("H2")), PageRequest.of(0, 50), 100);
-    Page<MadieUser> secondPage =
-        new PageImpl<>(List.of(madieUser("H3")), PageRequest.of(1, 50), 100);
+  void triggerUpdateUsersJobRunsSweepPipeline() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userSweepPipeline.run(eq(lease), any())).thenReturn(true);
 
-    when(userRepository.findAllHarpIds(any(Pageable.class))).thenReturn(firstPage, secondPage);
+    UserUpdatesJobSummaryDto actualSummary = updateUserJobScheduler.triggerUpdateUsersJob();
 
-    UserUpdatesJobResultDto firstBatchResult =
-        UserUpdatesJobResultDto.builder()
-            .updatedHarpIds(new ArrayList<>(List.of("H1")))
-            .failedHarpIds(new ArrayList<>(List.of("H2")))
-            .build();
-    UserUpdatesJobResultDto secondBatchResult =
+    assertThat(actualSummary, is(summary));
+    verify(userUpdateJobHistoryService).start(UserUpdateJob.Type.FULL);
+    verify(userSweepPipeline).run(eq(lease), any());
+    verify(recorder).finish(true);
+    verify(userService, never()).updateUsersFromHarp(anyList());
+    verify(sweepLeaseService).release(lease);
+  }
+
+  @Test
+  void triggerUpdateUsersJobRecordsStoppedJobWhenSweepDoesNotFinish() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userSweepPipeline.run(eq(lease), any())).thenReturn(false);
+
+    updateUserJobScheduler.triggerUpdateUsersJob();
+
+    verify(recorder).finish(false);
+  }
+
+  @Test
+  void triggerUpdateUsersJobReleasesLeaseWhenSweepThrows() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userSweepPipeline.run(eq(lease), any())).thenThrow(new IllegalStateException("boom"));
+
+    assertThrows(IllegalStateException.class, () -> updateUserJobScheduler.triggerUpdateUsersJob());
+
+    verify(recorder).finish(false);
+    verify(sweepLeaseService).release(lease);
+  }
+
+  @Test
+  void triggerUpdateUsersJobSkipsWhenLeaseIsHeldElsewhere() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+
+    UserUpdatesJobSummaryDto actualSummary = updateUserJobScheduler.triggerUpdateUsersJob();
+
+    assertThat(actualSummary.getUpdatedCount(), is(0L));
+    assertThat(actualSummary.getFailedHarpIdsSample(), empty());
+    verify(userUpdateJobHistoryService, never()).start(any());
+    verify(userSweepPipeline, never()).run(any(SweepLease.class), any());
+    verify(sweepLeaseService, never()).release(any(SweepLease.class));
+  }
+
+  @Test
+  void triggerUpdateUsersJobManuallySkipsWhenLeaseIsHeldElsewhere() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+
+    updateUserJobScheduler.triggerUpdateUsersJobManually(List.of("H1"));
+
+    verify(userService, never()).findMissingHarpIds(anyList());
+    verify(userService, never()).updateUsersFromHarp(anyList());
+  }
+
+  @Test
+  void triggerUpdateUsersJobRunsShardedSweepWhenEnabled() {
+    userUpdateConfig.getSharding().setEnabled(true);
+    when(shardedUserSweep.run(any())).thenReturn(true);
+
+    UserUpdatesJobSummaryDto actualSummary = updateUserJobScheduler.triggerUpdateUsersJob();
+
+    assertThat(actualSummary, is(summary));
+    verify(userUpdateJobHistoryService).start(UserUpdateJob.Type.SHARDED);
+    verify(shardedUserSweep).run(any());
+    verify(sweepLeaseService, never()).tryAcquire();
+    verify(userSweepPipeline, never()).run(any(SweepLease.class), any());
+  }
+
+  @Test
+  void triggerUpdateUsersJobRunsIncrementalSweepUnlessFullSweepIsDue() {
+    userUpdateConfig.getIncremental().setEnabled(true);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(incrementalUserSweep.isFullSweepDue()).thenReturn(false);
+    when(incrementalUserSweep.run(eq(lease), any())).thenReturn(true);
+
+    UserUpdatesJobSummaryDto actualSummary = updateUserJobScheduler.triggerUpdateUsersJob();
+
+    assertThat(actualSummary, is(summary));
+    verify(userUpdateJobHistoryService).start(UserUpdateJob.Type.INCREMENTAL);
+    verify(userSweepPipeline, never()).run(any(SweepLease.class), any());
+    verify(sweepLeaseService).release(lease);
+  }
+
+  @Test
+  void triggerUpdateUsersJobRunsFullSweepWhenDueInIncrementalMode() {
+    userUpdateConfig.getIncremental().setEnabled(true);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(incrementalUserSweep.isFullSweepDue()).thenReturn(true);
+    when(userSweepPipeline.run(eq(lease), any())).thenReturn(true);
+
+    updateUserJobScheduler.triggerUpdateUsersJob();
+
+    verify(incrementalUserSweep, never()).run(any(SweepLease.class), any());
+  }
+
+  @Test
+  void triggerUpdateUsersJobQueuesBatchResultsForRetry() {
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    UserUpdatesJobResultDto batchResult =
         UserUpdatesJobResultDto.builder()
-            .updatedHarpIds(new ArrayList<>(List.of("H3")))
-            .failedHarpIds(new ArrayList<>())
+            .updatedHarpIds(new ArrayList<>())
+            .failedHarpIds(new ArrayList<>(List.of("H1")))
             .build();
-
-    when(userService.updateUsersFromHarp(anyList()))
+    when(userSweepPipeline.run(eq(lease), any()))
         .thenAnswer(
             invocation -> {
-              List<String> harpIds = invocation.getArgument(0);
-              return harpIds.contains("H3") ? secondBatchResult : firstBatchResult;
+              Consumer<UserUpdatesJobResultDto> results = invocation.getArgument(1);
+              results.accept(batchResult);
+              return true;
             });
 
-    UserUpdatesJobResultDto actualResults = updateUserJobScheduler.triggerUpdateUsersJob();
-
-    ArgumentCaptor<List<String>> harpIdsCaptor = ArgumentCaptor.forClass(List.class);
-    verify(userService, times(2)).updateUsersFromHarp(harpIdsCaptor.capture());
+    updateUserJobScheduler.triggerUpdateUsersJob();
 
-    assertThat(harpIdsCaptor.getAllValues().get(0), contains("H1", "H2"));
-    assertThat(harpIdsCaptor.getAllValues().get(1), contains("H3"));
-    assertThat(actualResults.getUpdatedHarpIds(), contains("H1", "H3"));
-    assertThat(actualResults.getFailedHarpIds(), contains("H2"));
-    verify(userRepository, times(2)).findAllHarpIds(any(Pageable.class));
+    verify(recorder).accept(batchResult);
+    verify(userRefreshRetryService).record(batchResult);
   }
 
   @Test
-  void triggerUpdateUsersJobHandlesEmptyDatabase() {
-    Page<MadieUser> emptyPage = new PageImpl<>(Collections.emptyList(), PageRequest.of(0, 50), 0);
-    when(userRepository.findAllHarpIds(any(Pageable.class))).thenReturn(emptyPage);
-
-    UserUpdatesJobResultDto actualResults = updateUserJobScheduler.triggerUpdateUsersJob();
+  void drainRetryQueueDoesNothingWhenDisabled() {
+    updateUserJobScheduler.drainRetryQueue();
 
-    assertThat(actualResults.getUpdatedHarpIds(), empty());
-    assertThat(actualResults.getFailedHarpIds(), empty());
-    verify(userService, never()).updateUsersFromHarp(anyList());
-    verify(userRepository, times(1)).findAllHarpIds(any(Pageable.class));
+    verify(sweepLeaseService, never()).tryAcquire();
+    verify(userRefreshRetryService, never()).findDueHarpIds(anyInt());
   }
 
   @Test
-  void triggerUpdateUsersJobAggregatesResultsFromMultiplePages() {
-    Page<MadieUser> firstPage =
-        new PageImpl<>(List.of(madieUser("H1"), madieUser("H2")), PageRequest.of(0, 50), 150);
-    Page<MadieUser> secondPage =
-        new PageImpl<>(List.of(madieUser("H3"), madieUser("H4")), PageRequest.of(1, 50), 150);
-    Page<MadieUser> thirdPage =
-        new PageImpl<>(List.of(madieUser("H5")), PageRequest.of(2, 50), 150);
+  void drainRetryQueueSkipsWhileSweepHoldsTheLease() {
+    userUpdateConfig.getRetry().setEnabled(true);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
+
+    updateUserJobScheduler.drainRetryQueue();
 
-    when(userRepository.findAllHarpIds(any(Pageable.class)))
-        .thenReturn(firstPage, secondPage, thirdPage);
+    verify(userRefreshRetryService, never()).findDueHarpIds(anyInt());
+  }
 
-    UserUpdatesJobResultDto result1 =
+  @Test
+  void drainRetryQueueRetriesDueUsersInSmallBatches() {
+    userUpdateConfig.getRetry().setEnabled(true);
+    userUpdateConfig.getRetry().setBatchSize(2);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userRefreshRetryService.findDueHarpIds(2))
+        .thenReturn(List.of("H1", "H2"), List.of("H3"), List.of());
+    UserUpdatesJobResultDto firstResult =
         UserUpdatesJobResultDto.builder()
             .updatedHarpIds(new ArrayList<>(List.of("H1", "H2")))
             .failedHarpIds(new ArrayList<>())
             .build();
-    UserUpdatesJobResultDto result2 =
+    UserUpdatesJobResultDto secondResult =
         UserUpdatesJobResultDto.builder()
-            .updatedHarpIds(new ArrayList<>(List.of("H3")))
-            .failedHarpIds(new ArrayList<>(List.of("H4")))
+            .updatedHarpIds(new ArrayList<>())
+            .failedHarpIds(new ArrayList<>(List.of("H3")))
             .build();
-    UserUpdatesJobResultDto result3 =
+    when(userService.updateUsersFromHarp(List.of("H1", "H2"))).thenReturn(firstResult);
+    when(userService.updateUsersFromHarp(List.of("H3"))).thenReturn(secondResult);
+
+    updateUserJobScheduler.drainRetryQueue();
+
+    verify(userUpdateJobHistoryService).start(UserUpdateJob.Type.RETRY);
+    verify(userRefreshRetryService).record(firstResult);
+    verify(userRefreshRetryService).record(secondResult);
+    verify(recorder).finish(true);
+    verify(sweepLeaseService).release(lease);
+  }
+
+  @Test
+  void drainRetryQueueStopsAtMaxUsersPerDrain() {
+    userUpdateConfig.getRetry().setEnabled(true);
+    userUpdateConfig.getRetry().setBatchSize(2);
+    userUpdateConfig.getRetry().setMaxUsersPerDrain(3);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userRefreshRetryService.findDueHarpIds(2)).thenReturn(List.of("H1", "H2"));
+    when(userRefreshRetryService.findDueHarpIds(1)).thenReturn(List.of("H3"));
+    when(userService.updateUsersFromHarp(anyList())).thenReturn(new UserUpdatesJobResultDto());
+
+    updateUserJobScheduler.drainRetryQueue();
+
+    verify(userService, times(2)).updateUsersFromHarp(anyList());
+    verify(userRefreshRetryService, never()).findDueHarpIds(0);
+  }
+
+  @Test
+  void drainRetryQueueFailsUsersABatchLeftUnresolved() {
+    userUpdateConfig.getRetry().setEnabled(true);
+    userUpdateConfig.getRetry().setBatchSize(2);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    when(userRefreshRetryService.findDueHarpIds(2)).thenReturn(List.of("h1", "h2"), List.of());
+    // h2 left out of the result, as when the batch aborts before HARP answers
+    UserUpdatesJobResultDto result =
         UserUpdatesJobResultDto.builder()
-            .updatedHarpIds(new ArrayList<>(List.of("H5")))
+            .updatedHarpIds(new ArrayList<>(List.of("H1")))
             .failedHarpIds(new ArrayList<>())
             .build();
+    when(userService.updateUsersFromHarp(List.of("h1", "h2"))).thenReturn(result);
+
+    updateUserJobScheduler.drainRetryQueue();
+
+    verify(userRefreshRetryService).record(result);
+    assertThat(result.getFailedHarpIds(), contains("h2"));
+    assertThat(result.getFailureReasons().get("h2"), is("No result from HARP"));
+    verify(userService, times(1)).updateUsersFromHarp(anyList());
+  }
+
+  @Test
+  void enumerateHarpUsersDoesNothingWhenDisabled() {
+    updateUserJobScheduler.enumerateHarpUsers();
+
+    verify(sweepLeaseService, never()).tryAcquire();
+    verifyNoInteractions(harpUserEnumeration);
+  }
+
+  @Test
+  void enumerateHarpUsersSkipsWhileSweepHoldsTheLease() {
+    userUpdateConfig.getEnumeration().setEnabled(true);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.empty());
 
-    when(userService.updateUsersFromHarp(anyList())).thenReturn(result1, result2, result3);
+    updateUserJobScheduler.enumerateHarpUsers();
+
+    verifyNoInteractions(harpUserEnumeration);
+  }
+
+  @Test
+  void enumerateHarpUsersRecordsResultsWithoutQueueingRetries() {
+    userUpdateConfig.getEnumeration().setEnabled(true);
+    when(sweepLeaseService.tryAcquire()).thenReturn(Optional.of(lease));
+    UserUpdatesJobResultDto pageResult =
+        UserUpdatesJobResultDto.builder()
+            .updatedHarpIds(new ArrayList<>(List.of("H1")))
+            .failedHarpIds(new ArrayList<>(List.of("H2")))
+            .build();
+    when(harpUserEnumeration.run(eq(lease), any()))
+        .thenAnswer(
+            invocation -> {
+              Consumer<UserUpdatesJobResultDto> results = invocation.getArgument(1);
+              results.accept(pageResult);
+              return false;
+            });
 
-    UserUpdatesJobResultDto actualResults = updateUserJobScheduler.triggerUpdateUsersJob();
+    UserUpdatesJobSummaryDto result = updateUserJobScheduler.enumerateHarpUsers();
 
-    assertThat(actualResults.getUpdatedHarpIds(), contains("H1", "H2", "H3", "H5"));
-    assertThat(actualResults.getFailedHarpIds(), contains("H4"));
-    verify(userService, times(3)).updateUsersFromHarp(anyList());
+    assertThat(result, is(summary));
+    verify(userUpdateJobHistoryService).start(UserUpdateJob.Type.ENUMERATION);
+    verify(recorder).accept(pageResult);
+    verify(recorder).finish(false);
+    verifyNoInteractions(userRefreshRetryService);
+    verify(sweepLeaseService).release(lease);
   }
 
-  private MadieUser madieUser(String harpId) {
-    return MadieUser.builder().harpId(harpId).build();
+  private UpdateUserJobScheduler schedulerSpy() {
+    return spy(
+        new UpdateUserJobScheduler(
+            userService,
+            userSweepPipeline,
+            sweepLeaseService,
+            shardedUserSweep,
+            incrementalUserSweep,
+            userUpdateConfig,
+            userUpdateJobHistoryService,
+            userRefreshRetryService,
+            harpUserEnumeration));
   }
 }
@@ -0,0 +1,128 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserChangeNotificationDto;
+import gov.cms.madie.user.dto.UserChangeNotificationResultDto;
+import gov.cms.madie.user.exceptions.InvalidHarpIdException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserChangeNotificationServiceTest {
+
+  @Mock private UserService userService;
+  @Mock private UserRefreshQueue userRefreshQueue;
+  @Mock private UserRefreshRetryService userRefreshRetryService;
+
+  private UserUpdateConfig userUpdateConfig;
+  private UserChangeNotificationService userChangeNotificationService;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getNotifications().setMaxHarpIds(3);
+    userChangeNotificationService =
+        new UserChangeNotificationService(
+            userService, userRefreshQueue, userRefreshRetryService, userUpdateConfig);
+  }
+
+  @Test
+  void acceptQueuesEachKnownUserOnce() {
+    when(userService.findMissingHarpIds(List.of("user1", "user2", "ghost")))
+        .thenReturn(List.of("ghost"));
+    when(userRefreshRetryService.queueNow(
+            List.of("user1", "user2"), "Change notification from test"))
+        .thenReturn(true);
+
+    UserChangeNotificationResultDto result =
+        userChangeNotificationService.accept(
+            notification("User1", " user2 ", "user1", "", null, "ghost"));
+
+    assertThat(result.getQueuedHarpIds(), contains("user1", "user2"));
+    assertThat(result.getUnknownHarpIds(), contains("ghost"));
+    verify(userRefreshQueue, times(1)).enqueue("user1");
+    verify(userRefreshQueue, times(1)).enqueue("user2");
+    verify(userRefreshQueue, never()).enqueue("ghost");
+  }
+
+  @Test
+  void acceptKeepsUsersInRetryQueueBeforeQueueingTheirRefresh() {
+    when(userService.findMissingHarpIds(List.of("user1"))).thenReturn(List.of());
+    when(userRefreshRetryService.queueNow(List.of("user1"), "Change notification from test"))
+        .thenReturn(true);
+
+    userChangeNotificationService.accept(notification("user1"));
+
+    InOrder inOrder = inOrder(userRefreshRetryService, userRefreshQueue);
+    inOrder
+        .verify(userRefreshRetryService)
+        .queueNow(List.of("user1"), "Change notification from test");
+    inOrder.verify(userRefreshQueue).enqueue("user1");
+  }
+
+  @Test
+  void acceptFailsWhenNotificationCannotBeKept() {
+    when(userService.findMissingHarpIds(List.of("user1"))).thenReturn(List.of());
+    when(userRefreshRetryService.queueNow(List.of("user1"), "Change notification from test"))
+        .thenThrow(new RuntimeException("Mongo down"));
+
+    assertThrows(
+        RuntimeException.class, () -> userChangeNotificationService.accept(notification("user1")));
+
+    verifyNoInteractions(userRefreshQueue);
+  }
+
+  @Test
+  void acceptSkipsRetryQueueWhenEveryUserIsUnknown() {
+    when(userService.findMissingHarpIds(List.of("ghost"))).thenReturn(List.of("ghost"));
+
+    userChangeNotificationService.accept(notification("ghost"));
+
+    verifyNoInteractions(userRefreshRetryService, userRefreshQueue);
+  }
+
+  @Test
+  void acceptRejectsNotificationWithoutHarpIds() {
+    assertThrows(
+        InvalidHarpIdException.class,
+        () -> userChangeNotificationService.accept(notification(" ")));
+    assertThrows(
+        InvalidHarpIdException.class,
+        () -> userChangeNotificationService.accept(new UserChangeNotificationDto(null, "test")));
+
+    verifyNoInteractions(userService, userRefreshQueue, userRefreshRetryService);
+  }
+
+  @Test
+  void acceptRejectsNotificationWithTooManyHarpIds() {
+    assertThrows(
+        InvalidHarpIdException.class,
+        () -> userChangeNotificationService.accept(notification("a", "b", "c", "d")));
+
+    verifyNoInteractions(userService, userRefreshQueue, userRefreshRetryService);
+  }
+
+  private UserChangeNotificationDto notification(String... harpIds) {
+    return UserChangeNotificationDto.builder()
+        .harpIds(Arrays.asList(harpIds))
+        .source("test")
+        .build();
+  }
+}
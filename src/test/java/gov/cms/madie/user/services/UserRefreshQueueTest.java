@@ -0,0 +1,118 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserRefreshQueueTest {
+
+  @Mock private UserService userService;
+  @Mock private UserRefreshRetryService userRefreshRetryService;
+  @Mock private TaskScheduler taskScheduler;
+
+  private UserUpdateConfig userUpdateConfig;
+  private UserRefreshQueue userRefreshQueue;
+  private ScheduledFuture<?> scheduledFlush;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getRefreshQueue().setBatchSize(3);
+    userUpdateConfig.getRefreshQueue().setLinger(Duration.ofMillis(200));
+    userRefreshQueue =
+        new UserRefreshQueue(userService, userRefreshRetryService, userUpdateConfig, taskScheduler);
+    scheduledFlush = mock(ScheduledFuture.class);
+    lenient().doReturn(scheduledFlush).when(taskScheduler).schedule(any(), any(Instant.class));
+  }
+
+  @Test
+  void enqueueSchedulesOneFlushAfterLingerAndDeduplicatesUsers() {
+    CompletableFuture<Boolean> first = userRefreshQueue.enqueue("User1");
+    CompletableFuture<Boolean> duplicate = userRefreshQueue.enqueue("user1");
+    userRefreshQueue.enqueue("user2");
+
+    assertThat(duplicate, is(sameInstance(first)));
+    ArgumentCaptor<Instant> flushAtCaptor = ArgumentCaptor.forClass(Instant.class);
+    verify(taskScheduler).schedule(any(), flushAtCaptor.capture());
+    assertThat(flushAtCaptor.getValue().isAfter(Instant.now().plusMillis(100)), is(true));
+    verifyNoInteractions(userService);
+  }
+
+  @Test
+  void flushRefreshesQueuedUsersInOneBatchAndCompletesTheirFutures() {
+    CompletableFuture<Boolean> first = userRefreshQueue.enqueue("User1");
+    CompletableFuture<Boolean> second = userRefreshQueue.enqueue("user2");
+    UserUpdatesJobResultDto result = new UserUpdatesJobResultDto();
+    result.getUpdatedHarpIds().add("user1");
+    result.fail(List.of("user2"), "Saving user failed: duplicate key");
+    when(userService.updateUsersFromHarp(List.of("user1", "user2"))).thenReturn(result);
+
+    userRefreshQueue.flush();
+
+    assertThat(first.join(), is(true));
+    assertThat(second.join(), is(false));
+    verify(userRefreshRetryService).record(result);
+    // the next user starts a new batch
+    userRefreshQueue.enqueue("user3");
+    verify(taskScheduler, times(2)).schedule(any(), any(Instant.class));
+  }
+
+  @Test
+  void fullBatchIsRefreshedWithoutWaitingForLinger() {
+    userRefreshQueue.enqueue("user1");
+    userRefreshQueue.enqueue("user2");
+    userRefreshQueue.enqueue("user3");
+
+    ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(taskScheduler, times(2)).schedule(taskCaptor.capture(), any(Instant.class));
+    verify(scheduledFlush).cancel(false);
+    when(userService.updateUsersFromHarp(anyList())).thenReturn(new UserUpdatesJobResultDto());
+
+    taskCaptor.getAllValues().get(1).run();
+
+    verify(userService).updateUsersFromHarp(List.of("user1", "user2", "user3"));
+    // the lingering flush finds nothing left to refresh
+    userRefreshQueue.flush();
+    verify(userService, times(1)).updateUsersFromHarp(anyList());
+  }
+
+  @Test
+  void failedBatchCompletesFuturesAndQueuesUsersForRetry() {
+    CompletableFuture<Boolean> queued = userRefreshQueue.enqueue("user1");
+    when(userService.updateUsersFromHarp(anyList())).thenThrow(new RuntimeException("HARP down"));
+
+    userRefreshQueue.flush();
+
+    assertThat(queued.join(), is(false));
+    ArgumentCaptor<UserUpdatesJobResultDto> resultCaptor =
+        ArgumentCaptor.forClass(UserUpdatesJobResultDto.class);
+    verify(userRefreshRetryService).record(resultCaptor.capture());
+    assertThat(resultCaptor.getValue().getFailedHarpIds(), is(new ArrayList<>(List.of("user1"))));
+  }
+}
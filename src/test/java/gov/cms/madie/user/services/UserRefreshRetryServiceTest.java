@@ -0,0 +1,207 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.UserRefreshRetry;
+import gov.cms.madie.user.repositories.UserRefreshRetryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserRefreshRetryServiceTest {
+
+  @Mock private UserRefreshRetryRepository userRefreshRetryRepository;
+
+  private UserUpdateConfig userUpdateConfig;
+  private UserRefreshRetryService userRefreshRetryService;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.getRetry().setEnabled(true);
+    userRefreshRetryService =
+        new UserRefreshRetryService(userRefreshRetryRepository, userUpdateConfig);
+  }
+
+  @Test
+  void recordDoesNothingWhenDisabled() {
+    userUpdateConfig.getRetry().setEnabled(false);
+
+    userRefreshRetryService.record(result(List.of("H1"), List.of("H2")));
+
+    verifyNoInteractions(userRefreshRetryRepository);
+  }
+
+  @Test
+  void recordRemovesUpdatedUsersFromTheQueue() {
+    userRefreshRetryService.record(result(List.of("H1", "h2"), List.of()));
+
+    verify(userRefreshRetryRepository).deleteByHarpIdIn(List.of("h1", "h2"));
+    verify(userRefreshRetryRepository, never()).saveAll(anyList());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void recordQueuesNewFailureWithItsReason() {
+    UserUpdatesJobResultDto batchResult = result(List.of(), List.of());
+    batchResult.fail(List.of("H1"), "Fetching HARP user roles failed: timeout");
+    when(userRefreshRetryRepository.findAllById(anyCollection())).thenReturn(List.of());
+
+    userRefreshRetryService.record(batchResult);
+
+    ArgumentCaptor<List<UserRefreshRetry>> retriesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(userRefreshRetryRepository).saveAll(retriesCaptor.capture());
+    UserRefreshRetry retry = retriesCaptor.getValue().get(0);
+    assertThat(retry.getHarpId(), is("h1"));
+    assertThat(retry.getAttempts(), is(1));
+    assertThat(retry.getStatus(), is(UserRefreshRetry.Status.PENDING));
+    assertThat(retry.getLastReason(), is("Fetching HARP user roles failed: timeout"));
+    assertThat(retry.getNextAttemptAt(), greaterThan(Instant.now().plus(Duration.ofMinutes(14))));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void recordBacksOffAgainAfterAnotherFailure() {
+    Instant firstFailedAt = Instant.now().minus(Duration.ofHours(1));
+    UserRefreshRetry queued =
+        UserRefreshRetry.builder()
+            .harpId("h1")
+            .status(UserRefreshRetry.Status.PENDING)
+            .attempts(2)
+            .firstFailedAt(firstFailedAt)
+            .build();
+    when(userRefreshRetryRepository.findAllById(anyCollection())).thenReturn(List.of(queued));
+
+    userRefreshRetryService.record(result(List.of(), List.of("H1")));
+
+    ArgumentCaptor<List<UserRefreshRetry>> retriesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(userRefreshRetryRepository).saveAll(retriesCaptor.capture());
+    assertThat(retriesCaptor.getValue(), hasSize(1));
+    UserRefreshRetry retry = retriesCaptor.getValue().get(0);
+    assertThat(retry.getAttempts(), is(3));
+    assertThat(retry.getFirstFailedAt(), is(firstFailedAt));
+    assertThat(retry.getNextAttemptAt(), greaterThan(Instant.now().plus(Duration.ofMinutes(59))));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void recordDeadLettersUserAfterMaxAttempts() {
+    userUpdateConfig.getRetry().setMaxAttempts(3);
+    UserRefreshRetry queued =
+        UserRefreshRetry.builder()
+            .harpId("h1")
+            .status(UserRefreshRetry.Status.PENDING)
+            .attempts(2)
+            .build();
+    when(userRefreshRetryRepository.findAllById(anyCollection())).thenReturn(List.of(queued));
+
+    userRefreshRetryService.record(result(List.of(), List.of("h1")));
+
+    ArgumentCaptor<List<UserRefreshRetry>> retriesCaptor = ArgumentCaptor.forClass(List.class);
+    verify(userRefreshRetryRepository).saveAll(retriesCaptor.capture());
+    assertThat(retriesCaptor.getValue().get(0).getStatus(), is(UserRefreshRetry.Status.DEAD));
+    assertThat(retriesCaptor.getValue().get(0).getNextAttemptAt(), is(nullValue()));
+  }
+
+  @Test
+  void recordSwallowsRepositoryErrors() {
+    when(userRefreshRetryRepository.findAllById(anyCollection()))
+        .thenThrow(new IllegalStateException("down"));
+
+    userRefreshRetryService.record(result(List.of(), List.of("H1")));
+
+    verify(userRefreshRetryRepository, never()).saveAll(anyList());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void queueNowMakesUsersDueAndRevivesDeadLetteredOnes() {
+    UserRefreshRetry dead =
+        UserRefreshRetry.builder()
+            .harpId("h1")
+            .status(UserRefreshRetry.Status.DEAD)
+            .attempts(5)
+            .lastReason("HARP unavailable")
+            .build();
+    when(userRefreshRetryRepository.findAllById(List.of("h1", "h2"))).thenReturn(List.of(dead));
+
+    assertThat(userRefreshRetryService.queueNow(List.of("h1", "h2"), "notified"), is(true));
+
+    ArgumentCaptor<List<UserRefreshRetry>> savedCaptor = ArgumentCaptor.forClass(List.class);
+    verify(userRefreshRetryRepository).saveAll(savedCaptor.capture());
+    List<UserRefreshRetry> saved = savedCaptor.getValue();
+    assertThat(saved, hasSize(2));
+    assertThat(saved.get(0).getStatus(), is(UserRefreshRetry.Status.PENDING));
+    assertThat(saved.get(0).getAttempts(), is(5));
+    assertThat(saved.get(0).getLastReason(), is("HARP unavailable"));
+    assertThat(saved.get(1).getHarpId(), is("h2"));
+    assertThat(saved.get(1).getStatus(), is(UserRefreshRetry.Status.PENDING));
+    assertThat(saved.get(1).getLastReason(), is("notified"));
+    assertThat(saved.get(1).getNextAttemptAt().isAfter(Instant.now()), is(false));
+  }
+
+  @Test
+  void queueNowDoesNothingWhenDisabled() {
+    userUpdateConfig.getRetry().setEnabled(false);
+
+    assertThat(userRefreshRetryService.queueNow(List.of("h1"), "notified"), is(false));
+
+    verifyNoInteractions(userRefreshRetryRepository);
+  }
+
+  @Test
+  void backoffDoublesUpToTheMaximum() {
+    assertThat(userRefreshRetryService.backoff(1), is(Duration.ofMinutes(15)));
+    assertThat(userRefreshRetryService.backoff(3), is(Duration.ofHours(1)));
+    assertThat(userRefreshRetryService.backoff(10), is(Duration.ofHours(12)));
+  }
+
+  @Test
+  void findDueHarpIdsReadsPendingUsersLongestWaitingFirst() {
+    when(userRefreshRetryRepository.findByStatusAndNextAttemptAtLessThanEqual(
+            eq(UserRefreshRetry.Status.PENDING), any(Instant.class), any(Pageable.class)))
+        .thenReturn(List.of(UserRefreshRetry.builder().harpId("h1").build()));
+
+    List<String> harpIds = userRefreshRetryService.findDueHarpIds(20);
+
+    assertThat(harpIds, contains("h1"));
+    ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
+    verify(userRefreshRetryRepository)
+        .findByStatusAndNextAttemptAtLessThanEqual(any(), any(), pageableCaptor.capture());
+    assertThat(pageableCaptor.getValue().getPageSize(), is(20));
+    assertThat(pageableCaptor.getValue().getSort(), is(Sort.by("nextAttemptAt")));
+  }
+
+  private UserUpdatesJobResultDto result(List<String> updatedHarpIds, List<String> failedHarpIds) {
+    return UserUpdatesJobResultDto.builder()
+        .updatedHarpIds(new ArrayList<>(updatedHarpIds))
+        .failedHarpIds(new ArrayList<>(failedHarpIds))
+        .build();
+  }
+}
@@ -16,9 +16,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
 
 import java.util.ArrayList;
@@ -40,6 +45,8 @@ import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyMap;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.times;
+import static org.mockito.ArgumentMatchers.argThat;
 
 @ExtendWith(MockitoExtension.class)
 class UserServiceTest {
@@ -48,6 +55,10 @@ class UserServiceTest {
   @Mock HarpProxyService harpProxyService;
   @Mock UserRepository userRepository;
   @Mock HarpConfig harpConfig;
+  @Mock TaskExecutor taskExecutor;
+  @Mock TaskExecutor loginDetailsExecutor;
+  @Mock UserRefreshQueue userRefreshQueue;
+  @Spy HarpDateTimeParser harpDateTimeParser = new HarpDateTimeParser(ZoneId.systemDefault());
   @InjectMocks private UserService userService;
 
   private TokenResponse tokenResponse;
@@ -55,6 +66,10 @@ class UserServiceTest {
   @BeforeEach
   void setUp() {
     tokenResponse = TokenResponse.builder().accessToken("test-token").build();
+    // both executors have the same type, so constructor injection cannot tell them apart
+    ReflectionTestUtils.setField(userService, "taskExecutor", taskExecutor);
+    ReflectionTestUtils.setField(userService, "loginDetailsExecutor", loginDetailsExecutor);
+    ReflectionTestUtils.setField(userService, "detailsTimeout", Duration.ofSeconds(5));
   }
 
   @Test
@@ -134,6 +149,251 @@ class UserServiceTest {
     assertThat(user.getHarpId(), is(harpId));
   }
 
+  @Test
+  void refreshUserRolesAndLoginReturnsStoredUserAndRefreshesRolesInBackground() {
+    // given
+    String harpId = "recent";
+    ReflectionTestUtils.setField(userService, "rolesMaxAge", Duration.ofHours(1));
+    MadieUser storedUser = MadieUser.builder().harpId(harpId).status(UserStatus.ACTIVE).build();
+    when(userRepository.recordLoginIfRolesRefreshedSince(eq(harpId), any(Instant.class)))
+        .thenReturn(storedUser);
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(
+            HarpResponseWrapper.<UserRolesResponse>builder()
+                .response(createUserRolesResponse("active", "Admin", "ADMIN"))
+                .statusCode(HttpStatus.OK)
+                .build());
+    when(harpConfig.getProgramName()).thenReturn("MADiE");
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user, is(storedUser));
+    verify(userRepository, never()).loginUser(any(MadieUser.class));
+    ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(taskExecutor).execute(refreshCaptor.capture());
+    refreshCaptor.getValue().run();
+    verify(userRepository).loginUser(any(MadieUser.class));
+  }
+
+  @Test
+  void refreshUserRolesAndLoginReturnsStoredUserWhenBackgroundRefreshIsRejected() {
+    // given
+    String harpId = "recent";
+    ReflectionTestUtils.setField(userService, "rolesMaxAge", Duration.ofHours(1));
+    MadieUser storedUser = MadieUser.builder().harpId(harpId).build();
+    when(userRepository.recordLoginIfRolesRefreshedSince(eq(harpId), any(Instant.class)))
+        .thenReturn(storedUser);
+    Mockito.doThrow(new TaskRejectedException("busy"))
+        .when(taskExecutor)
+        .execute(any(Runnable.class));
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user, is(storedUser));
+    verify(userRepository, never()).loginUser(any(MadieUser.class));
+  }
+
+  @Test
+  void refreshUserRolesAndLoginQueuesBackgroundRefreshWhenBatched() {
+    // given
+    String harpId = "recent";
+    ReflectionTestUtils.setField(userService, "rolesMaxAge", Duration.ofHours(1));
+    ReflectionTestUtils.setField(userService, "batchBackgroundRefresh", true);
+    MadieUser storedUser = MadieUser.builder().harpId(harpId).build();
+    when(userRepository.recordLoginIfRolesRefreshedSince(eq(harpId), any(Instant.class)))
+        .thenReturn(storedUser);
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user, is(storedUser));
+    verify(userRefreshQueue).enqueue(harpId);
+    verifyNoInteractions(taskExecutor, harpProxyService);
+  }
+
+  @Test
+  void refreshUserRolesAndLoginStoresDetailsFetchedAlongsideRoles() {
+    // given
+    String harpId = "Details1";
+    ReflectionTestUtils.setField(userService, "fetchDetailsOnLogin", true);
+    Mockito.doAnswer(
+            invocation -> {
+              ((Runnable) invocation.getArgument(0)).run();
+              return null;
+            })
+        .when(loginDetailsExecutor)
+        .execute(any(Runnable.class));
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    UserDetailsResponse detailsResponse = new UserDetailsResponse();
+    detailsResponse.setUserdetails(
+        List.of(
+            UserDetail.builder()
+                .username("details1")
+                .email("new@email.com")
+                .firstname("New")
+                .lastname("Name")
+                .build()));
+    when(harpProxyService.fetchUserDetails(List.of(harpId), "test-token"))
+        .thenReturn(detailsResponse);
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(HarpResponseWrapper.<UserRolesResponse>builder().build());
+    when(userRepository.loginUser(any(MadieUser.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user.getHarpId(), is("details1"));
+    assertThat(user.getEmail(), is("new@email.com"));
+    assertThat(user.getFirstName(), is("New"));
+    assertThat(user.getLastName(), is("Name"));
+    verifyNoInteractions(taskExecutor);
+  }
+
+  @Test
+  void refreshUserRolesAndLoginLogsInWithoutDetailsWhenDetailsExecutorIsBusy() {
+    // given
+    String harpId = "details4";
+    ReflectionTestUtils.setField(userService, "fetchDetailsOnLogin", true);
+    Mockito.doThrow(new TaskRejectedException("busy"))
+        .when(loginDetailsExecutor)
+        .execute(any(Runnable.class));
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(HarpResponseWrapper.<UserRolesResponse>builder().build());
+    when(userRepository.loginUser(any(MadieUser.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user.getHarpId(), is(harpId));
+    assertThat(user.getEmail(), is(nullValue()));
+    verify(harpProxyService, never()).fetchUserDetails(anyList(), anyString());
+  }
+
+  @Test
+  void refreshUserRolesAndLoginStopsWaitingForDetailsAfterTimeout() {
+    // given
+    String harpId = "details5";
+    ReflectionTestUtils.setField(userService, "fetchDetailsOnLogin", true);
+    ReflectionTestUtils.setField(userService, "detailsTimeout", Duration.ofMillis(10));
+    // accepted but never run, as if every details thread were stuck on HARP
+    Mockito.doNothing().when(loginDetailsExecutor).execute(any(Runnable.class));
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(HarpResponseWrapper.<UserRolesResponse>builder().build());
+    when(userRepository.loginUser(any(MadieUser.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user.getHarpId(), is(harpId));
+    assertThat(user.getEmail(), is(nullValue()));
+    verify(userRepository).loginUser(any(MadieUser.class));
+  }
+
+  @Test
+  void refreshUserRolesAndLoginLogsInWithoutDetailsWhenDetailsFail() {
+    // given
+    String harpId = "details2";
+    ReflectionTestUtils.setField(userService, "fetchDetailsOnLogin", true);
+    Mockito.doAnswer(
+            invocation -> {
+              ((Runnable) invocation.getArgument(0)).run();
+              return null;
+            })
+        .when(loginDetailsExecutor)
+        .execute(any(Runnable.class));
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserDetails(List.of(harpId), "test-token"))
+        .thenThrow(new RuntimeException("HARP findUser unavailable"));
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(HarpResponseWrapper.<UserRolesResponse>builder().build());
+    when(userRepository.loginUser(any(MadieUser.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user.getHarpId(), is(harpId));
+    assertThat(user.getEmail(), is(nullValue()));
+    assertThat(user.getStatus(), is(UserStatus.ERROR_SUSPENDED));
+  }
+
+  @Test
+  void refreshUserRolesAndLoginFetchesRolesOnlyWhenDetailsDisabled() {
+    // given
+    String harpId = "details3";
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(HarpResponseWrapper.<UserRolesResponse>builder().build());
+    when(userRepository.loginUser(any(MadieUser.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    // when
+    userService.refreshUserRolesAndLogin(harpId);
+    // then
+    verify(harpProxyService, never()).fetchUserDetails(anyList(), anyString());
+    verifyNoInteractions(taskExecutor, loginDetailsExecutor);
+  }
+
+  @Test
+  void refreshUserRolesAndLoginRefreshesRolesBeforeRespondingWhenStoredRolesAreStale() {
+    // given
+    String harpId = "stale";
+    ReflectionTestUtils.setField(userService, "rolesMaxAge", Duration.ofHours(1));
+    // no write unless the stored roles are recent, the login below records it
+    when(userRepository.recordLoginIfRolesRefreshedSince(eq(harpId), any(Instant.class)))
+        .thenReturn(null);
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserRoles(harpId, "test-token"))
+        .thenReturn(HarpResponseWrapper.<UserRolesResponse>builder().build());
+    MadieUser refreshed = MadieUser.builder().harpId(harpId).build();
+    when(userRepository.loginUser(any(MadieUser.class))).thenReturn(refreshed);
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user, is(refreshed));
+    verifyNoInteractions(taskExecutor);
+  }
+
+  @Test
+  void refreshUserRolesAndLoginRefreshesRolesBeforeRespondingForNewUser() {
+    // given
+    String harpId = "newuser";
+    ReflectionTestUtils.setField(userService, "rolesMaxAge", Duration.ofHours(1));
+    when(userRepository.recordLoginIfRolesRefreshedSince(eq(harpId), any(Instant.class)))
+        .thenReturn(null);
+    when(tokenManager.getCurrentToken()).thenReturn(null);
+    // when
+    MadieUser user = userService.refreshUserRolesAndLogin(harpId);
+    // then
+    assertThat(user.getHarpId(), is(harpId));
+    verifyNoInteractions(taskExecutor);
+  }
+
+  @Test
+  void refreshUserRolesAndLoginSkipsStoredUserLookupWhenDisabled() {
+    // given
+    when(tokenManager.getCurrentToken()).thenReturn(null);
+    // when
+    userService.refreshUserRolesAndLogin("disabled");
+    // then
+    verify(userRepository, never()).recordLoginIfRolesRefreshedSince(anyString(), any());
+  }
+
+  @Test
+  void backgroundRoleRefreshSwallowsErrors() {
+    // given
+    String harpId = "failing";
+    ReflectionTestUtils.setField(userService, "rolesMaxAge", Duration.ofHours(1));
+    when(userRepository.recordLoginIfRolesRefreshedSince(eq(harpId), any(Instant.class)))
+        .thenReturn(MadieUser.builder().harpId(harpId).build());
+    when(tokenManager.getCurrentToken()).thenThrow(new RuntimeException("HARP down"));
+    userService.refreshUserRolesAndLogin(harpId);
+    ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(taskExecutor).execute(refreshCaptor.capture());
+    // when & then
+    assertDoesNotThrow(() -> refreshCaptor.getValue().run());
+  }
+
   @Test
   void getUserDetailsByHarpIdReturnsDetails() {
     String harpId = "detail123";
@@ -197,7 +457,24 @@ class UserServiceTest {
 
     assertThat(results.getUpdatedHarpIds(), empty());
     assertThat(results.getFailedHarpIds(), containsInAnyOrder("user1", "user2"));
-    verify(userRepository, never()).updateMadieUser(anyMap(), anyString());
+    assertThat(
+        results.getFailureReasons().get("user1"),
+        is("Fetching HARP user details failed: java.lang.RuntimeException: Fetch error"));
+    verify(userRepository, never()).bulkUpdateMadieUsers(anyMap());
+  }
+
+  @Test
+  void fetchUserDetailsRecordsFailedHarpCallOnBatch() {
+    List<String> harpIds = List.of("user1", "user2");
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpProxyService.fetchUserDetails(eq(harpIds), anyString()))
+        .thenThrow(new RuntimeException("Fetch error"));
+    UserUpdateBatch batch = new UserUpdateBatch(harpIds);
+
+    userService.fetchUserDetails(batch);
+
+    assertThat(batch.isDetailsFailed(), is(true));
+    assertThat(batch.getDetailsLatency(), is(notNullValue()));
   }
 
   @Test
@@ -216,10 +493,11 @@ class UserServiceTest {
     assertThat(results.getFailedHarpIds(), empty());
 
     @SuppressWarnings("unchecked")
-    ArgumentCaptor<Map<String, Object>> updatesCaptor = ArgumentCaptor.forClass(Map.class);
-    verify(userRepository).updateMadieUser(updatesCaptor.capture(), eq("harper"));
+    ArgumentCaptor<Map<String, Map<String, Object>>> updatesCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(userRepository).bulkUpdateMadieUsers(updatesCaptor.capture());
 
-    Map<String, Object> updates = updatesCaptor.getValue();
+    Map<String, Object> updates = updatesCaptor.getValue().get("harper");
     assertThat(updates.get("email"), is("harper@example.com"));
     assertThat(updates.get("firstName"), is("Harper"));
     assertThat(updates.get("lastName"), is("Lees"));
@@ -230,6 +508,23 @@ class UserServiceTest {
     assertThat(roles.get(0).getRole(), is("Admin"));
   }
 
+  @Test
+  void updateUsersFromHarpFetchesRolesWithTokenRenewedPartwayThroughBatch() {
+    List<String> harpIds = List.of("harper");
+    setupMocksForSuccessfulUpdate(
+        harpIds,
+        createUserDetailsResponse("harper", "harper@example.com", "Harper", "Lees"),
+        createUserRolesResponse("active", "Admin", "ADMIN"),
+        createExistingUser());
+    when(tokenManager.getCurrentToken())
+        .thenReturn(tokenResponse, TokenResponse.builder().accessToken("renewed-token").build());
+
+    userService.updateUsersFromHarp(harpIds);
+
+    verify(harpProxyService).fetchUserDetails(harpIds, "test-token");
+    verify(harpProxyService).fetchUserRoles("harper", "renewed-token");
+  }
+
   @Test
   void updateUsersFromHarpHandlesNoUserDetailsReturned() {
     List<String> harpIds = List.of("user1");
@@ -240,7 +535,7 @@ class UserServiceTest {
 
     assertThat(results.getUpdatedHarpIds(), empty());
     assertThat(results.getFailedHarpIds(), empty());
-    verify(userRepository, never()).updateMadieUser(anyMap(), anyString());
+    verify(userRepository, never()).bulkUpdateMadieUsers(anyMap());
   }
 
   @Test
@@ -255,7 +550,7 @@ class UserServiceTest {
     UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
 
     assertThat(results.getUpdatedHarpIds(), empty());
-    verify(userRepository, never()).updateMadieUser(anyMap(), anyString());
+    verify(userRepository, never()).bulkUpdateMadieUsers(anyMap());
   }
 
   @Test
@@ -321,17 +616,19 @@ class UserServiceTest {
                 .response(rolesResponse)
                 .statusCode(HttpStatus.OK)
                 .build());
-    when(userRepository.findByHarpId("inactive")).thenReturn(Optional.of(existingUser));
+    when(userRepository.findAllByHarpIdIn(List.of("inactive"))).thenReturn(List.of(existingUser));
+    stubBulkUpdateSucceeds();
 
     UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
 
     assertThat(results.getUpdatedHarpIds(), hasItem("inactive"));
 
     @SuppressWarnings("unchecked")
-    ArgumentCaptor<Map<String, Object>> updatesCaptor = ArgumentCaptor.forClass(Map.class);
-    verify(userRepository).updateMadieUser(updatesCaptor.capture(), eq("inactive"));
+    ArgumentCaptor<Map<String, Map<String, Object>>> updatesCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(userRepository).bulkUpdateMadieUsers(updatesCaptor.capture());
 
-    Map<String, Object> updates = updatesCaptor.getValue();
+    Map<String, Object> updates = updatesCaptor.getValue().get("inactive");
     assertThat(updates.get("status"), is(UserStatus.DEACTIVATED));
     assertThat((List<?>) updates.get("roles"), empty());
   }
@@ -351,15 +648,178 @@ class UserServiceTest {
 
     assertThat(results.getUpdatedHarpIds(), hasItem("user"));
     @SuppressWarnings("unchecked")
-    ArgumentCaptor<Map<String, Object>> updatesCaptor = ArgumentCaptor.forClass(Map.class);
-    verify(userRepository).updateMadieUser(updatesCaptor.capture(), eq("user"));
+    ArgumentCaptor<Map<String, Map<String, Object>>> updatesCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(userRepository).bulkUpdateMadieUsers(updatesCaptor.capture());
 
-    Map<String, Object> updates = updatesCaptor.getValue();
+    Map<String, Object> updates = updatesCaptor.getValue().get("user");
     @SuppressWarnings("unchecked")
     List<HarpRole> updatedRoles = (List<HarpRole>) updates.get("roles");
     assertThat(updatedRoles, hasSize(2));
   }
 
+  @Test
+  void updateUsersFromHarpWritesAllUsersInOneBulkUpdate() {
+    List<String> harpIds = List.of("harper", "lees");
+    UserDetailsResponse detailsResponse =
+        createUserDetailsResponse("harper", "harper@example.com", "Harper", "Lees");
+    UserRolesResponse rolesResponse = createUserRolesResponse("active", "Admin", "ADMIN");
+    setupMocksForSuccessfulUpdate(harpIds, detailsResponse, rolesResponse, createExistingUser());
+
+    UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
+
+    assertThat(results.getUpdatedHarpIds(), containsInAnyOrder("harper", "lees"));
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, Map<String, Object>>> updatesCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(userRepository, times(1)).bulkUpdateMadieUsers(updatesCaptor.capture());
+    assertThat(updatesCaptor.getValue().keySet(), contains("harper", "lees"));
+    verify(userRepository, never()).updateMadieUser(anyMap(), anyString());
+  }
+
+  @Test
+  void updateUsersFromHarpReportsPerUserBulkWriteFailures() {
+    List<String> harpIds = List.of("harper", "lees");
+    UserDetailsResponse detailsResponse =
+        createUserDetailsResponse("harper", "harper@example.com", "Harper", "Lees");
+    UserRolesResponse rolesResponse = createUserRolesResponse("active", "Admin", "ADMIN");
+    setupMocksForSuccessfulUpdate(harpIds, detailsResponse, rolesResponse, createExistingUser());
+    when(userRepository.bulkUpdateMadieUsers(anyMap()))
+        .thenReturn(
+            UserUpdatesJobResultDto.builder()
+                .updatedHarpIds(new ArrayList<>(List.of("harper")))
+                .failedHarpIds(new ArrayList<>(List.of("lees")))
+                .build());
+
+    UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
+
+    assertThat(results.getUpdatedHarpIds(), contains("harper"));
+    assertThat(results.getFailedHarpIds(), contains("lees"));
+  }
+
+  @Test
+  void updateUsersFromHarpMarksBatchFailedWhenBulkWriteThrows() {
+    List<String> harpIds = List.of("harper", "lees");
+    UserDetailsResponse detailsResponse =
+        createUserDetailsResponse("harper", "harper@example.com", "Harper", "Lees");
+    UserRolesResponse rolesResponse = createUserRolesResponse("active", "Admin", "ADMIN");
+    setupMocksForSuccessfulUpdate(harpIds, detailsResponse, rolesResponse, createExistingUser());
+    when(userRepository.bulkUpdateMadieUsers(anyMap()))
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
+
+    assertThat(results.getUpdatedHarpIds(), empty());
+    assertThat(results.getFailedHarpIds(), containsInAnyOrder("harper", "lees"));
+  }
+
+  @Test
+  void updateUsersFromHarpReadsStoredUsersWithOneQuery() {
+    List<String> harpIds = List.of("Harper", "lees");
+    UserDetailsResponse detailsResponse =
+        createUserDetailsResponse("harper", "harper@example.com", "Harper", "Lees");
+    UserRolesResponse rolesResponse = createUserRolesResponse("active", "Admin", "ADMIN");
+    setupMocksForSuccessfulUpdate(harpIds, detailsResponse, rolesResponse, createExistingUser());
+
+    userService.updateUsersFromHarp(harpIds);
+
+    verify(userRepository).findAllByHarpIdIn(List.of("harper", "lees"));
+    verify(userRepository, never()).findByHarpId(anyString());
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, Map<String, Object>>> updatesCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(userRepository).bulkUpdateMadieUsers(updatesCaptor.capture());
+    assertThat(updatesCaptor.getValue().keySet(), contains("Harper", "lees"));
+    assertThat(updatesCaptor.getValue().get("Harper").get("email"), is("harper@example.com"));
+    assertThat(updatesCaptor.getValue().get("lees").get("email"), is(nullValue()));
+  }
+
+  @Test
+  void updateUsersFromHarpMarksBatchFailedWhenStoredUserReadThrows() {
+    List<String> harpIds = List.of("harper", "lees");
+    UserDetailsResponse detailsResponse =
+        createUserDetailsResponse("harper", "harper@example.com", "Harper", "Lees");
+    UserRolesResponse rolesResponse = createUserRolesResponse("active", "Admin", "ADMIN");
+    when(tokenManager.getCurrentToken()).thenReturn(tokenResponse);
+    when(harpConfig.getProgramName()).thenReturn("MADiE");
+    when(harpProxyService.fetchUserDetails(eq(harpIds), anyString())).thenReturn(detailsResponse);
+    when(harpProxyService.fetchUserRoles(anyString(), anyString()))
+        .thenReturn(
+            HarpResponseWrapper.<UserRolesResponse>builder()
+                .response(rolesResponse)
+                .statusCode(HttpStatus.OK)
+                .build());
+    when(userRepository.findAllByHarpIdIn(anyList()))
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
+
+    assertThat(results.getUpdatedHarpIds(), empty());
+    assertThat(results.getFailedHarpIds(), contains("harper", "lees"));
+    verify(userRepository, never()).bulkUpdateMadieUsers(anyMap());
+  }
+
+  @Test
+  void saveRefreshedUsersCountsUsersWithoutChanges() {
+    Instant createdAt = Instant.parse("2024-01-01T00:00:00Z");
+    MadieUser storedSame =
+        MadieUser.builder()
+            .harpId("harper")
+            .email("harper@example.com")
+            .createdAt(createdAt)
+            .build();
+    MadieUser storedOld =
+        MadieUser.builder().harpId("lees").email("old@example.com").createdAt(createdAt).build();
+    UserUpdateBatch batch = new UserUpdateBatch(List.of("harper", "lees"));
+    batch.getRefreshedUsers().put("harper", storedSame.toBuilder().build());
+    batch.getRefreshedUsers().put("lees", storedOld.toBuilder().email("lees@example.com").build());
+    when(userRepository.findAllByHarpIdIn(anyList())).thenReturn(List.of(storedSame, storedOld));
+    when(userRepository.bulkUpdateMadieUsers(anyMap()))
+        .thenReturn(
+            UserUpdatesJobResultDto.builder()
+                .updatedHarpIds(new ArrayList<>(List.of("harper", "lees")))
+                .failedHarpIds(new ArrayList<>())
+                .build());
+
+    userService.saveRefreshedUsers(batch);
+
+    assertThat(batch.getResult().getUpdatedHarpIds(), contains("harper", "lees"));
+    assertThat(batch.getResult().getUnchangedCount(), is(1L));
+  }
+
+  @Test
+  void saveRefreshedUsersStampsRolesRefreshedAtOnlyWhenHarpReturnedRoles() {
+    MadieUser harper = MadieUser.builder().harpId("harper").status(UserStatus.ACTIVE).build();
+    MadieUser lees = MadieUser.builder().harpId("lees").status(UserStatus.ACTIVE).build();
+    UserUpdateBatch batch = new UserUpdateBatch(List.of("harper", "lees"));
+    batch.getRefreshedUsers().put("harper", harper.toBuilder().build());
+    batch
+        .getRefreshedUsers()
+        .put("lees", lees.toBuilder().status(UserStatus.ERROR_SUSPENDED).build());
+    when(userRepository.findAllByHarpIdIn(anyList())).thenReturn(List.of(harper, lees));
+    stubBulkUpdateSucceeds();
+
+    userService.saveRefreshedUsers(batch);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<String, Map<String, Object>>> updatesCaptor =
+        ArgumentCaptor.forClass(Map.class);
+    verify(userRepository).bulkUpdateMadieUsers(updatesCaptor.capture());
+    assertThat(updatesCaptor.getValue().get("harper").get("rolesRefreshedAt"), is(notNullValue()));
+    assertThat(updatesCaptor.getValue().get("lees").containsKey("rolesRefreshedAt"), is(false));
+  }
+
+  @Test
+  void fetchRefreshedUsersSkipsBatchWithoutDetails() {
+    UserUpdateBatch batch = new UserUpdateBatch(List.of("harper"));
+
+    userService.fetchRefreshedUsers(batch);
+    userService.saveRefreshedUsers(batch);
+
+    assertThat(batch.getRefreshedUsers().isEmpty(), is(true));
+    verifyNoInteractions(harpProxyService, userRepository);
+  }
+
   @Test
   void getMostRecentStartDateReturnsNullForNullResponse() {
     assertThat(userService.getMostRecentStartDate(null), is(nullValue()));
@@ -427,20 +887,33 @@ class UserServiceTest {
   }
 
   @Test
-  void testAreHarpIdsValid() {
+  void findMissingHarpIdsReturnsIdsWithoutUsers() {
     // given
-    List<String> harpIds = List.of("harp1", "harp2", "harp3");
-    when(userRepository.countByHarpIdIn(anyList())).thenReturn(3);
-    // when & then
-    assertTrue(userService.areHarpIdsValid(harpIds));
+    List<String> harpIds = List.of("Harp1", "harp2", "harp3");
+    when(userRepository.findExistingHarpIds(List.of("harp1", "harp2", "harp3")))
+        .thenReturn(
+            List.of(
+                MadieUser.builder().harpId("harp1").build(),
+                MadieUser.builder().harpId("harp3").build()));
+    // when
+    List<String> missing = userService.findMissingHarpIds(harpIds);
+    // then
+    assertThat(missing, contains("harp2"));
   }
 
   @Test
-  void testAreHarpIdsValidWhenInvalid() {
+  void findMissingHarpIdsReturnsEmptyWhenAllIdsExist() {
     // given
-    when(userRepository.countByHarpIdIn(anyList())).thenReturn(2);
+    when(userRepository.findExistingHarpIds(anyList()))
+        .thenReturn(List.of(MadieUser.builder().harpId("harp1").build()));
     // when & then
-    assertFalse(userService.areHarpIdsValid(List.of("harp1", "harp2", "harp3")));
+    assertThat(userService.findMissingHarpIds(List.of("HARP1")), empty());
+  }
+
+  @Test
+  void findMissingHarpIdsReturnsEmptyForNoIds() {
+    assertThat(userService.findMissingHarpIds(List.of()), empty());
+    verifyNoInteractions(userRepository);
   }
 
   @Test
@@ -573,7 +1046,7 @@ class UserServiceTest {
     // Should not update user, should mark as failed
     assertThat(result.getUpdatedHarpIds(), empty());
     assertThat(result.getFailedHarpIds(), hasItem("nulluser"));
-    verify(userRepository, never()).updateMadieUser(anyMap(), eq("nulluser"));
+    verify(userRepository, never()).bulkUpdateMadieUsers(anyMap());
   }
 
   @Test
@@ -586,7 +1059,8 @@ class UserServiceTest {
     setupMocksForSuccessfulUpdate(harpIds, detailsResponse, rolesResponse, existingUser);
     UserUpdatesJobResultDto results = userService.updateUsersFromHarp(harpIds);
     assertThat(results.getUpdatedHarpIds(), hasItem("MiXeDcAsE"));
-    verify(userRepository).updateMadieUser(anyMap(), eq("MiXeDcAsE"));
+    verify(userRepository)
+        .bulkUpdateMadieUsers(argThat(updates -> updates.containsKey("MiXeDcAsE")));
   }
 
   @Test
@@ -703,6 +1177,21 @@ class UserServiceTest {
     when(harpConfig.getProgramName()).thenReturn("MADiE");
     when(harpProxyService.fetchUserDetails(eq(harpIds), anyString())).thenReturn(detailsResponse);
     when(harpProxyService.fetchUserRoles(anyString(), anyString())).thenReturn(rolesWrapper);
-    when(userRepository.findByHarpId(anyString())).thenReturn(Optional.of(existingUser));
+    when(userRepository.findAllByHarpIdIn(anyList())).thenReturn(List.of(existingUser));
+    stubBulkUpdateSucceeds();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void stubBulkUpdateSucceeds() {
+    when(userRepository.bulkUpdateMadieUsers(anyMap()))
+        .thenAnswer(
+            invocation ->
+                UserUpdatesJobResultDto.builder()
+                    .updatedHarpIds(
+                        new ArrayList<>(
+                            ((Map<String, Map<String, Object>>) invocation.getArgument(0))
+                                .keySet()))
+                    .failedHarpIds(new ArrayList<>())
+                    .build());
   }
 }
@@ -0,0 +1,89 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.dto.UserUpdatesJobSummaryDto;
+import gov.cms.madie.user.models.UserUpdateJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserSweepBatchRunnerTest {
+
+  @Mock private UpdateUserJobScheduler updateUserJobScheduler;
+
+  @InjectMocks private UserSweepBatchRunner userSweepBatchRunner;
+
+  @Test
+  void completedSweepWithoutFailuresExitsWithZero() {
+    ReflectionTestUtils.setField(userSweepBatchRunner, "job", UserSweepBatchRunner.Job.SWEEP);
+    when(updateUserJobScheduler.triggerUpdateUsersJob())
+        .thenReturn(summary(UserUpdateJob.Status.COMPLETED, 0));
+
+    userSweepBatchRunner.run(new DefaultApplicationArguments());
+
+    assertThat(userSweepBatchRunner.getExitCode(), is(0));
+  }
+
+  @Test
+  void completedSweepWithFailedUsersExitsWithUsersFailed() {
+    ReflectionTestUtils.setField(userSweepBatchRunner, "job", UserSweepBatchRunner.Job.SWEEP);
+    when(updateUserJobScheduler.triggerUpdateUsersJob())
+        .thenReturn(summary(UserUpdateJob.Status.COMPLETED, 2));
+
+    userSweepBatchRunner.run(new DefaultApplicationArguments());
+
+    assertThat(userSweepBatchRunner.getExitCode(), is(UserSweepBatchRunner.EXIT_USERS_FAILED));
+  }
+
+  @Test
+  void stoppedEnumerationExitsWithStopped() {
+    ReflectionTestUtils.setField(userSweepBatchRunner, "job", UserSweepBatchRunner.Job.ENUMERATION);
+    when(updateUserJobScheduler.enumerateHarpUsers())
+        .thenReturn(summary(UserUpdateJob.Status.STOPPED, 0));
+
+    userSweepBatchRunner.run(new DefaultApplicationArguments());
+
+    assertThat(userSweepBatchRunner.getExitCode(), is(UserSweepBatchRunner.EXIT_STOPPED));
+    verify(updateUserJobScheduler, never()).triggerUpdateUsersJob();
+  }
+
+  @Test
+  void retryDrainThatDidNotRunExitsWithZero() {
+    ReflectionTestUtils.setField(userSweepBatchRunner, "job", UserSweepBatchRunner.Job.RETRY);
+    when(updateUserJobScheduler.drainRetryQueue()).thenReturn(new UserUpdatesJobSummaryDto());
+
+    userSweepBatchRunner.run(new DefaultApplicationArguments());
+
+    assertThat(userSweepBatchRunner.getExitCode(), is(0));
+  }
+
+  @Test
+  void failedJobExitsWithFailed() {
+    ReflectionTestUtils.setField(userSweepBatchRunner, "job", UserSweepBatchRunner.Job.SWEEP);
+    when(updateUserJobScheduler.triggerUpdateUsersJob())
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    userSweepBatchRunner.run(new DefaultApplicationArguments());
+
+    assertThat(userSweepBatchRunner.getExitCode(), is(UserSweepBatchRunner.EXIT_FAILED));
+  }
+
+  private UserUpdatesJobSummaryDto summary(UserUpdateJob.Status status, long failedCount) {
+    return UserUpdatesJobSummaryDto.builder()
+        .jobId("job1")
+        .status(status)
+        .updatedCount(10)
+        .failedCount(failedCount)
+        .build();
+  }
+}
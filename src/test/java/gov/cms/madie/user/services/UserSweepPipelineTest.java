@@ -0,0 +1,468 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.models.access.MadieUser;
+import gov.cms.madie.user.config.TaskExecutionConfig;
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdateBatch;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserSweepPipelineTest {
+
+  @Mock private UserRepository userRepository;
+  @Mock private UserService userService;
+  @Mock private UserSweepRunService userSweepRunService;
+  @Mock private SweepLeaseService sweepLeaseService;
+  @Mock private SweepJobControlService sweepJobControlService;
+  @Mock private SweepJobControlService.Gate gate;
+
+  private UserUpdateConfig userUpdateConfig;
+  private UserSweepPipeline pipeline;
+  private UserSweepRun sweepRun;
+  private final UserUpdatesJobResultDto result = new UserUpdatesJobResultDto();
+  private SweepLease lease;
+  private List<ThreadPoolTaskExecutor> stages;
+
+  @BeforeEach
+  void setUp() throws InterruptedException {
+    userUpdateConfig = new UserUpdateConfig();
+    TaskExecutionConfig taskExecutionConfig = new TaskExecutionConfig();
+    stages =
+        List.of(
+            taskExecutionConfig.userSweepDetailsExecutor(userUpdateConfig),
+            taskExecutionConfig.userSweepRolesExecutor(userUpdateConfig),
+            taskExecutionConfig.userSweepWriterExecutor(userUpdateConfig));
+    stages.forEach(ThreadPoolTaskExecutor::initialize);
+    pipeline =
+        new UserSweepPipeline(
+            userRepository,
+            userService,
+            userUpdateConfig,
+            userSweepRunService,
+            sweepLeaseService,
+            sweepJobControlService,
+            new AdaptiveBatchSizer(userUpdateConfig, new SimpleMeterRegistry()),
+            stages.get(0),
+            stages.get(1),
+            stages.get(2));
+    lease = SweepLease.builder().id("userSweep").fencingToken(7).build();
+    sweepRun = UserSweepRun.builder().id("run1").status(UserSweepRun.Status.RUNNING).build();
+    lenient().when(userSweepRunService.startOrResume(lease)).thenReturn(sweepRun);
+    lenient()
+        .when(userSweepRunService.checkpoint(any(), any(), any(UserUpdatesJobResultDto.class)))
+        .thenReturn(true);
+    lenient().when(userSweepRunService.complete(sweepRun)).thenReturn(true);
+    lenient().when(sweepJobControlService.gate(any())).thenReturn(gate);
+    lenient().when(gate.awaitTurn(anyInt())).thenReturn(true);
+  }
+
+  @AfterEach
+  void tearDown() {
+    stages.forEach(ThreadPoolTaskExecutor::shutdown);
+  }
+
+  @Test
+  void runSeeksPastLastIdAndRunsEveryStagePerBatch() {
+    when(userRepository.findHarpIdsAfter(null, null, 50)).thenReturn(madieUsers(0, 50));
+    when(userRepository.findHarpIdsAfter("id49", null, 50)).thenReturn(madieUsers(50, 1));
+    stubWriterMarks(Set.of("H1"));
+
+    pipeline.run(lease, this::collect);
+
+    ArgumentCaptor<UserUpdateBatch> batchCaptor = ArgumentCaptor.forClass(UserUpdateBatch.class);
+    verify(userService, times(2)).fetchUserDetails(batchCaptor.capture());
+    verify(userService, times(2)).fetchRefreshedUsers(any(UserUpdateBatch.class));
+    verify(userService, times(2)).saveRefreshedUsers(any(UserUpdateBatch.class));
+    assertThat(batchCaptor.getAllValues().get(0).getHarpIds(), hasSize(50));
+    assertThat(batchCaptor.getAllValues().get(1).getHarpIds(), contains("H50"));
+    // every batch result is handed over as it finishes
+    assertThat(result.getUpdatedHarpIds(), hasSize(50));
+    assertThat(result.getUpdatedHarpIds(), hasItems("H0", "H50"));
+    assertThat(result.getFailedHarpIds(), containsInAnyOrder("H1"));
+    // a short page is the last one, no further query is needed
+    verify(userRepository, times(2)).findHarpIdsAfter(any(), any(), anyInt());
+  }
+
+  @Test
+  void runHandlesEmptyDatabase() {
+    when(userRepository.findHarpIdsAfter(null, null, 50)).thenReturn(List.of());
+
+    pipeline.run(lease, this::collect);
+
+    assertThat(result.getUpdatedHarpIds(), empty());
+    assertThat(result.getFailedHarpIds(), empty());
+    verify(userService, never()).fetchUserDetails(any(UserUpdateBatch.class));
+  }
+
+  @Test
+  void runStopsWhenPageAfterFullPageIsEmpty() {
+    userUpdateConfig.setBatchSize(2);
+    when(userRepository.findHarpIdsAfter(null, null, 2)).thenReturn(madieUsers(0, 2));
+    when(userRepository.findHarpIdsAfter("id1", null, 2)).thenReturn(madieUsers(2, 2));
+    when(userRepository.findHarpIdsAfter("id3", null, 2)).thenReturn(List.of());
+    stubWriterMarks(Set.of("H2"));
+
+    pipeline.run(lease, this::collect);
+
+    assertThat(result.getUpdatedHarpIds(), containsInAnyOrder("H0", "H1", "H3"));
+    assertThat(result.getFailedHarpIds(), containsInAnyOrder("H2"));
+    verify(userRepository, times(3)).findHarpIdsAfter(any(), any(), anyInt());
+  }
+
+  @Test
+  void runSkipsBlankHarpIds() {
+    List<MadieUser> users = new ArrayList<>(madieUsers(0, 2));
+    users.add(MadieUser.builder().id("id2").harpId(" ").build());
+    when(userRepository.findHarpIdsAfter(null, null, 50)).thenReturn(users);
+
+    pipeline.run(lease, this::collect);
+
+    ArgumentCaptor<UserUpdateBatch> batchCaptor = ArgumentCaptor.forClass(UserUpdateBatch.class);
+    verify(userService).fetchUserDetails(batchCaptor.capture());
+    assertThat(batchCaptor.getValue().getHarpIds(), contains("H0", "H1"));
+  }
+
+  @Test
+  void runMarksUnfinishedUsersFailedWhenStageThrows() {
+    userUpdateConfig.setBatchSize(2);
+    when(userRepository.findHarpIdsAfter(null, null, 2)).thenReturn(madieUsers(0, 2));
+    when(userRepository.findHarpIdsAfter("id1", null, 2)).thenReturn(madieUsers(2, 1));
+    doAnswer(
+            invocation -> {
+              UserUpdateBatch batch = invocation.getArgument(0);
+              if (batch.getHarpIds().contains("H0")) {
+                batch.getResult().getFailedHarpIds().add("H0");
+                throw new IllegalStateException("boom");
+              }
+              return null;
+            })
+        .when(userService)
+        .fetchRefreshedUsers(any(UserUpdateBatch.class));
+    stubWriterMarks(Set.of());
+
+    pipeline.run(lease, this::collect);
+
+    assertThat(result.getFailedHarpIds(), containsInAnyOrder("H0", "H1"));
+    assertThat(result.getUpdatedHarpIds(), containsInAnyOrder("H2"));
+  }
+
+  @Test
+  void runDoesNotReadAheadOfMaxInFlightBatches() {
+    userUpdateConfig.setBatchSize(1);
+    userUpdateConfig.getPipeline().setMaxInFlightBatches(1);
+    List<Integer> pagesReadBeforeWrite = new CopyOnWriteArrayList<>();
+    List<String> lastIds = new CopyOnWriteArrayList<>();
+    when(userRepository.findHarpIdsAfter(any(), any(), anyInt()))
+        .thenAnswer(
+            invocation -> {
+              lastIds.add(String.valueOf((Object) invocation.getArgument(0)));
+              return lastIds.size() <= 3 ? madieUsers(lastIds.size() - 1, 1) : List.of();
+            });
+    doAnswer(
+            invocation -> {
+              pagesReadBeforeWrite.add(lastIds.size());
+              return null;
+            })
+        .when(userService)
+        .saveRefreshedUsers(any(UserUpdateBatch.class));
+
+    pipeline.run(lease, this::collect);
+
+    // with one batch in flight, each page is only read once the previous batch was written
+    assertThat(pagesReadBeforeWrite, contains(1, 2, 3));
+    assertThat(lastIds, contains("null", "id0", "id1", "id2"));
+  }
+
+  @Test
+  void runResumesAfterLastCheckpoint() {
+    sweepRun.setLastProcessedId("id9");
+    when(userRepository.findHarpIdsAfter("id9", null, 50)).thenReturn(madieUsers(10, 2));
+
+    pipeline.run(lease, this::collect);
+
+    verify(userRepository, never()).findHarpIdsAfter(eq(null), any(), anyInt());
+    verify(userSweepRunService)
+        .checkpoint(eq(sweepRun), eq("id11"), any(UserUpdatesJobResultDto.class));
+    verify(userSweepRunService).complete(sweepRun);
+  }
+
+  @Test
+  void runCheckpointsBatchesInReadOrderWhenLaterBatchFinishesFirst() {
+    userUpdateConfig.setBatchSize(1);
+    userUpdateConfig.getPipeline().setRolesConcurrency(2);
+    when(userRepository.findHarpIdsAfter(null, null, 1)).thenReturn(madieUsers(0, 1));
+    when(userRepository.findHarpIdsAfter("id0", null, 1)).thenReturn(madieUsers(1, 1));
+    when(userRepository.findHarpIdsAfter("id1", null, 1)).thenReturn(List.of());
+    CountDownLatch secondBatchWritten = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              UserUpdateBatch batch = invocation.getArgument(0);
+              if (batch.getHarpIds().contains("H0")) {
+                secondBatchWritten.await(5, TimeUnit.SECONDS);
+              }
+              return null;
+            })
+        .when(userService)
+        .fetchRefreshedUsers(any(UserUpdateBatch.class));
+    doAnswer(
+            invocation -> {
+              UserUpdateBatch batch = invocation.getArgument(0);
+              if (batch.getHarpIds().contains("H1")) {
+                secondBatchWritten.countDown();
+              }
+              return null;
+            })
+        .when(userService)
+        .saveRefreshedUsers(any(UserUpdateBatch.class));
+
+    pipeline.run(lease, this::collect);
+
+    assertThat(secondBatchWritten.getCount(), is(0L));
+    InOrder checkpoints = inOrder(userSweepRunService);
+    checkpoints
+        .verify(userSweepRunService)
+        .checkpoint(eq(sweepRun), eq("id0"), any(UserUpdatesJobResultDto.class));
+    checkpoints
+        .verify(userSweepRunService)
+        .checkpoint(eq(sweepRun), eq("id1"), any(UserUpdatesJobResultDto.class));
+    checkpoints.verify(userSweepRunService).complete(sweepRun);
+  }
+
+  @Test
+  void runStopsReadingWhenCheckpointIsFencedOff() {
+    userUpdateConfig.setBatchSize(1);
+    userUpdateConfig.getPipeline().setMaxInFlightBatches(1);
+    when(userRepository.findHarpIdsAfter(null, null, 1)).thenReturn(madieUsers(0, 1));
+    when(userSweepRunService.checkpoint(
+            eq(sweepRun), eq("id0"), any(UserUpdatesJobResultDto.class)))
+        .thenReturn(false);
+    doAnswer(
+            invocation -> {
+              lease.setLost(true);
+              return null;
+            })
+        .when(sweepLeaseService)
+        .markLost(lease);
+
+    pipeline.run(lease, this::collect);
+
+    verify(sweepLeaseService).markLost(lease);
+    verify(userRepository, times(1)).findHarpIdsAfter(any(), any(), anyInt());
+    verify(userSweepRunService, never()).complete(sweepRun);
+  }
+
+  @Test
+  void runStopsWhenCheckpointFails() {
+    userUpdateConfig.setBatchSize(1);
+    userUpdateConfig.getPipeline().setMaxInFlightBatches(1);
+    when(userRepository.findHarpIdsAfter(null, null, 1)).thenReturn(madieUsers(0, 1));
+    when(userSweepRunService.checkpoint(
+            eq(sweepRun), eq("id0"), any(UserUpdatesJobResultDto.class)))
+        .thenThrow(new IllegalStateException("mongo down"));
+
+    boolean finished = pipeline.run(lease, this::collect);
+
+    assertThat(finished, is(false));
+    verify(userRepository, times(1)).findHarpIdsAfter(any(), any(), anyInt());
+    verify(userSweepRunService, never()).complete(sweepRun);
+    verify(sweepLeaseService, never()).markLost(lease);
+  }
+
+  @Test
+  void runKeepsCheckpointingWhenReportingResultFails() {
+    userUpdateConfig.setBatchSize(2);
+    when(userRepository.findHarpIdsAfter(null, null, 2)).thenReturn(madieUsers(0, 1));
+
+    boolean finished =
+        pipeline.run(
+            lease,
+            batchResult -> {
+              throw new IllegalStateException("history down");
+            });
+
+    assertThat(finished, is(true));
+    verify(userSweepRunService)
+        .checkpoint(eq(sweepRun), eq("id0"), any(UserUpdatesJobResultDto.class));
+    verify(userSweepRunService).complete(sweepRun);
+  }
+
+  @Test
+  void runMarksLeaseLostWhenCompletionIsFencedOff() {
+    when(userRepository.findHarpIdsAfter(null, null, 50)).thenReturn(List.of());
+    when(userSweepRunService.complete(sweepRun)).thenReturn(false);
+
+    boolean finished = pipeline.run(lease, this::collect);
+
+    assertThat(finished, is(false));
+    verify(sweepLeaseService).markLost(lease);
+  }
+
+  @Test
+  void sweepStaysWithinRangeAndCheckpointsThroughCallback() {
+    userUpdateConfig.setBatchSize(2);
+    when(userRepository.findHarpIdsAfter("id9", "id13", 2)).thenReturn(madieUsers(10, 2));
+    when(userRepository.findHarpIdsAfter("id11", "id13", 2)).thenReturn(madieUsers(12, 2));
+    when(userRepository.findHarpIdsAfter("id13", "id13", 2)).thenReturn(List.of());
+    stubWriterMarks(Set.of());
+    List<String> checkpoints = new CopyOnWriteArrayList<>();
+
+    boolean finished =
+        pipeline.sweep(
+            "id9",
+            "id13",
+            batchSize -> true,
+            (lastProcessedId, batchResult) -> checkpoints.add(lastProcessedId),
+            this::collect);
+
+    assertThat(finished, is(true));
+    assertThat(result.getUpdatedHarpIds(), containsInAnyOrder("H10", "H11", "H12", "H13"));
+    assertThat(checkpoints, contains("id11", "id13"));
+    verify(userSweepRunService, never()).checkpoint(any(), any(), any());
+  }
+
+  @Test
+  void refreshProcessesGivenUsersInBatchesWithoutCheckpoints() {
+    userUpdateConfig.setBatchSize(2);
+    stubWriterMarks(Set.of("H3"));
+
+    boolean finished = pipeline.refresh(madieUsers(0, 5), batchSize -> true, this::collect);
+
+    assertThat(finished, is(true));
+    assertThat(result.getUpdatedHarpIds(), containsInAnyOrder("H0", "H1", "H2", "H4"));
+    assertThat(result.getFailedHarpIds(), containsInAnyOrder("H3"));
+    verify(userService, times(3)).fetchUserDetails(any(UserUpdateBatch.class));
+    verify(userRepository, never()).findHarpIdsAfter(any(), any(), anyInt());
+    verify(userSweepRunService, never()).checkpoint(any(), any(), any());
+  }
+
+  @Test
+  void runAbandonsRunWhenCancelledThroughTheGate() throws InterruptedException {
+    userUpdateConfig.setBatchSize(2);
+    when(userRepository.findHarpIdsAfter(null, null, 2)).thenReturn(madieUsers(0, 2));
+    when(gate.awaitTurn(2)).thenReturn(true, false);
+    when(gate.isCancelled()).thenReturn(true);
+    stubWriterMarks(Set.of());
+
+    pipeline.run(lease, this::collect);
+
+    assertThat(result.getUpdatedHarpIds(), containsInAnyOrder("H0", "H1"));
+    verify(userRepository, times(1)).findHarpIdsAfter(any(), any(), anyInt());
+    verify(userSweepRunService, never()).complete(any());
+    verify(userSweepRunService).abandon(sweepRun);
+  }
+
+  @Test
+  void runReportsResultOfEveryBatchWithoutHoldingOnToIt() {
+    userUpdateConfig.setBatchSize(1);
+    when(userRepository.findHarpIdsAfter(any(), any(), anyInt()))
+        .thenAnswer(
+            invocation -> {
+              String lastId = invocation.getArgument(0);
+              int next = lastId == null ? 0 : Integer.parseInt(lastId.substring(2)) + 1;
+              return next < 20 ? madieUsers(next, 1) : List.of();
+            });
+    stubWriterMarks(Set.of("H7"));
+    List<UserUpdatesJobResultDto> batchResults = new CopyOnWriteArrayList<>();
+
+    boolean finished = pipeline.run(lease, batchResults::add);
+
+    assertThat(finished, is(true));
+    assertThat(batchResults, hasSize(20));
+    assertThat(
+        batchResults.stream().mapToInt(batchResult -> batchResult.getFailedHarpIds().size()).sum(),
+        is(1));
+  }
+
+  @Test
+  void runGrowsBatchesWhileHarpKeepsUp() {
+    userUpdateConfig.setBatchSize(2);
+    userUpdateConfig.getAdaptiveBatch().setEnabled(true);
+    userUpdateConfig.getAdaptiveBatch().setMinSize(1);
+    userUpdateConfig.getAdaptiveBatch().setIncreaseStep(2);
+    userUpdateConfig.getPipeline().setMaxInFlightBatches(1);
+    when(userRepository.findHarpIdsAfter(null, null, 2)).thenReturn(madieUsers(0, 2));
+    when(userRepository.findHarpIdsAfter("id1", null, 4)).thenReturn(madieUsers(2, 1));
+    doAnswer(
+            invocation -> {
+              UserUpdateBatch batch = invocation.getArgument(0);
+              batch.setDetailsLatency(Duration.ofMillis(10));
+              return null;
+            })
+        .when(userService)
+        .fetchUserDetails(any(UserUpdateBatch.class));
+
+    pipeline.run(lease, this::collect);
+
+    verify(userRepository).findHarpIdsAfter("id1", null, 4);
+  }
+
+  // merges batch results, which arrive on the stage threads
+  private synchronized void collect(UserUpdatesJobResultDto batchResult) {
+    result.getUpdatedHarpIds().addAll(batchResult.getUpdatedHarpIds());
+    result.getFailedHarpIds().addAll(batchResult.getFailedHarpIds());
+  }
+
+  private void stubWriterMarks(Set<String> failedHarpIds) {
+    doAnswer(
+            invocation -> {
+              UserUpdateBatch batch = invocation.getArgument(0);
+              batch.getHarpIds().stream()
+                  .filter(harpId -> !batch.getResult().getFailedHarpIds().contains(harpId))
+                  .forEach(
+                      harpId ->
+                          (failedHarpIds.contains(harpId)
+                                  ? batch.getResult().getFailedHarpIds()
+                                  : batch.getResult().getUpdatedHarpIds())
+                              .add(harpId));
+              return null;
+            })
+        .when(userService)
+        .saveRefreshedUsers(any(UserUpdateBatch.class));
+  }
+
+  private List<MadieUser> madieUsers(int from, int count) {
+    return IntStream.range(from, from + count)
+        .mapToObj(i -> MadieUser.builder().id("id" + i).harpId("H" + i).build())
+        .toList();
+  }
+}
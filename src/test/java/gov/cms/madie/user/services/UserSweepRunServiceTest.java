@@ -0,0 +1,205 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.models.SweepLease;
+import gov.cms.madie.user.models.UserSweepRun;
+import gov.cms.madie.user.repositories.UserSweepRunRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserSweepRunServiceTest {
+
+  @Mock private UserSweepRunRepository userSweepRunRepository;
+
+  private UserSweepRunService userSweepRunService;
+  private final SweepLease lease = SweepLease.builder().id("userSweep").fencingToken(5).build();
+
+  @BeforeEach
+  void setUp() {
+    UserUpdateConfig userUpdateConfig = new UserUpdateConfig();
+    userUpdateConfig.setResumeMaxAge(Duration.ofHours(12));
+    userSweepRunService = new UserSweepRunService(userSweepRunRepository, userUpdateConfig);
+  }
+
+  @Test
+  void startOrResumeResumesRecentUnfinishedRun() {
+    UserSweepRun unfinished =
+        UserSweepRun.builder()
+            .id("run1")
+            .status(UserSweepRun.Status.RUNNING)
+            .startedAt(Instant.now().minus(Duration.ofHours(1)))
+            .lastProcessedId("id49")
+            .build();
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(unfinished));
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(unfinished)).thenReturn(true);
+
+    UserSweepRun run = userSweepRunService.startOrResume(lease);
+
+    assertThat(run, is(sameInstance(unfinished)));
+    assertThat(run.getLastProcessedId(), is("id49"));
+    assertThat(run.getFencingToken(), is(5L));
+    assertThat(run.getResumedAt(), is(notNullValue()));
+    verify(userSweepRunRepository, never()).save(any(UserSweepRun.class));
+  }
+
+  @Test
+  void startOrResumeAbandonsStaleRunAndStartsFresh() {
+    UserSweepRun stale =
+        UserSweepRun.builder()
+            .id("run1")
+            .status(UserSweepRun.Status.RUNNING)
+            .startedAt(Instant.now().minus(Duration.ofDays(2)))
+            .lastProcessedId("id49")
+            .build();
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.of(stale));
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(stale)).thenReturn(true);
+    when(userSweepRunRepository.save(any(UserSweepRun.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    UserSweepRun run = userSweepRunService.startOrResume(lease);
+
+    assertThat(stale.getStatus(), is(UserSweepRun.Status.ABANDONED));
+    assertThat(run.getStatus(), is(UserSweepRun.Status.RUNNING));
+    assertThat(run.getLastProcessedId(), is(nullValue()));
+    assertThat(run.getStartedAt(), is(notNullValue()));
+    assertThat(run.getFencingToken(), is(5L));
+    verify(userSweepRunRepository, times(1)).save(any(UserSweepRun.class));
+  }
+
+  @Test
+  void startOrResumeStartsFreshWithoutUnfinishedRun() {
+    when(userSweepRunRepository.findFirstByStatusOrderByStartedAtDesc(UserSweepRun.Status.RUNNING))
+        .thenReturn(Optional.empty());
+    when(userSweepRunRepository.save(any(UserSweepRun.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    UserSweepRun run = userSweepRunService.startOrResume(lease);
+
+    assertThat(run.getStatus(), is(UserSweepRun.Status.RUNNING));
+    assertThat(run.getBatchesCompleted(), is(0L));
+  }
+
+  @Test
+  void checkpointRecordsLastIdAndAddsCounters() {
+    UserSweepRun run =
+        UserSweepRun.builder()
+            .id("run1")
+            .batchesCompleted(1)
+            .updatedCount(3)
+            .failedCount(1)
+            .build();
+    UserUpdatesJobResultDto batchResult =
+        UserUpdatesJobResultDto.builder()
+            .updatedHarpIds(new ArrayList<>(List.of("h1", "h2")))
+            .failedHarpIds(new ArrayList<>(List.of("h3")))
+            .build();
+
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(run)).thenReturn(true);
+
+    boolean accepted = userSweepRunService.checkpoint(run, "id99", batchResult);
+
+    assertThat(accepted, is(true));
+    ArgumentCaptor<UserSweepRun> runCaptor = ArgumentCaptor.forClass(UserSweepRun.class);
+    verify(userSweepRunRepository).saveIfFencingTokenCurrent(runCaptor.capture());
+    assertThat(runCaptor.getValue().getLastProcessedId(), is("id99"));
+    assertThat(runCaptor.getValue().getLastCheckpointAt(), is(notNullValue()));
+    assertThat(runCaptor.getValue().getBatchesCompleted(), is(2L));
+    assertThat(runCaptor.getValue().getUpdatedCount(), is(5L));
+    assertThat(runCaptor.getValue().getFailedCount(), is(2L));
+  }
+
+  @Test
+  void abandonMarksRunAbandoned() {
+    UserSweepRun run =
+        UserSweepRun.builder().id("run1").status(UserSweepRun.Status.RUNNING).build();
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(run)).thenReturn(true);
+
+    assertThat(userSweepRunService.abandon(run), is(true));
+    assertThat(run.getStatus(), is(UserSweepRun.Status.ABANDONED));
+  }
+
+  @Test
+  void checkpointSwallowsSaveFailures() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").build();
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(run))
+        .thenThrow(new RuntimeException("Mongo unavailable"));
+
+    boolean accepted = userSweepRunService.checkpoint(run, "id1", new UserUpdatesJobResultDto());
+
+    assertThat(accepted, is(true));
+    assertThat(run.getLastProcessedId(), is("id1"));
+  }
+
+  @Test
+  void checkpointReportsWriteFencedOffByNewerToken() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").fencingToken(4).build();
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(run)).thenReturn(false);
+
+    boolean accepted = userSweepRunService.checkpoint(run, "id1", new UserUpdatesJobResultDto());
+
+    assertThat(accepted, is(false));
+  }
+
+  @Test
+  void completeMarksRunCompleted() {
+    UserSweepRun run =
+        UserSweepRun.builder().id("run1").status(UserSweepRun.Status.RUNNING).build();
+
+    when(userSweepRunRepository.saveIfFencingTokenCurrent(run)).thenReturn(true);
+
+    assertThat(userSweepRunService.complete(run), is(true));
+
+    assertThat(run.getStatus(), is(UserSweepRun.Status.COMPLETED));
+    assertThat(run.getCompletedAt(), is(notNullValue()));
+  }
+
+  @Test
+  void recordShardProgressSwallowsErrors() {
+    UserSweepRun run = UserSweepRun.builder().id("run1").build();
+    UserUpdatesJobResultDto batchResult = new UserUpdatesJobResultDto();
+    doThrow(new RuntimeException("Mongo down"))
+        .when(userSweepRunRepository)
+        .incrementProgress("run1", batchResult);
+
+    assertDoesNotThrow(() -> userSweepRunService.recordShardProgress(run, batchResult));
+  }
+
+  @Test
+  void completeShardedLeavesCountersToTheRepository() {
+    UserSweepRun run =
+        UserSweepRun.builder().id("run1").status(UserSweepRun.Status.RUNNING).build();
+    when(userSweepRunRepository.markCompleted("run1")).thenReturn(true);
+
+    assertThat(userSweepRunService.completeSharded(run), is(true));
+
+    assertThat(run.getStatus(), is(UserSweepRun.Status.COMPLETED));
+    verify(userSweepRunRepository, never()).saveIfFencingTokenCurrent(any());
+  }
+}
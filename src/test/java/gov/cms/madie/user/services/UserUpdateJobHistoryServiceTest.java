@@ -0,0 +1,158 @@
+package gov.cms.madie.user.services;
+
+import gov.cms.madie.user.config.UserUpdateConfig;
+import gov.cms.madie.user.dto.UserUpdatesJobResultDto;
+import gov.cms.madie.user.dto.UserUpdatesJobSummaryDto;
+import gov.cms.madie.user.models.UserUpdateFailure;
+import gov.cms.madie.user.models.UserUpdateJob;
+import gov.cms.madie.user.repositories.UserUpdateFailureRepository;
+import gov.cms.madie.user.repositories.UserUpdateJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserUpdateJobHistoryServiceTest {
+
+  @Mock private UserUpdateJobRepository userUpdateJobRepository;
+  @Mock private UserUpdateFailureRepository userUpdateFailureRepository;
+  @Mock private SweepLeaseService sweepLeaseService;
+
+  private UserUpdateConfig userUpdateConfig;
+  private UserUpdateJobHistoryService historyService;
+
+  @BeforeEach
+  void setUp() {
+    userUpdateConfig = new UserUpdateConfig();
+    historyService =
+        new UserUpdateJobHistoryService(
+            userUpdateJobRepository,
+            userUpdateFailureRepository,
+            sweepLeaseService,
+            userUpdateConfig);
+    lenient().when(sweepLeaseService.getInstanceId()).thenReturn("pod-a");
+    lenient()
+        .when(userUpdateJobRepository.save(any(UserUpdateJob.class)))
+        .thenAnswer(
+            invocation -> {
+              UserUpdateJob job = invocation.getArgument(0);
+              job.setId("job1");
+              return job;
+            });
+  }
+
+  @Test
+  void startRecordsRunningJob() {
+    historyService.start(UserUpdateJob.Type.FULL);
+
+    ArgumentCaptor<UserUpdateJob> jobCaptor = ArgumentCaptor.forClass(UserUpdateJob.class);
+    verify(userUpdateJobRepository).save(jobCaptor.capture());
+    assertThat(jobCaptor.getValue().getType(), is(UserUpdateJob.Type.FULL));
+    assertThat(jobCaptor.getValue().getStatus(), is(UserUpdateJob.Status.RUNNING));
+    assertThat(jobCaptor.getValue().getInstanceId(), is("pod-a"));
+  }
+
+  @Test
+  void recorderCountsResultsAndKeepsBoundedSampleOfFailures() {
+    userUpdateConfig.setFailureSampleSize(3);
+    UserUpdateJobHistoryService.JobRecorder recorder =
+        historyService.start(UserUpdateJob.Type.FULL);
+
+    recorder.accept(result(List.of("H1", "H2"), List.of("F1", "F2"), 1));
+    recorder.accept(result(List.of("H3"), List.of("F3", "F4"), 0));
+    UserUpdatesJobSummaryDto summary = recorder.finish(true);
+
+    assertThat(summary.getJobId(), is("job1"));
+    assertThat(summary.getUpdatedCount(), is(3L));
+    assertThat(summary.getFailedCount(), is(4L));
+    assertThat(summary.getUnchangedCount(), is(1L));
+    assertThat(summary.getFailedHarpIdsSample(), contains("F1", "F2", "F3"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void recorderSavesEveryFailureWithItsJob() {
+    userUpdateConfig.setFailureSampleSize(1);
+    UserUpdateJobHistoryService.JobRecorder recorder =
+        historyService.start(UserUpdateJob.Type.INCREMENTAL);
+
+    recorder.accept(result(List.of(), List.of("F1", "F2"), 0));
+
+    ArgumentCaptor<List<UserUpdateFailure>> failuresCaptor = ArgumentCaptor.forClass(List.class);
+    verify(userUpdateFailureRepository).saveAll(failuresCaptor.capture());
+    assertThat(failuresCaptor.getValue(), everyItem(hasProperty("jobId", is("job1"))));
+    assertThat(
+        failuresCaptor.getValue().stream().map(UserUpdateFailure::getHarpId).toList(),
+        contains("F1", "F2"));
+  }
+
+  @Test
+  void recorderKeepsCountingWhenFailuresCannotBeSaved() {
+    when(userUpdateFailureRepository.saveAll(anyList()))
+        .thenThrow(new IllegalStateException("down"));
+    UserUpdateJobHistoryService.JobRecorder recorder =
+        historyService.start(UserUpdateJob.Type.FULL);
+
+    recorder.accept(result(List.of(), List.of("F1"), 0));
+
+    assertThat(recorder.finish(true).getFailedCount(), is(1L));
+  }
+
+  @Test
+  void recorderSkipsFailuresWhenJobCouldNotBeRecorded() {
+    when(userUpdateJobRepository.save(any(UserUpdateJob.class)))
+        .thenThrow(new IllegalStateException("down"));
+    UserUpdateJobHistoryService.JobRecorder recorder =
+        historyService.start(UserUpdateJob.Type.MANUAL);
+
+    recorder.accept(result(List.of(), List.of("F1"), 0));
+    UserUpdatesJobSummaryDto summary = recorder.finish(true);
+
+    verify(userUpdateFailureRepository, never()).saveAll(anyList());
+    assertThat(summary.getJobId(), is(nullValue()));
+    assertThat(summary.getFailedCount(), is(1L));
+  }
+
+  @Test
+  void finishRecordsStoppedJob() {
+    UserUpdateJobHistoryService.JobRecorder recorder =
+        historyService.start(UserUpdateJob.Type.SHARDED);
+
+    recorder.finish(false);
+
+    ArgumentCaptor<UserUpdateJob> jobCaptor = ArgumentCaptor.forClass(UserUpdateJob.class);
+    verify(userUpdateJobRepository, times(2)).save(jobCaptor.capture());
+    assertThat(jobCaptor.getValue().getStatus(), is(UserUpdateJob.Status.STOPPED));
+    assertThat(jobCaptor.getValue().getFinishedAt(), is(notNullValue()));
+  }
+
+  private UserUpdatesJobResultDto result(
+      List<String> updatedHarpIds, List<String> failedHarpIds, long unchangedCount) {
+    return UserUpdatesJobResultDto.builder()
+        .updatedHarpIds(new ArrayList<>(updatedHarpIds))
+        .failedHarpIds(new ArrayList<>(failedHarpIds))
+        .unchangedCount(unchangedCount)
+        .build();
+  }
+}
@@ -0,0 +1,45 @@
+package gov.cms.madie.user.test.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.madie.user.dto.UserChangeNotificationDto;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.List;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/** Stands in for HARP, sending user change notifications to the service under test. */
+public class UserChangeNotifier {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final MockMvc mockMvc;
+  private final String apiKey;
+
+  public UserChangeNotifier(MockMvc mockMvc, String apiKey) {
+    this.mockMvc = mockMvc;
+    this.apiKey = apiKey;
+  }
+
+  public ResultActions notifyChanged(String... harpIds) throws Exception {
+    return send(
+        UserChangeNotificationDto.builder().harpIds(List.of(harpIds)).source("test").build());
+  }
+
+  public ResultActions send(UserChangeNotificationDto notification) throws Exception {
+    return mockMvc.perform(
+        post("/admin/users/notifications")
+            .with(csrf())
+            .header("api-key", apiKey)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(toJson(notification)));
+  }
+
+  private String toJson(UserChangeNotificationDto notification) throws JsonProcessingException {
+    return OBJECT_MAPPER.writeValueAsString(notification);
+  }
+}